@@ -17,19 +17,25 @@
 
 package org.apache.rocketmq.streams.sink;
 
+import com.alibaba.fastjson.JSON;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
 import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.common.TopicConfig;
 import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.common.message.MessageQueue;
@@ -46,6 +52,9 @@ import org.apache.rocketmq.tools.command.CommandUtil;
 public class RocketMQSink extends AbstractSupportShuffleSink {
 
     private static final Log LOG = LogFactory.getLog(RocketMQSink.class);
+    private static final String DEFAULT_QUEUE_ID = "<null>";//message is not contains queue ,use default
+    private static final int MESSAGE_OVERHEAD_BYTES = 64;
+    private static final MessageQueue NULL_QUEUE = new MessageQueue();
     @ENVDependence
     private String tags = "*";
 
@@ -61,6 +70,30 @@ public class RocketMQSink extends AbstractSupportShuffleSink {
     private String namesrvAddr;
     private RPCHook rpcHook;
 
+    /**
+     * 一批消息的最大字节数，超过后拆成多批发送，不能超过broker的maxMessageSize
+     */
+    private int maxBatchBytes = 1024 * 1024;
+    /**
+     * 一批消息的最大条数，小于等于0不限制
+     */
+    private int maxBatchCount = -1;
+    /**
+     * 异步发送，flush和checkpoint时等待所有批次返回
+     */
+    private boolean asyncSend = false;
+    /**
+     * 异步发送时最多同时在途的批次数
+     */
+    private int maxInFlight = 32;
+
+    protected transient Semaphore inFlight;
+    private transient AtomicReference<Throwable> sendError = new AtomicReference<>();
+    /**
+     * 顺序发送时，每个队列同时只有一个在途批次
+     */
+    private transient Map<MessageQueue, OrderedQueueSender> orderedSenders = new HashMap<>();
+
     public RocketMQSink() {
     }
 
@@ -99,14 +132,13 @@ public class RocketMQSink extends AbstractSupportShuffleSink {
             return false;
         }
         initProducer();
-
+        checkSendError();
         try {
             Map<String, List<Message>> msgsByQueueId = new HashMap<>();// group by queueId, if the message not contains queue info ,the set default string as default queueId
             Map<String, MessageQueue> messageQueueMap = new HashMap<>();//if has queue id in message, save the map for queueid 2 messagequeeue
-            String defaultQueueId = "<null>";//message is not contains queue ,use default
             for (IMessage msg : messages) {
                 ISplit<RocketMQMessageQueue, MessageQueue> channelQueue = (ISplit<RocketMQMessageQueue, MessageQueue>) getSplit(msg);
-                String queueId = defaultQueueId;
+                String queueId = DEFAULT_QUEUE_ID;
                 if (channelQueue != null) {
                     queueId = channelQueue.getQueueId();
                     RocketMQMessageQueue metaqMessageQueue = (RocketMQMessageQueue) channelQueue;
@@ -117,39 +149,211 @@ public class RocketMQSink extends AbstractSupportShuffleSink {
                     messageList = new ArrayList<>();
                     msgsByQueueId.put(queueId, messageList);
                 }
-                messageList.add(new Message(topic, tags, null, msg.getMessageBody().toJSONString().getBytes("UTF-8")));
+                messageList.add(new Message(topic, tags, null, JSON.toJSONBytes(msg.getMessageBody())));
             }
-            List<Message> messageList = msgsByQueueId.get(defaultQueueId);
-            if (messageList != null) {
-                for (Message message : messageList) {
-                    producer.sendOneway(message);
+            for (Map.Entry<String, List<Message>> entry : msgsByQueueId.entrySet()) {
+                //没有队列信息的消息由producer选择队列
+                MessageQueue queue = messageQueueMap.get(entry.getKey());
+                List<Message> batch = new ArrayList<>();
+                int batchBytes = 0;
+                for (Message message : entry.getValue()) {
+                    int size = estimateSize(message);
+                    if (batch.size() > 0 && (batchBytes + size > maxBatchBytes || (maxBatchCount > 0 && batch.size() >= maxBatchCount))) {
+                        sendBatch(batch, queue);
+                        batch = new ArrayList<>();
+                        batchBytes = 0;
+                    }
+                    batch.add(message);
+                    batchBytes += size;
                 }
-                messageQueueMap.remove(defaultQueueId);
-            }
-            if (messageQueueMap.size() <= 0) {
-                return true;
-            }
-            for (String queueId : msgsByQueueId.keySet()) {
-                messageList = msgsByQueueId.get(queueId);
-                for (Message message : messageList) {
-                    MessageQueue queue = messageQueueMap.get(queueId);
-                    producer.send(message, queue);
+                if (batch.size() > 0) {
+                    sendBatch(batch, queue);
                 }
-
             }
         } catch (Exception e) {
-            e.printStackTrace();
             throw new RuntimeException("batch insert error ", e);
         }
 
         return true;
     }
 
+    /**
+     * 同步模式等待broker返回，异步模式占用一个在途名额，回调时释放，失败记录下来在下次发送或者flush时抛出
+     * 异步顺序发送时，同一个队列的下一个批次在上一个批次返回后才发送
+     */
+    protected void sendBatch(List<Message> batch, MessageQueue queue) throws Exception {
+        if (!asyncSend) {
+            if (queue == null) {
+                producer.send(batch);
+            } else {
+                producer.send(batch, queue);
+            }
+            return;
+        }
+        inFlight.acquire();
+        if (order) {
+            getOrderedSender(queue).send(batch);
+            return;
+        }
+        SendCallback callback = new SendCallback() {
+            @Override
+            public void onSuccess(SendResult sendResult) {
+                inFlight.release();
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                sendError.compareAndSet(null, e);
+                inFlight.release();
+            }
+        };
+        try {
+            doSend(batch, queue, callback);
+        } catch (Exception e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    protected void doSend(List<Message> batch, MessageQueue queue, SendCallback callback) throws Exception {
+        if (queue == null) {
+            producer.send(batch, callback);
+        } else {
+            producer.send(batch, queue, callback);
+        }
+    }
+
+    private OrderedQueueSender getOrderedSender(MessageQueue queue) {
+        //没有队列信息的消息由producer选择队列，共用一个发送顺序
+        MessageQueue key = queue == null ? NULL_QUEUE : queue;
+        synchronized (orderedSenders) {
+            return orderedSenders.computeIfAbsent(key, k -> new OrderedQueueSender(queue));
+        }
+    }
+
+    /**
+     * 一个队列的异步顺序发送，批次在回调中串行发送，失败后丢弃这个队列还没发送的批次，错误在下次发送或者flush时抛出
+     */
+    private class OrderedQueueSender implements SendCallback {
+        private final MessageQueue queue;
+        private final LinkedList<List<Message>> pending = new LinkedList<>();
+        private boolean sending = false;
+
+        private OrderedQueueSender(MessageQueue queue) {
+            this.queue = queue;
+        }
+
+        private void send(List<Message> batch) throws Exception {
+            synchronized (this) {
+                if (sending) {
+                    pending.add(batch);
+                    return;
+                }
+                sending = true;
+            }
+            try {
+                doSend(batch, queue, this);
+            } catch (Exception e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public void onSuccess(SendResult sendResult) {
+            inFlight.release();
+            List<Message> next;
+            synchronized (this) {
+                next = pending.poll();
+                if (next == null) {
+                    sending = false;
+                    return;
+                }
+            }
+            try {
+                doSend(next, queue, this);
+            } catch (Throwable e) {
+                sendError.compareAndSet(null, e);
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onException(Throwable e) {
+            sendError.compareAndSet(null, e);
+            fail(e);
+        }
+
+        /**
+         * 释放当前批次和丢弃的批次占用的在途名额
+         */
+        private void fail(Throwable e) {
+            int count;
+            synchronized (this) {
+                count = pending.size() + 1;
+                pending.clear();
+                sending = false;
+            }
+            LOG.error("async send error " + topic + ", drop " + (count - 1) + " pending batches of queue " + queue, e);
+            inFlight.release(count);
+        }
+    }
+
+    /**
+     * 消息体加上topic，tags和批量编码的固定开销
+     */
+    protected int estimateSize(Message message) {
+        int size = message.getBody().length + message.getTopic().length() + MESSAGE_OVERHEAD_BYTES;
+        if (message.getTags() != null) {
+            size += message.getTags().length();
+        }
+        return size;
+    }
+
+    /**
+     * 等待所有在途的异步发送返回，有发送失败的抛出异常，保证checkpoint之前的数据都已经写入
+     */
+    protected void waitInFlight() {
+        if (!asyncSend || inFlight == null) {
+            return;
+        }
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("wait rocketmq send result error " + topic, e);
+        }
+        checkSendError();
+    }
+
+    protected void checkSendError() {
+        Throwable e = sendError.getAndSet(null);
+        if (e != null) {
+            throw new RuntimeException("async send error " + topic, e);
+        }
+    }
+
+    @Override
+    public boolean flush(Set<String> splitIds) {
+        boolean success = super.flush(splitIds);
+        waitInFlight();
+        return success;
+    }
+
+    @Override
+    public boolean flush() {
+        boolean success = super.flush();
+        waitInFlight();
+        return success;
+    }
+
     protected void initProducer() {
         if (producer == null) {
             synchronized (this) {
                 if (producer == null) {
                     destroy();
+                    inFlight = new Semaphore(maxInFlight);
                     producer = new DefaultMQProducer(null, groupName + "producer", rpcHook,false, null);
                     try {
 
@@ -346,6 +550,38 @@ public class RocketMQSink extends AbstractSupportShuffleSink {
         this.order = order;
     }
 
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public int getMaxBatchCount() {
+        return maxBatchCount;
+    }
+
+    public void setMaxBatchCount(int maxBatchCount) {
+        this.maxBatchCount = maxBatchCount;
+    }
+
+    public boolean isAsyncSend() {
+        return asyncSend;
+    }
+
+    public void setAsyncSend(boolean asyncSend) {
+        this.asyncSend = asyncSend;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
     public RPCHook getRpcHook() {
         return rpcHook;
     }
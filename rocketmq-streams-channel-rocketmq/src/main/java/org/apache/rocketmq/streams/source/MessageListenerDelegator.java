@@ -27,7 +27,10 @@ import java.util.concurrent.locks.ReentrantLock;
 
 public class MessageListenerDelegator implements MessageQueueListener {
     private final MessageQueueListener delegator;
-    private final Set<MessageQueue> lastDivided = new HashSet<>();
+    /**
+     * 每次分配后整体替换，拉取线程读到的是某一次分配的完整结果
+     */
+    private volatile Set<MessageQueue> lastDivided = Collections.emptySet();
     private final Set<MessageQueue> removingQueue = new HashSet<>();
     private final AtomicBoolean needSync = new AtomicBoolean(false);
     private final Object mutex = new Object();
@@ -46,8 +49,7 @@ public class MessageListenerDelegator implements MessageQueueListener {
             }
         }
 
-        this.lastDivided.clear();
-        this.lastDivided.addAll(mqDivided);
+        this.lastDivided = Collections.unmodifiableSet(new HashSet<>(mqDivided));
 
         needSync.set(true);
         delegator.messageQueueChanged(topic, mqAll, mqDivided);
@@ -58,7 +60,7 @@ public class MessageListenerDelegator implements MessageQueueListener {
     }
 
     public Set<MessageQueue> getLastDivided() {
-        return Collections.unmodifiableSet(this.lastDivided);
+        return this.lastDivided;
     }
 
     public Set<MessageQueue> getRemovingQueue() {
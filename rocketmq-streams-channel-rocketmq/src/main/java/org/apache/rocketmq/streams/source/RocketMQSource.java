@@ -21,6 +21,7 @@ import com.alibaba.fastjson.JSONObject;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -29,14 +30,19 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.rocketmq.client.consumer.DefaultLitePullConsumer;
 import org.apache.rocketmq.client.consumer.MessageQueueListener;
+import org.apache.rocketmq.client.consumer.store.OffsetStore;
 import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.common.consumer.ConsumeFromWhere;
 import org.apache.rocketmq.common.message.MessageExt;
@@ -71,6 +77,23 @@ public class RocketMQSource extends AbstractSupportShuffleSource {
     private transient ExecutorService executorService;
     private transient PullTask[] pullTasks;
 
+    /**
+     * 流水线模式，拉取线程只负责拉消息，按队列交给处理线程，同一个队列的消息始终由同一个处理线程按顺序处理
+     */
+    private boolean pipelined = false;
+    private int processThreadNum = 4;
+    /**
+     * 每个处理线程最多缓存的批次数，满了拉取线程阻塞
+     */
+    private int processQueueCapacity = 64;
+    /**
+     * 一个队列已拉取未处理的消息数超过这个值时暂停拉取这个队列，降到一半时恢复
+     */
+    private int maxPendingMessagesPerQueue = 5000;
+    private transient ExecutorService processExecutorService;
+    private transient ProcessTask[] processTasks;
+    private transient Map<MessageQueue, QueueProgress> queueProgresses = new ConcurrentHashMap<>();
+
     public RocketMQSource() {
     }
 
@@ -103,6 +126,10 @@ public class RocketMQSource extends AbstractSupportShuffleSource {
                         new ArrayBlockingQueue<>(1000), r -> new Thread(r, "RStream-poll-thread"));
             }
 
+            if (pipelined) {
+                startProcessTasks();
+            }
+
             pullTasks = new PullTask[userPullThreadNum];
             for (int i = 0; i < userPullThreadNum; i++) {
                 pullTasks[i] = new PullTask(this.pullConsumer, pullTimeout, commitInternalMs);
@@ -118,6 +145,19 @@ public class RocketMQSource extends AbstractSupportShuffleSource {
         }
     }
 
+    private void startProcessTasks() {
+        if (this.processExecutorService == null) {
+            this.processExecutorService = new ThreadPoolExecutor(processThreadNum, processThreadNum, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), r -> new Thread(r, "RStream-process-thread"));
+        }
+        queueProgresses.clear();
+        processTasks = new ProcessTask[processThreadNum];
+        for (int i = 0; i < processThreadNum; i++) {
+            processTasks[i] = new ProcessTask(processQueueCapacity);
+            this.processExecutorService.execute(processTasks[i]);
+        }
+    }
+
     private DefaultLitePullConsumer buildPullConsumer(String topic, String groupName, String namesrv, String tags,
                                                       RPCHook rpcHook, ConsumeFromWhere consumeFromWhere) throws MQClientException {
         DefaultLitePullConsumer pullConsumer = new DefaultLitePullConsumer(groupName, rpcHook);
@@ -241,6 +281,15 @@ public class RocketMQSource extends AbstractSupportShuffleSource {
         //线程池关闭
         this.executorService.shutdown();
 
+        if (this.processTasks != null) {
+            for (ProcessTask processTask : processTasks) {
+                processTask.shutdown();
+            }
+            this.processExecutorService.shutdown();
+            this.processExecutorService = null;
+            this.processTasks = null;
+        }
+
         //关闭消费实例
         this.pullConsumer.shutdown();
     }
@@ -281,6 +330,21 @@ public class RocketMQSource extends AbstractSupportShuffleSource {
                 splitIds.add(new RocketMQMessageQueue(mq).getQueueId());
             }
 
+            //流水线模式下丢弃移除队列还没处理的批次，等正在处理的批次结束，未处理的消息由新的消费者从已提交位点重新消费
+            List<QueueProgress> removedProgresses = new ArrayList<>();
+            for (MessageQueue mq : removingQueue) {
+                QueueProgress progress = queueProgresses.remove(mq);
+                if (progress != null) {
+                    progress.removed = true;
+                    removedProgresses.add(progress);
+                }
+            }
+            for (QueueProgress progress : removedProgresses) {
+                synchronized (progress.processLock) {
+                    LOG.info("queue removed from pipeline " + progress.queue);
+                }
+            }
+
             RocketMQSource.this.removeSplit(splitIds);
 
             Set<MessageQueue> allQueueInLastRebalance = this.delegator.getLastDivided();
@@ -312,27 +376,26 @@ public class RocketMQSource extends AbstractSupportShuffleSource {
                 }
 
 
+                if (pipelined) {
+                    replayFailedQueues();
+                }
+
                 List<MessageExt> msgs = pullConsumer.poll(pullTimeout);
 
+                if (pipelined) {
+                    dispatch(msgs);
+                    synchronized (this.pullConsumer) {
+                        if (System.currentTimeMillis() - lastCommit >= commitInternalMs || isStopped) {
+                            lastCommit = System.currentTimeMillis();
+                            commitProcessed(this.pullConsumer, this.delegator.getLastDivided());
+                        }
+                    }
+                    continue;
+                }
+
                 int i = 0;
                 for (MessageExt msg : msgs) {
-                    JSONObject jsonObject = create(msg.getBody(), msg.getProperties());
-
-                    String topic = msg.getTopic();
-                    int queueId = msg.getQueueId();
-                    String brokerName = msg.getBrokerName();
-                    MessageQueue queue = new MessageQueue(topic, brokerName, queueId);
-                    String unionQueueId = RocketMQMessageQueue.getQueueId(queue);
-
-
-                    String offset = msg.getQueueOffset() + "";
-                    org.apache.rocketmq.streams.common.context.Message message = createMessage(jsonObject, unionQueueId, offset, false);
-                    message.getHeader().setOffsetIsLong(true);
-
-                    if (i == msgs.size() - 1) {
-                        message.getHeader().setNeedFlush(true);
-                    }
-                    executeMessage(message);
+                    executeMessage(convert(msg, i == msgs.size() - 1));
                     i++;
                 }
 
@@ -347,11 +410,250 @@ public class RocketMQSource extends AbstractSupportShuffleSource {
             }
         }
 
+        /**
+         * 按队列拆分拉到的消息，保持队列内的顺序交给固定的处理线程，队列积压过多时暂停拉取
+         */
+        private void dispatch(List<MessageExt> msgs) {
+            if (msgs == null || msgs.isEmpty()) {
+                return;
+            }
+            Map<MessageQueue, List<MessageExt>> msgsByQueue = new HashMap<>();
+            for (MessageExt msg : msgs) {
+                MessageQueue queue = new MessageQueue(msg.getTopic(), msg.getBrokerName(), msg.getQueueId());
+                msgsByQueue.computeIfAbsent(queue, k -> new ArrayList<>()).add(msg);
+            }
+            for (Map.Entry<MessageQueue, List<MessageExt>> entry : msgsByQueue.entrySet()) {
+                MessageQueue queue = entry.getKey();
+                QueueProgress progress;
+                List<MessageExt> batch = entry.getValue();
+                int generation;
+                //和afterRebalance互斥，重新分配前拉到的已移除队列的消息直接丢弃，由新的消费者从已提交位点消费
+                synchronized (this.pullConsumer) {
+                    if (!this.delegator.getLastDivided().contains(queue)) {
+                        continue;
+                    }
+                    progress = queueProgresses.computeIfAbsent(queue, QueueProgress::new);
+                    //先取批次号再判断是否失败，失败后的批次要么在这里丢弃，要么处理时因为批次号变化丢弃
+                    generation = progress.generation;
+                    if (progress.failedOffset >= 0) {
+                        continue;
+                    }
+                    if (progress.replayOffset >= 0) {
+                        batch = skipBeforeReplay(progress, batch);
+                        if (batch.isEmpty()) {
+                            continue;
+                        }
+                    }
+                }
+                int pending = progress.pending.addAndGet(batch.size());
+                if (pending > maxPendingMessagesPerQueue) {
+                    synchronized (progress) {
+                        if (!progress.paused && !progress.removed) {
+                            progress.paused = true;
+                            pullConsumer.pause(Collections.singleton(queue));
+                        }
+                    }
+                }
+                ProcessTask processTask = processTasks[Math.abs(queue.hashCode() % processTasks.length)];
+                ProcessBatch processBatch = new ProcessBatch(progress, batch, generation);
+                try {
+                    //处理线程满了时等待，关闭时处理线程不再取批次，丢弃后返回，未提交的消息重启后重新消费
+                    while (!processTask.batches.offer(processBatch, 100, TimeUnit.MILLISECONDS)) {
+                        if (this.isStopped || processTask.isStopped) {
+                            progress.pending.addAndGet(-batch.size());
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("dispatch rocketmq message error " + topic, e);
+                }
+            }
+        }
+
+        /**
+         * 处理失败的队列从失败批次的第一条消息重新拉取
+         */
+        private void replayFailedQueues() {
+            for (QueueProgress progress : queueProgresses.values()) {
+                if (progress.failedOffset < 0) {
+                    continue;
+                }
+                synchronized (this.pullConsumer) {
+                    long failedOffset = progress.failedOffset;
+                    if (failedOffset < 0 || progress.removed) {
+                        continue;
+                    }
+                    try {
+                        this.pullConsumer.seek(progress.queue, failedOffset);
+                    } catch (MQClientException e) {
+                        LOG.error("seek rocketmq queue error, queue is " + progress.queue + ", offset is " + failedOffset, e);
+                        continue;
+                    }
+                    progress.replayOffset = failedOffset;
+                    progress.failedOffset = -1;
+                    LOG.warn("replay rocketmq queue " + progress.queue + " from offset " + failedOffset);
+                }
+            }
+        }
+
+        /**
+         * seek之前拉到的消息都在失败批次之后，丢弃到失败批次的第一条消息为止
+         */
+        private List<MessageExt> skipBeforeReplay(QueueProgress progress, List<MessageExt> batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i).getQueueOffset() == progress.replayOffset) {
+                    progress.replayOffset = -1;
+                    return i == 0 ? batch : new ArrayList<>(batch.subList(i, batch.size()));
+                }
+            }
+            return Collections.emptyList();
+        }
+
+        public void shutdown() {
+            this.isStopped = true;
+        }
+    }
+
+    /**
+     * 只提交处理完成的位点，拉取后还没处理的消息不会被提交，不再分配给本实例的队列不提交
+     */
+    private void commitProcessed(DefaultLitePullConsumer pullConsumer, Set<MessageQueue> ownedQueues) {
+        OffsetStore offsetStore = pullConsumer.getOffsetStore();
+        if (offsetStore == null) {
+            return;
+        }
+        Set<MessageQueue> queues = new HashSet<>();
+        for (QueueProgress progress : queueProgresses.values()) {
+            long offset = progress.processedOffset;
+            if (offset < 0 || progress.removed || !ownedQueues.contains(progress.queue)) {
+                continue;
+            }
+            offsetStore.updateOffset(progress.queue, offset, true);
+            queues.add(progress.queue);
+        }
+        if (!queues.isEmpty()) {
+            offsetStore.persistAll(queues);
+        }
+    }
+
+    private org.apache.rocketmq.streams.common.context.Message convert(MessageExt msg, boolean needFlush) {
+        JSONObject jsonObject = create(msg.getBody(), msg.getProperties());
+
+        MessageQueue queue = new MessageQueue(msg.getTopic(), msg.getBrokerName(), msg.getQueueId());
+        String unionQueueId = RocketMQMessageQueue.getQueueId(queue);
+
+        String offset = msg.getQueueOffset() + "";
+        org.apache.rocketmq.streams.common.context.Message message = createMessage(jsonObject, unionQueueId, offset, false);
+        message.getHeader().setOffsetIsLong(true);
+        message.getHeader().setNeedFlush(needFlush);
+        return message;
+    }
+
+    /**
+     * 处理线程，按顺序处理分配给自己的队列的批次，处理完一个批次推进这个队列的已处理位点
+     */
+    public class ProcessTask implements Runnable {
+        private final BlockingQueue<ProcessBatch> batches;
+        private volatile boolean isStopped = false;
+
+        public ProcessTask(int capacity) {
+            this.batches = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            while (!this.isStopped) {
+                ProcessBatch batch;
+                try {
+                    batch = batches.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (batch == null) {
+                    continue;
+                }
+                process(batch);
+            }
+        }
+
+        private void process(ProcessBatch batch) {
+            QueueProgress progress = batch.progress;
+            List<MessageExt> msgs = batch.msgs;
+            try {
+                synchronized (progress.processLock) {
+                    if (progress.removed || batch.generation != progress.generation) {
+                        return;
+                    }
+                    for (int i = 0; i < msgs.size(); i++) {
+                        executeMessage(convert(msgs.get(i), i == msgs.size() - 1));
+                    }
+                    progress.processedOffset = msgs.get(msgs.size() - 1).getQueueOffset() + 1;
+                }
+            } catch (Exception e) {
+                //处理失败后位点停在失败的批次，丢弃这个队列已经拉取的批次，由拉取线程从失败的批次重新拉取
+                progress.failedOffset = msgs.get(0).getQueueOffset();
+                progress.generation++;
+                LOG.error("process rocketmq message error, replay from offset " + progress.failedOffset + ", queue is " + progress.queue, e);
+            } finally {
+                synchronized (progress) {
+                    int pending = progress.pending.addAndGet(-msgs.size());
+                    if (progress.paused && !progress.removed && pending <= maxPendingMessagesPerQueue / 2) {
+                        progress.paused = false;
+                        pullConsumer.resume(Collections.singleton(progress.queue));
+                    }
+                }
+            }
+        }
+
         public void shutdown() {
             this.isStopped = true;
         }
     }
 
+    private static class ProcessBatch {
+        private final QueueProgress progress;
+        private final List<MessageExt> msgs;
+        private final int generation;
+
+        private ProcessBatch(QueueProgress progress, List<MessageExt> msgs, int generation) {
+            this.progress = progress;
+            this.msgs = msgs;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * 一个队列在流水线中的进度，processedOffset是下一条待处理消息的位点
+     */
+    private static class QueueProgress {
+        private final MessageQueue queue;
+        private final AtomicInteger pending = new AtomicInteger(0);
+        private volatile long processedOffset = -1;
+        private volatile boolean paused = false;
+        private volatile boolean removed = false;
+        /**
+         * 处理失败的批次的第一条消息的位点，等待拉取线程seek，小于0表示没有失败
+         */
+        private volatile long failedOffset = -1;
+        /**
+         * seek之后等待的第一条消息的位点，在此之前拉到的消息丢弃
+         */
+        private volatile long replayOffset = -1;
+        /**
+         * 每次失败加一，失败之前分发的批次不再处理，只在这个队列的处理线程中修改
+         */
+        private volatile int generation = 0;
+        /**
+         * 处理批次时持有，队列移除时等正在处理的批次结束
+         */
+        private final Object processLock = new Object();
+
+        private QueueProgress(MessageQueue queue) {
+            this.queue = queue;
+        }
+    }
+
     private void newRebalance(Set<MessageQueue> allQueueInLastRebalance){
         Set<String> temp = new HashSet<>();
         for (MessageQueue queue : allQueueInLastRebalance) {
@@ -402,6 +704,38 @@ public class RocketMQSource extends AbstractSupportShuffleSource {
         this.userPullThreadNum = userPullThreadNum;
     }
 
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public int getProcessThreadNum() {
+        return processThreadNum;
+    }
+
+    public void setProcessThreadNum(int processThreadNum) {
+        this.processThreadNum = processThreadNum;
+    }
+
+    public int getProcessQueueCapacity() {
+        return processQueueCapacity;
+    }
+
+    public void setProcessQueueCapacity(int processQueueCapacity) {
+        this.processQueueCapacity = processQueueCapacity;
+    }
+
+    public int getMaxPendingMessagesPerQueue() {
+        return maxPendingMessagesPerQueue;
+    }
+
+    public void setMaxPendingMessagesPerQueue(int maxPendingMessagesPerQueue) {
+        this.maxPendingMessagesPerQueue = maxPendingMessagesPerQueue;
+    }
+
     public long getCommitInternalMs() {
         return commitInternalMs;
     }
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.sink;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RocketMQSinkTest {
+
+    @Test
+    public void testOrderedAsyncSend() throws Exception {
+        MockSink sink = new MockSink();
+        MessageQueue queue0 = new MessageQueue("topic", "broker", 0);
+        MessageQueue queue1 = new MessageQueue("topic", "broker", 1);
+        sink.sendBatch(batch("a1"), queue0);
+        sink.sendBatch(batch("a2"), queue0);
+        sink.sendBatch(batch("b1"), queue1);
+        sink.sendBatch(batch("a3"), queue0);
+        sink.sendBatch(batch("b2"), queue1);
+
+        //每个队列只有一个在途批次
+        assertEquals(2, sink.sends.size());
+        assertEquals("a1", sink.body(0));
+        assertEquals("b1", sink.body(1));
+
+        //前一个批次返回后才发送同一个队列的下一个批次
+        sink.callbacks.get(1).onSuccess(new SendResult());
+        assertEquals("b2", sink.body(2));
+        sink.callbacks.get(0).onSuccess(new SendResult());
+        assertEquals("a2", sink.body(3));
+        sink.callbacks.get(2).onSuccess(new SendResult());
+        sink.callbacks.get(3).onSuccess(new SendResult());
+        assertEquals("a3", sink.body(4));
+        assertEquals(5, sink.sends.size());
+        sink.callbacks.get(4).onSuccess(new SendResult());
+
+        sink.waitInFlight();
+        assertEquals(sink.getMaxInFlight(), sink.inFlight.availablePermits());
+    }
+
+    @Test
+    public void testOrderedAsyncSendError() throws Exception {
+        MockSink sink = new MockSink();
+        MessageQueue queue = new MessageQueue("topic", "broker", 0);
+        sink.sendBatch(batch("a1"), queue);
+        sink.sendBatch(batch("a2"), queue);
+        sink.sendBatch(batch("a3"), queue);
+
+        //失败后不再发送这个队列后面的批次，否则顺序会乱
+        sink.callbacks.get(0).onException(new RuntimeException("mock send error"));
+        assertEquals(1, sink.sends.size());
+        assertEquals(sink.getMaxInFlight(), sink.inFlight.availablePermits());
+        try {
+            sink.waitInFlight();
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("async send error"));
+        }
+    }
+
+    private List<Message> batch(String body) {
+        return Collections.singletonList(new Message("topic", body.getBytes()));
+    }
+
+    private static class MockSink extends RocketMQSink {
+        private final List<List<Message>> sends = new ArrayList<>();
+        private final List<SendCallback> callbacks = new ArrayList<>();
+
+        private MockSink() {
+            setAsyncSend(true);
+            setOrder(true);
+            inFlight = new Semaphore(getMaxInFlight());
+        }
+
+        @Override
+        protected void doSend(List<Message> batch, MessageQueue queue, SendCallback callback) {
+            sends.add(batch);
+            callbacks.add(callback);
+        }
+
+        private String body(int index) {
+            return new String(sends.get(index).get(0).getBody());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.client.strategy;
+
+import java.util.Properties;
+
+/**
+ * 数据源的json消息延迟解析，字段被访问时才解析。不指定字段时，启动时根据pipeline中filter和script用到的字段计算
+ */
+public class LazyParseStrategy implements Strategy {
+
+    protected String[] neededFieldNames;
+
+    private final Properties properties;
+
+    private LazyParseStrategy(String... fieldNames) {
+        properties = new Properties();
+        this.neededFieldNames = fieldNames;
+    }
+
+    public static Strategy lazyParse(String... fieldNames) {
+        return new LazyParseStrategy(fieldNames);
+    }
+
+    @Override public Properties getStrategyProperties() {
+        return this.properties;
+    }
+
+    public String[] getNeededFieldNames() {
+        return neededFieldNames;
+    }
+}
@@ -27,6 +27,7 @@ import java.util.Properties;
 import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.rocketmq.remoting.RPCHook;
+import org.apache.rocketmq.streams.client.strategy.LazyParseStrategy;
 import org.apache.rocketmq.streams.client.strategy.LogFingerprintStrategy;
 import org.apache.rocketmq.streams.client.strategy.Strategy;
 import org.apache.rocketmq.streams.client.transform.window.WindowInfo;
@@ -65,6 +66,7 @@ import org.apache.rocketmq.streams.db.sink.DBSink;
 import org.apache.rocketmq.streams.db.sink.DynamicMultipleDBSink;
 import org.apache.rocketmq.streams.db.sink.EnhanceDBSink;
 import org.apache.rocketmq.streams.filter.operator.FilterOperator;
+import org.apache.rocketmq.streams.filter.optimization.PiplineDependentFieldAnalysis;
 import org.apache.rocketmq.streams.filter.operator.Rule;
 import org.apache.rocketmq.streams.mqtt.sink.PahoSink;
 import org.apache.rocketmq.streams.script.operator.impl.ScriptOperator;
@@ -133,6 +135,19 @@ public class DataStream implements Serializable {
                     }
                 }
             }
+            if (strategy instanceof LazyParseStrategy) {
+                ISource<?> source = this.mainPipelineBuilder.getPipeline().getSource();
+                if (source instanceof AbstractSource) {
+                    AbstractSource abstractSource = (AbstractSource) source;
+                    abstractSource.setLazyParseJson(true);
+                    String[] neededFieldNames = ((LazyParseStrategy) strategy).getNeededFieldNames();
+                    if (neededFieldNames != null && neededFieldNames.length > 0) {
+                        List<String> neededFieldNameList = new ArrayList<>();
+                        Collections.addAll(neededFieldNameList, neededFieldNames);
+                        abstractSource.setNeededFieldNames(neededFieldNameList);
+                    }
+                }
+            }
             properties.putAll(strategy.getStrategyProperties());
         }
         ComponentCreator.createProperties(properties);
@@ -630,6 +645,12 @@ public class DataStream implements Serializable {
 
         ConfigurableComponent configurableComponent = ComponentCreator.getComponent(mainPipelineBuilder.getPipelineNameSpace(), ConfigurableComponent.class, ConfigureFileKey.CONNECT_TYPE + ":memory");
         ChainPipeline pipeline = this.mainPipelineBuilder.build(configurableComponent.getService());
+        if (pipeline.getSource() instanceof AbstractSource) {
+            AbstractSource source = (AbstractSource) pipeline.getSource();
+            if (source.isLazyParseJson() && source.getNeededFieldNames() == null) {
+                source.setNeededFieldNames(new PiplineDependentFieldAnalysis(pipeline).analysisPipline());
+            }
+        }
 
         if (this.otherPipelineBuilders != null) {
             Thread mainThread = new Thread(new Runnable() {
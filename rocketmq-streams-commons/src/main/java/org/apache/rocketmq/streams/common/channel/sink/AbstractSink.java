@@ -28,6 +28,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.rocketmq.streams.common.channel.sinkcache.IMessageCache;
 import org.apache.rocketmq.streams.common.channel.sinkcache.impl.MessageCache;
 import org.apache.rocketmq.streams.common.channel.sinkcache.impl.MultiSplitMessageCache;
+import org.apache.rocketmq.streams.common.channel.sinkcache.impl.RingBufferMessageCache;
 import org.apache.rocketmq.streams.common.channel.source.ISource;
 import org.apache.rocketmq.streams.common.channel.split.ISplit;
 import org.apache.rocketmq.streams.common.checkpoint.CheckPointManager;
@@ -56,6 +57,11 @@ public abstract class AbstractSink extends BasedConfigurable implements ISink<Ab
     protected transient volatile Map<String, SourceState> sourceName2State = new HashMap<>();//保存完成刷新的queueid和offset
     protected volatile int autoFlushSize = 300;
     protected volatile int autoFlushTimeGap = 1000;
+    /**
+     * 每个分片缓存的最大条数，满了之后按cacheFullPolicy阻塞（block）或丢弃（drop）。默认0不限制条数，大于0时开启，建议值RingBufferMessageCache.DEFAULT_CAPACITY
+     */
+    protected int cacheCapacity = 0;
+    protected String cacheFullPolicy = RingBufferMessageCache.FULL_POLICY_BLOCK;
 
     public AbstractSink() {
         setType(TYPE);
@@ -63,7 +69,10 @@ public abstract class AbstractSink extends BasedConfigurable implements ISink<Ab
 
     @Override
     protected boolean initConfigurable() {
-        messageCache = new MultiSplitMessageCache(this);
+        MultiSplitMessageCache multiSplitMessageCache = createMessageCache();
+        multiSplitMessageCache.setCacheCapacity(cacheCapacity);
+        multiSplitMessageCache.setCacheFullPolicy(cacheFullPolicy);
+        messageCache = multiSplitMessageCache;
         ((MessageCache<IMessage>) messageCache).setAutoFlushTimeGap(autoFlushTimeGap);
         ((MessageCache<IMessage>) messageCache).setAutoFlushSize(autoFlushSize);
         messageCache.openAutoFlush();
@@ -71,6 +80,15 @@ public abstract class AbstractSink extends BasedConfigurable implements ISink<Ab
         return super.initConfigurable();
     }
 
+    /**
+     * 创建按分片缓存消息的cache，子类可以覆盖，改变多个分片的刷新方式
+     *
+     * @return
+     */
+    protected MultiSplitMessageCache createMessageCache() {
+        return new MultiSplitMessageCache(this);
+    }
+
     @Override
     public boolean batchAdd(IMessage message,  ISplit<?,?> split) {
         message.getMessageBody().put(TARGET_QUEUE, split);
@@ -241,6 +259,22 @@ public abstract class AbstractSink extends BasedConfigurable implements ISink<Ab
         this.batchSize = batchSize;
     }
 
+    public int getCacheCapacity() {
+        return cacheCapacity;
+    }
+
+    public void setCacheCapacity(int cacheCapacity) {
+        this.cacheCapacity = cacheCapacity;
+    }
+
+    public String getCacheFullPolicy() {
+        return cacheFullPolicy;
+    }
+
+    public void setCacheFullPolicy(String cacheFullPolicy) {
+        this.cacheFullPolicy = cacheFullPolicy;
+    }
+
     public IMessageCache<IMessage> getMessageCache() {
         return messageCache;
     }
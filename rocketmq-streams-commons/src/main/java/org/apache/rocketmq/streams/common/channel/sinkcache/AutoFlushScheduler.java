@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.channel.sinkcache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.rocketmq.streams.common.component.ComponentCreator;
+import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
+import org.apache.rocketmq.streams.common.schedule.TimingWheel;
+
+/**
+ * 所有缓存的自动刷新共用一个调度器，一个定时线程推进时间轮，到期的缓存交给固定大小的线程池刷新
+ * 按时间刷新：每个缓存在时间轮中挂在lastFlushTime+autoFlushTimeGap，到期时如果期间已经刷新过则重新挂上
+ * 按条数刷新：缓存条数超过autoFlushSize时由写入线程调用requestFlush，不需要定时检查
+ * 同一个分组同时只占用一个刷新线程，到期的缓存在这个线程里依次刷新；没有指定分组的缓存单独一组，sink的各个分片缓存可以并行刷新
+ */
+public class AutoFlushScheduler {
+
+    private static final Log LOG = LogFactory.getLog(AutoFlushScheduler.class);
+
+    public static final long TICK_MS = 100;
+    private static final int WHEEL_SIZE = 512;
+
+    private static final AutoFlushScheduler INSTANCE = new AutoFlushScheduler();
+
+    /**
+     * 只在定时线程中访问
+     */
+    private final TimingWheel<FlushTask> timingWheel = new TimingWheel<>(TICK_MS, WHEEL_SIZE, System.currentTimeMillis());
+    /**
+     * 需要重新挂到时间轮上的任务，由定时线程处理
+     */
+    private final Queue<FlushTask> armingTasks = new ConcurrentLinkedQueue<>();
+    private final ExecutorService executorService;
+    private final ScheduledExecutorService scheduledExecutorService;
+
+    public static AutoFlushScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    protected AutoFlushScheduler() {
+        this(true);
+    }
+
+    /**
+     * @param startTimer 是否启动定时线程，不启动时由调用方通过tick推进时间轮
+     */
+    protected AutoFlushScheduler(boolean startTimer) {
+        int threadNum = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        String value = ComponentCreator.getProperties().getProperty(ConfigureFileKey.SINK_AUTO_FLUSH_THREAD_NUM);
+        if (value != null) {
+            threadNum = Integer.parseInt(value);
+        }
+        AtomicInteger threadIndex = new AtomicInteger(0);
+        this.executorService = new ThreadPoolExecutor(threadNum, threadNum, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "auto-flush-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!startTimer) {
+            this.scheduledExecutorService = null;
+            return;
+        }
+        this.scheduledExecutorService = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "auto-flush-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduledExecutorService.scheduleWithFixedDelay(() -> {
+            try {
+                tick(System.currentTimeMillis());
+            } catch (Exception e) {
+                LOG.error("auto flush tick error", e);
+            }
+        }, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 注册一个需要自动刷新的缓存
+     *
+     * @param messageCache
+     * @param group        刷新分组，为空时缓存单独一组
+     * @param autoFlushTimeGap
+     * @param autoFlushSize
+     * @return 用于请求刷新和取消的句柄
+     */
+    public FlushTask register(IMessageCache<?> messageCache, FlushGroup group, int autoFlushTimeGap, int autoFlushSize) {
+        if (group == null) {
+            group = new FlushGroup();
+        }
+        FlushTask task = new FlushTask(this, messageCache, group, autoFlushTimeGap, autoFlushSize);
+        armingTasks.add(task);
+        return task;
+    }
+
+    protected void tick(long now) {
+        FlushTask task;
+        while ((task = armingTasks.poll()) != null) {
+            if (!task.cancelled && !task.armed) {
+                task.armed = true;
+                timingWheel.add(task.lastFlushTime + task.autoFlushTimeGap, task);
+            }
+        }
+        List<FlushTask> expired = new ArrayList<>();
+        timingWheel.advance(now, expired);
+        for (FlushTask expiredTask : expired) {
+            if (expiredTask.cancelled) {
+                expiredTask.armed = false;
+                continue;
+            }
+            long nextTime = expiredTask.lastFlushTime + expiredTask.autoFlushTimeGap;
+            if (nextTime > now) {
+                //到期前已经按条数刷新过
+                timingWheel.add(nextTime, expiredTask);
+                continue;
+            }
+            expiredTask.armed = false;
+            dispatch(expiredTask);
+        }
+    }
+
+    protected void dispatch(FlushTask task) {
+        if (!task.queued.compareAndSet(false, true)) {
+            return;
+        }
+        FlushGroup group = task.group;
+        group.dueTasks.add(task);
+        if (group.running.compareAndSet(false, true)) {
+            executorService.execute(() -> runGroup(group));
+        }
+    }
+
+    protected void runGroup(FlushGroup group) {
+        FlushTask task;
+        while ((task = group.dueTasks.poll()) != null) {
+            task.queued.set(false);
+            if (task.cancelled) {
+                continue;
+            }
+            try {
+                task.messageCache.flush();
+            } catch (Exception e) {
+                LOG.error("auto flush error", e);
+            }
+            task.lastFlushTime = System.currentTimeMillis();
+            armingTasks.add(task);
+        }
+        group.running.set(false);
+        if (!group.dueTasks.isEmpty() && group.running.compareAndSet(false, true)) {
+            executorService.execute(() -> runGroup(group));
+        }
+    }
+
+    /**
+     * 刷新分组，同一组的缓存在一个线程里依次刷新
+     */
+    public static class FlushGroup {
+        private final Queue<FlushTask> dueTasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean running = new AtomicBoolean(false);
+    }
+
+    public static class FlushTask {
+        private final AutoFlushScheduler scheduler;
+        private final IMessageCache<?> messageCache;
+        private final FlushGroup group;
+        private volatile int autoFlushTimeGap;
+        private volatile int autoFlushSize;
+        private volatile long lastFlushTime = System.currentTimeMillis();
+        private volatile boolean cancelled = false;
+        private final AtomicBoolean queued = new AtomicBoolean(false);
+        /**
+         * 是否挂在时间轮上，只在定时线程中访问
+         */
+        private boolean armed = false;
+
+        private FlushTask(AutoFlushScheduler scheduler, IMessageCache<?> messageCache, FlushGroup group, int autoFlushTimeGap, int autoFlushSize) {
+            this.scheduler = scheduler;
+            this.messageCache = messageCache;
+            this.group = group;
+            this.autoFlushTimeGap = autoFlushTimeGap;
+            this.autoFlushSize = autoFlushSize;
+        }
+
+        /**
+         * 写入后检查条数，超过autoFlushSize时异步刷新
+         *
+         * @param messageCount 缓存中的条数
+         */
+        public void checkSize(int messageCount) {
+            if (!cancelled && autoFlushSize > 0 && messageCount >= autoFlushSize) {
+                scheduler.dispatch(this);
+            }
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public int getAutoFlushTimeGap() {
+            return autoFlushTimeGap;
+        }
+
+        public void setAutoFlushTimeGap(int autoFlushTimeGap) {
+            this.autoFlushTimeGap = autoFlushTimeGap;
+        }
+
+        public int getAutoFlushSize() {
+            return autoFlushSize;
+        }
+
+        public void setAutoFlushSize(int autoFlushSize) {
+            this.autoFlushSize = autoFlushSize;
+        }
+    }
+}
@@ -35,6 +35,11 @@ public abstract class AbstractMultiSplitMessageCache<R> extends MessageCache<R>
     protected ConcurrentHashMap<String, MessageCache<IMessage>> queueMessageCaches = new ConcurrentHashMap();
     protected transient Boolean isOpenAutoFlush = true;
     protected transient ExecutorService executorService;
+    /**
+     * 每个分片缓存的最大条数和满了之后的处理策略，见RingBufferMessageCache。默认0不限制条数，和老版本一样使用MessageCache
+     */
+    protected int cacheCapacity = 0;
+    protected String cacheFullPolicy = RingBufferMessageCache.FULL_POLICY_BLOCK;
 
     public AbstractMultiSplitMessageCache(
         IMessageFlushCallBack<R> flushCallBack) {
@@ -60,7 +65,6 @@ public abstract class AbstractMultiSplitMessageCache<R> extends MessageCache<R>
                     if (this.isOpenAutoFlush) {
                         messageCache.openAutoFlush();
                     }
-                    messageCache.setAutoFlushExecutorService(this.autoFlushExecutorService);
                     MessageCache existMessageCache = queueMessageCaches.putIfAbsent(queueId, messageCache);
                     if (existMessageCache != null) {
                         messageCache = existMessageCache;
@@ -69,7 +73,9 @@ public abstract class AbstractMultiSplitMessageCache<R> extends MessageCache<R>
             }
 
         }
-        messageCache.addCache(msg);
+        if (messageCache.addCache(msg) < 0) {
+            return messageCount.get();
+        }
         int size = messageCount.incrementAndGet();
         if (batchSize > 0 && size >= batchSize) {
             flush(queueId);
@@ -79,7 +85,12 @@ public abstract class AbstractMultiSplitMessageCache<R> extends MessageCache<R>
     }
 
     protected MessageCache createMessageCache(){
-       return new MessageCache(flushCallBack);
+        if (cacheCapacity <= 0) {
+            return new MessageCache(flushCallBack);
+        }
+        RingBufferMessageCache messageCache = new RingBufferMessageCache(flushCallBack, cacheCapacity);
+        messageCache.setFullPolicy(cacheFullPolicy);
+        return messageCache;
     }
 
     protected abstract String createSplitId(R msg);
@@ -115,6 +126,16 @@ public abstract class AbstractMultiSplitMessageCache<R> extends MessageCache<R>
             size.addAndGet(count);
             return size.get();
         }
+        if (executorService == null) {
+            //没有设置刷新线程池时依次刷新
+            for (String splitId : splitIds) {
+                IMessageCache cache = StringUtil.isEmpty(splitId) ? null : queueMessageCaches.get(splitId);
+                if (cache != null) {
+                    size.addAndGet(cache.flush());
+                }
+            }
+            return size.get();
+        }
         CountDownLatch countDownLatch = new CountDownLatch(splitIds.size());
         for (String splitId : splitIds) {
             if(StringUtil.isEmpty(splitId)){
@@ -183,6 +204,59 @@ public abstract class AbstractMultiSplitMessageCache<R> extends MessageCache<R>
         return batchSize;
     }
 
+    /**
+     * 所有分片缓存中的消息数，包括正在刷新的
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (MessageCache<IMessage> cache : this.queueMessageCaches.values()) {
+            if (cache instanceof RingBufferMessageCache) {
+                depth += ((RingBufferMessageCache<IMessage>) cache).getQueueDepth();
+            } else {
+                depth += cache.getMessageCount();
+            }
+        }
+        return depth;
+    }
+
+    public long getDroppedCount() {
+        long count = 0;
+        for (MessageCache<IMessage> cache : this.queueMessageCaches.values()) {
+            if (cache instanceof RingBufferMessageCache) {
+                count += ((RingBufferMessageCache<IMessage>) cache).getDroppedCount();
+            }
+        }
+        return count;
+    }
+
+    public long getMaxFlushLatencyMs() {
+        long latency = 0;
+        for (MessageCache<IMessage> cache : this.queueMessageCaches.values()) {
+            if (cache instanceof RingBufferMessageCache) {
+                latency = Math.max(latency, ((RingBufferMessageCache<IMessage>) cache).getMaxFlushLatencyMs());
+            }
+        }
+        return latency;
+    }
+
+    public int getCacheCapacity() {
+        return cacheCapacity;
+    }
+
+    public void setCacheCapacity(int cacheCapacity) {
+        this.cacheCapacity = cacheCapacity;
+    }
+
+    public String getCacheFullPolicy() {
+        return cacheFullPolicy;
+    }
+
+    public void setCacheFullPolicy(String cacheFullPolicy) {
+        this.cacheFullPolicy = cacheFullPolicy;
+    }
+
     protected class MessageFlushCallBack implements IMessageFlushCallBack<R> {
         protected IMessageFlushCallBack<R> callBack;
 
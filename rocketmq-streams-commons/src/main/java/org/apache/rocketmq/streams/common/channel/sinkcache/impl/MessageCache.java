@@ -20,14 +20,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import org.apache.rocketmq.streams.common.channel.sinkcache.DataSourceAutoFlushTask;
+import org.apache.rocketmq.streams.common.channel.sinkcache.AutoFlushScheduler;
 import org.apache.rocketmq.streams.common.channel.sinkcache.IMessageCache;
 import org.apache.rocketmq.streams.common.channel.sinkcache.IMessageFlushCallBack;
-import org.apache.rocketmq.streams.common.schedule.ScheduleManager;
-import org.apache.rocketmq.streams.common.schedule.ScheduleTask;
 
 /**
  * 消息缓存的实现，通过消息队列做本地缓存。目前多是用了这个实现
@@ -37,14 +34,13 @@ public class MessageCache<R> implements IMessageCache<R> {
     protected IMessageFlushCallBack<R> flushCallBack;
     protected volatile AtomicInteger messageCount = new AtomicInteger(0);//缓存中的数据条数
     protected int batchSize = 1000;//最大缓存条数，超过后需要，刷新出去，做内存保护
-    protected transient DataSourceAutoFlushTask autoFlushTask;//自动任务刷新，可以均衡实时性和吞吐率
+    protected transient volatile AutoFlushScheduler.FlushTask autoFlushTask;//自动任务刷新，可以均衡实时性和吞吐率
+    protected transient AutoFlushScheduler.FlushGroup autoFlushGroup;//同一组的缓存共用一个刷新线程，为空时单独一组
     protected volatile transient ConcurrentLinkedQueue<R> dataQueue = new ConcurrentLinkedQueue<>();//缓存数据的消息队列
     protected AtomicBoolean openAutoFlushLock = new AtomicBoolean(false);
     protected volatile int autoFlushSize = 300;
     protected volatile int autoFlushTimeGap = 1000;
 
-    protected ExecutorService autoFlushExecutorService;
-
     public MessageCache(IMessageFlushCallBack<R> flushCallBack) {
         this.flushCallBack = flushCallBack;
     }
@@ -61,26 +57,36 @@ public class MessageCache<R> implements IMessageCache<R> {
         int size = messageCount.incrementAndGet();
         if (batchSize > 0 && size >= batchSize) {
             flush();
+        } else {
+            checkAutoFlushSize(size);
         }
         return size;
     }
 
+    /**
+     * 条数超过autoFlushSize时交给自动刷新的线程异步刷新
+     *
+     * @param size
+     */
+    protected void checkAutoFlushSize(int size) {
+        AutoFlushScheduler.FlushTask flushTask = this.autoFlushTask;
+        if (flushTask != null) {
+            flushTask.checkSize(size);
+        }
+    }
+
     @Override
     public void openAutoFlush() {
         if (openAutoFlushLock.compareAndSet(false, true)) {//可重入锁
-            autoFlushTask = new DataSourceAutoFlushTask(true, this);
-            autoFlushTask.setAutoFlushSize(this.autoFlushSize);
-            autoFlushTask.setAutoFlushTimeGap(this.autoFlushTimeGap);
-            ScheduleTask scheduleTask = new ScheduleTask(autoFlushTask, autoFlushTask);
-            scheduleTask.setExecutorService(this.autoFlushExecutorService);
-            ScheduleManager.getInstance().regist(scheduleTask);
+            autoFlushTask = AutoFlushScheduler.getInstance().register(this, autoFlushGroup, autoFlushTimeGap, autoFlushSize);
         }
     }
 
     @Override
     public void closeAutoFlush() {
         if (autoFlushTask != null) {
-            autoFlushTask.setAutoFlush(false);
+            autoFlushTask.cancel();
+            autoFlushTask = null;
             openAutoFlushLock.set(false);
         }
     }
@@ -141,6 +147,9 @@ public class MessageCache<R> implements IMessageCache<R> {
 
     public void setAutoFlushSize(int autoFlushSize) {
         this.autoFlushSize = autoFlushSize;
+        if (autoFlushTask != null) {
+            autoFlushTask.setAutoFlushSize(autoFlushSize);
+        }
     }
 
     public int getAutoFlushTimeGap() {
@@ -149,6 +158,9 @@ public class MessageCache<R> implements IMessageCache<R> {
 
     public void setAutoFlushTimeGap(int autoFlushTimeGap) {
         this.autoFlushTimeGap = autoFlushTimeGap;
+        if (autoFlushTask != null) {
+            autoFlushTask.setAutoFlushTimeGap(autoFlushTimeGap);
+        }
     }
 
     @Override
@@ -165,11 +177,11 @@ public class MessageCache<R> implements IMessageCache<R> {
         return flushCallBack;
     }
 
-    public ExecutorService getAutoFlushExecutorService() {
-        return autoFlushExecutorService;
+    public AutoFlushScheduler.FlushGroup getAutoFlushGroup() {
+        return autoFlushGroup;
     }
 
-    public void setAutoFlushExecutorService(ExecutorService autoFlushExecutorService) {
-        this.autoFlushExecutorService = autoFlushExecutorService;
+    public void setAutoFlushGroup(AutoFlushScheduler.FlushGroup autoFlushGroup) {
+        this.autoFlushGroup = autoFlushGroup;
     }
 }
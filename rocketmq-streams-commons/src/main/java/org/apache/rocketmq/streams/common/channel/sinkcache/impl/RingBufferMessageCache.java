@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.channel.sinkcache.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.rocketmq.streams.common.channel.sinkcache.IMessageFlushCallBack;
+
+/**
+ * 有界的消息缓存，数据放在环形数组中，数组第一次写入时分配，满了之后按两倍扩容，最大到capacity
+ * 刷新时取走[head,tail)这一段交给flushCallBack，刷新期间生产者继续在tail之后追加，刷新完成后释放这一段空间，相当于双缓冲
+ * 缓存满时按fullPolicy处理，block：生产者线程自己刷新腾出空间后再写入；drop：丢弃消息并计数
+ */
+public class RingBufferMessageCache<R> extends MessageCache<R> {
+
+    private static final Log LOG = LogFactory.getLog(RingBufferMessageCache.class);
+
+    public static final String FULL_POLICY_BLOCK = "block";
+    public static final String FULL_POLICY_DROP = "drop";
+    public static final int DEFAULT_CAPACITY = 10000;
+    protected static final int INITIAL_BUFFER_SIZE = 16;
+
+    /**
+     * 空闲的分片不占用数组，只在bufferLock中替换
+     */
+    protected Object[] buffer;
+    protected final int capacity;
+    protected volatile String fullPolicy = FULL_POLICY_BLOCK;
+    /**
+     * 保护head，tail和数组的写入，持有时间很短
+     */
+    protected final ReentrantLock bufferLock = new ReentrantLock();
+    /**
+     * 同一时刻只有一个线程刷新
+     */
+    protected final ReentrantLock flushLock = new ReentrantLock();
+    protected long head = 0;
+    protected long tail = 0;
+
+    protected final AtomicLong droppedCount = new AtomicLong(0);
+    protected final AtomicLong flushCount = new AtomicLong(0);
+    protected final AtomicLong totalFlushLatencyMs = new AtomicLong(0);
+    protected volatile long lastFlushLatencyMs = 0;
+    protected volatile long maxFlushLatencyMs = 0;
+
+    public RingBufferMessageCache(IMessageFlushCallBack<R> flushCallBack) {
+        this(flushCallBack, DEFAULT_CAPACITY);
+    }
+
+    public RingBufferMessageCache(IMessageFlushCallBack<R> flushCallBack, int capacity) {
+        super(flushCallBack);
+        if (capacity <= 0) {
+            throw new RuntimeException("ring buffer capacity must be positive, capacity is " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return 缓存中的消息数，按drop策略丢弃时返回-1
+     */
+    @Override
+    public int addCache(R msg) {
+        while (!append(msg)) {
+            if (FULL_POLICY_DROP.equals(fullPolicy)) {
+                long dropped = droppedCount.incrementAndGet();
+                if (dropped % 10000 == 1) {
+                    LOG.warn("message cache is full, capacity is " + capacity + ", dropped " + dropped);
+                }
+                return -1;
+            }
+            //缓存可能被正在进行的刷新占满，先等它结束再刷新剩下的
+            flushLock.lock();
+            try {
+                flush();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+        int size = messageCount.get();
+        if (batchSize > 0 && size >= batchSize) {
+            flush();
+        } else {
+            checkAutoFlushSize(size);
+        }
+        return size;
+    }
+
+    /**
+     * @return 缓存满时返回false
+     */
+    protected boolean append(R msg) {
+        bufferLock.lock();
+        try {
+            if (tail - head >= capacity) {
+                return false;
+            }
+            if (buffer == null || tail - head >= buffer.length) {
+                grow();
+            }
+            buffer[(int) (tail % buffer.length)] = msg;
+            tail++;
+            messageCount.incrementAndGet();
+            return true;
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    /**
+     * 按两倍扩容，[head,tail)中的消息按下标映射到新数组，调用时持有bufferLock
+     * 正在刷新的线程还在读旧数组，旧数组的内容不修改
+     */
+    protected void grow() {
+        if (buffer == null) {
+            buffer = new Object[Math.min(capacity, INITIAL_BUFFER_SIZE)];
+            return;
+        }
+        Object[] newBuffer = new Object[(int) Math.min(capacity, buffer.length * 2L)];
+        for (long i = head; i < tail; i++) {
+            newBuffer[(int) (i % newBuffer.length)] = buffer[(int) (i % buffer.length)];
+        }
+        buffer = newBuffer;
+    }
+
+    @Override
+    public int flush() {
+        if (getMessageCount() <= 0) {
+            return 0;
+        }
+        flushLock.lock();
+        try {
+            long start;
+            long end;
+            Object[] flushBuffer;
+            bufferLock.lock();
+            try {
+                start = head;
+                end = tail;
+                flushBuffer = buffer;
+            } finally {
+                bufferLock.unlock();
+            }
+            if (start == end) {
+                return 0;
+            }
+            int size = (int) (end - start);
+            List<R> messages = new ArrayList<>(size);
+            for (long i = start; i < end; i++) {
+                messages.add((R) flushBuffer[(int) (i % flushBuffer.length)]);
+            }
+            messageCount.addAndGet(-size);
+            long flushStart = System.currentTimeMillis();
+            try {
+                flushCallBack.flushMessage(messages);
+            } finally {
+                recordFlushLatency(System.currentTimeMillis() - flushStart);
+                bufferLock.lock();
+                try {
+                    for (long i = start; i < end; i++) {
+                        buffer[(int) (i % buffer.length)] = null;
+                    }
+                    head = end;
+                } finally {
+                    bufferLock.unlock();
+                }
+            }
+            return size;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public int flush(Set<String> splitIds) {
+        return flush();
+    }
+
+    protected void recordFlushLatency(long latencyMs) {
+        flushCount.incrementAndGet();
+        totalFlushLatencyMs.addAndGet(latencyMs);
+        lastFlushLatencyMs = latencyMs;
+        if (latencyMs > maxFlushLatencyMs) {
+            maxFlushLatencyMs = latencyMs;
+        }
+    }
+
+    /**
+     * 缓存中的消息数，包括正在刷新的
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        bufferLock.lock();
+        try {
+            return (int) (tail - head);
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 当前分配的数组大小，没有写入过时为0
+     *
+     * @return
+     */
+    public int getBufferSize() {
+        bufferLock.lock();
+        try {
+            return buffer == null ? 0 : buffer.length;
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    public String getFullPolicy() {
+        return fullPolicy;
+    }
+
+    public void setFullPolicy(String fullPolicy) {
+        this.fullPolicy = fullPolicy;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getLastFlushLatencyMs() {
+        return lastFlushLatencyMs;
+    }
+
+    public long getMaxFlushLatencyMs() {
+        return maxFlushLatencyMs;
+    }
+
+    public long getAvgFlushLatencyMs() {
+        long count = flushCount.get();
+        return count == 0 ? 0 : totalFlushLatencyMs.get() / count;
+    }
+}
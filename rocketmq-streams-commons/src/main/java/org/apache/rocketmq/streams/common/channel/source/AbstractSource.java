@@ -43,6 +43,7 @@ import org.apache.rocketmq.streams.common.configurable.annotation.ENVDependence;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.Context;
 import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.LazyJSONObject;
 import org.apache.rocketmq.streams.common.context.Message;
 import org.apache.rocketmq.streams.common.context.MessageHeader;
 import org.apache.rocketmq.streams.common.context.UserDefinedMessage;
@@ -94,6 +95,15 @@ public abstract class AbstractSource extends BasedConfigurable implements ISourc
      * log fingerprint to filter msg quickly
      */
     protected List<String> logFingerprintFields;
+    /**
+     * json消息延迟解析，字段被访问时才解析
+     */
+    protected boolean lazyParseJson = false;
+    /**
+     * 延迟解析时pipeline用到的字段，为空时所有字段都可以单独解析，访问其他字段会触发全量解析
+     */
+    protected List<String> neededFieldNames;
+    private transient Set<String> neededFieldNameSet;
     /**
      * 字节编码方式
      */
@@ -255,6 +265,8 @@ public abstract class AbstractSource extends BasedConfigurable implements ISourc
             jsonObject = new UserDefinedMessage(message);
             jsonObject.put(IMessage.DATA_KEY, message);
             jsonObject.put(IMessage.IS_NOT_JSON_MESSAGE, true);
+        } else if (lazyParseJson && message instanceof String && !((String) message).contains(UserDefinedMessage.class.getName())) {
+            jsonObject = new LazyJSONObject((String) message, getNeededFieldNameSet());
         } else {
             jsonObject = Message.parseObject(message.toString());
         }
@@ -683,6 +695,38 @@ public abstract class AbstractSource extends BasedConfigurable implements ISourc
         this.logFingerprintFields = logFingerprintFields;
     }
 
+    public boolean isLazyParseJson() {
+        return lazyParseJson;
+    }
+
+    public void setLazyParseJson(boolean lazyParseJson) {
+        this.lazyParseJson = lazyParseJson;
+    }
+
+    public List<String> getNeededFieldNames() {
+        return neededFieldNames;
+    }
+
+    public void setNeededFieldNames(List<String> neededFieldNames) {
+        this.neededFieldNames = neededFieldNames;
+        this.neededFieldNameSet = null;
+    }
+
+    protected Set<String> getNeededFieldNameSet() {
+        if (neededFieldNames == null) {
+            return null;
+        }
+        Set<String> fieldNameSet = neededFieldNameSet;
+        if (fieldNameSet == null) {
+            fieldNameSet = new HashSet<>(neededFieldNames);
+            if (logFingerprintFields != null) {
+                fieldNameSet.addAll(logFingerprintFields);
+            }
+            neededFieldNameSet = fieldNameSet;
+        }
+        return fieldNameSet;
+    }
+
     @Override
     public long getCheckpointTime() {
         return checkpointTime;
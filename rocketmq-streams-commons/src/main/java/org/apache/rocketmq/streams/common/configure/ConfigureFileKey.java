@@ -147,6 +147,9 @@ public interface ConfigureFileKey {
     //比如rocketmq，需要topic，tags和group,属性值和字段名保持一致即可。配置如下:window.shuffle.channel.topic=abdc    window.shuffle.channel.tag=fdd
 
     String WINDOW_SHUFFLE_CHANNEL_PROPERTY_PREFIX = "window.shuffle.channel.";
+    String WINDOW_SHUFFLE_CODEC = "window.shuffle.codec";//shuffle消息的编码，json_gzip（默认），binary，binary_lz4，binary_zstd。消费端按消息中的编码名称解码，所有消费端升级后才能开启binary编码
+    String WINDOW_SHUFFLE_MAX_PARALLELISM = "window.shuffle.max.parallelism";//shuffle key先映射到固定数量的key group再分配到队列，默认1024，作业运行后不能修改
+    String WINDOW_SHUFFLE_PREVIOUS_QUEUE_COUNT = "window.shuffle.previous.queue.count";//shuffle队列扩容后第一次启动时配置扩容前的队列数，新增的队列从原队列迁移属于自己的key group状态
     String WINDOW_SYSTEM_MESSAGE_CHENNEL_OWNER = "window.system.message.channel.owner";//如果能做消息过滤，只过滤本window的消息，可以配置这个属性，如rocketmq的tags.不支持的会做客户端过滤
     /**
      * 通知相关
@@ -168,4 +171,24 @@ public interface ConfigureFileKey {
 
     String WINDOW_MINIBATCH_SWITCH="window.minibatch.switch";//是否启动minibatch
 
+    /**
+     * 所有缓存自动刷新共用的线程数，默认是cpu核数的一半，最少2个
+     */
+    String SINK_AUTO_FLUSH_THREAD_NUM = "sink.auto.flush.thread.num";
+
+    /**
+     * 是否把整个脚本编译成字节码执行，默认true，设置成false时解释执行
+     */
+    String SCRIPT_COMPILE_SWITCH = "script.compile.switch";
+
+    /**
+     * 解析脚本后是否做常量折叠和删除无用的临时变量，默认true
+     */
+    String SCRIPT_EXPRESSION_OPTIMIZATION_SWITCH = "script.expression.optimization.switch";
+
+    /**
+     * 规则引擎是否把多个规则合并成共享表达式的规则网络执行，默认true
+     */
+    String RULE_ENGINE_NETWORK_SWITCH = "rule.engine.network.switch";
+
 }
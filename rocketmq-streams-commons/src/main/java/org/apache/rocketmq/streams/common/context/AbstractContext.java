@@ -387,7 +387,20 @@ public abstract class AbstractContext<T extends IMessage> extends HashMap {
 
     public abstract AbstractContext copy();
 
+    /**
+     * 消息用copyOnWrite复制，分支多的拓扑中减少消息体的复制，默认和copy相同
+     *
+     * @return
+     */
+    public AbstractContext copyOnWrite() {
+        return copy();
+    }
+
     protected void copyProperty(AbstractContext context) {
+        copyProperty(context, false);
+    }
+
+    protected void copyProperty(AbstractContext context, boolean isCopyOnWrite) {
         Map<String, Object> values = new HashMap<>();
         values.putAll(this.getValues());
         context.setValues(values);
@@ -396,7 +409,7 @@ public abstract class AbstractContext<T extends IMessage> extends HashMap {
         context.setSplitModel(this.isSplitModel());
         List<T> messages = new ArrayList<>();
         for (T tmp : this.getSplitMessages()) {
-            messages.add(tmp.deepCopy());
+            messages.add(isCopyOnWrite ? tmp.copyOnWrite() : tmp.deepCopy());
         }
         context.setSplitMessages(messages);
         context.monitor = this.monitor;
@@ -30,4 +30,12 @@ public class Context extends AbstractContext<IMessage> {
         return context;
     }
 
+    @Override
+    public AbstractContext copyOnWrite() {
+        IMessage message = this.message.copyOnWrite();
+        Context context = new Context(message);
+        copyProperty(context, true);
+        return context;
+    }
+
 }
@@ -66,6 +66,14 @@ public interface IMessage {
 
     <T extends IMessage> T deepCopy();
 
+    /**
+     * 和deepCopy一样可以独立修改字段，但不复制消息体，和原消息共享只读的字段，修改记录在新消息自己的overlay中
+     * 创建后原消息的消息体不能再修改
+     *
+     * @return 新消息
+     */
+    <T extends IMessage> T copyOnWrite();
+
     /**
      * 获取message 对象，如果是用户自定义类型，返回具体值，否则返回json
      *
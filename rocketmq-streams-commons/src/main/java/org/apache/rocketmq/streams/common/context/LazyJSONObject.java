@@ -0,0 +1,402 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.context;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.TypeReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 延迟解析的json消息，创建时只保存原始字符串，第一次访问时扫描出一级字段值的位置，字段被访问时才解析这个字段的值
+ * 遍历，序列化，取size等需要整个对象的操作会触发全量解析。如果设置了neededFieldNames，只记录这些字段的位置，访问其他字段时全量解析
+ * 解析前put和remove的字段以修改后的值为准
+ */
+public class LazyJSONObject extends JSONObject {
+
+    /**
+     * 原始json，全量解析后置空
+     */
+    private String text;
+    private Set<String> neededFieldNames;
+    /**
+     * 一级字段名到值在text中的开始和结束位置
+     */
+    private Map<String, int[]> fieldIndex;
+    /**
+     * 已经物化的字段，包括解析过的，put和remove过的，这些字段以map中的值为准
+     */
+    private Set<String> materializedFieldNames;
+    private boolean parsed = false;
+
+    public LazyJSONObject(String text, Set<String> neededFieldNames) {
+        super();
+        this.text = text;
+        this.neededFieldNames = neededFieldNames;
+    }
+
+    public boolean isParsed() {
+        return parsed;
+    }
+
+    @Override
+    public Object get(Object key) {
+        materialize(key);
+        return super.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        materialize(key);
+        return super.containsKey(key);
+    }
+
+    @Override
+    public JSONObject getJSONObject(String key) {
+        materialize(key);
+        return super.getJSONObject(key);
+    }
+
+    @Override
+    public JSONArray getJSONArray(String key) {
+        materialize(key);
+        return super.getJSONArray(key);
+    }
+
+    @Override
+    public <T> T getObject(String key, Class<T> clazz) {
+        materialize(key);
+        return super.getObject(key, clazz);
+    }
+
+    @Override
+    public <T> T getObject(String key, Type type) {
+        materialize(key);
+        return super.getObject(key, type);
+    }
+
+    @Override
+    public <T> T getObject(String key, TypeReference typeReference) {
+        materialize(key);
+        return super.getObject(key, typeReference);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        markMaterialized(key);
+        return super.put(key, value);
+    }
+
+    @Override
+    public JSONObject fluentPut(String key, Object value) {
+        put(key, value);
+        return this;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> m) {
+        for (Map.Entry<? extends String, ?> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public JSONObject fluentPutAll(Map<? extends String, ?> m) {
+        putAll(m);
+        return this;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        Object value = get(key);
+        super.remove(key);
+        return value;
+    }
+
+    @Override
+    public JSONObject fluentRemove(Object key) {
+        remove(key);
+        return this;
+    }
+
+    @Override
+    public void clear() {
+        ensureParsed();
+        super.clear();
+    }
+
+    @Override
+    public JSONObject fluentClear() {
+        clear();
+        return this;
+    }
+
+    @Override
+    public int size() {
+        ensureParsed();
+        return super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        ensureParsed();
+        return super.isEmpty();
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        ensureParsed();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        ensureParsed();
+        return super.keySet();
+    }
+
+    @Override
+    public Collection<Object> values() {
+        ensureParsed();
+        return super.values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        ensureParsed();
+        return super.entrySet();
+    }
+
+    @Override
+    public Map<String, Object> getInnerMap() {
+        ensureParsed();
+        return super.getInnerMap();
+    }
+
+    @Override
+    public JSONObject clone() {
+        ensureParsed();
+        return super.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        ensureParsed();
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        ensureParsed();
+        return super.hashCode();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        ensureParsed();
+        return super.invoke(proxy, method, args);
+    }
+
+    /**
+     * 解析单个字段，字段不在索引中时全量解析
+     */
+    protected void materialize(Object key) {
+        if (parsed || !(key instanceof String)) {
+            ensureParsed();
+            return;
+        }
+        if (materializedFieldNames != null && materializedFieldNames.contains(key)) {
+            return;
+        }
+        if (fieldIndex == null) {
+            fieldIndex = buildFieldIndex(text, neededFieldNames);
+            if (fieldIndex == null) {
+                ensureParsed();
+                return;
+            }
+        }
+        if (neededFieldNames != null && !neededFieldNames.contains(key)) {
+            ensureParsed();
+            return;
+        }
+        int[] position = fieldIndex.get(key);
+        if (position != null) {
+            super.put((String) key, JSON.parse(text.substring(position[0], position[1])));
+        }
+        markMaterialized((String) key);
+    }
+
+    protected void markMaterialized(String key) {
+        if (parsed) {
+            return;
+        }
+        if (materializedFieldNames == null) {
+            materializedFieldNames = new HashSet<>();
+        }
+        materializedFieldNames.add(key);
+    }
+
+    /**
+     * 全量解析，已经物化的字段保留当前值
+     */
+    protected void ensureParsed() {
+        if (parsed) {
+            return;
+        }
+        parsed = true;
+        JSONObject jsonObject = JSONObject.parseObject(text);
+        if (jsonObject != null) {
+            Map<String, Object> map = super.getInnerMap();
+            for (Map.Entry<String, Object> entry : jsonObject.getInnerMap().entrySet()) {
+                if (materializedFieldNames == null || !materializedFieldNames.contains(entry.getKey())) {
+                    map.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        text = null;
+        fieldIndex = null;
+        materializedFieldNames = null;
+    }
+
+    /**
+     * 扫描一级字段值的位置，不创建值对象
+     *
+     * @param text
+     * @param neededFieldNames 为空时记录所有字段
+     * @return 不是标准json对象（如单引号，无引号的key）时返回null
+     */
+    protected static Map<String, int[]> buildFieldIndex(String text, Set<String> neededFieldNames) {
+        Map<String, int[]> index = new HashMap<>();
+        int length = text.length();
+        int i = skipWhitespace(text, 0);
+        if (i >= length || text.charAt(i) != '{') {
+            return null;
+        }
+        i = skipWhitespace(text, i + 1);
+        if (i < length && text.charAt(i) == '}') {
+            return index;
+        }
+        while (i < length) {
+            if (text.charAt(i) != '"') {
+                return null;
+            }
+            int keyEnd = skipString(text, i);
+            if (keyEnd < 0) {
+                return null;
+            }
+            String key = text.substring(i + 1, keyEnd - 1);
+            if (key.indexOf('\\') >= 0) {
+                key = (String) JSON.parse(text.substring(i, keyEnd));
+            }
+            i = skipWhitespace(text, keyEnd);
+            if (i >= length || text.charAt(i) != ':') {
+                return null;
+            }
+            int valueStart = skipWhitespace(text, i + 1);
+            int valueEnd = skipValue(text, valueStart);
+            if (valueEnd < 0) {
+                return null;
+            }
+            if (neededFieldNames == null || neededFieldNames.contains(key)) {
+                index.put(key, new int[] {valueStart, valueEnd});
+            }
+            i = skipWhitespace(text, valueEnd);
+            if (i >= length) {
+                return null;
+            }
+            char c = text.charAt(i);
+            if (c == '}') {
+                return index;
+            }
+            if (c != ',') {
+                return null;
+            }
+            i = skipWhitespace(text, i + 1);
+        }
+        return null;
+    }
+
+    private static int skipWhitespace(String text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return 字符串结束引号之后的位置，没有结束时返回-1
+     */
+    private static int skipString(String text, int i) {
+        for (int j = i + 1; j < text.length(); j++) {
+            char c = text.charAt(j);
+            if (c == '\\') {
+                j++;
+            } else if (c == '"') {
+                return j + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipValue(String text, int i) {
+        int length = text.length();
+        if (i >= length) {
+            return -1;
+        }
+        char c = text.charAt(i);
+        if (c == '"') {
+            return skipString(text, i);
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            for (int j = i; j < length; j++) {
+                char current = text.charAt(j);
+                if (current == '"') {
+                    j = skipString(text, j);
+                    if (j < 0) {
+                        return -1;
+                    }
+                    j--;
+                } else if (current == '{' || current == '[') {
+                    depth++;
+                } else if (current == '}' || current == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        return j + 1;
+                    }
+                }
+            }
+            return -1;
+        }
+        int j = i;
+        while (j < length) {
+            char current = text.charAt(j);
+            if (current == ',' || current == '}' || current == ']' || Character.isWhitespace(current)) {
+                break;
+            }
+            j++;
+        }
+        return j == i ? -1 : j;
+    }
+}
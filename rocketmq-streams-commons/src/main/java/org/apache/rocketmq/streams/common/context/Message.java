@@ -47,6 +47,11 @@ public class Message implements IMessage {
         }
     }
 
+    private Message(JSONObject message, MessageHeader header) {
+        this.message = message;
+        this.header = header;
+    }
+
     @Override
     public MessageHeader getHeader() {
         return this.header;
@@ -100,6 +105,18 @@ public class Message implements IMessage {
         return message;
     }
 
+    @Override
+    public Message copyOnWrite() {
+        if (this.message instanceof UserDefinedMessage) {
+            return deepCopy();
+        }
+        //header中已经有traceId，不需要再从消息体中解析
+        Message message = new Message(new JSONObject(OverlayMap.create(this.message.getInnerMap())), getHeader().copy());
+        message.setSystemMessage(getSystemMessage());
+        message.isJsonMessage = isJsonMessage;
+        return message;
+    }
+
     public static JSONObject parseObject(String msg) {
         JSONObject jsonObject = JSONObject.parseObject(msg);
         if (jsonObject != null) {
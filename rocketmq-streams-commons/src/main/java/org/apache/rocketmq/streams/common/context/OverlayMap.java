@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.context;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 在共享的只读map上叠加修改，用于消息的写时复制：多个消息共享原消息的字段，各自的修改只记录在自己的overlay中
+ * 创建后base不能再被修改，否则修改对所有视图可见；value对象本身不复制，和Message.deepCopy一致
+ * 非线程安全
+ */
+public class OverlayMap extends AbstractMap<String, Object> implements Serializable {
+    private static final long serialVersionUID = 4206563461209787314L;
+
+    private final Map<String, Object> base;
+    /**
+     * 新增或修改的字段
+     */
+    private final HashMap<String, Object> overlay;
+    /**
+     * 删除的base中的字段，不包含overlay中的key
+     */
+    private HashSet<Object> removed;
+
+    private transient Set<Entry<String, Object>> entrySet;
+
+    private OverlayMap(Map<String, Object> base, HashMap<String, Object> overlay, HashSet<Object> removed) {
+        this.base = base;
+        this.overlay = overlay;
+        this.removed = removed;
+    }
+
+    /**
+     * 创建map的写时复制视图，map本身是视图时复制它的overlay，共享最底层的base，避免多层嵌套
+     *
+     * @param map 创建视图后不能再修改
+     * @return
+     */
+    public static OverlayMap create(Map<String, Object> map) {
+        if (map instanceof OverlayMap) {
+            OverlayMap view = (OverlayMap) map;
+            return new OverlayMap(view.base, new HashMap<>(view.overlay), view.removed == null ? null : new HashSet<>(view.removed));
+        }
+        return new OverlayMap(map, new HashMap<>(4), null);
+    }
+
+    @Override
+    public Object get(Object key) {
+        Object value = overlay.get(key);
+        if (value != null || overlay.containsKey(key)) {
+            return value;
+        }
+        if (isRemoved(key)) {
+            return null;
+        }
+        return base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (overlay.containsKey(key)) {
+            return true;
+        }
+        return !isRemoved(key) && base.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        Object old = get(key);
+        overlay.put(key, value);
+        if (removed != null) {
+            removed.remove(key);
+        }
+        return old;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        Object old = get(key);
+        overlay.remove(key);
+        if (base.containsKey(key)) {
+            if (removed == null) {
+                removed = new HashSet<>();
+            }
+            removed.add(key);
+        }
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        overlay.clear();
+        removed = new HashSet<>(base.keySet());
+    }
+
+    @Override
+    public int size() {
+        int size = base.size() - (removed == null ? 0 : removed.size());
+        for (String key : overlay.keySet()) {
+            if (!base.containsKey(key)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private boolean isRemoved(Object key) {
+        return removed != null && removed.contains(key);
+    }
+
+    private class EntrySet extends AbstractSet<Entry<String, Object>> {
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return OverlayMap.this.size();
+        }
+    }
+
+    /**
+     * 先按base的顺序遍历（被覆盖的字段取overlay中的值），再遍历overlay中新增的字段
+     */
+    private class EntryIterator implements Iterator<Entry<String, Object>> {
+        private final Iterator<Entry<String, Object>> baseIterator = base.entrySet().iterator();
+        /**
+         * overlay的key的快照，遍历时可以修改map
+         */
+        private Iterator<String> overlayIterator;
+        private Entry<String, Object> next;
+        private String lastKey;
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            while (baseIterator.hasNext()) {
+                Entry<String, Object> entry = baseIterator.next();
+                String key = entry.getKey();
+                if (isRemoved(key)) {
+                    continue;
+                }
+                if (overlay.containsKey(key)) {
+                    next = new ViewEntry(key, overlay.get(key));
+                } else {
+                    next = new ViewEntry(key, entry.getValue());
+                }
+                return true;
+            }
+            if (overlayIterator == null) {
+                overlayIterator = new ArrayList<>(overlay.keySet()).iterator();
+            }
+            while (overlayIterator.hasNext()) {
+                String key = overlayIterator.next();
+                if (!base.containsKey(key) && overlay.containsKey(key)) {
+                    next = new ViewEntry(key, overlay.get(key));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<String, Object> entry = next;
+            next = null;
+            lastKey = entry.getKey();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+            OverlayMap.this.remove(lastKey);
+            lastKey = null;
+        }
+    }
+
+    private class ViewEntry extends SimpleEntry<String, Object> {
+        private static final long serialVersionUID = -2640283567405366553L;
+
+        private ViewEntry(String key, Object value) {
+            super(key, value);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            super.setValue(value);
+            return put(getKey(), value);
+        }
+    }
+}
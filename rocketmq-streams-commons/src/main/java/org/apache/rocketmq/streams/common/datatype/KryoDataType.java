@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.datatype;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.rocketmq.streams.common.interfaces.ISerialize;
+import org.apache.rocketmq.streams.common.utils.Base64Utils;
+import org.apache.rocketmq.streams.common.utils.KryoUtil;
+
+/**
+ * 实现了ISerialize的对象用kryo做二进制序列化，对象可以实现KryoSerializable自定义紧凑格式
+ * 格式：length(4 byte) + kryo bytes，长度不受2个字节的限制
+ */
+public class KryoDataType extends BaseDataType {
+
+    private static final long serialVersionUID = 4306527404914218361L;
+
+    public static final String TYPE_NAME = "kryo";
+
+    private static final int LENGTH_BYTES = 4;
+
+    @Override public DataType create() {
+        return this;
+    }
+
+    @Override public String getDataTypeName() {
+        return TYPE_NAME;
+    }
+
+    @Override public boolean matchClass(Class clazz) {
+        return ISerialize.class.isAssignableFrom(clazz);
+    }
+
+    @Override public String toDataJson(Object value) {
+        return Base64Utils.encode(KryoUtil.writeToByteArray(value));
+    }
+
+    @Override public Object getData(String jsonValue) {
+        return KryoUtil.readFromByteArray(Base64Utils.decode(jsonValue));
+    }
+
+    @Override public byte[] toBytes(Object value, boolean isCompress) {
+        if (value == null) {
+            return null;
+        }
+        byte[] result = KryoUtil.writeToByteArray(value);
+        byte[] bytes = new byte[result.length + LENGTH_BYTES];
+        byte[] lenBytes = createByteArrayFromNumber(result.length, LENGTH_BYTES);
+        System.arraycopy(lenBytes, 0, bytes, 0, LENGTH_BYTES);
+        System.arraycopy(result, 0, bytes, LENGTH_BYTES, result.length);
+        return bytes;
+    }
+
+    @Override public Object byteToValue(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        return byteToValue(bytes, new AtomicInteger(0));
+    }
+
+    @Override public Object byteToValue(byte[] bytes, AtomicInteger offset) {
+        int index = offset.get();
+        int len = createNumberValue(bytes, index, LENGTH_BYTES).intValue();
+        byte[] valueBytes = new byte[len];
+        System.arraycopy(bytes, index + LENGTH_BYTES, valueBytes, 0, len);
+        offset.set(index + LENGTH_BYTES + len);
+        return KryoUtil.readFromByteArray(valueBytes);
+    }
+
+    @Override protected void setFieldValueToJson(JSONObject jsonObject) {
+
+    }
+
+    @Override protected void setFieldValueFromJson(JSONObject jsonObject) {
+
+    }
+
+}
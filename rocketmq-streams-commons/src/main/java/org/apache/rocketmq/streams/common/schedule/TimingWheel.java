@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.schedule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分层时间轮，按到期时间（毫秒）组织元素，插入和取消都是O(1)
+ * 时间不会自己走，由调用方用水位（event time）推进，推进时返回所有到期时间小于等于水位的元素
+ * 第一层每格tickMs，超出第一层范围的元素放到上一层（每格是下一层的一整圈），推进时逐层下降
+ * 非线程安全，由调用方加锁
+ */
+public class TimingWheel<T> {
+    private final Level root;
+
+    /**
+     * 到期时间落在第一层当前格内（包括已经过期）的元素，推进时检查是否到期
+     */
+    private final Bucket<T> current = new Bucket<>();
+
+    private int size = 0;
+
+    /**
+     * @param tickMs    第一层每格的毫秒数
+     * @param wheelSize 每层的格数
+     * @param startMs   起始时间
+     */
+    public TimingWheel(long tickMs, int wheelSize, long startMs) {
+        if (tickMs <= 0 || wheelSize <= 0) {
+            throw new RuntimeException("tickMs and wheelSize must be positive, tickMs is " + tickMs + ", wheelSize is " + wheelSize);
+        }
+        this.root = new Level(tickMs, wheelSize, startMs);
+    }
+
+    /**
+     * 加入一个元素
+     *
+     * @param expireMs 到期时间
+     * @param value
+     * @return 用于取消的句柄
+     */
+    public Timeout<T> add(long expireMs, T value) {
+        Timeout<T> timeout = new Timeout<>(expireMs, value, this);
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * 推进时间，把到期时间小于等于time的元素放到expired中，不保证顺序
+     *
+     * @param time    水位
+     * @param expired 到期的元素
+     */
+    public void advance(long time, List<T> expired) {
+        root.advance(time);
+        Timeout<T> timeout = current.head;
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            if (timeout.expireMs <= time) {
+                current.remove(timeout);
+                size--;
+                expired.add(timeout.value);
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * 不管是否到期，取出所有的元素
+     *
+     * @param values
+     */
+    public void removeAll(List<T> values) {
+        current.drainTo(values);
+        Level level = root;
+        while (level != null) {
+            for (Bucket<T> bucket : level.buckets) {
+                bucket.drainTo(values);
+            }
+            level = level.overflow;
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getCurrentTime() {
+        return root.currentTime;
+    }
+
+    private void place(Timeout<T> timeout) {
+        if (!root.add(timeout)) {
+            current.add(timeout);
+        }
+    }
+
+    private class Level {
+        private final long tickMs;
+        private final int wheelSize;
+        private final long interval;
+        private final Bucket<T>[] buckets;
+        /**
+         * 当前时间，按tickMs对齐
+         */
+        private long currentTime;
+        private Level overflow;
+
+        @SuppressWarnings("unchecked")
+        private Level(long tickMs, int wheelSize, long startMs) {
+            this.tickMs = tickMs;
+            this.wheelSize = wheelSize;
+            this.interval = tickMs * wheelSize;
+            this.currentTime = startMs - Math.floorMod(startMs, tickMs);
+            this.buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket<>();
+            }
+        }
+
+        /**
+         * @return false表示到期时间在当前格内，这一层放不下
+         */
+        private boolean add(Timeout<T> timeout) {
+            long expireMs = timeout.expireMs;
+            if (expireMs < currentTime + tickMs) {
+                return false;
+            }
+            if (expireMs < currentTime + interval) {
+                buckets[(int) Math.floorMod(Math.floorDiv(expireMs, tickMs), (long) wheelSize)].add(timeout);
+                return true;
+            }
+            if (overflow == null) {
+                overflow = new Level(interval, wheelSize, currentTime);
+            }
+            return overflow.add(timeout);
+        }
+
+        private void advance(long time) {
+            if (time < currentTime + tickMs) {
+                return;
+            }
+            long target = time - Math.floorMod(time, tickMs);
+            long startTick = Math.floorDiv(currentTime, tickMs);
+            long ticks = Math.min((target - currentTime) / tickMs, wheelSize);
+            currentTime = target;
+            //先摘下经过的格子，上一层降下来的元素可能放回这些格子
+            List<Timeout<T>> passed = new ArrayList<>();
+            for (long i = 1; i <= ticks; i++) {
+                buckets[(int) Math.floorMod(startTick + i, (long) wheelSize)].detachTo(passed);
+            }
+            if (overflow != null) {
+                overflow.advance(target);
+            }
+            //经过的格子里的元素重新放置，会落到下一层或者当前格
+            for (Timeout<T> timeout : passed) {
+                place(timeout);
+            }
+        }
+    }
+
+    private static class Bucket<T> {
+        private Timeout<T> head;
+        private Timeout<T> tail;
+
+        private void add(Timeout<T> timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        private void remove(Timeout<T> timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        private void detachTo(List<Timeout<T>> timeouts) {
+            Timeout<T> timeout = head;
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                timeout.prev = null;
+                timeout.next = null;
+                timeout.bucket = null;
+                timeouts.add(timeout);
+                timeout = next;
+            }
+            head = null;
+            tail = null;
+        }
+
+        private void drainTo(List<T> values) {
+            Timeout<T> timeout = head;
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                values.add(timeout.value);
+                timeout.prev = null;
+                timeout.next = null;
+                timeout.bucket = null;
+                timeout = next;
+            }
+            head = null;
+            tail = null;
+        }
+    }
+
+    public static class Timeout<T> {
+        private final long expireMs;
+        private final T value;
+        private final TimingWheel<T> wheel;
+        private Bucket<T> bucket;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        private Timeout(long expireMs, T value, TimingWheel<T> wheel) {
+            this.expireMs = expireMs;
+            this.value = value;
+            this.wheel = wheel;
+        }
+
+        /**
+         * 从时间轮中移除，已经到期或者已经取消时返回false
+         *
+         * @return
+         */
+        public boolean cancel() {
+            if (bucket == null) {
+                return false;
+            }
+            bucket.remove(this);
+            wheel.size--;
+            return true;
+        }
+
+        public long getExpireMs() {
+            return expireMs;
+        }
+
+        public T getValue() {
+            return value;
+        }
+    }
+}
@@ -259,7 +259,8 @@ public class ChainPipeline<T extends IMessage> extends Pipeline<T> implements IA
         for (String lable : nextStageLabel) {
             AbstractContext copyContext = context;
             if (size > 1) {
-                copyContext = context.copy();
+                //各分支共享消息体，修改只对自己的分支可见
+                copyContext = context.copyOnWrite();
             }
             T msg = (T) copyContext.getMessage();
             AbstractStage<?> oriStage = stageMap.get(lable);
@@ -314,7 +315,7 @@ public class ChainPipeline<T extends IMessage> extends Pipeline<T> implements IA
                     List<IMessage> messageList = copyContext.getSplitMessages();
                     int splitMessageOffset = 0;
                     for (IMessage message : messageList) {
-                        AbstractContext abstractContext = copyContext.copy();
+                        AbstractContext abstractContext = copyContext.copyOnWrite();
                         abstractContext.closeSplitMode(message);
                         message.getHeader().setMsgRouteFromLable(msg.getHeader().getMsgRouteFromLable());
                         message.getHeader().addLayerOffset(splitMessageOffset);
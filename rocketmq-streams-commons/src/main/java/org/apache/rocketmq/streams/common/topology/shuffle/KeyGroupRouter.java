@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.topology.shuffle;
+
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.rocketmq.streams.common.component.ComponentCreator;
+import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+
+/**
+ * shuffle key先按hash映射到固定数量的key group（最大并行度），key group再按取模分配到shuffle队列
+ * 状态可以按key group迁移，队列数变化时只有owner变化的key group需要迁移，队列数翻倍时一半的key group留在原队列
+ * 最大并行度是队列数的倍数时，路由结果和原来的hashCode对队列数取模相同；否则升级后第一次加载状态时，按原来的取模路由迁移状态
+ */
+public class KeyGroupRouter {
+
+    public static final int DEFAULT_MAX_PARALLELISM = 1024;
+
+    private final int maxParallelism;
+
+    public KeyGroupRouter(int maxParallelism) {
+        if (maxParallelism <= 0) {
+            throw new RuntimeException("max parallelism must be positive, but is " + maxParallelism);
+        }
+        this.maxParallelism = maxParallelism;
+    }
+
+    /**
+     * 最大并行度由window.shuffle.max.parallelism配置，作业运行后不能修改，否则key group会变化
+     *
+     * @return
+     */
+    public static KeyGroupRouter create() {
+        String value = ComponentCreator.getProperties().getProperty(ConfigureFileKey.WINDOW_SHUFFLE_MAX_PARALLELISM);
+        if (StringUtil.isEmpty(value)) {
+            return new KeyGroupRouter(DEFAULT_MAX_PARALLELISM);
+        }
+        return new KeyGroupRouter(Integer.parseInt(value.trim()));
+    }
+
+    public int keyGroup(Object key) {
+        int h = 0;
+        if (key != null) {
+            h = key.hashCode();
+            if (h < 0) {
+                h = -h;
+            }
+        }
+        //Integer.MIN_VALUE取反后仍是负数
+        return Math.floorMod(h, maxParallelism);
+    }
+
+    /**
+     * @param keyGroup
+     * @param queueCount 队列数不能超过最大并行度，否则多出的队列分不到key group
+     * @return 队列序号
+     */
+    public int queueIndex(int keyGroup, int queueCount) {
+        if (queueCount > maxParallelism) {
+            throw new RuntimeException("shuffle queue count " + queueCount + " is larger than max parallelism " + maxParallelism);
+        }
+        return keyGroup % queueCount;
+    }
+
+    public int route(Object key, int queueCount) {
+        return queueIndex(keyGroup(key), queueCount);
+    }
+
+    /**
+     * 队列数从previousQueueCount变成queueCount后，分配到queueIndex的key group原来所在的队列
+     *
+     * @param queueIndex
+     * @param previousQueueCount
+     * @param queueCount
+     * @return 原队列序号，升序
+     */
+    public Set<Integer> previousQueueIndexes(int queueIndex, int previousQueueCount, int queueCount) {
+        Set<Integer> indexes = new TreeSet<>();
+        for (int keyGroup = queueIndex; keyGroup < maxParallelism; keyGroup += queueCount) {
+            indexes.add(queueIndex(keyGroup, previousQueueCount));
+        }
+        return indexes;
+    }
+
+    /**
+     * 升级前的路由，hashCode的绝对值直接对队列数取模
+     *
+     * @param key
+     * @param queueCount
+     * @return 队列序号
+     */
+    public int legacyRoute(Object key, int queueCount) {
+        int h = 0;
+        if (key != null) {
+            h = key.hashCode();
+            if (h < 0) {
+                h = -h;
+            }
+        }
+        return Math.floorMod(h, queueCount);
+    }
+
+    /**
+     * 队列数是最大并行度的约数时，route和legacyRoute的结果相同
+     */
+    public boolean isLegacyCompatible(int queueCount) {
+        return maxParallelism % queueCount == 0;
+    }
+
+    /**
+     * 状态是升级前按legacyRoute写入的，队列数从previousQueueCount变成queueCount后，分配到queueIndex的key原来可能所在的队列
+     * hash相差最大并行度的key在同一个key group，原来的取模结果可能不同，所以比previousQueueIndexes多
+     *
+     * @param queueIndex
+     * @param previousQueueCount
+     * @param queueCount
+     * @return 原队列序号，升序
+     */
+    public Set<Integer> legacyPreviousQueueIndexes(int queueIndex, int previousQueueCount, int queueCount) {
+        //h = keyGroup + k * maxParallelism，对previousQueueCount取模后和keyGroup对gcd同余
+        int gcd = gcd(maxParallelism, previousQueueCount);
+        Set<Integer> indexes = new TreeSet<>();
+        for (int keyGroup = queueIndex; keyGroup < maxParallelism && keyGroup < queueIndex + queueCount * gcd; keyGroup += queueCount) {
+            for (int index = keyGroup % gcd; index < previousQueueCount; index += gcd) {
+                indexes.add(index);
+            }
+        }
+        return indexes;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    public int getMaxParallelism() {
+        return maxParallelism;
+    }
+}
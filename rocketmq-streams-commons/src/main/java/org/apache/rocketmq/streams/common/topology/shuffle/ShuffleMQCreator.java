@@ -61,6 +61,7 @@ public class ShuffleMQCreator {
 
     protected transient List<ISplit<?, ?>> queueList;//shuffle mq's split list
     protected transient Map<String, ISplit<?, ?>> queueMap = new ConcurrentHashMap<>();
+    protected transient KeyGroupRouter keyGroupRouter = KeyGroupRouter.create();
 
 
     /**
@@ -151,15 +152,7 @@ public class ShuffleMQCreator {
      * @return
      */
     public int hash(Object key) {
-        int mValue = queueList.size();
-        int h = 0;
-        if (key != null) {
-            h = key.hashCode() ^ (h >>> 16);
-            if (h < 0) {
-                h = -h;
-            }
-        }
-        return h % mValue;
+        return keyGroupRouter.route(key, queueList.size());
     }
 
 
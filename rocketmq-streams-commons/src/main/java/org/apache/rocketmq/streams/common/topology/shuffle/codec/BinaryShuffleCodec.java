@@ -0,0 +1,461 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.topology.shuffle.codec;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.github.luben.zstd.Zstd;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.apache.rocketmq.streams.common.topology.stages.ShuffleProducerChainStage;
+
+/**
+ * 紧凑的二进制格式，按行编码，一批消息内的字段名和字符串值做字典，第一次出现时写原文，之后只写序号
+ * 每行的ORIGIN_MESSAGE_HEADER拆成字段，整批都相同的字段只写一次，每行只写不同的字段（一般只有offset）
+ * 编码后的数据块再用lz4或zstd压缩
+ */
+public class BinaryShuffleCodec implements IShuffleCodec {
+
+    public static final String NAME = "binary";
+    public static final String LZ4_NAME = "binary_lz4";
+    public static final String ZSTD_NAME = "binary_zstd";
+
+    private static final byte MAGIC = (byte) 0xB5;
+    private static final byte VERSION = 1;
+
+    private static final String SHUFFLE_MESSAGES = "SHUFFLE_MESSAGES";
+    private static final String ORIGIN_MESSAGE_HEADER = ShuffleProducerChainStage.ORIGIN_MESSAGE_HEADER;
+
+    /**
+     * 太长的字符串一般不会重复，不放入字典
+     */
+    private static final int MAX_DICT_STRING_LENGTH = 256;
+
+    private static final int ZSTD_LEVEL = 3;
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte FLOAT = 6;
+    private static final byte STRING = 7;
+    private static final byte BIG_DECIMAL = 8;
+    private static final byte BIG_INTEGER = 9;
+    private static final byte BYTES = 10;
+    private static final byte OBJECT = 11;
+    private static final byte ARRAY = 12;
+    /**
+     * ORIGIN_MESSAGE_HEADER中和整批公共部分不同的字段
+     */
+    private static final byte HEADER = 13;
+    /**
+     * 其他类型，和原来一样转成json
+     */
+    private static final byte JSON_TEXT = 14;
+
+    private final String name;
+    private final Compression compression;
+
+    public BinaryShuffleCodec(String name, Compression compression) {
+        this.name = name;
+        this.compression = compression;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public byte[] encode(JSONObject shuffleMsg) {
+        byte[] raw = new Encoder().encode(shuffleMsg);
+        byte[] block = compression.compress(raw);
+        Output output = new Output(block.length + 8);
+        output.writeByte(MAGIC);
+        output.writeByte(VERSION);
+        output.writeByte(compression.code);
+        output.writeVarInt(raw.length, true);
+        output.writeBytes(block);
+        return output.toBytes();
+    }
+
+    @Override
+    public JSONObject decode(byte[] bytes) {
+        Input input = new Input(bytes);
+        if (input.readByte() != MAGIC) {
+            throw new RuntimeException("the shuffle message is not binary format");
+        }
+        byte version = input.readByte();
+        if (version != VERSION) {
+            throw new RuntimeException("can not support binary shuffle message version " + version);
+        }
+        Compression blockCompression = Compression.valueOf(input.readByte());
+        int rawLength = input.readVarInt(true);
+        int offset = input.position();
+        byte[] raw = blockCompression.decompress(bytes, offset, bytes.length - offset, rawLength);
+        return new Decoder(raw).decode();
+    }
+
+    public enum Compression {
+        NONE((byte) 0),
+        LZ4((byte) 1),
+        ZSTD((byte) 2);
+
+        private final byte code;
+
+        Compression(byte code) {
+            this.code = code;
+        }
+
+        protected byte[] compress(byte[] raw) {
+            switch (this) {
+                case LZ4:
+                    return LZ4Holder.COMPRESSOR.compress(raw);
+                case ZSTD:
+                    return Zstd.compress(raw, ZSTD_LEVEL);
+                default:
+                    return raw;
+            }
+        }
+
+        protected byte[] decompress(byte[] src, int offset, int length, int rawLength) {
+            byte[] raw;
+            switch (this) {
+                case LZ4:
+                    raw = new byte[rawLength];
+                    LZ4Holder.DECOMPRESSOR.decompress(src, offset, raw, 0, rawLength);
+                    return raw;
+                case ZSTD:
+                    raw = new byte[rawLength];
+                    long size = Zstd.decompressByteArray(raw, 0, rawLength, src, offset, length);
+                    if (Zstd.isError(size) || size != rawLength) {
+                        throw new RuntimeException("zstd decompress shuffle message error, " + Zstd.getErrorName(size));
+                    }
+                    return raw;
+                default:
+                    return Arrays.copyOfRange(src, offset, offset + length);
+            }
+        }
+
+        public static Compression valueOf(byte code) {
+            for (Compression compression : values()) {
+                if (compression.code == code) {
+                    return compression;
+                }
+            }
+            throw new RuntimeException("can not support shuffle message compression " + code);
+        }
+    }
+
+    private static class LZ4Holder {
+        private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+        private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+    }
+
+    private static class Encoder {
+        private final Output output = new Output(4096, -1);
+        private final Map<String, Integer> dict = new HashMap<>();
+        private JSONObject commonHeader = new JSONObject();
+
+        private byte[] encode(JSONObject shuffleMsg) {
+            Object messages = shuffleMsg.get(SHUFFLE_MESSAGES);
+            int size = messages == null ? shuffleMsg.size() : shuffleMsg.size() - 1;
+            output.writeVarInt(size, true);
+            for (Map.Entry<String, Object> entry : shuffleMsg.entrySet()) {
+                if (!SHUFFLE_MESSAGES.equals(entry.getKey())) {
+                    writeString(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            }
+            if (!(messages instanceof List)) {
+                writeMap(commonHeader);
+                output.writeVarInt(0, true);
+                return output.toBytes();
+            }
+            List<?> rows = (List<?>) messages;
+            JSONObject[] headers = new JSONObject[rows.size()];
+            for (int i = 0; i < rows.size(); i++) {
+                headers[i] = parseHeader(rows.get(i));
+            }
+            commonHeader = findCommonHeader(headers);
+            writeMap(commonHeader);
+            output.writeVarInt(rows.size() + 1, true);
+            for (int i = 0; i < rows.size(); i++) {
+                Object row = rows.get(i);
+                if (row instanceof Map && headers[i] != null) {
+                    writeRow((Map<?, ?>) row, headers[i]);
+                } else {
+                    writeValue(row);
+                }
+            }
+            return output.toBytes();
+        }
+
+        private JSONObject parseHeader(Object row) {
+            if (!(row instanceof Map)) {
+                return null;
+            }
+            Object header = ((Map<?, ?>) row).get(ORIGIN_MESSAGE_HEADER);
+            if (!(header instanceof String) || !((String) header).startsWith("{")) {
+                return null;
+            }
+            try {
+                return JSON.parseObject((String) header);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private JSONObject findCommonHeader(JSONObject[] headers) {
+            JSONObject first = null;
+            for (JSONObject header : headers) {
+                if (header != null) {
+                    first = header;
+                    break;
+                }
+            }
+            JSONObject common = new JSONObject();
+            if (first == null) {
+                return common;
+            }
+            for (Map.Entry<String, Object> entry : first.entrySet()) {
+                boolean isCommon = true;
+                for (JSONObject header : headers) {
+                    if (header != null && header != first && !equals(entry.getValue(), header, entry.getKey())) {
+                        isCommon = false;
+                        break;
+                    }
+                }
+                if (isCommon) {
+                    common.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return common;
+        }
+
+        private boolean equals(Object value, JSONObject header, String key) {
+            Object other = header.get(key);
+            if (value == null) {
+                return other == null && header.containsKey(key);
+            }
+            return value.equals(other);
+        }
+
+        private void writeRow(Map<?, ?> row, JSONObject header) {
+            output.writeByte(OBJECT);
+            output.writeVarInt(row.size(), true);
+            for (Map.Entry<?, ?> entry : row.entrySet()) {
+                String key = String.valueOf(entry.getKey());
+                writeString(key);
+                if (ORIGIN_MESSAGE_HEADER.equals(key)) {
+                    output.writeByte(HEADER);
+                    int count = 0;
+                    for (String headerKey : header.keySet()) {
+                        if (!commonHeader.containsKey(headerKey)) {
+                            count++;
+                        }
+                    }
+                    output.writeVarInt(count, true);
+                    for (Map.Entry<String, Object> headerEntry : header.entrySet()) {
+                        if (!commonHeader.containsKey(headerEntry.getKey())) {
+                            writeString(headerEntry.getKey());
+                            writeValue(headerEntry.getValue());
+                        }
+                    }
+                } else {
+                    writeValue(entry.getValue());
+                }
+            }
+        }
+
+        private void writeMap(Map<?, ?> map) {
+            output.writeVarInt(map.size(), true);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(String.valueOf(entry.getKey()));
+                writeValue(entry.getValue());
+            }
+        }
+
+        private void writeValue(Object value) {
+            if (value == null) {
+                output.writeByte(NULL);
+            } else if (value instanceof String) {
+                output.writeByte(STRING);
+                writeString((String) value);
+            } else if (value instanceof Boolean) {
+                output.writeByte((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                output.writeByte(INT);
+                output.writeVarInt(((Number) value).intValue(), false);
+            } else if (value instanceof Long) {
+                output.writeByte(LONG);
+                output.writeVarLong((Long) value, false);
+            } else if (value instanceof Double) {
+                output.writeByte(DOUBLE);
+                output.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                output.writeByte(FLOAT);
+                output.writeFloat((Float) value);
+            } else if (value instanceof BigDecimal) {
+                output.writeByte(BIG_DECIMAL);
+                output.writeString(value.toString());
+            } else if (value instanceof BigInteger) {
+                output.writeByte(BIG_INTEGER);
+                output.writeString(value.toString());
+            } else if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                output.writeByte(BYTES);
+                output.writeVarInt(bytes.length, true);
+                output.writeBytes(bytes);
+            } else if (value instanceof Map) {
+                output.writeByte(OBJECT);
+                writeMap((Map<?, ?>) value);
+            } else if (value instanceof Collection) {
+                Collection<?> collection = (Collection<?>) value;
+                output.writeByte(ARRAY);
+                output.writeVarInt(collection.size(), true);
+                for (Object element : collection) {
+                    writeValue(element);
+                }
+            } else {
+                output.writeByte(JSON_TEXT);
+                output.writeString(JSON.toJSONString(value));
+            }
+        }
+
+        private void writeString(String value) {
+            Integer index = dict.get(value);
+            if (index != null) {
+                output.writeVarInt(index + 1, true);
+                return;
+            }
+            output.writeVarInt(0, true);
+            output.writeString(value);
+            if (value.length() <= MAX_DICT_STRING_LENGTH) {
+                dict.put(value, dict.size());
+            }
+        }
+    }
+
+    private static class Decoder {
+        private final Input input;
+        private final List<String> dict = new ArrayList<>();
+        private JSONObject commonHeader;
+
+        private Decoder(byte[] raw) {
+            this.input = new Input(raw);
+        }
+
+        private JSONObject decode() {
+            JSONObject shuffleMsg = new JSONObject();
+            readEntries(shuffleMsg);
+            commonHeader = new JSONObject();
+            readEntries(commonHeader);
+            int rowCount = input.readVarInt(true) - 1;
+            if (rowCount >= 0) {
+                JSONArray rows = new JSONArray(rowCount);
+                for (int i = 0; i < rowCount; i++) {
+                    rows.add(readValue());
+                }
+                shuffleMsg.put(SHUFFLE_MESSAGES, rows);
+            }
+            return shuffleMsg;
+        }
+
+        private void readEntries(JSONObject target) {
+            int size = input.readVarInt(true);
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                target.put(key, readValue());
+            }
+        }
+
+        private Object readValue() {
+            byte tag = input.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case INT:
+                    return input.readVarInt(false);
+                case LONG:
+                    return input.readVarLong(false);
+                case DOUBLE:
+                    return input.readDouble();
+                case FLOAT:
+                    return input.readFloat();
+                case STRING:
+                    return readString();
+                case BIG_DECIMAL:
+                    return new BigDecimal(input.readString());
+                case BIG_INTEGER:
+                    return new BigInteger(input.readString());
+                case BYTES:
+                    return input.readBytes(input.readVarInt(true));
+                case OBJECT:
+                    JSONObject object = new JSONObject();
+                    readEntries(object);
+                    return object;
+                case ARRAY:
+                    int size = input.readVarInt(true);
+                    JSONArray array = new JSONArray(size);
+                    for (int i = 0; i < size; i++) {
+                        array.add(readValue());
+                    }
+                    return array;
+                case HEADER:
+                    JSONObject header = new JSONObject(commonHeader.size() + 4);
+                    header.putAll(commonHeader);
+                    readEntries(header);
+                    return header.toJSONString();
+                case JSON_TEXT:
+                    return JSON.parse(input.readString());
+                default:
+                    throw new RuntimeException("can not support binary shuffle value type " + tag);
+            }
+        }
+
+        private String readString() {
+            int index = input.readVarInt(true);
+            if (index > 0) {
+                return dict.get(index - 1);
+            }
+            String value = input.readString();
+            if (value.length() <= MAX_DICT_STRING_LENGTH) {
+                dict.add(value);
+            }
+            return value;
+        }
+    }
+}
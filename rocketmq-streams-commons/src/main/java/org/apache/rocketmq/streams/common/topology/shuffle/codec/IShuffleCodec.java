@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.topology.shuffle.codec;
+
+import com.alibaba.fastjson.JSONObject;
+
+/**
+ * shuffle消息的编解码，生产端把合并后的一批消息（SHUFFLE_MESSAGES和分片、owner等批次字段）编码成字节，消费端解码还原
+ * 可以通过ServiceLoader扩展，用window.shuffle.codec配置生产端使用的编码
+ */
+public interface IShuffleCodec {
+
+    /**
+     * 编码名称，随消息一起发送，消费端据此选择解码方式
+     *
+     * @return
+     */
+    String getName();
+
+    byte[] encode(JSONObject shuffleMsg);
+
+    JSONObject decode(byte[] bytes);
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.topology.shuffle.codec;
+
+import com.alibaba.fastjson.JSONObject;
+import org.apache.rocketmq.streams.common.utils.CompressUtil;
+
+/**
+ * 原来的格式，整批消息转成json字符串后gzip
+ */
+public class JsonGzipShuffleCodec implements IShuffleCodec {
+
+    public static final String NAME = "json_gzip";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(JSONObject shuffleMsg) {
+        return CompressUtil.gZip(shuffleMsg.toJSONString());
+    }
+
+    @Override
+    public JSONObject decode(byte[] bytes) {
+        return JSONObject.parseObject(CompressUtil.unGzip(bytes));
+    }
+}
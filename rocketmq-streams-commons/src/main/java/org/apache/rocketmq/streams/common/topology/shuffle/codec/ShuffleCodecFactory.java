@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.topology.shuffle.codec;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.rocketmq.streams.common.component.ComponentCreator;
+import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
+import org.apache.rocketmq.streams.common.topology.stages.ShuffleProducerChainStage;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+
+/**
+ * 按名称管理shuffle编码，内置json_gzip和binary系列，其他编码通过ServiceLoader加载
+ */
+public class ShuffleCodecFactory {
+
+    /**
+     * 消息中记录编码名称的字段，老版本的消息没有这个字段，按json_gzip解码
+     */
+    public static final String SHUFFLE_CODEC = "_shuffle_codec";
+
+    /**
+     * 默认编码和老版本相同，滚动升级时未升级的消费端也能解码；binary系列编码需要按作业或者配置开启
+     */
+    public static final String DEFAULT_CODEC_NAME = JsonGzipShuffleCodec.NAME;
+
+    private static final Map<String, IShuffleCodec> CODECS = new ConcurrentHashMap<>();
+
+    static {
+        register(new JsonGzipShuffleCodec());
+        register(new BinaryShuffleCodec(BinaryShuffleCodec.NAME, BinaryShuffleCodec.Compression.NONE));
+        register(new BinaryShuffleCodec(BinaryShuffleCodec.LZ4_NAME, BinaryShuffleCodec.Compression.LZ4));
+        register(new BinaryShuffleCodec(BinaryShuffleCodec.ZSTD_NAME, BinaryShuffleCodec.Compression.ZSTD));
+        for (IShuffleCodec codec : ServiceLoader.load(IShuffleCodec.class)) {
+            register(codec);
+        }
+    }
+
+    public static void register(IShuffleCodec codec) {
+        CODECS.put(codec.getName(), codec);
+    }
+
+    public static IShuffleCodec getCodec(String name) {
+        IShuffleCodec codec = CODECS.get(name);
+        if (codec == null) {
+            throw new RuntimeException("can not find shuffle codec " + name);
+        }
+        return codec;
+    }
+
+    /**
+     * 生产端使用的编码，由window.shuffle.codec配置
+     *
+     * @return
+     */
+    public static IShuffleCodec getDefaultCodec() {
+        String name = ComponentCreator.getProperties().getProperty(ConfigureFileKey.WINDOW_SHUFFLE_CODEC);
+        if (StringUtil.isEmpty(name)) {
+            name = DEFAULT_CODEC_NAME;
+        }
+        return getCodec(name);
+    }
+
+    /**
+     * 把合并后的shuffle消息编码成发送的消息体
+     *
+     * @param shuffleMsg
+     * @return
+     */
+    public static JSONObject encode(JSONObject shuffleMsg) {
+        return encode(shuffleMsg, null);
+    }
+
+    /**
+     * 按作业指定的编码把合并后的shuffle消息编码成发送的消息体
+     *
+     * @param shuffleMsg
+     * @param codecName  作业指定的编码，为空时使用getDefaultCodec
+     * @return
+     */
+    public static JSONObject encode(JSONObject shuffleMsg, String codecName) {
+        IShuffleCodec codec = StringUtil.isEmpty(codecName) ? getDefaultCodec() : getCodec(codecName);
+        JSONObject msg = new JSONObject();
+        msg.put(ShuffleProducerChainStage.COMPRESSION_MSG_DATA, codec.encode(shuffleMsg));
+        msg.put(ShuffleProducerChainStage.IS_COMPRESSION_MSG, true);
+        if (!JsonGzipShuffleCodec.NAME.equals(codec.getName())) {
+            msg.put(SHUFFLE_CODEC, codec.getName());
+        }
+        return msg;
+    }
+
+    /**
+     * 还原encode前的shuffle消息，没有编码的消息直接返回
+     *
+     * @param msgBody
+     * @return
+     */
+    public static JSONObject decode(JSONObject msgBody) {
+        if (!msgBody.getBooleanValue(ShuffleProducerChainStage.IS_COMPRESSION_MSG)) {
+            return msgBody;
+        }
+        String name = msgBody.getString(SHUFFLE_CODEC);
+        if (StringUtil.isEmpty(name)) {
+            name = JsonGzipShuffleCodec.NAME;
+        }
+        return getCodec(name).decode(msgBody.getBytes(ShuffleProducerChainStage.COMPRESSION_MSG_DATA));
+    }
+}
@@ -37,7 +37,7 @@ import org.apache.rocketmq.streams.common.topology.SectionPipeline;
 import org.apache.rocketmq.streams.common.topology.model.AbstractRule;
 import org.apache.rocketmq.streams.common.topology.model.IStageHandle;
 import org.apache.rocketmq.streams.common.topology.shuffle.ShuffleMQCreator;
-import org.apache.rocketmq.streams.common.utils.CompressUtil;
+import org.apache.rocketmq.streams.common.topology.shuffle.codec.ShuffleCodecFactory;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.common.utils.TraceUtil;
 
@@ -99,9 +99,7 @@ public class ShuffleConsumerChainStage <T extends IMessage, R extends AbstractRu
 
         }
         if (oriMessage.getMessageBody().getBooleanValue(ShuffleProducerChainStage.IS_COMPRESSION_MSG)) {
-            byte[] bytes = oriMessage.getMessageBody().getBytes(ShuffleProducerChainStage.COMPRESSION_MSG_DATA);
-            String msgStr = CompressUtil.unGzip(bytes);
-            oriMessage.setMessageBody(JSONObject.parseObject(msgStr));
+            oriMessage.setMessageBody(ShuffleCodecFactory.decode(oriMessage.getMessageBody()));
         }
         /**
          * 过滤不是这个window的消息，一个shuffle通道，可能多个window共享，这里过滤掉非本window的消息
@@ -48,7 +48,7 @@ import org.apache.rocketmq.streams.common.topology.model.AbstractRule;
 import org.apache.rocketmq.streams.common.topology.model.AbstractStage;
 import org.apache.rocketmq.streams.common.topology.model.IWindow;
 import org.apache.rocketmq.streams.common.topology.shuffle.ShuffleMQCreator;
-import org.apache.rocketmq.streams.common.utils.CompressUtil;
+import org.apache.rocketmq.streams.common.topology.shuffle.codec.ShuffleCodecFactory;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.common.utils.TraceUtil;
 
@@ -87,6 +87,7 @@ public class ShuffleProducerChainStage<T extends IMessage, R extends AbstractRul
     protected String shuffleOwnerName;//shuffle 拥有者到名子，如是窗口，则是windowname+groupname+updateflag
     protected String windowName;//Provide objects generated by shuffle key, such as window objects
     protected int splitCount;
+    protected String shuffleCodec;//shuffle消息的编码，为空时使用window.shuffle.codec配置，见ShuffleCodecFactory
 
 
     protected transient IWindow window;//generator shuffle key
@@ -122,10 +123,7 @@ public class ShuffleProducerChainStage<T extends IMessage, R extends AbstractRul
                         allMsgs.addAll(jsonArray);
                     }
                 }
-                JSONObject zipJsonObject = new JSONObject();
-                zipJsonObject.put(COMPRESSION_MSG_DATA, CompressUtil.gZip(jsonObject.toJSONString()));
-                zipJsonObject.put(IS_COMPRESSION_MSG, true);
-                producer.batchAdd(new Message(zipJsonObject), split);
+                producer.batchAdd(new Message(ShuffleCodecFactory.encode(jsonObject, shuffleCodec)), split);
                 producer.flush(split.getQueueId());
 
                 return true;
@@ -342,4 +340,12 @@ public class ShuffleProducerChainStage<T extends IMessage, R extends AbstractRul
     public void setSplitCount(int splitCount) {
         this.splitCount = splitCount;
     }
+
+    public String getShuffleCodec() {
+        return shuffleCodec;
+    }
+
+    public void setShuffleCodec(String shuffleCodec) {
+        this.shuffleCodec = shuffleCodec;
+    }
 }
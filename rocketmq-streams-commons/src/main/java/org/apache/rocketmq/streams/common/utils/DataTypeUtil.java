@@ -49,6 +49,7 @@ import org.apache.rocketmq.streams.common.datatype.IJsonable;
 import org.apache.rocketmq.streams.common.datatype.IntDataType;
 import org.apache.rocketmq.streams.common.datatype.JavaBeanDataType;
 import org.apache.rocketmq.streams.common.datatype.JsonableDataType;
+import org.apache.rocketmq.streams.common.datatype.KryoDataType;
 import org.apache.rocketmq.streams.common.datatype.ListDataType;
 import org.apache.rocketmq.streams.common.datatype.LongDataType;
 import org.apache.rocketmq.streams.common.datatype.MapDataType;
@@ -89,6 +90,7 @@ public class DataTypeUtil {
         register(new SetDataType());
         register(new ArrayDataType());
         register(new MapDataType());
+        register(new KryoDataType());
         register(new ConfigurableDataType());
         register(new JsonableDataType());
         register(new JavaBeanDataType());
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.channel.sinkcache;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.streams.common.channel.sinkcache.impl.MessageCache;
+import org.apache.rocketmq.streams.common.channel.sinkcache.impl.MultiSplitMessageCache;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class AutoFlushSchedulerTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /**
+     * 不启动定时线程，手动推进时间轮
+     */
+    @Test
+    public void testFlushByTimeAndSize() throws InterruptedException {
+        BlockingQueue<List<Integer>> flushed = new LinkedBlockingQueue<>();
+        MessageCache<Integer> cache = createCache(flushed);
+        AutoFlushScheduler scheduler = new AutoFlushScheduler(false);
+        AutoFlushScheduler.FlushTask task = scheduler.register(cache, null, 300, 5);
+        long now = System.currentTimeMillis();
+
+        //按时间刷新，未到期时不刷新
+        cache.addCache(1);
+        scheduler.tick(now);
+        assertTrue(flushed.isEmpty());
+        scheduler.tick(now + 1000);
+        assertEquals(1, poll(flushed).size());
+        assertEquals(0, cache.getMessageCount().intValue());
+
+        //按条数刷新，不需要等到时间间隔
+        task.setAutoFlushTimeGap(100000);
+        for (int i = 0; i < 5; i++) {
+            task.checkSize(cache.addCache(i));
+        }
+        assertEquals(5, poll(flushed).size());
+
+        //取消后不再刷新
+        task.cancel();
+        for (int i = 0; i < 10; i++) {
+            task.checkSize(cache.addCache(i));
+        }
+        scheduler.tick(now + 1000000);
+        assertTrue(flushed.isEmpty());
+        assertEquals(10, cache.flush());
+    }
+
+    @Test
+    public void testMessageCacheAutoFlush() throws InterruptedException {
+        BlockingQueue<List<Integer>> flushed = new LinkedBlockingQueue<>();
+        MessageCache<Integer> cache = createCache(flushed);
+        cache.setAutoFlushTimeGap(100000);
+        cache.setAutoFlushSize(5);
+        cache.openAutoFlush();
+        for (int i = 0; i < 5; i++) {
+            cache.addCache(i);
+        }
+        assertEquals(5, poll(flushed).size());
+        cache.closeAutoFlush();
+
+        MessageCache<Integer> timeCache = createCache(flushed);
+        timeCache.setAutoFlushTimeGap(100);
+        timeCache.openAutoFlush();
+        timeCache.addCache(1);
+        assertEquals(1, poll(flushed).size());
+        timeCache.closeAutoFlush();
+    }
+
+    /**
+     * 同一个sink的不同分片单独刷新，可以同时占用多个刷新线程
+     */
+    @Test
+    public void testSplitsFlushInParallel() throws InterruptedException {
+        CountDownLatch bothFlushing = new CountDownLatch(2);
+        CountDownLatch bothFlushed = new CountDownLatch(2);
+        Map<String, Boolean> queueId2Parallel = new ConcurrentHashMap<>();
+        MultiSplitMessageCache cache = new MultiSplitMessageCache(messages -> {
+            bothFlushing.countDown();
+            try {
+                queueId2Parallel.put(messages.get(0).getHeader().getQueueId(), bothFlushing.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            bothFlushed.countDown();
+            return true;
+        });
+        cache.setAutoFlushTimeGap(100000);
+        cache.setAutoFlushSize(1);
+        for (String queueId : new String[] {"queue_1", "queue_2"}) {
+            IMessage message = new Message(new JSONObject());
+            message.getHeader().setQueueId(queueId);
+            cache.addCache(message);
+        }
+        assertTrue(bothFlushed.await(TIMEOUT_SECONDS * 2, TimeUnit.SECONDS));
+        cache.closeAutoFlush();
+        assertEquals(2, queueId2Parallel.size());
+        assertTrue(queueId2Parallel.get("queue_1"));
+        assertTrue(queueId2Parallel.get("queue_2"));
+    }
+
+    private MessageCache<Integer> createCache(BlockingQueue<List<Integer>> flushed) {
+        MessageCache<Integer> cache = new MessageCache<>(messages -> {
+            flushed.add(messages);
+            return true;
+        });
+        cache.setBatchSize(-1);
+        return cache;
+    }
+
+    private List<Integer> poll(BlockingQueue<List<Integer>> flushed) throws InterruptedException {
+        List<Integer> messages = flushed.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(messages);
+        return messages;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.channel.sinkcache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.apache.rocketmq.streams.common.channel.sinkcache.impl.RingBufferMessageCache;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RingBufferMessageCacheTest {
+
+    @Test
+    public void testBlockWhenFull() throws InterruptedException {
+        List<Integer> flushed = Collections.synchronizedList(new ArrayList<>());
+        RingBufferMessageCache<Integer> cache = new RingBufferMessageCache<>(messages -> {
+            flushed.addAll(messages);
+            return true;
+        }, 16);
+        cache.setBatchSize(-1);
+        int threadCount = 4;
+        int count = 1000;
+        CountDownLatch latch = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            int base = t * count;
+            new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    cache.addCache(base + i);
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        cache.flush();
+        assertEquals(threadCount * count, flushed.size());
+        assertEquals(0, cache.getQueueDepth());
+        assertEquals(0, cache.getMessageCount().intValue());
+        assertEquals(0, cache.getDroppedCount());
+        //同一个生产者的消息保持顺序
+        int last = -1;
+        for (Integer value : flushed) {
+            if (value < count) {
+                assertEquals(last + 1, value.intValue());
+                last = value;
+            }
+        }
+    }
+
+    @Test
+    public void testDropWhenFull() {
+        List<Integer> flushed = new ArrayList<>();
+        RingBufferMessageCache<Integer> cache = new RingBufferMessageCache<>(messages -> {
+            flushed.addAll(messages);
+            return true;
+        }, 4);
+        cache.setBatchSize(-1);
+        cache.setFullPolicy(RingBufferMessageCache.FULL_POLICY_DROP);
+        for (int i = 0; i < 6; i++) {
+            cache.addCache(i);
+        }
+        assertEquals(4, cache.getQueueDepth());
+        assertEquals(2, cache.getDroppedCount());
+        assertEquals(4, cache.flush());
+        assertEquals(4, flushed.size());
+        assertEquals(1, cache.getFlushCount());
+        cache.addCache(6);
+        assertEquals(1, cache.flush());
+        assertEquals(6, flushed.get(4).intValue());
+    }
+
+    @Test
+    public void testGrowLazily() {
+        List<Integer> flushed = new ArrayList<>();
+        RingBufferMessageCache<Integer> cache = new RingBufferMessageCache<>(messages -> {
+            flushed.addAll(messages);
+            return true;
+        }, 100);
+        cache.setBatchSize(-1);
+        assertEquals(0, cache.getBufferSize());
+        //先让head和tail绕过数组末尾，再扩容
+        for (int i = 0; i < 10; i++) {
+            cache.addCache(i);
+        }
+        cache.flush();
+        for (int i = 10; i < 60; i++) {
+            cache.addCache(i);
+        }
+        assertEquals(64, cache.getBufferSize());
+        for (int i = 60; i < 110; i++) {
+            cache.addCache(i);
+            if (cache.getQueueDepth() == 100) {
+                cache.flush();
+            }
+        }
+        assertEquals(100, cache.getBufferSize());
+        cache.flush();
+        assertEquals(110, flushed.size());
+        for (int i = 0; i < 110; i++) {
+            assertEquals(i, flushed.get(i).intValue());
+        }
+    }
+}
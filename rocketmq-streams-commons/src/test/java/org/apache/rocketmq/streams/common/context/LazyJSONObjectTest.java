@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.context;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LazyJSONObjectTest {
+
+    private static final String TEXT = "{\"ip\":\"1.1.1.1\", \"port\" : 80,\"cmd\":\"a,b}\\\"c\",\"nested\":{\"x\":[1,{\"y\":\"]\"}]},\"flag\":true,\"empty\":null}";
+
+    @Test
+    public void testFieldAccess() {
+        LazyJSONObject msg = new LazyJSONObject(TEXT, null);
+        assertEquals("1.1.1.1", msg.getString("ip"));
+        assertEquals(80, msg.getIntValue("port"));
+        assertEquals("a,b}\"c", msg.getString("cmd"));
+        assertEquals("]", msg.getJSONObject("nested").getJSONArray("x").getJSONObject(1).getString("y"));
+        assertTrue(msg.getBoolean("flag"));
+        assertNull(msg.get("empty"));
+        assertFalse(msg.containsKey("notExist"));
+        assertFalse(msg.isParsed());
+
+        msg.put("ip", "2.2.2.2");
+        msg.remove("port");
+        msg.put("newField", 1);
+        assertFalse(msg.isParsed());
+
+        JSONObject expected = JSONObject.parseObject(TEXT);
+        expected.put("ip", "2.2.2.2");
+        expected.remove("port");
+        expected.put("newField", 1);
+        assertEquals(expected.size(), msg.size());
+        assertTrue(msg.isParsed());
+        assertEquals(expected, msg);
+        assertEquals(JSONObject.parseObject(expected.toJSONString()), JSONObject.parseObject(msg.toJSONString()));
+    }
+
+    @Test
+    public void testNeededFields() {
+        LazyJSONObject msg = new LazyJSONObject(TEXT, new HashSet<>(Arrays.asList("ip", "flag")));
+        assertEquals("1.1.1.1", msg.getString("ip"));
+        assertTrue(msg.getBoolean("flag"));
+        assertFalse(msg.isParsed());
+        //不在需要的字段中，全量解析
+        assertEquals(80, msg.getIntValue("port"));
+        assertTrue(msg.isParsed());
+        assertEquals(JSONObject.parseObject(TEXT), msg);
+
+        //不是标准json时全量解析
+        msg = new LazyJSONObject("{ip:'1.1.1.1'}", null);
+        assertEquals("1.1.1.1", msg.getString("ip"));
+        assertTrue(msg.isParsed());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.context;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OverlayMapTest {
+
+    @Test
+    public void testCopyOnWrite() {
+        JSONObject body = new JSONObject();
+        body.put("a", 1);
+        body.put("b", "x");
+        body.put("c", null);
+        Message message = new Message(body);
+        message.getHeader().setQueueId("q1");
+
+        Message first = message.copyOnWrite();
+        Message second = message.copyOnWrite();
+        first.getMessageBody().put("a", 2);
+        first.getMessageBody().put("d", "new");
+        second.getMessageBody().remove("b");
+
+        assertEquals(1, body.get("a"));
+        assertEquals(3, body.size());
+        assertEquals("q1", first.getHeader().getQueueId());
+
+        assertEquals(2, first.getMessageBody().getIntValue("a"));
+        assertEquals("x", first.getMessageBody().getString("b"));
+        assertTrue(first.getMessageBody().containsKey("c"));
+        assertEquals(4, first.getMessageBody().size());
+        assertEquals(expected("a", 2, "b", "x", "c", null, "d", "new"), new HashMap<>(first.getMessageBody()));
+
+        assertFalse(second.getMessageBody().containsKey("b"));
+        assertNull(second.getMessageBody().get("b"));
+        assertEquals(2, second.getMessageBody().size());
+
+        //视图的视图
+        Message third = first.copyOnWrite();
+        third.getMessageBody().remove("d");
+        third.getMessageBody().put("b", "y");
+        assertEquals("new", first.getMessageBody().getString("d"));
+        assertEquals(expected("a", 2, "b", "y", "c", null), new HashMap<>(third.getMessageBody()));
+        assertEquals(JSONObject.parseObject(third.getMessageBody().toJSONString()), JSONObject.parseObject("{\"a\":2,\"b\":\"y\"}"));
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        Map<String, Object> base = expected("a", 1, "b", 2);
+        OverlayMap map = OverlayMap.create(base);
+        map.put("c", 3);
+        Iterator<Map.Entry<String, Object>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Object> entry = iterator.next();
+            if (!"b".equals(entry.getKey())) {
+                iterator.remove();
+            } else {
+                entry.setValue(20);
+            }
+        }
+        assertEquals(expected("b", 20), new HashMap<>(map));
+        assertEquals(expected("a", 1, "b", 2), base);
+    }
+
+    private Map<String, Object> expected(Object... keyValues) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            map.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return map;
+    }
+}
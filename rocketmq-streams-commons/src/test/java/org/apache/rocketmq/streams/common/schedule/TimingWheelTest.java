@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.schedule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testAdvanceByWatermark() {
+        TimingWheel<Long> timingWheel = new TimingWheel<>(1000, 8, 0);
+        timingWheel.add(500, 500L);
+        timingWheel.add(3000, 3000L);
+        timingWheel.add(7999, 7999L);
+        //超出第一层，放到上层
+        timingWheel.add(60000, 60000L);
+        timingWheel.add(3600000, 3600000L);
+
+        assertEquals(Collections.singletonList(500L), advance(timingWheel, 2999));
+        assertEquals(Collections.singletonList(3000L), advance(timingWheel, 3000));
+        assertTrue(advance(timingWheel, 7998).isEmpty());
+        assertEquals(Collections.singletonList(7999L), advance(timingWheel, 7999));
+        assertTrue(advance(timingWheel, 59999).isEmpty());
+        assertEquals(Collections.singletonList(60000L), advance(timingWheel, 60500));
+        //水位跳跃很大
+        assertEquals(Collections.singletonList(3600000L), advance(timingWheel, 100000000));
+        assertTrue(timingWheel.isEmpty());
+
+        //过期的元素下次推进时返回
+        timingWheel.add(1000, 1000L);
+        assertEquals(Collections.singletonList(1000L), advance(timingWheel, 100000000));
+    }
+
+    @Test
+    public void testCancel() {
+        TimingWheel<Long> timingWheel = new TimingWheel<>(1000, 8, 0);
+        TimingWheel.Timeout<Long> first = timingWheel.add(5000, 5000L);
+        TimingWheel.Timeout<Long> second = timingWheel.add(5000, 5001L);
+        TimingWheel.Timeout<Long> far = timingWheel.add(100000, 100000L);
+        assertTrue(first.cancel());
+        assertFalse(first.cancel());
+        assertTrue(far.cancel());
+        assertEquals(1, timingWheel.size());
+
+        assertEquals(Collections.singletonList(5001L), advance(timingWheel, 200000));
+        assertFalse(second.cancel());
+        assertTrue(timingWheel.isEmpty());
+    }
+
+    @Test
+    public void testRandomCompareWithPriorityQueue() {
+        Random random = new Random(1);
+        TimingWheel<Long> timingWheel = new TimingWheel<>(1000, 64, 10000);
+        PriorityQueue<Long> queue = new PriorityQueue<>();
+        long watermark = 10000;
+        for (int round = 0; round < 2000; round++) {
+            for (int i = 0; i < 20; i++) {
+                long expireMs = watermark - 5000 + (long) random.nextInt(10000000);
+                timingWheel.add(expireMs, expireMs);
+                queue.add(expireMs);
+            }
+            watermark += random.nextInt(20000);
+            List<Long> expected = new ArrayList<>();
+            while (!queue.isEmpty() && queue.peek() <= watermark) {
+                expected.add(queue.poll());
+            }
+            List<Long> actual = advance(timingWheel, watermark);
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+            assertEquals(queue.size(), timingWheel.size());
+        }
+    }
+
+    private List<Long> advance(TimingWheel<Long> timingWheel, long time) {
+        List<Long> expired = new ArrayList<>();
+        timingWheel.advance(time, expired);
+        return expired;
+    }
+}
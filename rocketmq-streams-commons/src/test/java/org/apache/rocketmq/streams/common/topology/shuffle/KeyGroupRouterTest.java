@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.topology.shuffle;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeyGroupRouterTest {
+
+    @Test
+    public void testCompatibleWithModuloHash() {
+        KeyGroupRouter router = new KeyGroupRouter(KeyGroupRouter.DEFAULT_MAX_PARALLELISM);
+        for (int i = 0; i < 10000; i++) {
+            String key = "key_" + i;
+            int h = Math.abs(key.hashCode());
+            //队列数是最大并行度的约数时，和原来的hashCode取模结果相同
+            assertEquals(h % 8, router.route(key, 8));
+            assertEquals(h % 32, router.route(key, 32));
+        }
+    }
+
+    @Test
+    public void testLegacyQueueCount() {
+        KeyGroupRouter router = new KeyGroupRouter(KeyGroupRouter.DEFAULT_MAX_PARALLELISM);
+        assertFalse(router.isLegacyCompatible(6));
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String key = "key_" + i;
+            int index = router.route(key, 6);
+            int legacyIndex = router.legacyRoute(key, 6);
+            if (index != legacyIndex) {
+                moved++;
+            }
+            //升级前的状态一定在legacyPreviousQueueIndexes中
+            assertTrue(router.legacyPreviousQueueIndexes(index, 6, 6).contains(legacyIndex));
+            assertTrue(router.legacyPreviousQueueIndexes(router.route(key, 10), 6, 10).contains(legacyIndex));
+        }
+        //队列数不是最大并行度的约数时，升级后部分key的队列变化
+        assertTrue(moved > 0);
+        assertEquals(new HashSet<>(Arrays.asList(1, 3, 5)), router.legacyPreviousQueueIndexes(1, 6, 6));
+        assertEquals(new HashSet<>(Arrays.asList(1)), router.legacyPreviousQueueIndexes(1, 8, 8));
+    }
+
+    @Test
+    public void testScaleOut() {
+        KeyGroupRouter router = new KeyGroupRouter(16);
+        int moved = 0;
+        for (int keyGroup = 0; keyGroup < 16; keyGroup++) {
+            if (router.queueIndex(keyGroup, 8) != router.queueIndex(keyGroup, 16)) {
+                moved++;
+            }
+        }
+        //队列数翻倍，一半的key group迁移
+        assertEquals(8, moved);
+
+        assertEquals(new HashSet<>(Arrays.asList(1)), router.previousQueueIndexes(9, 8, 16));
+        assertEquals(new HashSet<>(Arrays.asList(1)), router.previousQueueIndexes(1, 8, 16));
+        assertEquals(new HashSet<>(Arrays.asList(1, 3)), router.previousQueueIndexes(1, 6, 8));
+    }
+}
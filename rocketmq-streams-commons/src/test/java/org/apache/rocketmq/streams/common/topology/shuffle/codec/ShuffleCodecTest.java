@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.common.topology.shuffle.codec;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import java.util.Random;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.common.topology.stages.ShuffleProducerChainStage;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ShuffleCodecTest {
+    private static final String[] CODEC_NAMES = {JsonGzipShuffleCodec.NAME, BinaryShuffleCodec.NAME, BinaryShuffleCodec.LZ4_NAME, BinaryShuffleCodec.ZSTD_NAME};
+
+    @Test
+    public void testEncodeAndDecode() {
+        JSONObject shuffleMsg = createShuffleMsg(200);
+        JSONArray expectedRows = shuffleMsg.getJSONArray("SHUFFLE_MESSAGES");
+        for (String codecName : CODEC_NAMES) {
+            IShuffleCodec codec = ShuffleCodecFactory.getCodec(codecName);
+            JSONObject decoded = codec.decode(codec.encode(shuffleMsg));
+            assertEquals(codecName, "split_1", decoded.getString("SHUFFLE_QUEUE_ID"));
+            assertEquals(codecName, "window_owner", decoded.getString("MSG_OWNER"));
+            JSONArray rows = decoded.getJSONArray("SHUFFLE_MESSAGES");
+            assertEquals(codecName, expectedRows.size(), rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                JSONObject expected = expectedRows.getJSONObject(i);
+                JSONObject row = rows.getJSONObject(i);
+                for (String key : expected.keySet()) {
+                    if (ShuffleProducerChainStage.ORIGIN_MESSAGE_HEADER.equals(key)) {
+                        assertEquals(codecName, JSONObject.parseObject(expected.getString(key)), JSONObject.parseObject(row.getString(key)));
+                    } else {
+                        assertEquals(codecName, expected.getString(key), row.getString(key));
+                    }
+                }
+                assertNull(row.get("nullField"));
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeOldMessage() {
+        JSONObject shuffleMsg = createShuffleMsg(10);
+        JSONObject msgBody = new JSONObject();
+        msgBody.put(ShuffleProducerChainStage.COMPRESSION_MSG_DATA, new JsonGzipShuffleCodec().encode(shuffleMsg));
+        msgBody.put(ShuffleProducerChainStage.IS_COMPRESSION_MSG, true);
+        //经过消息队列后，byte[]变成base64字符串
+        JSONObject received = JSONObject.parseObject(msgBody.toJSONString());
+        assertEquals(10, ShuffleCodecFactory.decode(received).getJSONArray("SHUFFLE_MESSAGES").size());
+
+        //默认编码和老版本的消息格式相同
+        received = JSONObject.parseObject(ShuffleCodecFactory.encode(shuffleMsg).toJSONString());
+        assertNull(received.getString(ShuffleCodecFactory.SHUFFLE_CODEC));
+        assertEquals(10, ShuffleCodecFactory.decode(received).getJSONArray("SHUFFLE_MESSAGES").size());
+
+        //作业指定的编码写入消息，消费端按名称解码
+        received = JSONObject.parseObject(ShuffleCodecFactory.encode(shuffleMsg, BinaryShuffleCodec.LZ4_NAME).toJSONString());
+        assertEquals(BinaryShuffleCodec.LZ4_NAME, received.getString(ShuffleCodecFactory.SHUFFLE_CODEC));
+        assertEquals(10, ShuffleCodecFactory.decode(received).getJSONArray("SHUFFLE_MESSAGES").size());
+    }
+
+    private JSONObject createShuffleMsg(int rowCount) {
+        Random random = new Random(1);
+        String[] cities = {"hangzhou", "beijing", "shanghai", "shenzhen"};
+        JSONArray rows = new JSONArray();
+        for (int i = 0; i < rowCount; i++) {
+            JSONObject body = new JSONObject();
+            body.put("userId", "user_" + random.nextInt(100));
+            body.put("city", cities[random.nextInt(cities.length)]);
+            body.put("amount", random.nextInt(100000) / 100.0);
+            body.put("count", random.nextInt(10));
+            body.put("eventTime", 1650000000000L + i * 1000L);
+            body.put("valid", i % 2 == 0);
+            body.put("nullField", null);
+            IMessage message = new Message(body);
+            message.getHeader().setQueueId("source_queue_1");
+            message.getHeader().setOffset(String.valueOf(100000 + i));
+            body.put(ShuffleProducerChainStage.ORIGIN_OFFSET, message.getHeader().getOffset());
+            body.put(ShuffleProducerChainStage.ORIGIN_QUEUE_ID, message.getHeader().getQueueId());
+            body.put(ShuffleProducerChainStage.ORIGIN_QUEUE_IS_LONG, message.getHeader().getMessageOffset().isLongOfMainOffset());
+            body.put(ShuffleProducerChainStage.ORIGIN_MESSAGE_HEADER, JSONObject.toJSONString(message.getHeader()));
+            body.put(ShuffleProducerChainStage.ORIGIN_MESSAGE_TRACE_ID, message.getHeader().getTraceId());
+            body.put(ShuffleProducerChainStage.SHUFFLE_KEY, body.getString("userId"));
+            rows.add(body);
+        }
+        JSONObject shuffleMsg = new JSONObject();
+        shuffleMsg.put("SHUFFLE_QUEUE_ID", "split_1");
+        shuffleMsg.put("SHUFFLE_MESSAGES", rows);
+        shuffleMsg.put("MSG_OWNER", "window_owner");
+        return shuffleMsg;
+    }
+}
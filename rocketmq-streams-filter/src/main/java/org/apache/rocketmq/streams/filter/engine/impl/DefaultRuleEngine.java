@@ -18,11 +18,14 @@ package org.apache.rocketmq.streams.filter.engine.impl;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.rocketmq.streams.common.component.ComponentCreator;
+import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.monitor.IMonitor;
@@ -47,6 +50,20 @@ public class DefaultRuleEngine implements IRuleEngine {
     private static final Log LOG = LogFactory.getLog(DefaultRuleEngine.class);
     private static final Log RULEENGINE_MESSAGE_LOG = LogFactory.getLog("ruleengine_message");
 
+    /**
+     * 最多缓存的规则网络个数，超过后淘汰最久没用的
+     */
+    private static final int RULE_NETWORK_CACHE_SIZE = 64;
+
+    protected final Map<RuleNetworkKey, RuleNetwork> ruleNetworks = new LinkedHashMap<RuleNetworkKey, RuleNetwork>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<RuleNetworkKey, RuleNetwork> eldest) {
+            return size() > RULE_NETWORK_CACHE_SIZE;
+        }
+    };
+
+    protected volatile RuleNetwork lastRuleNetwork;
+
     @SuppressWarnings({"rawtypes", "unchecked"})
     @Override
     public List<Rule> executeRule(IMessage message, List<Rule> rules) {
@@ -73,19 +90,24 @@ public class DefaultRuleEngine implements IRuleEngine {
                 return fireRules;
             }
             try {
-                for (Rule rule : excuteRules) {
+                RuleNetwork ruleNetwork = getRuleNetwork(context, message, excuteRules);
+                if (ruleNetwork != null) {
+                    executeRuleNetwork(context, message, ruleNetwork, fireRules, isAction);
+                } else {
+                    for (Rule rule : excuteRules) {
 //                    RuleContext ruleContext = new RuleContext(message.getMessageBody(), rule);
 //                    if (context != null) {
 //                        context.syncSubContext(ruleContext);
 //                    }
-                    boolean isFireRule = rule.doMessage(message, context);
+                        boolean isFireRule = rule.doMessage(message, context);
 
-                    if (isFireRule) {
-                        fireRules.add(rule);
+                        if (isFireRule) {
+                            fireRules.add(rule);
 
-                        //doUnRepeateScript(ruleContext, rule);// 执行规则去重脚本
-                        if (isAction) {
-                            fireAction(message, context, rule);
+                            //doUnRepeateScript(ruleContext, rule);// 执行规则去重脚本
+                            if (isAction) {
+                                fireAction(message, context, rule);
+                            }
                         }
                     }
                 }
@@ -113,12 +135,80 @@ public class DefaultRuleEngine implements IRuleEngine {
         return executeRule(null, message, rules, false);
     }
 
+    /**
+     * 多个规则且不需要跟踪时，用合并了相同表达式的规则网络执行，结果和逐个执行规则一致
+     *
+     * @return 不使用规则网络时返回null
+     */
+    protected RuleNetwork getRuleNetwork(AbstractContext context, IMessage message, List<Rule> rules) {
+        if (context == null || rules.size() < 2 || TraceUtil.hit(message.getHeader().getTraceId())) {
+            return null;
+        }
+        String networkSwitch = ComponentCreator.getProperties().getProperty(ConfigureFileKey.RULE_ENGINE_NETWORK_SWITCH);
+        if (networkSwitch != null && !Boolean.parseBoolean(networkSwitch)) {
+            return null;
+        }
+        RuleNetwork ruleNetwork = lastRuleNetwork;
+        if (ruleNetwork != null && ruleNetwork.isBuildFrom(rules)) {
+            return ruleNetwork;
+        }
+        RuleNetworkKey key = new RuleNetworkKey(rules);
+        synchronized (ruleNetworks) {
+            ruleNetwork = ruleNetworks.get(key);
+            if (ruleNetwork == null) {
+                ruleNetwork = new RuleNetwork(rules);
+                ruleNetworks.put(key, ruleNetwork);
+            }
+        }
+        lastRuleNetwork = ruleNetwork;
+        return ruleNetwork;
+    }
+
+    /**
+     * 只计算索引选出的候选规则。触发的规则执行了action后，消息可能被修改，剩下的规则逐个重新计算
+     */
+    protected void executeRuleNetwork(AbstractContext context, IMessage message, RuleNetwork ruleNetwork, List<Rule> fireRules, boolean isAction) {
+        byte[] results = ruleNetwork.createResults();
+        int lastRuleIndex = -1;
+        boolean messageChanged = false;
+        for (int ruleIndex : ruleNetwork.selectCandidates(message, context)) {
+            if (!ruleNetwork.match(ruleIndex, message, context, results)) {
+                continue;
+            }
+            Rule rule = ruleNetwork.getRule(ruleIndex);
+            fireRules.add(rule);
+            if (isAction && fireAction(message, context, rule)) {
+                lastRuleIndex = ruleIndex;
+                messageChanged = true;
+                break;
+            }
+        }
+        if (!messageChanged) {
+            return;
+        }
+        for (int ruleIndex = lastRuleIndex + 1; ruleIndex < ruleNetwork.getRuleCount(); ruleIndex++) {
+            if (messageChanged) {
+                results = ruleNetwork.createResults();
+                messageChanged = false;
+            }
+            if (ruleNetwork.match(ruleIndex, message, context, results)) {
+                Rule rule = ruleNetwork.getRule(ruleIndex);
+                fireRules.add(rule);
+                messageChanged = isAction && fireAction(message, context, rule);
+            }
+        }
+    }
+
+    /**
+     * @return 是否执行了action
+     */
     @SuppressWarnings("rawtypes")
-    private void fireAction(IMessage message, AbstractContext context, Rule rule) {
+    private boolean fireAction(IMessage message, AbstractContext context, Rule rule) {
         if (rule == null) {
             LOG.error("DefaultRuleEngine fireAction error: rules is null!");
-            return;
+            return false;
         }
+        boolean fired = false;
         try {
             /**
              * 判断rule的status 如果是观察者模式，则写入到观察者库中的观察表里
@@ -126,13 +216,14 @@ public class DefaultRuleEngine implements IRuleEngine {
             if (rule.getRuleStatus().intValue() == 3) {
                 try {
                     if (rule.getActionNames() == null || rule.getActionNames().size() == 0) {
-                        return;
+                        return false;
                     }
                     for (String actionName : rule.getActionNames()) {
                         Action action = getAction(actionName, rule);
                         if (action == null) {
                             continue;
                         }
+                        fired = true;
                         doAction(message, context, action, rule);
                     }
                 } catch (Exception e) {
@@ -142,15 +233,16 @@ public class DefaultRuleEngine implements IRuleEngine {
 
                 Action action = getAction(RuleContext.OBSERVER_NAME,rule);
                 if (action == null) {
-                    return;
+                    return false;
                 }
+                fired = true;
                 doAction(message, context, action, rule);
             }
 
         } catch (Exception e) {
             LOG.error("DefaultRuleEngine fireAction error: ruleName is" + rule.getConfigureName(), e);
         }
-
+        return fired;
     }
 
     /**
@@ -169,4 +261,48 @@ public class DefaultRuleEngine implements IRuleEngine {
         return action;
     }
 
+    /**
+     * 按规则对象的引用区分不同的规则组
+     */
+    protected static class RuleNetworkKey {
+
+        private final Rule[] rules;
+
+        private final int hashCode;
+
+        public RuleNetworkKey(List<Rule> ruleList) {
+            this.rules = ruleList.toArray(new Rule[0]);
+            int hash = 1;
+            for (Rule rule : rules) {
+                hash = 31 * hash + System.identityHashCode(rule);
+            }
+            this.hashCode = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!RuleNetworkKey.class.isInstance(o)) {
+                return false;
+            }
+            RuleNetworkKey key = (RuleNetworkKey) o;
+            if (hashCode != key.hashCode || rules.length != key.rules.length) {
+                return false;
+            }
+            for (int i = 0; i < rules.length; i++) {
+                if (rules[i] != key.rules[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
 }
@@ -0,0 +1,615 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.filter.engine.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.rocketmq.streams.common.context.AbstractContext;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.datatype.DataType;
+import org.apache.rocketmq.streams.common.datatype.StringDataType;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+import org.apache.rocketmq.streams.filter.function.expression.CompareFunction;
+import org.apache.rocketmq.streams.filter.function.expression.Equals;
+import org.apache.rocketmq.streams.filter.function.expression.InFunction;
+import org.apache.rocketmq.streams.filter.operator.Rule;
+import org.apache.rocketmq.streams.filter.operator.expression.Expression;
+import org.apache.rocketmq.streams.filter.operator.expression.RelationExpression;
+import org.apache.rocketmq.streams.filter.operator.expression.SimpleExpression;
+import org.apache.rocketmq.streams.filter.operator.var.ContextVar;
+import org.apache.rocketmq.streams.filter.operator.var.Var;
+import org.apache.rocketmq.streams.script.utils.FunctionUtils;
+
+/**
+ * 一组规则编译成的表达式网络，加载时构建，构建后不再修改，可以多线程共用
+ * 1.所有规则中相同的表达式和关系表达式合并成一个节点，一条消息每个节点最多计算一次
+ * 2.规则必须满足的等值和in条件建成hash索引，按消息中的字段值直接找到候选规则，其他规则不需要计算
+ */
+public class RuleNetwork {
+
+    private static final Log LOG = LogFactory.getLog(RuleNetwork.class);
+
+    private static final byte UNKNOWN = 0;
+    private static final byte MATCH = 1;
+    private static final byte NOT_MATCH = 2;
+    private static final byte ERROR = 3;
+
+    private static final String RELATION_AND = "and";
+
+    protected final Rule[] rules;
+
+    /**
+     * 每个规则的根节点，为null的规则不支持转换，直接执行Rule.doMessage
+     */
+    protected final Node[] ruleNodes;
+
+    protected int nodeCount = 0;
+
+    /**
+     * 没有建索引的规则，每条消息都要计算
+     */
+    protected final int[] unindexedRules;
+
+    protected final VarIndex[] varIndexes;
+
+    /**
+     * 构建时用，相同key的节点只创建一次
+     */
+    private Map<String, Node> key2Nodes = new HashMap<>();
+    private Map<Expression, Node> expression2Nodes = new IdentityHashMap<>();
+
+    public RuleNetwork(List<Rule> ruleList) {
+        this.rules = ruleList.toArray(new Rule[0]);
+        this.ruleNodes = new Node[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            ruleNodes[i] = createRuleNode(rules[i]);
+        }
+        key2Nodes = null;
+        expression2Nodes = null;
+
+        //每个规则选一个必须满足的等值或in条件，优先选被更多规则使用的字段
+        List<List<LeafNode>> ruleIndexNodes = new ArrayList<>();
+        Map<String, Integer> fieldName2Count = new HashMap<>();
+        for (Node node : ruleNodes) {
+            List<LeafNode> indexNodes = new ArrayList<>();
+            if (node != null) {
+                collectIndexNodes(node, indexNodes);
+            }
+            ruleIndexNodes.add(indexNodes);
+            Set<String> fieldNames = new HashSet<>();
+            for (LeafNode leafNode : indexNodes) {
+                fieldNames.add(leafNode.indexFieldName);
+            }
+            for (String fieldName : fieldNames) {
+                Integer count = fieldName2Count.get(fieldName);
+                fieldName2Count.put(fieldName, count == null ? 1 : count + 1);
+            }
+        }
+        Map<String, VarIndex> fieldName2Index = new HashMap<>();
+        List<Integer> unindexed = new ArrayList<>();
+        for (int i = 0; i < rules.length; i++) {
+            LeafNode indexNode = null;
+            for (LeafNode leafNode : ruleIndexNodes.get(i)) {
+                if (indexNode == null || isBetterIndex(leafNode, indexNode, fieldName2Count)) {
+                    indexNode = leafNode;
+                }
+            }
+            if (indexNode == null) {
+                unindexed.add(i);
+                continue;
+            }
+            VarIndex varIndex = fieldName2Index.get(indexNode.indexFieldName);
+            if (varIndex == null) {
+                varIndex = new VarIndex(indexNode.expression.getVar());
+                fieldName2Index.put(indexNode.indexFieldName, varIndex);
+            }
+            varIndex.addRule(indexNode, i);
+        }
+        this.unindexedRules = new int[unindexed.size()];
+        for (int i = 0; i < unindexedRules.length; i++) {
+            unindexedRules[i] = unindexed.get(i);
+        }
+        this.varIndexes = fieldName2Index.values().toArray(new VarIndex[0]);
+        for (VarIndex varIndex : varIndexes) {
+            varIndex.finish();
+        }
+    }
+
+    /**
+     * 是否是用这组规则构建的
+     */
+    public boolean isBuildFrom(List<Rule> ruleList) {
+        if (ruleList.size() != rules.length) {
+            return false;
+        }
+        for (int i = 0; i < rules.length; i++) {
+            if (ruleList.get(i) != rules[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getRuleCount() {
+        return rules.length;
+    }
+
+    public Rule getRule(int ruleIndex) {
+        return rules[ruleIndex];
+    }
+
+    public int getIndexedRuleCount() {
+        return rules.length - unindexedRules.length;
+    }
+
+    /**
+     * 每条消息一个，记录节点的计算结果
+     */
+    public byte[] createResults() {
+        return new byte[nodeCount];
+    }
+
+    /**
+     * 通过索引选出可能触发的规则，按规则的原始顺序返回
+     */
+    public int[] selectCandidates(IMessage message, AbstractContext context) {
+        if (varIndexes.length == 0) {
+            return unindexedRules;
+        }
+        int[] candidates = Arrays.copyOf(unindexedRules, unindexedRules.length + 16);
+        int size = unindexedRules.length;
+        for (VarIndex varIndex : varIndexes) {
+            int[][] ruleIndexes = varIndex.select(message, context);
+            for (int[] indexes : ruleIndexes) {
+                if (indexes == null) {
+                    continue;
+                }
+                if (size + indexes.length > candidates.length) {
+                    candidates = Arrays.copyOf(candidates, Math.max(candidates.length * 2, size + indexes.length));
+                }
+                System.arraycopy(indexes, 0, candidates, size, indexes.length);
+                size += indexes.length;
+            }
+        }
+        if (size == unindexedRules.length) {
+            return unindexedRules;
+        }
+        candidates = Arrays.copyOf(candidates, size);
+        Arrays.sort(candidates);
+        return candidates;
+    }
+
+    /**
+     * 判断规则是否触发，和Rule.doMessage的结果一致
+     */
+    public boolean match(int ruleIndex, IMessage message, AbstractContext context, byte[] results) {
+        Node node = ruleNodes[ruleIndex];
+        Rule rule = rules[ruleIndex];
+        if (node == null) {
+            Boolean isFireRule = rule.doMessage(message, context);
+            return isFireRule != null && isFireRule;
+        }
+        try {
+            return node.match(message, context, results);
+        } catch (Exception e) {
+            LOG.error("DefaultRuleEngine processExpress error,rule is: " + rule.getConfigureName(), e);
+            return false;
+        }
+    }
+
+    protected Node createRuleNode(Rule rule) {
+        try {
+            if (rule.getClass().getMethod("doMessage", IMessage.class, AbstractContext.class).getDeclaringClass() != Rule.class) {
+                return null;
+            }
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        if (rule.getExpressionName() == null || rule.getRootExpression() == null) {
+            return null;
+        }
+        return createNode(rule.getRootExpression(), new HashSet<>());
+    }
+
+    /**
+     * @return 不支持转换时返回null
+     */
+    protected Node createNode(Expression expression, Set<Expression> parents) {
+        if (!RelationExpression.class.isInstance(expression)) {
+            String key = LeafNode.createKey(expression);
+            Node node = key == null ? expression2Nodes.get(expression) : key2Nodes.get(key);
+            if (node == null) {
+                node = new LeafNode(nodeCount++, expression, key != null);
+                if (key == null) {
+                    expression2Nodes.put(expression, node);
+                } else {
+                    key2Nodes.put(key, node);
+                }
+            }
+            return node;
+        }
+        RelationExpression relationExpression = (RelationExpression) expression;
+        List<String> expressionNames = relationExpression.getValue();
+        Map<String, Expression> expressionMap = relationExpression.getExpressionMap();
+        if (expressionNames == null || expressionMap == null || parents.contains(expression)) {
+            return null;
+        }
+        parents.add(expression);
+        Node[] children = new Node[expressionNames.size()];
+        StringBuilder key = new StringBuilder();
+        String relation = relationExpression.getRelation();
+        if (StringUtil.isEmpty(relation)) {
+            key.append("none");
+        } else {
+            key.append(RELATION_AND.equals(relation) ? RELATION_AND : "or");
+        }
+        key.append("(");
+        for (int i = 0; i < children.length; i++) {
+            String expressionName = expressionNames.get(i);
+            Expression child = expressionMap.get(expressionName);
+            if (child == null) {
+                //表达式名不存在时，取消息中同名的boolean字段
+                String fieldKey = "field(" + expressionName + ")";
+                Node node = key2Nodes.get(fieldKey);
+                if (node == null) {
+                    node = new BooleanFieldNode(nodeCount++, expressionName);
+                    key2Nodes.put(fieldKey, node);
+                }
+                children[i] = node;
+            } else {
+                children[i] = createNode(child, parents);
+                if (children[i] == null) {
+                    return null;
+                }
+            }
+            key.append(children[i].id).append(",");
+        }
+        key.append(")");
+        parents.remove(expression);
+        Node node = key2Nodes.get(key.toString());
+        if (node == null) {
+            node = new RelationNode(nodeCount++, relation, children);
+            key2Nodes.put(key.toString(), node);
+        }
+        return node;
+    }
+
+    /**
+     * 收集规则必须满足的可以建索引的条件，and关系的子节点都是必须满足的
+     */
+    protected void collectIndexNodes(Node node, List<LeafNode> indexNodes) {
+        if (LeafNode.class.isInstance(node)) {
+            LeafNode leafNode = (LeafNode) node;
+            if (leafNode.indexFieldName != null) {
+                indexNodes.add(leafNode);
+            }
+        } else if (RelationNode.class.isInstance(node)) {
+            RelationNode relationNode = (RelationNode) node;
+            if (relationNode.isAnd) {
+                for (Node child : relationNode.children) {
+                    collectIndexNodes(child, indexNodes);
+                }
+            }
+        }
+    }
+
+    protected boolean isBetterIndex(LeafNode leafNode, LeafNode current, Map<String, Integer> fieldName2Count) {
+        int count = fieldName2Count.get(leafNode.indexFieldName);
+        int currentCount = fieldName2Count.get(current.indexFieldName);
+        if (count != currentCount) {
+            return count > currentCount;
+        }
+        return leafNode.indexKeys.size() < current.indexKeys.size();
+    }
+
+    protected abstract static class Node {
+
+        protected final int id;
+
+        protected Node(int id) {
+            this.id = id;
+        }
+
+        public boolean match(IMessage message, AbstractContext context, byte[] results) {
+            byte result = results[id];
+            if (result == UNKNOWN) {
+                try {
+                    result = doMatch(message, context, results) ? MATCH : NOT_MATCH;
+                } catch (RuntimeException e) {
+                    results[id] = ERROR;
+                    throw e;
+                }
+                results[id] = result;
+            }
+            if (result == ERROR) {
+                throw new RuntimeException("expression execute error, node is " + this);
+            }
+            return result == MATCH;
+        }
+
+        protected abstract boolean doMatch(IMessage message, AbstractContext context, byte[] results);
+    }
+
+    /**
+     * 原子表达式，异常和null都按不匹配处理
+     */
+    protected static class LeafNode extends Node {
+
+        protected final Expression expression;
+
+        /**
+         * 可以建索引时是字段名，否则是null
+         */
+        protected String indexFieldName;
+
+        protected boolean isIn;
+
+        protected Set<String> indexKeys;
+
+        protected LeafNode(int id, Expression expression, boolean canShare) {
+            super(id);
+            this.expression = expression;
+            if (canShare) {
+                initIndex();
+            }
+        }
+
+        /**
+         * 结果只由字段值决定的表达式，生成合并用的key
+         *
+         * @return 不能和其他表达式合并时返回null
+         */
+        protected static String createKey(Expression expression) {
+            if (expression.getClass() != Expression.class && expression.getClass() != SimpleExpression.class) {
+                return null;
+            }
+            Var var = expression.getVar();
+            if (!ContextVar.class.isInstance(var) || ((ContextVar) var).getMetaData() != null || expression.getHomologousVar() != null) {
+                return null;
+            }
+            if ("field".equals(expression.getDataTypestr()) || expression.getDataType() == null || expression.getValue() == null) {
+                return null;
+            }
+            DataType dataType = expression.getDataType();
+            return expression.getVarName() + "," + ((ContextVar) var).getFieldName() + "," + expression.getFunctionName() + "," + dataType.getDataTypeName() + "," + dataType.getDataClass().getName() + ","
+                + expression.getValue().getClass().getName() + "," + dataType.toDataJson(expression.getValue());
+        }
+
+        /**
+         * 等值和in条件，按比较函数的规则计算出能匹配的字段值
+         */
+        protected void initIndex() {
+            String functionName = expression.getFunctionName();
+            String varName = expression.getVarName();
+            Object value = expression.getValue();
+            if (StringUtil.isEmpty(varName) || FunctionUtils.isNumber(varName) || FunctionUtils.isConstant(varName)) {
+                return;
+            }
+            Set<String> keys = new HashSet<>();
+            try {
+                if (Equals.isEqualFunction(functionName)) {
+                    if (!StringDataType.class.isInstance(expression.getDataType()) || !String.class.isInstance(value)) {
+                        return;
+                    }
+                    String valueStr = (String) value;
+                    if (StringUtil.isEmpty(valueStr) || valueStr.startsWith(CompareFunction.VAR_PREFIX)) {
+                        return;
+                    }
+                    keys.add(FunctionUtils.getConstant(valueStr));
+                } else if (InFunction.matchFunction(functionName)) {
+                    String valueStr = String.valueOf(value).trim();
+                    if (StringUtil.isEmpty(valueStr)) {
+                        return;
+                    }
+                    for (String item : valueStr.split(",")) {
+                        keys.add(FunctionUtils.getConstant(item));
+                    }
+                    isIn = true;
+                } else {
+                    return;
+                }
+            } catch (Exception e) {
+                return;
+            }
+            this.indexKeys = keys;
+            this.indexFieldName = ((ContextVar) expression.getVar()).getFieldName();
+        }
+
+        @Override
+        protected boolean doMatch(IMessage message, AbstractContext context, byte[] results) {
+            try {
+                Boolean isMatch = expression.doMessage(message, context);
+                return isMatch != null && isMatch;
+            } catch (Exception e) {
+                LOG.error("RuleNetwork function.doFunction error, express is: " + expression.getConfigureName(), e);
+                return false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return expression.toString();
+        }
+    }
+
+    /**
+     * 关系表达式引用的名字不是表达式时，取消息中的boolean字段，和RelationExpression一致
+     */
+    protected static class BooleanFieldNode extends Node {
+
+        protected final String fieldName;
+
+        protected BooleanFieldNode(int id, String fieldName) {
+            super(id);
+            this.fieldName = fieldName;
+        }
+
+        @Override
+        protected boolean doMatch(IMessage message, AbstractContext context, byte[] results) {
+            Boolean result = message.getMessageBody().getBoolean(fieldName);
+            if (result == null) {
+                throw new RuntimeException("expect exist expression, but not " + fieldName);
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return fieldName;
+        }
+    }
+
+    /**
+     * and/or关系，按原始顺序计算子节点，短路规则和RelationExpression一致
+     */
+    protected static class RelationNode extends Node {
+
+        protected final String relation;
+
+        protected final boolean isAnd;
+
+        protected final Node[] children;
+
+        protected RelationNode(int id, String relation, Node[] children) {
+            super(id);
+            this.relation = relation;
+            this.isAnd = RELATION_AND.equals(relation);
+            this.children = children;
+        }
+
+        @Override
+        protected boolean doMatch(IMessage message, AbstractContext context, byte[] results) {
+            if (children.length == 0 || StringUtil.isEmpty(relation)) {
+                return false;
+            }
+            for (Node child : children) {
+                boolean match = child.match(message, context, results);
+                if (isAnd && !match) {
+                    return false;
+                }
+                if (!isAnd && match) {
+                    return true;
+                }
+            }
+            return isAnd;
+        }
+
+        @Override
+        public String toString() {
+            return relation + Arrays.toString(children);
+        }
+    }
+
+    /**
+     * 一个字段上的等值和in索引
+     */
+    protected static class VarIndex {
+
+        protected final Var var;
+
+        protected Map<String, List<Integer>> equalsBuilder = new HashMap<>();
+        protected Map<String, List<Integer>> inBuilder = new HashMap<>();
+
+        protected Map<String, int[]> equalsIndex;
+        protected Map<String, int[]> inIndex;
+
+        protected int[] allRules;
+
+        protected VarIndex(Var var) {
+            this.var = var;
+        }
+
+        protected void addRule(LeafNode leafNode, int ruleIndex) {
+            Map<String, List<Integer>> builder = leafNode.isIn ? inBuilder : equalsBuilder;
+            for (String key : leafNode.indexKeys) {
+                List<Integer> ruleIndexes = builder.get(key);
+                if (ruleIndexes == null) {
+                    ruleIndexes = new ArrayList<>();
+                    builder.put(key, ruleIndexes);
+                }
+                ruleIndexes.add(ruleIndex);
+            }
+        }
+
+        protected void finish() {
+            equalsIndex = toArrayMap(equalsBuilder);
+            inIndex = toArrayMap(inBuilder);
+            Set<Integer> all = new HashSet<>();
+            for (List<Integer> ruleIndexes : equalsBuilder.values()) {
+                all.addAll(ruleIndexes);
+            }
+            for (List<Integer> ruleIndexes : inBuilder.values()) {
+                all.addAll(ruleIndexes);
+            }
+            allRules = new int[all.size()];
+            int i = 0;
+            for (Integer ruleIndex : all) {
+                allRules[i++] = ruleIndex;
+            }
+            equalsBuilder = null;
+            inBuilder = null;
+        }
+
+        private static Map<String, int[]> toArrayMap(Map<String, List<Integer>> builder) {
+            Map<String, int[]> map = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> entry : builder.entrySet()) {
+                List<Integer> ruleIndexes = entry.getValue();
+                int[] array = new int[ruleIndexes.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = ruleIndexes.get(i);
+                }
+                map.put(entry.getKey(), array);
+            }
+            return map;
+        }
+
+        /**
+         * 取出字段值能匹配的规则，等值按Equals的字符串比较，in按InFunction的比较
+         */
+        protected int[][] select(IMessage message, AbstractContext context) {
+            Object varValue;
+            try {
+                varValue = var.doMessage(message, context);
+            } catch (Exception e) {
+                //取不到值时不过滤，交给表达式自己判断
+                return new int[][] {allRules};
+            }
+            if (varValue == null) {
+                return new int[0][];
+            }
+            String varString = varValue.toString();
+            int[] equalsRules = null;
+            if (!equalsIndex.isEmpty() && StringUtil.isNotEmpty(varString)) {
+                try {
+                    equalsRules = equalsIndex.get(FunctionUtils.getConstant(varString));
+                } catch (Exception e) {
+                    equalsRules = null;
+                }
+            }
+            int[] inRules = inIndex.isEmpty() ? null : inIndex.get(String.valueOf(varValue).trim());
+            return new int[][] {equalsRules, inRules};
+        }
+    }
+}
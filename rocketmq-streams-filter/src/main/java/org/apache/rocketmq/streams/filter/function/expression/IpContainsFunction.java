@@ -18,30 +18,40 @@ package org.apache.rocketmq.streams.filter.function.expression;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.rocketmq.streams.common.cache.softreference.ICache;
+import org.apache.rocketmq.streams.common.cache.softreference.RebuildCacheElement;
+import org.apache.rocketmq.streams.common.cache.softreference.impl.SoftReferenceCache;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.filter.operator.expression.Expression;
 import org.apache.rocketmq.streams.filter.operator.var.Var;
-import org.apache.rocketmq.streams.filter.utils.IPUtil;
+import org.apache.rocketmq.streams.filter.utils.CidrMatcher;
 import org.apache.rocketmq.streams.script.annotation.Function;
 import org.apache.rocketmq.streams.script.annotation.FunctionMethod;
 import org.apache.rocketmq.streams.script.annotation.FunctionMethodAilas;
 
+/**
+ * 判断ip或ip段是否在ip段列表内，值是逗号分隔的ip段，如 (ip,ipIn,'10.0.0.0/8,192.168.1.0/24,2001:db8::/32')
+ */
 @Function
 public class IpContainsFunction extends AbstractExpressionFunction {
 
     private static final Log LOG = LogFactory.getLog(IpContainsFunction.class);
 
-    private String ip;
-    private long start;
-    private long end;
-    private String startIp;
-    private String endIp;
+    /**
+     * 每个ip段列表只编译一次，编译结果不可变，多线程共享
+     */
+    private ICache<String, CidrMatcher> cache = new SoftReferenceCache<>(new RebuildCacheElement<String, CidrMatcher>() {
+        @Override
+        public CidrMatcher create(String cidrList) {
+            return CidrMatcher.compile(cidrList);
+        }
+    });
 
     @SuppressWarnings("rawtypes")
     @Override
-    @FunctionMethod("ipContains")
+    @FunctionMethod(value = "ipContains", alias = "ipIn")
     @FunctionMethodAilas("ip包含")
     public Boolean doExpressionFunction(IMessage message, AbstractContext context, Expression expression) {
         try {
@@ -62,16 +72,13 @@ public class IpContainsFunction extends AbstractExpressionFunction {
                 return false;
             }
 
-            String varString = "";
-            String regex = "";
-            varString = String.valueOf(varObject).trim();
-            regex = String.valueOf(valueObject).trim();
+            String varString = String.valueOf(varObject).trim();
+            String cidrList = String.valueOf(valueObject).trim();
 
-            if (StringUtil.isEmpty(varString) || StringUtil.isEmpty(regex)) {
+            if (StringUtil.isEmpty(varString) || StringUtil.isEmpty(cidrList)) {
                 return false;
             }
-            parseRegexIp(regex);
-            return contains(varString);
+            return cache.get(cidrList).contains(varString);
         } catch (Exception e) {
             LOG.error("IpContainsFunction doExpressionFunction error", e);
             return false;
@@ -79,102 +86,4 @@ public class IpContainsFunction extends AbstractExpressionFunction {
 
     }
 
-    private void parseRegexIp(String ip) {
-        if (null == ip || "".equals(ip)) {
-            return;
-        }
-
-        int n = ip.indexOf("/");
-        String preIp = ip;
-        int mask = 32;
-        if (n > 0) {
-            preIp = ip.substring(0, n);
-            mask = Integer.parseInt(ip.substring(n + 1));
-            if (!IPUtil.checkMask(mask)) {
-                return;
-            }
-        }
-
-        if (!IPUtil.checkIpFormat(preIp)) {
-            return;
-        }
-        this.ip = ip;
-        this.start = getStart(preIp, mask);
-        this.end = getEnd(preIp, mask);
-        this.startIp = IPUtil.ipToString(this.start);
-        this.endIp = IPUtil.ipToString(this.end);
-    }
-
-    private long getStart(String ip, int mask) {
-        return IPUtil.ipToInt(ip) & IPUtil.getPrefixIp(mask);
-    }
-
-    private long getEnd(String ip, int mask) {
-        return getStart(ip, mask) | IPUtil.getSuffixIp(mask);
-    }
-
-    /*
-     * 判断IP是否包含
-     */
-    private boolean contains(String ip) {
-        // 先判断是否为ip段
-        int n = ip.indexOf("/");
-        if (n <= 0) {
-            if (!IPUtil.checkIpFormat(ip)) {
-                return false;
-            }
-
-            long intIp = IPUtil.ipToInt(ip);
-            return this.start <= intIp && this.end >= intIp;
-        }
-
-        String preIp = ip.substring(0, n);
-        int mask = Integer.parseInt(ip.substring(n + 1));
-        if (!IPUtil.checkMask(mask) || !IPUtil.checkIpFormat(preIp)) {
-            return false;
-        }
-
-        return this.start <= this.getStart(preIp, mask) && this.end >= this.getEnd(preIp, mask);
-    }
-
-    public String getIp() {
-        return ip;
-    }
-
-    public void setIp(String ip) {
-        this.ip = ip;
-    }
-
-    public long getStart() {
-        return start;
-    }
-
-    public void setStart(long start) {
-        this.start = start;
-    }
-
-    public long getEnd() {
-        return end;
-    }
-
-    public void setEnd(long end) {
-        this.end = end;
-    }
-
-    public String getStartIp() {
-        return startIp;
-    }
-
-    public void setStartIp(String startIp) {
-        this.startIp = startIp;
-    }
-
-    public String getEndIp() {
-        return endIp;
-    }
-
-    public void setEndIp(String endIp) {
-        this.endIp = endIp;
-    }
-
 }
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.filter.optimization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.rocketmq.streams.common.topology.ChainPipeline;
+import org.apache.rocketmq.streams.common.topology.model.AbstractRule;
+import org.apache.rocketmq.streams.common.topology.model.AbstractStage;
+import org.apache.rocketmq.streams.common.topology.stages.FilterChainStage;
+import org.apache.rocketmq.streams.common.topology.stages.ScriptChainStage;
+import org.apache.rocketmq.streams.filter.builder.ExpressionBuilder;
+import org.apache.rocketmq.streams.script.utils.FunctionUtils;
+
+/**
+ * 分析pipline中filter和script用到的字段，作为数据源延迟解析时需要单独解析的字段
+ * 结果不需要精确，多出的字段只是多记录一个位置，缺少的字段在访问时会触发全量解析
+ */
+public class PiplineDependentFieldAnalysis {
+    protected ChainPipeline<?> pipline;
+
+    public PiplineDependentFieldAnalysis(ChainPipeline<?> pipline) {
+        this.pipline = pipline;
+    }
+
+    public List<String> analysisPipline() {
+        Set<String> fieldNames = new HashSet<>();
+        for (AbstractStage<?> stage : pipline.getStages()) {
+            if (FilterChainStage.class.isInstance(stage)) {
+                List<AbstractRule> rules = ((FilterChainStage) stage).getRules();
+                if (rules == null) {
+                    continue;
+                }
+                for (AbstractRule rule : rules) {
+                    fieldNames.addAll(rule.getDependentFields());
+                }
+            } else if (ScriptChainStage.class.isInstance(stage)) {
+                ScriptChainStage scriptChainStage = (ScriptChainStage) stage;
+                if (scriptChainStage.getScript() == null) {
+                    continue;
+                }
+                Map<String, List<String>> dependentFields = scriptChainStage.getScript().getDependentFields();
+                if (dependentFields == null) {
+                    continue;
+                }
+                for (List<String> names : dependentFields.values()) {
+                    if (names == null) {
+                        continue;
+                    }
+                    for (String name : names) {
+                        addFieldName(fieldNames, name);
+                    }
+                }
+            }
+        }
+        List<String> fieldNameList = new ArrayList<>(fieldNames);
+        Collections.sort(fieldNameList);
+        return fieldNameList;
+    }
+
+    private void addFieldName(Set<String> fieldNames, String name) {
+        if (name == null) {
+            return;
+        }
+        name = FunctionUtils.getConstant(name);
+        /**
+         * 如果字段是表达式，则先解析成rule，再找依赖
+         */
+        if (name.startsWith("(") && name.endsWith(")")) {
+            AbstractRule rule = ExpressionBuilder.createRule("tmp", "tmp", name);
+            fieldNames.addAll(rule.getDependentFields());
+            return;
+        }
+        fieldNames.add(name);
+    }
+}
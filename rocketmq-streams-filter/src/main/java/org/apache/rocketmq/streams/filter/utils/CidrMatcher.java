@@ -0,0 +1,350 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.filter.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+import org.apache.rocketmq.streams.script.utils.FunctionUtils;
+
+/**
+ * 预编译的ip段列表，ipv4和ipv6各一棵二叉前缀树，按最长前缀匹配，查找次数只和地址位数有关，和ip段个数无关
+ * 编译后不再修改，可以多线程共享。::ffff:a.b.c.d形式的ipv6地址按ipv4处理
+ */
+public final class CidrMatcher {
+
+    private static final Log LOG = LogFactory.getLog(CidrMatcher.class);
+
+    private static final int IPV4_BITS = 32;
+    private static final int IPV6_BITS = 128;
+    private static final int IPV4_MAPPED_PREFIX = 96;
+
+    private final PrefixTrie ipv4Trie;
+    private final PrefixTrie ipv6Trie;
+    private final String[] cidrs;
+
+    private CidrMatcher(PrefixTrie ipv4Trie, PrefixTrie ipv6Trie, String[] cidrs) {
+        this.ipv4Trie = ipv4Trie;
+        this.ipv6Trie = ipv6Trie;
+        this.cidrs = cidrs;
+    }
+
+    /**
+     * 编译逗号分隔的ip段列表，如 10.0.0.0/8,'192.168.1.1',2001:db8::/32，不带掩码的按单个ip处理，格式错误的ip段忽略
+     *
+     * @param cidrList
+     * @return
+     */
+    public static CidrMatcher compile(String cidrList) {
+        PrefixTrieBuilder ipv4Builder = new PrefixTrieBuilder();
+        PrefixTrieBuilder ipv6Builder = new PrefixTrieBuilder();
+        List<String> cidrs = new ArrayList<>();
+        if (StringUtil.isNotEmpty(cidrList)) {
+            for (String value : cidrList.split(",")) {
+                String cidr = FunctionUtils.getConstant(value.trim()).trim();
+                if (StringUtil.isEmpty(cidr)) {
+                    continue;
+                }
+                Prefix prefix = parsePrefix(cidr);
+                if (prefix == null) {
+                    LOG.warn("ignore invalid ip segment " + cidr + " in " + cidrList);
+                    continue;
+                }
+                PrefixTrieBuilder builder = prefix.address.length == 4 ? ipv4Builder : ipv6Builder;
+                if (builder.put(prefix.address, prefix.length, cidrs.size())) {
+                    cidrs.add(cidr);
+                }
+            }
+        }
+        return new CidrMatcher(ipv4Builder.build(), ipv6Builder.build(), cidrs.toArray(new String[0]));
+    }
+
+    /**
+     * ip或ip段是否落在某个ip段内，ip段要整段都在某个ip段内才算包含
+     *
+     * @param ip
+     * @return
+     */
+    public boolean contains(String ip) {
+        return longestMatch(ip) != null;
+    }
+
+    /**
+     * 返回包含ip的最长（最精确）的ip段，按编译时的写法返回，没有匹配返回null
+     *
+     * @param ip ip或ip段
+     * @return
+     */
+    public String longestMatch(String ip) {
+        if (ip == null) {
+            return null;
+        }
+        Prefix prefix = parsePrefix(ip.trim());
+        if (prefix == null) {
+            return null;
+        }
+        PrefixTrie trie = prefix.address.length == 4 ? ipv4Trie : ipv6Trie;
+        int index = trie.lookup(prefix.address, prefix.length);
+        return index < 0 ? null : cidrs[index];
+    }
+
+    public int size() {
+        return cidrs.length;
+    }
+
+    /**
+     * 解析ip或ip段，ip段的主机位清零，ipv4映射的ipv6地址转成ipv4
+     *
+     * @param cidr
+     * @return 格式错误返回null
+     */
+    protected static Prefix parsePrefix(String cidr) {
+        int n = cidr.indexOf('/');
+        String ip = n == -1 ? cidr : cidr.substring(0, n);
+        byte[] address = ip.indexOf(':') == -1 ? parseIpv4(ip) : parseIpv6(ip);
+        if (address == null) {
+            return null;
+        }
+        int bits = address.length * 8;
+        int length = bits;
+        if (n != -1) {
+            length = parseNumber(cidr, n + 1, cidr.length(), 3);
+            if (length < 0 || length > bits) {
+                return null;
+            }
+        }
+        if (address.length == 16 && length >= IPV4_MAPPED_PREFIX && isIpv4Mapped(address)) {
+            address = Arrays.copyOfRange(address, 12, 16);
+            length -= IPV4_MAPPED_PREFIX;
+        }
+        return new Prefix(address, length);
+    }
+
+    protected static byte[] parseIpv4(String ip) {
+        byte[] address = new byte[4];
+        int start = 0;
+        for (int i = 0; i < 4; i++) {
+            int end = i == 3 ? ip.length() : ip.indexOf('.', start);
+            if (end == -1) {
+                return null;
+            }
+            int value = parseNumber(ip, start, end, 3);
+            if (value < 0 || value > 255) {
+                return null;
+            }
+            address[i] = (byte) value;
+            start = end + 1;
+        }
+        return address;
+    }
+
+    protected static byte[] parseIpv6(String ip) {
+        int gap = ip.indexOf("::");
+        if (gap != -1 && ip.indexOf("::", gap + 1) != -1) {
+            return null;
+        }
+        int[] head = parseGroups(gap == -1 ? ip : ip.substring(0, gap), gap == -1);
+        int[] tail = gap == -1 ? new int[0] : parseGroups(ip.substring(gap + 2), true);
+        if (head == null || tail == null) {
+            return null;
+        }
+        int count = head.length + tail.length;
+        if (gap == -1 ? count != 8 : count > 7) {
+            return null;
+        }
+        int[] groups = new int[8];
+        System.arraycopy(head, 0, groups, 0, head.length);
+        System.arraycopy(tail, 0, groups, 8 - tail.length, tail.length);
+        byte[] address = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            address[i * 2] = (byte) (groups[i] >>> 8);
+            address[i * 2 + 1] = (byte) groups[i];
+        }
+        return address;
+    }
+
+    /**
+     * 解析冒号分隔的16位分组，最后一组允许是ipv4，占两个分组
+     */
+    private static int[] parseGroups(String str, boolean allowIpv4) {
+        if (str.length() == 0) {
+            return new int[0];
+        }
+        String[] parts = str.split(":", -1);
+        int last = parts.length - 1;
+        boolean endWithIpv4 = parts[last].indexOf('.') != -1;
+        if (endWithIpv4 && !allowIpv4) {
+            return null;
+        }
+        int[] groups = new int[endWithIpv4 ? parts.length + 1 : parts.length];
+        for (int i = 0; i < last; i++) {
+            groups[i] = parseHexGroup(parts[i]);
+            if (groups[i] < 0) {
+                return null;
+            }
+        }
+        if (endWithIpv4) {
+            byte[] ipv4 = parseIpv4(parts[last]);
+            if (ipv4 == null) {
+                return null;
+            }
+            groups[last] = (ipv4[0] & 0xff) << 8 | (ipv4[1] & 0xff);
+            groups[last + 1] = (ipv4[2] & 0xff) << 8 | (ipv4[3] & 0xff);
+        } else {
+            groups[last] = parseHexGroup(parts[last]);
+            if (groups[last] < 0) {
+                return null;
+            }
+        }
+        return groups;
+    }
+
+    private static int parseHexGroup(String group) {
+        if (group.length() == 0 || group.length() > 4) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < group.length(); i++) {
+            int digit = Character.digit(group.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    /**
+     * 解析[start,end)之间的十进制数，不是数字或超过maxDigits位时返回-1
+     */
+    private static int parseNumber(String str, int start, int end, int maxDigits) {
+        if (end <= start || end - start > maxDigits) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isIpv4Mapped(byte[] address) {
+        for (int i = 0; i < 10; i++) {
+            if (address[i] != 0) {
+                return false;
+            }
+        }
+        return address[10] == (byte) 0xff && address[11] == (byte) 0xff;
+    }
+
+    private static int bit(byte[] address, int i) {
+        return (address[i >>> 3] >>> (7 - (i & 7))) & 1;
+    }
+
+    protected static class Prefix {
+        protected final byte[] address;
+        protected final int length;
+
+        protected Prefix(byte[] address, int length) {
+            this.address = address;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 数组存储的二叉前缀树，节点0是根节点，子节点为0表示没有子节点
+     */
+    private static class PrefixTrie {
+        private final int[] children;
+        private final int[] values;
+
+        private PrefixTrie(int[] children, int[] values) {
+            this.children = children;
+            this.values = values;
+        }
+
+        /**
+         * 沿地址的前length位向下查找，返回经过的最深的ip段
+         */
+        private int lookup(byte[] address, int length) {
+            int node = 0;
+            int match = values[0];
+            for (int i = 0; i < length; i++) {
+                node = children[node << 1 | bit(address, i)];
+                if (node == 0) {
+                    break;
+                }
+                if (values[node] >= 0) {
+                    match = values[node];
+                }
+            }
+            return match;
+        }
+    }
+
+    private static class PrefixTrieBuilder {
+        private int[] children = new int[64];
+        private int[] values = new int[32];
+        private int size = 1;
+
+        private PrefixTrieBuilder() {
+            Arrays.fill(values, -1);
+        }
+
+        /**
+         * @return 同一个ip段已经存在时返回false，保留先出现的
+         */
+        private boolean put(byte[] address, int length, int value) {
+            int node = 0;
+            for (int i = 0; i < length; i++) {
+                int child = node << 1 | bit(address, i);
+                if (children[child] == 0) {
+                    //newNode可能扩容children，先创建再赋值
+                    int newNode = newNode();
+                    children[child] = newNode;
+                }
+                node = children[child];
+            }
+            if (values[node] >= 0) {
+                return false;
+            }
+            values[node] = value;
+            return true;
+        }
+
+        private int newNode() {
+            if (size == values.length) {
+                int oldLength = values.length;
+                values = Arrays.copyOf(values, oldLength * 2);
+                Arrays.fill(values, oldLength, values.length, -1);
+                children = Arrays.copyOf(children, values.length * 2);
+            }
+            return size++;
+        }
+
+        private PrefixTrie build() {
+            return new PrefixTrie(Arrays.copyOf(children, size * 2), Arrays.copyOf(values, size));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.filter.engine.impl;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.streams.common.component.ComponentCreator;
+import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
+import org.apache.rocketmq.streams.common.context.Context;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.filter.FilterComponent;
+import org.apache.rocketmq.streams.filter.operator.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RuleNetworkTest {
+
+    private static final String[] EVENT_TYPES = {"login", "logout", "process", "file"};
+
+    @Test
+    public void testRuleNetwork() {
+        List<Rule> rules = createRules(200);
+        RuleNetwork ruleNetwork = new RuleNetwork(rules);
+        assertEquals(rules.size(), ruleNetwork.getRuleCount());
+        //除了只有or条件的规则，都能走索引
+        assertEquals(rules.size() - rules.size() / 4, ruleNetwork.getIndexedRuleCount());
+
+        for (int i = 0; i < 100; i++) {
+            JSONObject msg = new JSONObject();
+            msg.put("event_type", EVENT_TYPES[i % EVENT_TYPES.length]);
+            msg.put("user", "user" + (i % 7));
+            msg.put("port", i % 50);
+            msg.put("cmdline", i % 3 == 0 ? "wget http://x/" + i : "ls -l");
+            assertEquals(names(execute(rules, msg, false)), names(execute(rules, msg, true)));
+        }
+
+        JSONObject msg = new JSONObject();
+        msg.put("event_type", "login");
+        msg.put("user", "user1");
+        msg.put("port", 1);
+        msg.put("cmdline", "wget http://x/1");
+        List<String> fireRules = names(execute(rules, msg, true));
+        assertEquals(names(execute(rules, msg, false)), fireRules);
+        assertEquals(true, fireRules.contains("rule_0"));
+        assertEquals(true, fireRules.contains("rule_1"));
+    }
+
+    private List<Rule> createRules(int count) {
+        FilterComponent filterComponent = FilterComponent.getInstance();
+        List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String eventType = EVENT_TYPES[i % EVENT_TYPES.length];
+            String expression;
+            switch (i % 4) {
+                case 0:
+                    expression = "(event_type,==," + eventType + ")&(cmdline,regex,wget)";
+                    break;
+                case 1:
+                    expression = "(user,in,'user" + (i % 7) + ",user" + ((i + 1) % 7) + "')&((port,>,10)|(cmdline,regex,wget))";
+                    break;
+                case 2:
+                    expression = "(event_type,==," + eventType + ")&(user,==,user" + (i % 7) + ")&(port,<," + (i % 50) + ")";
+                    break;
+                default:
+                    expression = "(event_type,==," + eventType + ")|(user,==,user" + (i % 7) + ")";
+            }
+            rules.add(filterComponent.createRule("namespace", "rule_" + i, expression, "port;int"));
+        }
+        return rules;
+    }
+
+    private List<Rule> execute(List<Rule> rules, JSONObject msg, boolean useNetwork) {
+        ComponentCreator.getProperties().setProperty(ConfigureFileKey.RULE_ENGINE_NETWORK_SWITCH, String.valueOf(useNetwork));
+        try {
+            IMessage message = new Message((JSONObject) msg.clone());
+            return new DefaultRuleEngine().executeRule(new Context(message), message, rules);
+        } finally {
+            ComponentCreator.getProperties().remove(ConfigureFileKey.RULE_ENGINE_NETWORK_SWITCH);
+        }
+    }
+
+    private List<String> names(List<Rule> rules) {
+        List<String> names = new ArrayList<>();
+        for (Rule rule : rules) {
+            names.add(rule.getConfigureName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.filter.utils;
+
+import com.alibaba.fastjson.JSONObject;
+import org.apache.rocketmq.streams.filter.builder.ExpressionBuilder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CidrMatcherTest {
+
+    @Test
+    public void testIpv4() {
+        CidrMatcher matcher = CidrMatcher.compile("10.0.0.0/8,'192.168.1.0/24',192.168.1.128/25,172.16.5.4,bad/8,1.2.3.4/33");
+        assertEquals(4, matcher.size());
+
+        assertTrue(matcher.contains("10.0.0.0"));
+        assertTrue(matcher.contains("10.255.255.255"));
+        assertFalse(matcher.contains("9.255.255.255"));
+        assertFalse(matcher.contains("11.0.0.0"));
+        assertTrue(matcher.contains("172.16.5.4"));
+        assertFalse(matcher.contains("172.16.5.5"));
+
+        assertEquals("192.168.1.0/24", matcher.longestMatch("192.168.1.127"));
+        assertEquals("192.168.1.128/25", matcher.longestMatch("192.168.1.128"));
+        assertEquals("192.168.1.128/25", matcher.longestMatch("192.168.1.255"));
+        assertNull(matcher.longestMatch("192.168.2.0"));
+
+        //ip段要整段在列表中的ip段内
+        assertTrue(matcher.contains("10.1.0.0/16"));
+        assertTrue(matcher.contains("10.0.0.0/8"));
+        assertFalse(matcher.contains("10.0.0.0/7"));
+        assertEquals("192.168.1.128/25", matcher.longestMatch("192.168.1.192/26"));
+
+        assertFalse(matcher.contains("10.0.0.256"));
+        assertFalse(matcher.contains("10.0.0"));
+        assertFalse(matcher.contains("10.0.0.1.1"));
+        assertFalse(matcher.contains("hello"));
+        assertFalse(matcher.contains(""));
+        assertFalse(matcher.contains(null));
+    }
+
+    @Test
+    public void testBoundary() {
+        CidrMatcher all = CidrMatcher.compile("0.0.0.0/0");
+        assertTrue(all.contains("0.0.0.0"));
+        assertTrue(all.contains("255.255.255.255"));
+        assertFalse(all.contains("::1"));
+
+        CidrMatcher host = CidrMatcher.compile("255.255.255.255/32,0.0.0.0/32,10.1.2.3/8");
+        assertTrue(host.contains("255.255.255.255"));
+        assertFalse(host.contains("255.255.255.254"));
+        assertTrue(host.contains("0.0.0.0"));
+        assertFalse(host.contains("0.0.0.1"));
+        //主机位不为0的ip段按网段处理
+        assertTrue(host.contains("10.200.0.1"));
+
+        CidrMatcher empty = CidrMatcher.compile("");
+        assertEquals(0, empty.size());
+        assertFalse(empty.contains("1.1.1.1"));
+    }
+
+    @Test
+    public void testIpv6() {
+        CidrMatcher matcher = CidrMatcher.compile("2001:db8::/32,2001:db8:1::/48,::1,fe80::/10,::ffff:192.168.0.0/112,::/128");
+        assertTrue(matcher.contains("2001:db8::"));
+        assertTrue(matcher.contains("2001:DB8:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertFalse(matcher.contains("2001:db9::"));
+        assertFalse(matcher.contains("2001:db7:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertEquals("2001:db8:1::/48", matcher.longestMatch("2001:0db8:0001:0000:0000:0000:0000:0001"));
+        assertEquals("2001:db8::/32", matcher.longestMatch("2001:db8:2::1"));
+        assertEquals("2001:db8:1::/48", matcher.longestMatch("2001:db8:1::/64"));
+
+        assertTrue(matcher.contains("::1"));
+        assertTrue(matcher.contains("::"));
+        assertFalse(matcher.contains("::2"));
+        assertTrue(matcher.contains("fe80::1"));
+        assertTrue(matcher.contains("febf:ffff::"));
+        assertFalse(matcher.contains("fec0::"));
+
+        //ipv4映射的ipv6地址和ipv4地址等价
+        assertTrue(matcher.contains("192.168.255.255"));
+        assertTrue(matcher.contains("::ffff:192.168.1.1"));
+        assertFalse(matcher.contains("::ffff:192.169.0.0"));
+        assertFalse(matcher.contains("192.169.0.0"));
+
+        assertFalse(matcher.contains("2001:db8::1::1"));
+        assertFalse(matcher.contains("2001:db8:0:0:0:0:0:0:1"));
+        assertFalse(matcher.contains("2001:db8:0:0:0:0:1"));
+        assertFalse(matcher.contains("2001:db8::12345"));
+        assertFalse(matcher.contains("2001:db8::/129"));
+    }
+
+    @Test
+    public void testIpInExpression() {
+        JSONObject msg = new JSONObject();
+        msg.put("ip", "192.168.1.200");
+        assertTrue(ExpressionBuilder.executeExecute("namespace", "(ip,ipIn,'10.0.0.0/8,192.168.1.128/25')", msg));
+        assertFalse(ExpressionBuilder.executeExecute("namespace", "(ip,ipIn,'10.0.0.0/8,192.168.1.0/25')", msg));
+        assertTrue(ExpressionBuilder.executeExecute("namespace", "(ip,ipContains,192.168.0.0/16)", msg));
+
+        msg.put("ip", "2001:db8::8");
+        assertTrue(ExpressionBuilder.executeExecute("namespace", "(ip,ipIn,'10.0.0.0/8,2001:db8::/64')", msg));
+        assertFalse(ExpressionBuilder.executeExecute("namespace", "(ip,ipIn,'10.0.0.0/8,2001:db9::/64')", msg));
+    }
+}
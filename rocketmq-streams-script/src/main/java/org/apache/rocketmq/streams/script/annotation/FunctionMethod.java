@@ -48,4 +48,11 @@ public @interface FunctionMethod {
      * @return
      */
     String comment() default "";
+
+    /**
+     * 是否是纯函数：结果只由参数决定，不读写消息和上下文，也没有其他副作用。参数全是常量的纯函数会在解析时直接算出结果
+     *
+     * @return
+     */
+    boolean pure() default false;
 }
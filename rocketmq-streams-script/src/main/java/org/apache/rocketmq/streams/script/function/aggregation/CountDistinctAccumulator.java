@@ -67,6 +67,21 @@ public class CountDistinctAccumulator implements IAccumulator<Long, CountDistinc
     }
 
     public static class CountDistinctAccum {
-        private final HLL hll = new HLL(30, 8);
+        private HLL hll = new HLL(30, 8);
+
+        /**
+         * hll的二进制格式，用于状态序列化
+         *
+         * @return
+         */
+        public byte[] toBytes() {
+            return hll.toBytes();
+        }
+
+        public static CountDistinctAccum fromBytes(byte[] bytes) {
+            CountDistinctAccum accum = new CountDistinctAccum();
+            accum.hll = HLL.fromBytes(bytes);
+            return accum;
+        }
     }
 }
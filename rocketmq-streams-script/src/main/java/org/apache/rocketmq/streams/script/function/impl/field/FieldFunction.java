@@ -51,7 +51,7 @@ public class FieldFunction {
         return fieldValue.get(jsonField);
     }
 
-    @FunctionMethod(value = "char_length", alias = "len", comment = "求字段代码字符串或常量的长度")
+    @FunctionMethod(value = "char_length", alias = "len", comment = "求字段代码字符串或常量的长度", pure = true)
     public int len(IMessage message, FunctionContext context,
         @FunctionParamter(value = "string", comment = "代表字符串的字段名或常量") String fieldName) {
         String value = FunctionUtils.getValueString(message, context, fieldName);
@@ -61,7 +61,7 @@ public class FieldFunction {
         return value.length();
     }
 
-    @FunctionMethod(value = "lower", alias = "low", comment = "把字符串转换称小写")
+    @FunctionMethod(value = "lower", alias = "low", comment = "把字符串转换称小写", pure = true)
     public String lower(IMessage message, FunctionContext context,
         @FunctionParamter(value = "string", comment = "代表字符串的字段名或常量") String fieldName) {
         String value = FunctionUtils.getValueString(message, context, fieldName);
@@ -71,7 +71,7 @@ public class FieldFunction {
         return value.toLowerCase();
     }
 
-    @FunctionMethod(value = "concat", comment = "连接字符串")
+    @FunctionMethod(value = "concat", comment = "连接字符串", pure = true)
     public String concat(IMessage message, FunctionContext context,
         @FunctionParamter(value = "string", comment = "代表字符串的字段名或常量") String... fieldNames) {
         StringBuilder sb = new StringBuilder();
@@ -85,7 +85,7 @@ public class FieldFunction {
         return sb.toString();
     }
 
-    @FunctionMethod(value = "concat_ws", alias = "concat_sign", comment = "通过分隔符把字符串拼接在一起")
+    @FunctionMethod(value = "concat_ws", alias = "concat_sign", comment = "通过分隔符把字符串拼接在一起", pure = true)
     public String concat_ws(IMessage message, FunctionContext context,
         @FunctionParamter(value = "string", comment = "代表分隔符的字段名或常量") String sign,
         @FunctionParamter(value = "string", comment = "代表字符串的字段名或常量") String... fieldNames) {
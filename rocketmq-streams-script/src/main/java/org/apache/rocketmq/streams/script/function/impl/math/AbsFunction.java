@@ -35,7 +35,7 @@ public class AbsFunction {
      * @param number
      * @return
      */
-    @FunctionMethod(value = "abs", alias = "abs", comment = "求数值的绝对值")
+    @FunctionMethod(value = "abs", alias = "abs", comment = "求数值的绝对值", pure = true)
     public Double abs(IMessage message, FunctionContext context,
                       @FunctionParamter(value = "string", comment =
                           "Double或bigint类型或Decimal类型，输入为bigint时返回bigint，输入为double时返回double类型。输入decimal类型时返回decimal类型")
@@ -57,7 +57,7 @@ public class AbsFunction {
      * @param number
      * @return
      */
-    @FunctionMethod(value = "abs", alias = "abs", comment = "求数值的绝对值")
+    @FunctionMethod(value = "abs", alias = "abs", comment = "求数值的绝对值", pure = true)
     public Double abs(IMessage message, FunctionContext context,
                       @FunctionParamter(value = "Double", comment =
                           "Double或bigint类型或Decimal类型，输入为bigint时返回bigint，输入为double时返回double类型。输入decimal类型时返回decimal类型")
@@ -78,7 +78,7 @@ public class AbsFunction {
      * @param number
      * @return
      */
-    @FunctionMethod(value = "abs", alias = "abs", comment = "求数值的绝对值")
+    @FunctionMethod(value = "abs", alias = "abs", comment = "求数值的绝对值", pure = true)
     public Integer abs(IMessage message, FunctionContext context,
                        @FunctionParamter(value = "Integer", comment =
                            "Double或bigint类型或Decimal类型，输入为bigint时返回bigint，输入为double时返回double类型。输入decimal类型时返回decimal类型")
@@ -99,7 +99,7 @@ public class AbsFunction {
      * @param number
      * @return
      */
-    @FunctionMethod(value = "abs", alias = "abs", comment = "求数值的绝对值")
+    @FunctionMethod(value = "abs", alias = "abs", comment = "求数值的绝对值", pure = true)
     public BigDecimal abs(IMessage message, FunctionContext context,
                           @FunctionParamter(value = "BigDecimal", comment =
                               "Double或bigint类型或Decimal类型，输入为bigint时返回bigint，输入为double时返回double类型。输入decimal类型时返回decimal类型")
@@ -35,7 +35,7 @@ public class CeilFunction {
      * @param number
      * @return
      */
-    @FunctionMethod(value = "ceil", alias = "ceil", comment = "返回不小于输入值value的最小整数")
+    @FunctionMethod(value = "ceil", alias = "ceil", comment = "返回不小于输入值value的最小整数", pure = true)
     public Double ceil(IMessage message, FunctionContext context,
                        @FunctionParamter(value = "String", comment = "代表要求值的字段名或常量值") String number) {
         Double result = null;
@@ -55,7 +55,7 @@ public class CeilFunction {
      * @param number
      * @return
      */
-    @FunctionMethod(value = "ceil", alias = "ceil", comment = "返回不小于输入值value的最小整数")
+    @FunctionMethod(value = "ceil", alias = "ceil", comment = "返回不小于输入值value的最小整数", pure = true)
     public Double ceil(IMessage message, FunctionContext context,
                        @FunctionParamter(value = "Double", comment = "代表要求值的Double常量") Double number) {
         Double result = null;
@@ -74,7 +74,7 @@ public class CeilFunction {
      * @param number
      * @return
      */
-    @FunctionMethod(value = "ceil", alias = "ceil", comment = "返回不小于输入值value的最小整数")
+    @FunctionMethod(value = "ceil", alias = "ceil", comment = "返回不小于输入值value的最小整数", pure = true)
     public BigDecimal ceil(IMessage message, FunctionContext context,
                            @FunctionParamter(value = "BigDecimal", comment = "代表要求值的BigDecimal常量") BigDecimal number) {
         BigDecimal result = null;
@@ -93,7 +93,7 @@ public class CeilFunction {
      * @param number
      * @return
      */
-    @FunctionMethod(value = "ceil", alias = "ceil", comment = "返回不小于输入值value的最小整数")
+    @FunctionMethod(value = "ceil", alias = "ceil", comment = "返回不小于输入值value的最小整数", pure = true)
     public Double ceil(IMessage message, FunctionContext context,
                        @FunctionParamter(value = "Integer", comment = "代表要求值的Integer常量") Integer number) {
         Double result = null;
@@ -35,7 +35,7 @@ public class FloorFunction {
      * @param number
      * @return
      */
-    @FunctionMethod(value = "floor", alias = "floor", comment = "向下取整，返回比当前值小的整数值")
+    @FunctionMethod(value = "floor", alias = "floor", comment = "向下取整，返回比当前值小的整数值", pure = true)
     public Double floor(IMessage message, FunctionContext context,
                         @FunctionParamter(value = "String", comment = "代表要求值的字段名或常量值") String number) {
         Double result = null;
@@ -63,7 +63,7 @@ public class FloorFunction {
      * @param number
      * @return
      */
-    @FunctionMethod(value = "floor", alias = "floor", comment = "向下取整，返回比当前值小的整数值")
+    @FunctionMethod(value = "floor", alias = "floor", comment = "向下取整，返回比当前值小的整数值", pure = true)
     public Double floor(IMessage message, FunctionContext context,
                         @FunctionParamter(value = "Double", comment = "代表要求值的常量值") Double number) {
         Double result = null;
@@ -82,7 +82,7 @@ public class FloorFunction {
      * @param number
      * @return
      */
-    @FunctionMethod(value = "floor", alias = "floor", comment = "向下取整，返回比当前值小的整数值")
+    @FunctionMethod(value = "floor", alias = "floor", comment = "向下取整，返回比当前值小的整数值", pure = true)
     public Double floor(IMessage message, FunctionContext context,
                         @FunctionParamter(value = "Integer", comment = "代表要求值的常量值") Integer number) {
         Double result = null;
@@ -101,7 +101,7 @@ public class FloorFunction {
      * @param number
      * @return
      */
-    @FunctionMethod(value = "floor", alias = "floor", comment = "向下取整，返回比当前值小的整数值")
+    @FunctionMethod(value = "floor", alias = "floor", comment = "向下取整，返回比当前值小的整数值", pure = true)
     public BigDecimal floor(IMessage message, FunctionContext context,
                             @FunctionParamter(value = "BigDecimal", comment = "代表要求值的常量值") BigDecimal number) {
         BigDecimal result = null;
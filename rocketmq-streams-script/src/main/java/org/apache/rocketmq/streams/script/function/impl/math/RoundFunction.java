@@ -35,7 +35,7 @@ public class RoundFunction {
      * @param x
      * @return
      */
-    @FunctionMethod(value = "round", comment = "四舍五入到指定小数点位置")
+    @FunctionMethod(value = "round", comment = "四舍五入到指定小数点位置", pure = true)
     public Double round(IMessage message, FunctionContext context,
                         @FunctionParamter(value = "string", comment = "代表要求值的列名或常量") String base,
                         @FunctionParamter(value = "string", comment = "四舍五入计算到小数点后的位置") String x) {
@@ -58,7 +58,7 @@ public class RoundFunction {
      * @param x
      * @return
      */
-    @FunctionMethod(value = "round", comment = "四舍五入到指定小数点位置")
+    @FunctionMethod(value = "round", comment = "四舍五入到指定小数点位置", pure = true)
     public Double round(IMessage message, FunctionContext context,
                         @FunctionParamter(value = "Double", comment = "代表要求值的常量") Double base,
                         @FunctionParamter(value = "Double", comment = "四舍五入计算到小数点后的位置") Double x) {
@@ -79,7 +79,7 @@ public class RoundFunction {
      * @param x
      * @return
      */
-    @FunctionMethod(value = "round", comment = "四舍五入到指定小数点位置")
+    @FunctionMethod(value = "round", comment = "四舍五入到指定小数点位置", pure = true)
     public Double round(IMessage message, FunctionContext context,
                         @FunctionParamter(value = "integer", comment = "代表要求值的常量") Integer base,
                         @FunctionParamter(value = "integer", comment = "四舍五入计算到小数点后的位置") Integer x) {
@@ -100,7 +100,7 @@ public class RoundFunction {
      * @param x
      * @return
      */
-    @FunctionMethod(value = "round", comment = "四舍五入到指定小数点位置")
+    @FunctionMethod(value = "round", comment = "四舍五入到指定小数点位置", pure = true)
     public BigDecimal round(IMessage message, FunctionContext context,
                             @FunctionParamter(value = "BigDecimal", comment = "代表要求值的常量") BigDecimal base,
                             @FunctionParamter(value = "BigDecimal", comment = "四舍五入计算到小数点后的位置") BigDecimal x) {
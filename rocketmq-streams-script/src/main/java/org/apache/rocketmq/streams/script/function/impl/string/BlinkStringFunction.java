@@ -27,7 +27,7 @@ import org.apache.rocketmq.streams.script.utils.FunctionUtils;
 @Function
 public class BlinkStringFunction {
 
-    @FunctionMethod(value = "substring", alias = "substr", comment = "截取从index开始len长度的字符串,－1代表截取从index后的全部")
+    @FunctionMethod(value = "substring", alias = "substr", comment = "截取从index开始len长度的字符串,－1代表截取从index后的全部", pure = true)
     public String doStrig(IMessage message, FunctionContext context,
                           @FunctionParamter(value = "string", comment = "字段名或常量") String filedName,
                           @FunctionParamter(value = "string", comment = "字段名，常量或数字") String startIndex,
@@ -35,7 +35,7 @@ public class LTrimFunction {
      * @param fieldName
      * @return
      */
-    @FunctionMethod(value = "ltrim", comment = "去除左侧空格")
+    @FunctionMethod(value = "ltrim", comment = "去除左侧空格", pure = true)
     public String ltrim(IMessage message, FunctionContext context,
                         @FunctionParamter(value = "string", comment = "字段名或常量") String fieldName) {
         String ori = FunctionUtils.getValueString(message, context, fieldName);
@@ -34,7 +34,7 @@ public class LengthFunction {
      * @param param
      * @return
      */
-    @FunctionMethod(value = "length", alias = "len,CHAR_LENGTH", comment = "字符串长度")
+    @FunctionMethod(value = "length", alias = "len,CHAR_LENGTH", comment = "字符串长度", pure = true)
     public Long lenght(IMessage message, FunctionContext context,
                        @FunctionParamter(value = "string", comment = "字段名或常量") String param) {
         Long len = null;
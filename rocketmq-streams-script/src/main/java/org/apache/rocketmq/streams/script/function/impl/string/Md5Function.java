@@ -35,7 +35,7 @@ public class Md5Function {
      * @param param
      * @return
      */
-    @FunctionMethod(value = "md5", comment = "计算字符串的md5")
+    @FunctionMethod(value = "md5", comment = "计算字符串的md5", pure = true)
     public String concat(IMessage message, FunctionContext context,
                          @FunctionParamter(value = "string", comment = "字段名或常量") String param) {
         String result = "";
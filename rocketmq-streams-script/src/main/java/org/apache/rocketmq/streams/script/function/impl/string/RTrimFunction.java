@@ -35,7 +35,7 @@ public class RTrimFunction {
      * @param fieldName
      * @return
      */
-    @FunctionMethod(value = "rtrim", comment = "去除右测空格")
+    @FunctionMethod(value = "rtrim", comment = "去除右测空格", pure = true)
     public String rtrim(IMessage message, FunctionContext context,
                         @FunctionParamter(value = "string", comment = "字段名或常量") String fieldName) {
         String ori = FunctionUtils.getValueString(message, context, fieldName);
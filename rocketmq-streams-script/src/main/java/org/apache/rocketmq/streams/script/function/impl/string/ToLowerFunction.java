@@ -45,7 +45,7 @@ public class ToLowerFunction {
      * @param fieldName
      * @return
      */
-    @FunctionMethod(value = "tolower", alias = "lower", comment = "将值转换为小写")
+    @FunctionMethod(value = "tolower", alias = "lower", comment = "将值转换为小写", pure = true)
     public String tolower(IMessage message, FunctionContext context,
                           @FunctionParamter(value = "string", comment = "待转换的字符串代表列名称或常量值") String fieldName) {
         String ori = FunctionUtils.getValueString(message, context, fieldName);
@@ -35,7 +35,7 @@ public class ToUpperFunction {
      * @param fieldName
      * @return
      */
-    @FunctionMethod(value = "toupper", alias = "upper", comment = "转换为大写")
+    @FunctionMethod(value = "toupper", alias = "upper", comment = "转换为大写", pure = true)
     public String toupper(IMessage message, FunctionContext context,
                           @FunctionParamter(value = "string", comment = "待转换的字符串代表列名称或常量值") String fieldName) {
         String ori = FunctionUtils.getValueString(message, context, fieldName);
@@ -35,7 +35,7 @@ public class TrimFunction {
      * @param fieldName
      * @return
      */
-    @FunctionMethod(value = "trim", comment = "将输入字符串str去除左右空格")
+    @FunctionMethod(value = "trim", comment = "将输入字符串str去除左右空格", pure = true)
     public String trim(IMessage message, FunctionContext context,
                        @FunctionParamter(value = "string", comment = "要去除空格的字符串") String fieldName) {
         String ori = FunctionUtils.getValueString(message, context, fieldName);
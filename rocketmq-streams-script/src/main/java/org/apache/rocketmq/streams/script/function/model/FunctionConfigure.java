@@ -30,11 +30,11 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.datatype.DataType;
-import org.apache.rocketmq.streams.common.datatype.NotSupportDataType;
 import org.apache.rocketmq.streams.common.datatype.StringDataType;
 import org.apache.rocketmq.streams.common.utils.CollectionUtil;
 import org.apache.rocketmq.streams.common.utils.DataTypeUtil;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
+import org.apache.rocketmq.streams.script.annotation.FunctionMethod;
 
 /**
  * 每一个注册的function会有一个engine来代表。引擎主要用于执行一个service的方法
@@ -91,9 +91,31 @@ public class FunctionConfigure {
      */
     private boolean isVariableParameter = false;
 
+    /**
+     * 注册时生成的调用器，替代每次调用的反射
+     */
+    private FunctionInvoker invoker;
+
+    /**
+     * 每个参数的类型转换器，和parameterDataTypes一一对应
+     */
+    private ParameterConverter[] parameterConverters;
+
+    /**
+     * 方法是否标注为纯函数
+     */
+    private boolean pure = false;
+
     public FunctionConfigure(String functionName, Method method, Object bean) {
         this.method = method;
         parameterDataTypes = DataTypeUtil.createDataType(method);
+        parameterConverters = new ParameterConverter[parameterDataTypes.length];
+        for (int i = 0; i < parameterDataTypes.length; i++) {
+            parameterConverters[i] = new ParameterConverter(parameterDataTypes[i]);
+        }
+        this.invoker = FunctionInvoker.create(method);
+        FunctionMethod functionMethod = method.getAnnotation(FunctionMethod.class);
+        this.pure = functionMethod != null && functionMethod.pure();
 
         this.bean = bean;
         Class clazz = method.getReturnType();
@@ -199,8 +221,7 @@ public class FunctionConfigure {
             if (!needDirectReflect) {
                 parameters = getRealParameters(jsonConfigure, dataParameters);
             }
-            method.setAccessible(true);
-            return method.invoke(bean, parameters);
+            return invoker.invoke(bean, parameters);
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("执行方法出错" + method.getName(), e);
@@ -250,9 +271,8 @@ public class FunctionConfigure {
                     i = 2;
                 }
                 for (; i < parameters.length; i++) {
-                    DataType<?> dataType = parameterDataTypes[i];
                     Object value = parameters[i];
-                    Object realValue = getRealValue(dataType, value);
+                    Object realValue = parameterConverters[i].convert(value);
                     if (value != null && realValue == null) {
                         return null;
                     }
@@ -261,9 +281,8 @@ public class FunctionConfigure {
                 return parameters;
             }
             for (Integer index : noStringDataTypeIndex) {
-                DataType<?> dataType = parameterDataTypes[index];
                 Object value = parameters[index];
-                Object realValue = getRealValue(dataType, value);
+                Object realValue = parameterConverters[index].convert(value);
                 if (value != null && realValue == null) {
                     return null;
                 }
@@ -282,9 +301,8 @@ public class FunctionConfigure {
                 return null;
             }
             for (int i = 0; i < (classes.length - 1); i++) {
-                DataType<?> dataType = parameterDataTypes[i];
                 Object value = parameters[i];
-                Object realValue = getRealValue(dataType, value);
+                Object realValue = parameterConverters[i].convert(value);
                 if (value != null && realValue == null) {
                     return null;
                 }
@@ -311,40 +329,21 @@ public class FunctionConfigure {
     }
 
     public Object getRealValue(int parameterIndex, Object value) {
-
-        DataType<?> datatype = this.parameterDataTypes[parameterIndex];
-        return getRealValue(datatype, value);
-
+        return parameterConverters[parameterIndex].convert(value);
     }
 
-    private Object getRealValue(DataType<?> dataType, Object value) {
-        try {
-            if (value == null) {
-                return null;
-            }
-            if (DataTypeUtil.isNumber(dataType) || DataTypeUtil.isBoolean(dataType) || DataTypeUtil.isDate(dataType)) {
+    /**
+     * 调用点可以缓存转换器，避免每次按下标查找
+     *
+     * @param parameterIndex 参数下标
+     * @return 参数的类型转换器
+     */
+    public ParameterConverter getParameterConverter(int parameterIndex) {
+        return parameterConverters[parameterIndex];
+    }
 
-                value = dataType.getData(value.toString());
-                if (value == null) {
-                    return null;//说明参数不匹配，直接返回
-                }
-            } else if (NotSupportDataType.class.isInstance(dataType)) {
-                if (dataType.getDataClass().isAssignableFrom(value.getClass())) {
-                    return value;
-                }
-                return null;
-            } else {
-                if (DataTypeUtil.isString(dataType) == false && String.class.isInstance(value)) {
-                    value = dataType.getData(value.toString());
-                }
-                if (DataTypeUtil.isString(dataType) && !String.class.isInstance(value)) {
-                    value = value.toString();
-                }
-            }
-        } catch (Exception e) {
-            return null;//说明参数不匹配，直接返回
-        }
-        return value;
+    public FunctionInvoker getInvoker() {
+        return invoker;
     }
 
     public Object[] getRealParameters(String jsonConfigure, Object... dataParamters) {
@@ -568,4 +567,8 @@ public class FunctionConfigure {
     public void setUserDefinedUDTF(boolean userDefinedUDTF) {
         isUserDefinedUDTF = userDefinedUDTF;
     }
+
+    public boolean isPure() {
+        return pure && !isUserDefinedUDTF;
+    }
 }
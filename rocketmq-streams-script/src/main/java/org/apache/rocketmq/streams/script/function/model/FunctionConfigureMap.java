@@ -108,4 +108,21 @@ public class FunctionConfigureMap {
     public List<FunctionConfigure> getFunctionConfigureList() {
         return functionConfigureList;
     }
+
+    /**
+     * 同名的所有重载都是纯函数时才返回true
+     *
+     * @return
+     */
+    public boolean isPure() {
+        if (functionConfigureList == null || functionConfigureList.isEmpty()) {
+            return false;
+        }
+        for (FunctionConfigure functionConfigure : functionConfigureList) {
+            if (!functionConfigure.isPure()) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.function.model;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 函数注册时生成一次的调用器，用MethodHandle替代每次调用的Method.invoke，省掉每次的访问检查和参数校验
+ * 生成失败时（如安全限制）退回反射调用
+ */
+public class FunctionInvoker {
+
+    private static final Log LOG = LogFactory.getLog(FunctionInvoker.class);
+
+    private static final MethodType INVOKE_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    private final Method method;
+
+    /**
+     * 统一成(Object bean, Object[] parameters)Object的签名，静态方法忽略bean，void方法返回null
+     */
+    private final MethodHandle handle;
+
+    protected FunctionInvoker(Method method, MethodHandle handle) {
+        this.method = method;
+        this.handle = handle;
+    }
+
+    public static FunctionInvoker create(Method method) {
+        method.setAccessible(true);
+        MethodHandle handle = null;
+        try {
+            handle = MethodHandles.lookup().unreflect(method).asFixedArity();
+            if (Modifier.isStatic(method.getModifiers())) {
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            handle = handle.asSpreader(Object[].class, method.getParameterCount()).asType(INVOKE_TYPE);
+        } catch (Exception e) {
+            LOG.warn("create method handle error, use reflect instead " + method, e);
+            handle = null;
+        }
+        return new FunctionInvoker(method, handle);
+    }
+
+    /**
+     * @param bean       方法所属的对象，静态方法可以为null
+     * @param parameters 已经做完类型转换的参数
+     * @return 方法返回值
+     */
+    public Object invoke(Object bean, Object[] parameters) throws Exception {
+        if (handle == null) {
+            return method.invoke(bean, parameters);
+        }
+        try {
+            return (Object)handle.invokeExact(bean, parameters);
+        } catch (Error | Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    public boolean isReflect() {
+        return handle == null;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.function.model;
+
+import org.apache.rocketmq.streams.common.datatype.DataType;
+import org.apache.rocketmq.streams.common.datatype.NotSupportDataType;
+import org.apache.rocketmq.streams.common.utils.DataTypeUtil;
+
+/**
+ * 函数参数的类型转换器，按参数的DataType在函数注册时确定转换方式，调用时不再判断类型
+ */
+public class ParameterConverter {
+
+    protected static final int DATA = 0;//数字，布尔和日期，都通过字符串转换
+    protected static final int NOT_SUPPORT = 1;//只做类型匹配，不做转换
+    protected static final int STRING = 2;//非字符串的值做toString
+    protected static final int OTHER = 3;//只对字符串的值做转换
+
+    protected final DataType dataType;
+
+    protected final int convertType;
+
+    public ParameterConverter(DataType dataType) {
+        this.dataType = dataType;
+        if (DataTypeUtil.isNumber(dataType) || DataTypeUtil.isBoolean(dataType) || DataTypeUtil.isDate(dataType)) {
+            convertType = DATA;
+        } else if (NotSupportDataType.class.isInstance(dataType)) {
+            convertType = NOT_SUPPORT;
+        } else if (DataTypeUtil.isString(dataType)) {
+            convertType = STRING;
+        } else {
+            convertType = OTHER;
+        }
+    }
+
+    /**
+     * 把值转换成参数需要的类型
+     *
+     * @param value 原始值
+     * @return 不能转换时返回null，说明参数不匹配
+     */
+    public Object convert(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            switch (convertType) {
+                case DATA:
+                    return dataType.getData(value.toString());
+                case NOT_SUPPORT:
+                    return dataType.getDataClass().isAssignableFrom(value.getClass()) ? value : null;
+                case STRING:
+                    return String.class.isInstance(value) ? value : value.toString();
+                default:
+                    return String.class.isInstance(value) ? dataType.getData((String)value) : value;
+            }
+        } catch (Exception e) {
+            return null;//说明参数不匹配，直接返回
+        }
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.operator.expression;
+
+import java.util.ArrayList;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.script.context.FunctionContext;
+
+/**
+ * 参数全是常量的纯函数，在解析时算出结果，执行时直接把结果赋给新字段
+ */
+public class FoldedScriptExpression extends ScriptExpression {
+
+    /**
+     * 解析时算出的函数结果
+     */
+    private final Object value;
+
+    public FoldedScriptExpression(ScriptExpression scriptExpression, Object value) {
+        this.value = value;
+        setNewFieldName(scriptExpression.getNewFieldName());
+        setExpressionStr(scriptExpression.getExpressionStr());
+        setGroupId(scriptExpression.getGroupId());
+        setParameters(new ArrayList<>());
+        this.ismutilField = scriptExpression.getNewFieldName() != null && scriptExpression.getNewFieldName().indexOf(".") != -1;
+    }
+
+    @Override
+    public Object executeExpression(IMessage message, FunctionContext context) {
+        setValue2Var(message, context, getNewFieldName(), value);
+        return value;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        if (getNewFieldName() != null) {
+            stringBuilder.append(getNewFieldName());
+            stringBuilder.append("=");
+        }
+        if (String.class.isInstance(value)) {
+            stringBuilder.append("'" + value + "'");
+        } else {
+            stringBuilder.append(value);
+        }
+        return stringBuilder.toString();
+    }
+}
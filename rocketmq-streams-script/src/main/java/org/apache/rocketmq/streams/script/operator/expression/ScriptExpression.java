@@ -173,7 +173,15 @@ public class ScriptExpression implements IScriptExpression {
 
     public Object executeFunctionConfigue(IMessage message, FunctionContext context, FunctionConfigure configure,
         Object[] ps) {
-        Object value = configure.execute(ps);
+        return executeFunctionConfigue(message, context, configure, ps, false);
+    }
+
+    /**
+     * @param realParameters ps是否已经按函数签名做过类型转换，是则直接调用
+     */
+    public Object executeFunctionConfigue(IMessage message, FunctionContext context, FunctionConfigure configure,
+        Object[] ps, boolean realParameters) {
+        Object value = realParameters ? configure.directReflectExecute(ps) : configure.execute(ps);
 
         if (configure.isUserDefinedUDTF()) {
             List<Map<String, Object>> rows = (List<Map<String, Object>>) value;
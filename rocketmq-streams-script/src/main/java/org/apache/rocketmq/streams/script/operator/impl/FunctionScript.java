@@ -17,6 +17,7 @@
 package org.apache.rocketmq.streams.script.operator.impl;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -26,8 +27,10 @@ import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.rocketmq.streams.common.component.ComponentCreator;
 import org.apache.rocketmq.streams.common.configurable.IAfterConfigurableRefreshListener;
 import org.apache.rocketmq.streams.common.configurable.IConfigurableService;
+import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.interfaces.IBaseStreamOperator;
@@ -40,6 +43,7 @@ import org.apache.rocketmq.streams.common.topology.stages.ScriptChainStage;
 import org.apache.rocketmq.streams.common.utils.CollectionUtil;
 import org.apache.rocketmq.streams.script.context.FunctionContext;
 import org.apache.rocketmq.streams.script.operator.expression.ScriptExpression;
+import org.apache.rocketmq.streams.script.optimization.compile.ScriptExpressionOptimizer;
 import org.apache.rocketmq.streams.script.optimization.performance.IScriptOptimization;
 import org.apache.rocketmq.streams.script.parser.imp.FunctionParser;
 import org.apache.rocketmq.streams.script.service.IScriptExpression;
@@ -87,6 +91,10 @@ public class FunctionScript extends AbstractScript<List<IMessage>, FunctionConte
         value = value.replace("‘", "'");
         value = value.replace("’", "'");
         this.scriptExpressions = FunctionParser.getInstance().parse(value);
+        String optimizationSwitch = ComponentCreator.getProperties().getProperty(ConfigureFileKey.SCRIPT_EXPRESSION_OPTIMIZATION_SWITCH);
+        if (optimizationSwitch == null || Boolean.parseBoolean(optimizationSwitch)) {
+            this.scriptExpressions = new ScriptExpressionOptimizer().optimize(this.scriptExpressions);
+        }
         //转化成istreamoperator 接口
         for (IScriptExpression scriptExpression : this.scriptExpressions) {
             receivers.add((message, context) -> {
@@ -246,30 +254,43 @@ public class FunctionScript extends AbstractScript<List<IMessage>, FunctionConte
     public void doProcessAfterRefreshConfigurable(IConfigurableService configurableService) {
         if (hasStart.compareAndSet(false, true)) {
 
-            IScriptOptimization scriptOptimization = null;
-            // optimize case when
+            // optimize case when, compile script
             ServiceLoaderComponent serviceLoaderComponent = ServiceLoaderComponent.getInstance(IScriptOptimization.class);
             List<IScriptOptimization> scriptOptimizations = serviceLoaderComponent.loadService();
-            if (scriptOptimizations != null && scriptOptimizations.size() > 0) {
-                scriptOptimization = scriptOptimizations.get(0);
+            if (scriptOptimizations != null && scriptOptimizations.size() > 1) {
+                scriptOptimizations = new ArrayList<>(scriptOptimizations);
+                scriptOptimizations.sort(Comparator.comparingInt(IScriptOptimization::getOrder));
             }
 
             if (this.scriptExpressions == null) {
                 LOG.debug("empty function");
             } else {
                 List<IScriptExpression> expressions = this.scriptExpressions;
-                if (scriptOptimization != null) {
-                    this.optimizationCompiler = scriptOptimization.compile(this.scriptExpressions, this);
-                    expressions = this.optimizationCompiler.getOptimizationExpressionList();
+                IBaseStreamOperator<IMessage, IMessage, FunctionContext> scriptOperator = null;
+                if (scriptOptimizations != null) {
+                    for (IScriptOptimization scriptOptimization : scriptOptimizations) {
+                        IScriptOptimization.IOptimizationCompiler compiler = scriptOptimization.compile(expressions, this);
+                        if (compiler == null) {
+                            continue;
+                        }
+                        this.optimizationCompiler = compiler;
+                        expressions = compiler.getOptimizationExpressionList();
+                        scriptOperator = compiler.getScriptOperator();
+                    }
                 }
                 this.scriptExpressions = expressions;
                 List<IBaseStreamOperator<IMessage, IMessage, FunctionContext>> newReceiver = new ArrayList<>();
-                //转化成istreamoperator 接口
-                for (IScriptExpression scriptExpression : expressions) {
-                    newReceiver.add((message, context) -> {
-                        scriptExpression.executeExpression(message, context);
-                        return message;
-                    });
+                if (scriptOperator != null) {
+                    //整个脚本编译成了一个算子
+                    newReceiver.add(scriptOperator);
+                } else {
+                    //转化成istreamoperator 接口
+                    for (IScriptExpression scriptExpression : expressions) {
+                        newReceiver.add((message, context) -> {
+                            scriptExpression.executeExpression(message, context);
+                            return message;
+                        });
+                    }
                 }
                 this.receivers = newReceiver;
             }
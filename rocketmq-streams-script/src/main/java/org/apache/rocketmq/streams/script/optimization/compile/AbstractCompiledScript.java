@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.optimization.compile;
+
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.script.context.FunctionContext;
+import org.apache.rocketmq.streams.script.service.IScriptExpression;
+
+/**
+ * 脚本编译生成的类的父类，每个脚本生成一个子类，子类只实现execute，常量，函数bean和不支持编译的表达式通过数组绑定
+ */
+public abstract class AbstractCompiledScript {
+
+    /**
+     * 执行完成
+     */
+    public static final int FINISHED = -1;
+
+    /**
+     * 编译前的表达式，不支持编译的表达式直接调用
+     */
+    protected final IScriptExpression[] expressions;
+
+    /**
+     * 预先绑定的常量，函数bean，参数转换器和FunctionConfigure
+     */
+    protected final Object[] constants;
+
+    public AbstractCompiledScript(IScriptExpression[] expressions, Object[] constants) {
+        this.expressions = expressions;
+        this.constants = constants;
+    }
+
+    /**
+     * 执行脚本
+     *
+     * @param message 消息
+     * @param context 上下文
+     * @return FINISHED代表执行完成或被中断，否则是切分模式下需要继续执行的表达式下标
+     */
+    public abstract int execute(IMessage message, FunctionContext context);
+
+    public static Object getFieldValue(IMessage message, String fieldName) {
+        return message.getMessageBody().get(fieldName);
+    }
+
+    public static void setFieldValue(IMessage message, String fieldName, Object value) {
+        if (value != null) {
+            message.getMessageBody().put(fieldName, value);
+        }
+    }
+
+    public IScriptExpression[] getExpressions() {
+        return expressions;
+    }
+}
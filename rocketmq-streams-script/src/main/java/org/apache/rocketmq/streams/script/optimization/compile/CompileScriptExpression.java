@@ -18,7 +18,6 @@ package org.apache.rocketmq.streams.script.optimization.compile;
 
 import com.alibaba.fastjson.JSONObject;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import org.apache.rocketmq.streams.common.context.Context;
@@ -26,6 +25,7 @@ import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.context.Message;
 import org.apache.rocketmq.streams.script.context.FunctionContext;
 import org.apache.rocketmq.streams.script.function.model.FunctionConfigure;
+import org.apache.rocketmq.streams.script.function.model.ParameterConverter;
 import org.apache.rocketmq.streams.script.operator.expression.ScriptExpression;
 import org.apache.rocketmq.streams.script.service.IScriptParamter;
 
@@ -38,6 +38,9 @@ public class CompileScriptExpression {
     protected Object[] parameterTemplete;//参数的模版，在多数场景，参数是固定不变的，不需要频发求值
     protected FunctionConfigure functionConfigure;//对应的具体的函数执行对象
     protected Map<Integer, CompileParameter> notFixedFieldIndexs = new HashMap<>();//字段不是固定的字段索引
+    protected int[] notFixedIndexs;//notFixedFieldIndexs展开成数组，执行时不再遍历map
+    protected CompileParameter[] notFixedParameters;
+    protected ParameterConverter[] notFixedConverters;//对应参数的类型转换器，在调用点缓存
 
     protected boolean isSimpleNewFieldName = false;//返回值没有点分割符，可以直接赋值
 
@@ -78,6 +81,16 @@ public class CompileScriptExpression {
         }
 
         this.parameterTemplete = functionConfigure.getRealParameters(parameterTemplete);
+        this.notFixedIndexs = new int[notFixedFieldIndexs.size()];
+        this.notFixedParameters = new CompileParameter[notFixedFieldIndexs.size()];
+        this.notFixedConverters = new ParameterConverter[notFixedFieldIndexs.size()];
+        int j = 0;
+        for (Entry<Integer, CompileParameter> entry : notFixedFieldIndexs.entrySet()) {
+            notFixedIndexs[j] = entry.getKey();
+            notFixedParameters[j] = entry.getValue();
+            notFixedConverters[j] = functionConfigure.getParameterConverter(entry.getKey());
+            j++;
+        }
         if (scriptExpression.getNewFieldName() != null && scriptExpression.getNewFieldName().indexOf(".") == -1) {
             this.isSimpleNewFieldName = true;
         }
@@ -89,26 +102,16 @@ public class CompileScriptExpression {
             return scriptExpression.execute(message, context);
         }
         Object[] parameters = new Object[parameterTemplete.length];
-        int startIndex = 0;
+        System.arraycopy(parameterTemplete, 0, parameters, 0, parameters.length);
         if (containsContext) {
             parameters[0] = message;
             parameters[1] = context;
-            startIndex = 2;
         }
-
-        for (int i = startIndex; i < parameters.length; i++) {
-            parameters[i] = parameterTemplete[i];
-        }
-        if (notFixedFieldIndexs.size() > 0) {
-            Iterator<Entry<Integer, CompileParameter>> it = notFixedFieldIndexs.entrySet().iterator();
-            while (it.hasNext()) {
-                Entry<Integer, CompileParameter> entry = it.next();
-                Integer index = entry.getKey();
-                CompileParameter compileParameter = entry.getValue();
-                parameters[index] = functionConfigure.getRealValue(index,compileParameter.getValue(message, context));
-            }
+        for (int i = 0; i < notFixedIndexs.length; i++) {
+            parameters[notFixedIndexs[i]] = notFixedConverters[i].convert(notFixedParameters[i].getValue(message, context));
         }
-        Object value = scriptExpression.executeFunctionConfigue(message,context,functionConfigure,parameters);
+        //参数已经按函数签名转换过，直接调用，不再重复转换
+        Object value = scriptExpression.executeFunctionConfigue(message, context, functionConfigure, parameters, true);
         if (isSimpleNewFieldName && value != null) {
             message.getMessageBody().put(scriptExpression.getNewFieldName(), value);
         } else {
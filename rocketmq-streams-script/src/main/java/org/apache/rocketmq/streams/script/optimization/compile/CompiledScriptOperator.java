@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.optimization.compile;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.streams.common.context.AbstractContext;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.IgnoreMessage;
+import org.apache.rocketmq.streams.common.interfaces.IBaseStreamOperator;
+import org.apache.rocketmq.streams.common.optimization.FilterResultCache;
+import org.apache.rocketmq.streams.script.context.FunctionContext;
+import org.apache.rocketmq.streams.script.optimization.performance.IScriptOptimization;
+import org.apache.rocketmq.streams.script.service.IScriptExpression;
+
+/**
+ * 执行编译后的脚本，编译代码处理不了的场景（切分后的消息，快速过滤结果，IgnoreMessage）交给原表达式解释执行
+ */
+public class CompiledScriptOperator implements IScriptOptimization.IOptimizationCompiler, IBaseStreamOperator<IMessage, IMessage, FunctionContext> {
+
+    protected List<IScriptExpression> expressions;
+
+    protected AbstractCompiledScript compiledScript;
+
+    /**
+     * 每个表达式一个算子，和FunctionScript解释执行时一样
+     */
+    protected List<IBaseStreamOperator<IMessage, IMessage, FunctionContext>> receivers = new ArrayList<>();
+
+    public CompiledScriptOperator(List<IScriptExpression> expressions, AbstractCompiledScript compiledScript) {
+        this.expressions = expressions;
+        this.compiledScript = compiledScript;
+        for (IScriptExpression scriptExpression : expressions) {
+            receivers.add((message, context) -> {
+                scriptExpression.executeExpression(message, context);
+                return message;
+            });
+        }
+    }
+
+    @Override
+    public IMessage doMessage(IMessage message, FunctionContext context) {
+        if (context.getQuickFilterResult() != null || IgnoreMessage.class.isInstance(message)) {
+            AbstractContext.executeScript(message, context, receivers);
+            return message;
+        }
+        int nextIndex = compiledScript.execute(message, context);
+        if (nextIndex == AbstractCompiledScript.FINISHED || nextIndex >= receivers.size()) {
+            return message;
+        }
+        executeSplitMessages(context, receivers.subList(nextIndex, receivers.size()));
+        return message;
+    }
+
+    /**
+     * 和AbstractContext中切分模式的处理一致，每条切分后的消息继续执行剩下的表达式
+     */
+    protected void executeSplitMessages(FunctionContext context, List<IBaseStreamOperator<IMessage, IMessage, FunctionContext>> nextReceivers) {
+        List<IMessage> splitMessages = new ArrayList<>();
+        splitMessages.addAll(context.getSplitMessages());
+        List<IMessage> result = new ArrayList<>();
+        int splitMessageOffset = 0;
+        for (IMessage splitMessage : splitMessages) {
+            splitMessage.getHeader().addLayerOffset(splitMessageOffset);
+            splitMessageOffset++;
+            List<IMessage> messages = AbstractContext.executeScript(splitMessage, context, nextReceivers);
+            if (messages == null) {
+                context.cancelBreak();
+                continue;
+            }
+            result.addAll(messages);
+        }
+        context.openSplitModel();
+        context.setSplitMessages(result);
+    }
+
+    @Override
+    public FilterResultCache execute(IMessage message, AbstractContext context) {
+        return null;
+    }
+
+    @Override
+    public List<IScriptExpression> getOptimizationExpressionList() {
+        return expressions;
+    }
+
+    @Override
+    public IBaseStreamOperator<IMessage, IMessage, FunctionContext> getScriptOperator() {
+        return this;
+    }
+
+    public AbstractCompiledScript getCompiledScript() {
+        return compiledScript;
+    }
+}
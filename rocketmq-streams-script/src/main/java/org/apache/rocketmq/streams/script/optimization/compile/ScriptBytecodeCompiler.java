@@ -0,0 +1,533 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.optimization.compile;
+
+import com.alibaba.fastjson.JSONObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+import org.apache.rocketmq.streams.script.ScriptComponent;
+import org.apache.rocketmq.streams.script.context.FunctionContext;
+import org.apache.rocketmq.streams.script.function.model.FunctionConfigure;
+import org.apache.rocketmq.streams.script.function.model.FunctionConfigureMap;
+import org.apache.rocketmq.streams.script.function.model.ParameterConverter;
+import org.apache.rocketmq.streams.script.operator.expression.FoldedScriptExpression;
+import org.apache.rocketmq.streams.script.operator.expression.ScriptExpression;
+import org.apache.rocketmq.streams.script.operator.expression.ScriptParameter;
+import org.apache.rocketmq.streams.script.service.IScriptExpression;
+import org.apache.rocketmq.streams.script.service.IScriptParamter;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * 把脚本的表达式列表编译成一个AbstractCompiledScript的子类，每个脚本一个类
+ * 函数在编译时确定，常量和参数转换器预先绑定，脚本内读写的字段放在局部变量里，公共方法直接调用，其他通过FunctionConfigure调用
+ * 嵌套函数，条件参数，变参，udtf，多级字段等不支持编译的表达式，在生成的代码中调用原表达式解释执行
+ */
+public class ScriptBytecodeCompiler implements Opcodes {
+
+    private static final Log LOG = LogFactory.getLog(ScriptBytecodeCompiler.class);
+
+    private static final AtomicLong CLASS_INDEX = new AtomicLong(0);
+
+    private static final String CLASS_NAME_PREFIX = "org/apache/rocketmq/streams/script/optimization/compile/generated/CompiledScript";
+
+    private static final String SUPER_NAME = Type.getInternalName(AbstractCompiledScript.class);
+    private static final String MESSAGE_NAME = Type.getInternalName(IMessage.class);
+    private static final String CONTEXT_NAME = Type.getInternalName(FunctionContext.class);
+    private static final String EXPRESSION_NAME = Type.getInternalName(IScriptExpression.class);
+    private static final String CONVERTER_NAME = Type.getInternalName(ParameterConverter.class);
+    private static final String CONFIGURE_NAME = Type.getInternalName(FunctionConfigure.class);
+    private static final String OBJECT_NAME = Type.getInternalName(Object.class);
+    private static final String OBJECT_DESC = Type.getDescriptor(Object.class);
+    private static final String MESSAGE_DESC = Type.getDescriptor(IMessage.class);
+    private static final String CONTEXT_DESC = Type.getDescriptor(FunctionContext.class);
+
+    private static final int THIS_SLOT = 0;
+    private static final int MESSAGE_SLOT = 1;
+    private static final int CONTEXT_SLOT = 2;
+    private static final int VALUE_SLOT = 3;
+
+    protected final ScriptClassLoader classLoader = new ScriptClassLoader(AbstractCompiledScript.class.getClassLoader());
+
+    /**
+     * 需要绑定到生成类的对象，生成代码通过下标访问
+     */
+    protected final List<Object> constants = new ArrayList<>();
+
+    /**
+     * 字段对应的局部变量
+     */
+    protected final Map<String, Integer> fieldSlots = new HashMap<>();
+
+    /**
+     * 局部变量中的值和消息中一致的字段，调用了可能修改消息的函数后清空
+     */
+    protected final Set<String> validFields = new HashSet<>();
+
+    protected int compiledCount = 0;
+
+    /**
+     * 编译脚本
+     *
+     * @param expressions 脚本解析后的表达式
+     * @return 没有可以编译的表达式或编译失败时返回null
+     */
+    public AbstractCompiledScript compile(List<IScriptExpression> expressions) {
+        if (expressions == null || expressions.isEmpty()) {
+            return null;
+        }
+        try {
+            String className = CLASS_NAME_PREFIX + CLASS_INDEX.incrementAndGet();
+            ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+                @Override
+                protected String getCommonSuperClass(String type1, String type2) {
+                    //局部变量都按Object使用，不需要加载类
+                    return OBJECT_NAME;
+                }
+            };
+            classWriter.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, SUPER_NAME, null);
+            String constructorDesc = Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(IScriptExpression[].class), Type.getType(Object[].class));
+            MethodVisitor mv = classWriter.visitMethod(ACC_PUBLIC, "<init>", constructorDesc, null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitMethodInsn(INVOKESPECIAL, SUPER_NAME, "<init>", constructorDesc, false);
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+
+            mv = classWriter.visitMethod(ACC_PUBLIC, "execute", "(" + MESSAGE_DESC + CONTEXT_DESC + ")I", null, null);
+            mv.visitCode();
+            for (int i = 0; i < expressions.size(); i++) {
+                boolean needCheck = compileExpression(mv, i, expressions.get(i));
+                if (needCheck && i < expressions.size() - 1) {
+                    checkContinue(mv, i + 1);
+                }
+            }
+            mv.visitLdcInsn(AbstractCompiledScript.FINISHED);
+            mv.visitInsn(IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+            classWriter.visitEnd();
+
+            if (compiledCount == 0) {
+                return null;
+            }
+            Class<?> clazz = classLoader.define(className.replace('/', '.'), classWriter.toByteArray());
+            Constructor<?> constructor = clazz.getConstructor(IScriptExpression[].class, Object[].class);
+            return (AbstractCompiledScript) constructor.newInstance(expressions.toArray(new IScriptExpression[0]), constants.toArray());
+        } catch (Exception e) {
+            LOG.warn("compile script error, use interpreter instead", e);
+            return null;
+        }
+    }
+
+    /**
+     * 生成一个表达式的代码
+     *
+     * @return 执行后是否需要检查中断和切分
+     */
+    protected boolean compileExpression(MethodVisitor mv, int index, IScriptExpression expression) {
+        if (ScriptExpression.class.isInstance(expression)) {
+            ScriptExpression scriptExpression = (ScriptExpression) expression;
+            String newFieldName = scriptExpression.getNewFieldName();
+            if (scriptExpression.getHomologousVar() == null && (newFieldName == null || newFieldName.indexOf(".") == -1)) {
+                if (StringUtil.isEmpty(scriptExpression.getFunctionName())) {
+                    if (compileAssign(mv, scriptExpression)) {
+                        compiledCount++;
+                        return false;
+                    }
+                } else {
+                    Boolean needCheck = compileFunction(mv, scriptExpression);
+                    if (needCheck != null) {
+                        compiledCount++;
+                        return needCheck;
+                    }
+                }
+            }
+        }
+        mv.visitVarInsn(ALOAD, THIS_SLOT);
+        mv.visitFieldInsn(GETFIELD, SUPER_NAME, "expressions", Type.getDescriptor(IScriptExpression[].class));
+        mv.visitLdcInsn(index);
+        mv.visitInsn(AALOAD);
+        mv.visitVarInsn(ALOAD, MESSAGE_SLOT);
+        mv.visitVarInsn(ALOAD, CONTEXT_SLOT);
+        mv.visitMethodInsn(INVOKEINTERFACE, EXPRESSION_NAME, "executeExpression", "(" + MESSAGE_DESC + CONTEXT_DESC + ")" + OBJECT_DESC, true);
+        mv.visitInsn(POP);
+        validFields.clear();
+        return true;
+    }
+
+    /**
+     * a=b或a='b'这种没有函数的赋值，包括常量折叠后的表达式
+     */
+    protected boolean compileAssign(MethodVisitor mv, ScriptExpression scriptExpression) {
+        if (FoldedScriptExpression.class.isInstance(scriptExpression)) {
+            loadConstant(mv, ((FoldedScriptExpression) scriptExpression).getValue());
+            mv.visitVarInsn(ASTORE, VALUE_SLOT);
+            storeNewField(mv, scriptExpression.getNewFieldName());
+            return true;
+        }
+        if (scriptExpression.getParameters() == null || scriptExpression.getParameters().size() != 1) {
+            return false;
+        }
+        CompileParameter compileParameter = new CompileParameter(scriptExpression.getParameters().get(0), false);
+        if (!compileParameter.isSimpleParameter) {
+            return false;
+        }
+        if (compileParameter.isField) {
+            loadField(mv, (String) compileParameter.leftValue);
+        } else {
+            loadConstant(mv, compileParameter.leftValue);
+        }
+        mv.visitVarInsn(ASTORE, VALUE_SLOT);
+        storeNewField(mv, scriptExpression.getNewFieldName());
+        return true;
+    }
+
+    /**
+     * @return 不支持编译时返回null，否则返回执行后是否需要检查中断和切分
+     */
+    protected Boolean compileFunction(MethodVisitor mv, ScriptExpression scriptExpression) {
+        FunctionConfigure functionConfigure = findFunctionConfigure(scriptExpression);
+        if (functionConfigure == null || functionConfigure.isUserDefinedUDTF()) {
+            return null;
+        }
+        CompileScriptExpression compileScriptExpression = new CompileScriptExpression(scriptExpression, functionConfigure);
+        if (!compileScriptExpression.supportCompileOptimization || compileScriptExpression.parameterTemplete == null) {
+            return null;
+        }
+        Object[] templete = compileScriptExpression.parameterTemplete;
+        Map<Integer, CompileParameter> notFixedParameters = compileScriptExpression.notFixedFieldIndexs;
+        for (CompileParameter compileParameter : notFixedParameters.values()) {
+            if (!compileParameter.isSimpleParameter || !compileParameter.isField) {
+                return null;
+            }
+        }
+        boolean containsContext = compileScriptExpression.containsContext;
+        Method method = functionConfigure.getMethod();
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if (parameterTypes.length != templete.length) {
+            return null;
+        }
+        boolean directInvoke = canDirectInvoke(method);
+        if (directInvoke) {
+            if (!Modifier.isStatic(method.getModifiers())) {
+                loadConstant(mv, functionConfigure.getBean(), method.getDeclaringClass());
+            }
+        } else {
+            loadConstant(mv, functionConfigure, FunctionConfigure.class);
+            mv.visitLdcInsn(templete.length);
+            mv.visitTypeInsn(ANEWARRAY, OBJECT_NAME);
+        }
+        for (int i = 0; i < templete.length; i++) {
+            if (!directInvoke) {
+                mv.visitInsn(DUP);
+                mv.visitLdcInsn(i);
+            }
+            if (containsContext && i == 0) {
+                mv.visitVarInsn(ALOAD, MESSAGE_SLOT);
+            } else if (containsContext && i == 1) {
+                mv.visitVarInsn(ALOAD, CONTEXT_SLOT);
+            } else if (notFixedParameters.containsKey(i)) {
+                loadConstant(mv, functionConfigure.getParameterConverter(i), ParameterConverter.class);
+                loadField(mv, (String) notFixedParameters.get(i).leftValue);
+                mv.visitMethodInsn(INVOKEVIRTUAL, CONVERTER_NAME, "convert", "(" + OBJECT_DESC + ")" + OBJECT_DESC, false);
+            } else {
+                loadConstant(mv, templete[i]);
+            }
+            if (directInvoke) {
+                unbox(mv, parameterTypes[i]);
+            } else {
+                mv.visitInsn(AASTORE);
+            }
+        }
+        if (directInvoke) {
+            Class<?> declaringClass = method.getDeclaringClass();
+            String owner = Type.getInternalName(declaringClass);
+            int opcode = Modifier.isStatic(method.getModifiers()) ? INVOKESTATIC : (declaringClass.isInterface() ? INVOKEINTERFACE : INVOKEVIRTUAL);
+            mv.visitMethodInsn(opcode, owner, method.getName(), Type.getMethodDescriptor(method), declaringClass.isInterface());
+            box(mv, method.getReturnType());
+        } else {
+            mv.visitMethodInsn(INVOKEVIRTUAL, CONFIGURE_NAME, "directReflectExecute", "([" + OBJECT_DESC + ")" + OBJECT_DESC, false);
+        }
+        mv.visitVarInsn(ASTORE, VALUE_SLOT);
+        if (containsContext) {
+            //带message和context的函数可能修改消息
+            validFields.clear();
+        }
+        storeNewField(mv, scriptExpression.getNewFieldName());
+        return containsContext;
+    }
+
+    /**
+     * 按解释执行的规则找函数，同名函数有多个候选且要依赖运行时的值才能确定时，返回null
+     */
+    protected FunctionConfigure findFunctionConfigure(ScriptExpression scriptExpression) {
+        List<IScriptParamter> parameters = scriptExpression.getParameters();
+        int size = parameters == null ? 0 : parameters.size();
+        Object[] contextParameters = new Object[size + 2];
+        for (int i = 0; i < size; i++) {
+            IScriptParamter scriptParamter = parameters.get(i);
+            if (!ScriptParameter.class.isInstance(scriptParamter)) {
+                return null;
+            }
+            ScriptParameter scriptParameter = (ScriptParameter) scriptParamter;
+            if (scriptParameter.getFunctionName() != null || scriptParameter.getRigthVarName() != null) {
+                return null;
+            }
+            contextParameters[i + 2] = scriptParameter.getLeftVarName();
+        }
+        FunctionConfigureMap functionConfigureMap = ScriptComponent.getInstance().getFunctionService().getFunctionName2Engies().get(scriptExpression.getFunctionName());
+        if (functionConfigureMap == null) {
+            return null;
+        }
+        List<FunctionConfigure> contextConfigures = new ArrayList<>();
+        List<FunctionConfigure> configures = new ArrayList<>();
+        for (FunctionConfigure functionConfigure : functionConfigureMap.getFunctionConfigureList()) {
+            if (functionConfigure.isVariableParameter()) {
+                return null;
+            }
+            int length = functionConfigure.getParameterDataTypes().length;
+            if (functionConfigure.isStartWithContext() && length == size + 2) {
+                contextConfigures.add(functionConfigure);
+            } else if (!functionConfigure.isStartWithContext() && length == size) {
+                configures.add(functionConfigure);
+            }
+        }
+        if (configures.size() > 0) {
+            return configures.size() == 1 && contextConfigures.isEmpty() ? configures.get(0) : null;
+        }
+        if (contextConfigures.isEmpty()) {
+            return null;
+        }
+        //带前缀的函数，参数是变量名和常量，编译时就可以确定
+        IMessage message = new Message(new JSONObject());
+        contextParameters[0] = message;
+        contextParameters[1] = new FunctionContext(message);
+        return functionConfigureMap.getFunction(contextParameters);
+    }
+
+    /**
+     * 生成的类和方法所在的类在同一个classloader可见，且都是public的，可以直接调用
+     */
+    protected boolean canDirectInvoke(Method method) {
+        if (!Modifier.isPublic(method.getModifiers()) || !Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            return false;
+        }
+        if (!isVisible(method.getDeclaringClass()) || !isVisible(method.getReturnType())) {
+            return false;
+        }
+        for (Class<?> parameterType : method.getParameterTypes()) {
+            if (!isVisible(parameterType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected boolean isVisible(Class<?> clazz) {
+        while (clazz.isArray()) {
+            clazz = clazz.getComponentType();
+        }
+        if (clazz.isPrimitive()) {
+            return true;
+        }
+        try {
+            return Modifier.isPublic(clazz.getModifiers()) && Class.forName(clazz.getName(), false, classLoader) == clazz;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * 读字段的值，局部变量有效时直接用局部变量，否则从消息读取后放入局部变量
+     */
+    protected void loadField(MethodVisitor mv, String fieldName) {
+        int slot = getFieldSlot(fieldName);
+        if (validFields.contains(fieldName)) {
+            mv.visitVarInsn(ALOAD, slot);
+            return;
+        }
+        mv.visitVarInsn(ALOAD, MESSAGE_SLOT);
+        mv.visitLdcInsn(fieldName);
+        mv.visitMethodInsn(INVOKESTATIC, SUPER_NAME, "getFieldValue", "(" + MESSAGE_DESC + "Ljava/lang/String;)" + OBJECT_DESC, false);
+        mv.visitInsn(DUP);
+        mv.visitVarInsn(ASTORE, slot);
+        validFields.add(fieldName);
+    }
+
+    /**
+     * 把VALUE_SLOT的值写入新字段，值为null时和解释执行一样保留原值
+     */
+    protected void storeNewField(MethodVisitor mv, String newFieldName) {
+        if (newFieldName == null) {
+            return;
+        }
+        int slot = getFieldSlot(newFieldName);
+        Label isNull = new Label();
+        Label end = new Label();
+        mv.visitVarInsn(ALOAD, VALUE_SLOT);
+        mv.visitJumpInsn(IFNULL, isNull);
+        mv.visitVarInsn(ALOAD, MESSAGE_SLOT);
+        mv.visitLdcInsn(newFieldName);
+        mv.visitVarInsn(ALOAD, VALUE_SLOT);
+        mv.visitMethodInsn(INVOKESTATIC, SUPER_NAME, "setFieldValue", "(" + MESSAGE_DESC + "Ljava/lang/String;" + OBJECT_DESC + ")V", false);
+        mv.visitVarInsn(ALOAD, VALUE_SLOT);
+        mv.visitVarInsn(ASTORE, slot);
+        mv.visitJumpInsn(GOTO, end);
+        mv.visitLabel(isNull);
+        mv.visitVarInsn(ALOAD, MESSAGE_SLOT);
+        mv.visitLdcInsn(newFieldName);
+        mv.visitMethodInsn(INVOKESTATIC, SUPER_NAME, "getFieldValue", "(" + MESSAGE_DESC + "Ljava/lang/String;)" + OBJECT_DESC, false);
+        mv.visitVarInsn(ASTORE, slot);
+        mv.visitLabel(end);
+        validFields.add(newFieldName);
+    }
+
+    protected int getFieldSlot(String fieldName) {
+        Integer slot = fieldSlots.get(fieldName);
+        if (slot == null) {
+            slot = VALUE_SLOT + 1 + fieldSlots.size();
+            fieldSlots.put(fieldName, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * 中断时结束，进入切分模式时返回下一个表达式的下标，由解释执行继续处理切分后的消息
+     */
+    protected void checkContinue(MethodVisitor mv, int nextIndex) {
+        Label isContinue = new Label();
+        Label notSplit = new Label();
+        mv.visitVarInsn(ALOAD, CONTEXT_SLOT);
+        mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT_NAME, "isContinue", "()Z", false);
+        mv.visitJumpInsn(IFNE, isContinue);
+        mv.visitLdcInsn(AbstractCompiledScript.FINISHED);
+        mv.visitInsn(IRETURN);
+        mv.visitLabel(isContinue);
+        mv.visitVarInsn(ALOAD, CONTEXT_SLOT);
+        mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT_NAME, "isSplitModel", "()Z", false);
+        mv.visitJumpInsn(IFEQ, notSplit);
+        mv.visitLdcInsn(nextIndex);
+        mv.visitInsn(IRETURN);
+        mv.visitLabel(notSplit);
+    }
+
+    protected void loadConstant(MethodVisitor mv, Object value) {
+        if (value == null) {
+            mv.visitInsn(ACONST_NULL);
+        } else if (String.class.isInstance(value)) {
+            mv.visitLdcInsn(value);
+        } else {
+            loadConstant(mv, value, Object.class);
+        }
+    }
+
+    protected void loadConstant(MethodVisitor mv, Object value, Class<?> type) {
+        int index = constants.size();
+        constants.add(value);
+        mv.visitVarInsn(ALOAD, THIS_SLOT);
+        mv.visitFieldInsn(GETFIELD, SUPER_NAME, "constants", "[" + OBJECT_DESC);
+        mv.visitLdcInsn(index);
+        mv.visitInsn(AALOAD);
+        if (type != Object.class) {
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+        }
+    }
+
+    /**
+     * 把栈顶的对象转换成参数类型
+     */
+    protected void unbox(MethodVisitor mv, Class<?> type) {
+        if (type == Object.class) {
+            return;
+        }
+        if (!type.isPrimitive()) {
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+        } else if (type == boolean.class) {
+            mv.visitTypeInsn(CHECKCAST, "java/lang/Boolean");
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z", false);
+        } else if (type == char.class) {
+            mv.visitTypeInsn(CHECKCAST, "java/lang/Character");
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Character", "charValue", "()C", false);
+        } else {
+            mv.visitTypeInsn(CHECKCAST, "java/lang/Number");
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Number", type.getName() + "Value", "()" + Type.getDescriptor(type), false);
+        }
+    }
+
+    /**
+     * 把栈顶的返回值转换成对象
+     */
+    protected void box(MethodVisitor mv, Class<?> type) {
+        if (type == void.class) {
+            mv.visitInsn(ACONST_NULL);
+            return;
+        }
+        if (!type.isPrimitive()) {
+            return;
+        }
+        Type boxType;
+        if (type == boolean.class) {
+            boxType = Type.getType(Boolean.class);
+        } else if (type == char.class) {
+            boxType = Type.getType(Character.class);
+        } else if (type == int.class) {
+            boxType = Type.getType(Integer.class);
+        } else if (type == long.class) {
+            boxType = Type.getType(Long.class);
+        } else if (type == double.class) {
+            boxType = Type.getType(Double.class);
+        } else if (type == float.class) {
+            boxType = Type.getType(Float.class);
+        } else if (type == short.class) {
+            boxType = Type.getType(Short.class);
+        } else {
+            boxType = Type.getType(Byte.class);
+        }
+        mv.visitMethodInsn(INVOKESTATIC, boxType.getInternalName(), "valueOf", Type.getMethodDescriptor(boxType, Type.getType(type)), false);
+    }
+
+    protected static class ScriptClassLoader extends ClassLoader {
+
+        public ScriptClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        public Class<?> define(String className, byte[] bytes) {
+            return defineClass(className, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.optimization.compile;
+
+import com.google.auto.service.AutoService;
+import java.util.List;
+import org.apache.rocketmq.streams.common.component.ComponentCreator;
+import org.apache.rocketmq.streams.common.configurable.IConfigurableIdentification;
+import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
+import org.apache.rocketmq.streams.script.optimization.performance.IScriptOptimization;
+import org.apache.rocketmq.streams.script.service.IScriptExpression;
+
+/**
+ * 把整个脚本编译成字节码，在其他优化之后执行，不支持编译的表达式保持解释执行
+ */
+@AutoService(IScriptOptimization.class)
+public class ScriptCompileOptimization implements IScriptOptimization {
+
+    @Override
+    public IOptimizationCompiler compile(List<IScriptExpression> expressions, IConfigurableIdentification functionScript) {
+        String compileSwitch = ComponentCreator.getProperties().getProperty(ConfigureFileKey.SCRIPT_COMPILE_SWITCH);
+        if (compileSwitch != null && !Boolean.parseBoolean(compileSwitch)) {
+            return null;
+        }
+        AbstractCompiledScript compiledScript = new ScriptBytecodeCompiler().compile(expressions);
+        if (compiledScript == null) {
+            return null;
+        }
+        return new CompiledScriptOperator(expressions, compiledScript);
+    }
+
+    @Override
+    public int getOrder() {
+        return Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.optimization.compile;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.common.utils.ContantsUtil;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+import org.apache.rocketmq.streams.script.ScriptComponent;
+import org.apache.rocketmq.streams.script.context.FunctionContext;
+import org.apache.rocketmq.streams.script.function.model.FunctionConfigureMap;
+import org.apache.rocketmq.streams.script.operator.expression.FoldedScriptExpression;
+import org.apache.rocketmq.streams.script.operator.expression.ScriptExpression;
+import org.apache.rocketmq.streams.script.operator.expression.ScriptParameter;
+import org.apache.rocketmq.streams.script.service.IScriptExpression;
+import org.apache.rocketmq.streams.script.service.IScriptParamter;
+import org.apache.rocketmq.streams.script.utils.FunctionUtils;
+
+/**
+ * 解析后的表达式优化，在每条消息执行前做一次：
+ * 1.常量折叠，参数全是常量的纯函数直接算出结果
+ * 2.删除无用的临时变量，__开头的字段赋值后，在被读取前就被rm或没有被retainField保留，则不需要计算
+ */
+public class ScriptExpressionOptimizer {
+
+    private static final Log LOG = LogFactory.getLog(ScriptExpressionOptimizer.class);
+
+    /**
+     * 临时变量的前缀
+     */
+    public static final String TEMP_FIELD_PREFIX = "__";
+
+    private static final String REMOVE_FUNCTION = "rm";
+    private static final String RETAIN_FUNCTION = "retainField";
+
+    public List<IScriptExpression> optimize(List<IScriptExpression> expressions) {
+        if (expressions == null || expressions.isEmpty()) {
+            return expressions;
+        }
+        List<IScriptExpression> result = new ArrayList<>();
+        for (IScriptExpression expression : expressions) {
+            result.add(fold(expression));
+        }
+        return removeDeadExpressions(result);
+    }
+
+    /**
+     * 参数全是常量的纯函数，算出结果后替换成FoldedScriptExpression，算不出来的保持原样
+     */
+    protected IScriptExpression fold(IScriptExpression expression) {
+        if (!ScriptExpression.class.isInstance(expression)) {
+            return expression;
+        }
+        ScriptExpression scriptExpression = (ScriptExpression) expression;
+        if (StringUtil.isEmpty(scriptExpression.getFunctionName()) || !isPureFunction(scriptExpression.getFunctionName())) {
+            return expression;
+        }
+        List<IScriptParamter> parameters = scriptExpression.getParameters();
+        if (parameters != null) {
+            for (IScriptParamter parameter : parameters) {
+                if (!isConstantParameter(parameter)) {
+                    return expression;
+                }
+            }
+        }
+        ScriptExpression probe = new ScriptExpression();
+        probe.setFunctionName(scriptExpression.getFunctionName());
+        probe.setParameters(parameters);
+        probe.setExpressionStr(scriptExpression.getExpressionStr());
+        Message message = new Message(new JSONObject());
+        FunctionContext context = new FunctionContext(message);
+        Object value;
+        try {
+            value = probe.execute(message, context);
+        } catch (Exception e) {
+            //运行时也会报同样的错，保持原样
+            LOG.debug("fold expression error, keep it " + scriptExpression, e);
+            return expression;
+        }
+        if (!context.isContinue() || context.isSplitModel() || !message.getMessageBody().isEmpty()) {
+            return expression;
+        }
+        if (value != null && !isImmutable(value)) {
+            return expression;
+        }
+        return new FoldedScriptExpression(scriptExpression, value);
+    }
+
+    /**
+     * 从后往前计算每个位置之后还会读取的字段，删除结果不会被读取的纯表达式
+     */
+    protected List<IScriptExpression> removeDeadExpressions(List<IScriptExpression> expressions) {
+        //allLive为true时，fields是确定不会再读取的字段；为false时，fields是还会读取的字段
+        boolean allLive = true;
+        Set<String> fields = new HashSet<>();
+        boolean[] removed = new boolean[expressions.size()];
+        for (int i = expressions.size() - 1; i >= 0; i--) {
+            IScriptExpression expression = expressions.get(i);
+            if (isPure(expression)) {
+                String newFieldName = ((ScriptExpression) expression).getNewFieldName();
+                boolean isLive = newFieldName != null && (!isTempField(newFieldName) || allLive != fields.contains(newFieldName));
+                if (FoldedScriptExpression.class.isInstance(expression) && ((FoldedScriptExpression) expression).getValue() == null) {
+                    //值为null时不会赋值
+                    isLive = false;
+                }
+                if (!isLive) {
+                    removed[i] = true;
+                    continue;
+                }
+                for (String fieldName : expression.getDependentFields()) {
+                    if (allLive) {
+                        fields.remove(fieldName);
+                    } else {
+                        fields.add(fieldName);
+                    }
+                }
+                continue;
+            }
+            String removedField = getRemovedField(expression);
+            if (removedField != null) {
+                if (allLive) {
+                    fields.add(removedField);
+                } else {
+                    fields.remove(removedField);
+                }
+                continue;
+            }
+            Set<String> retainedFields = getRetainedFields(expression);
+            if (retainedFields != null) {
+                allLive = false;
+                fields = retainedFields;
+                continue;
+            }
+            //不知道会读取哪些字段，认为全部字段都会读取
+            allLive = true;
+            fields = new HashSet<>();
+        }
+        List<IScriptExpression> result = new ArrayList<>();
+        for (int i = 0; i < expressions.size(); i++) {
+            if (!removed[i]) {
+                result.add(expressions.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 只读取参数、不修改消息的表达式，包括a=b这种赋值和纯函数
+     */
+    protected boolean isPure(IScriptParamter expression) {
+        if (ScriptParameter.class.isInstance(expression)) {
+            return true;
+        }
+        if (!ScriptExpression.class.isInstance(expression)) {
+            return false;
+        }
+        ScriptExpression scriptExpression = (ScriptExpression) expression;
+        if (scriptExpression.getHomologousVar() != null) {
+            return false;
+        }
+        if (FoldedScriptExpression.class.isInstance(expression)) {
+            return true;
+        }
+        String functionName = scriptExpression.getFunctionName();
+        List<IScriptParamter> parameters = scriptExpression.getParameters();
+        if (StringUtil.isEmpty(functionName)) {
+            if (parameters == null || parameters.size() != 1) {
+                return false;
+            }
+        } else if (!isPureFunction(functionName)) {
+            return false;
+        }
+        if (parameters != null) {
+            for (IScriptParamter parameter : parameters) {
+                if (!isPure(parameter)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    protected boolean isPureFunction(String functionName) {
+        FunctionConfigureMap functionConfigureMap = ScriptComponent.getInstance().getFunctionService().getFunctionName2Engies().get(functionName);
+        return functionConfigureMap != null && functionConfigureMap.isPure();
+    }
+
+    /**
+     * rm(__a)这种单个参数的删除，返回被删除的字段
+     */
+    protected String getRemovedField(IScriptExpression expression) {
+        String[] names = getSimpleParameters(expression, REMOVE_FUNCTION);
+        if (names == null || names.length != 1 || FunctionUtils.isConstant(names[0])) {
+            return null;
+        }
+        return names[0];
+    }
+
+    /**
+     * retainField(a,b)执行后，消息中只剩下参数中的字段
+     */
+    protected Set<String> getRetainedFields(IScriptExpression expression) {
+        String[] names = getSimpleParameters(expression, RETAIN_FUNCTION);
+        if (names == null) {
+            return null;
+        }
+        Set<String> fields = new HashSet<>();
+        for (String name : names) {
+            fields.add(FunctionUtils.isConstant(name) ? FunctionUtils.getConstant(name) : name);
+        }
+        return fields;
+    }
+
+    /**
+     * 没有返回值赋值的指定函数，参数都是简单参数时返回参数
+     */
+    private String[] getSimpleParameters(IScriptExpression expression, String functionName) {
+        if (!ScriptExpression.class.isInstance(expression)) {
+            return null;
+        }
+        ScriptExpression scriptExpression = (ScriptExpression) expression;
+        if (!functionName.equalsIgnoreCase(scriptExpression.getFunctionName()) || scriptExpression.getNewFieldName() != null) {
+            return null;
+        }
+        List<IScriptParamter> parameters = scriptExpression.getParameters();
+        if (parameters == null || parameters.isEmpty()) {
+            return null;
+        }
+        String[] names = new String[parameters.size()];
+        for (int i = 0; i < names.length; i++) {
+            IScriptParamter parameter = parameters.get(i);
+            if (!ScriptParameter.class.isInstance(parameter)) {
+                return null;
+            }
+            ScriptParameter scriptParameter = (ScriptParameter) parameter;
+            if (scriptParameter.getFunctionName() != null || StringUtil.isEmpty(scriptParameter.getLeftVarName())) {
+                return null;
+            }
+            names[i] = scriptParameter.getLeftVarName();
+        }
+        return names;
+    }
+
+    protected boolean isConstantParameter(IScriptParamter parameter) {
+        if (!ScriptParameter.class.isInstance(parameter)) {
+            return false;
+        }
+        ScriptParameter scriptParameter = (ScriptParameter) parameter;
+        String name = scriptParameter.getLeftVarName();
+        if (scriptParameter.getFunctionName() != null || StringUtil.isEmpty(name)) {
+            return false;
+        }
+        return ContantsUtil.isContant(name) || FunctionUtils.isNumber(name) || FunctionUtils.isBoolean(name);
+    }
+
+    protected boolean isTempField(String fieldName) {
+        return fieldName.startsWith(TEMP_FIELD_PREFIX) && fieldName.indexOf(".") == -1;
+    }
+
+    /**
+     * 折叠后的值会被所有消息共用，只折叠不可变的值
+     */
+    protected boolean isImmutable(Object value) {
+        return String.class.isInstance(value) || Number.class.isInstance(value) || Boolean.class.isInstance(value) || Character.class.isInstance(value);
+    }
+}
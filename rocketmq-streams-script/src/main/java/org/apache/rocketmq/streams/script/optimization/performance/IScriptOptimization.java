@@ -20,7 +20,9 @@ import java.util.List;
 import org.apache.rocketmq.streams.common.configurable.IConfigurableIdentification;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.interfaces.IBaseStreamOperator;
 import org.apache.rocketmq.streams.common.optimization.FilterResultCache;
+import org.apache.rocketmq.streams.script.context.FunctionContext;
 import org.apache.rocketmq.streams.script.operator.expression.ScriptParameter;
 import org.apache.rocketmq.streams.script.service.IScriptExpression;
 import org.apache.rocketmq.streams.script.service.IScriptParamter;
@@ -39,8 +41,13 @@ public interface IScriptOptimization {
      */
     IOptimizationCompiler compile(List<IScriptExpression> expressions, IConfigurableIdentification functionScript);
 
-
-
+    /**
+     * 多个优化时按order从小到大依次执行，后一个优化的输入是前一个优化后的表达式列表
+     * @return order
+     */
+    default int getOrder() {
+        return 0;
+    }
 
     /**
      * the executor can execute expression and return result
@@ -60,6 +67,14 @@ public interface IScriptOptimization {
          * @return
          */
         List<IScriptExpression> getOptimizationExpressionList();
+
+        /**
+         * 整个脚本编译成一个算子时返回，FunctionScript用它代替逐个表达式执行
+         * @return 不支持时返回null
+         */
+        default IBaseStreamOperator<IMessage, IMessage, FunctionContext> getScriptOperator() {
+            return null;
+        }
     }
 
     static String getParameterValue(IScriptParamter scriptParamter) {
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.function;
+
+import com.alibaba.fastjson.JSONObject;
+import java.lang.reflect.Method;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.script.ScriptComponent;
+import org.apache.rocketmq.streams.script.context.FunctionContext;
+import org.apache.rocketmq.streams.script.function.model.FunctionConfigure;
+import org.apache.rocketmq.streams.script.function.model.FunctionInvoker;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class FunctionInvokerTest {
+
+    /**
+     * 字符串，数学，日期和json函数
+     */
+    private static final Object[][] FUNCTIONS = {
+        {"lower", "'Chris'"},
+        {"length", "name"},
+        {"round", "price", "'2'"},
+        {"quarter", "time"},
+        {"json_value", "person", "'$.name'"}
+    };
+
+    @Test
+    public void testInvoke() throws Exception {
+        FunctionInvoker invoker = FunctionInvoker.create(Integer.class.getMethod("parseInt", String.class));
+        assertFalse(invoker.isReflect());
+        assertEquals(12, invoker.invoke(null, new Object[] {"12"}));
+
+        invoker = FunctionInvoker.create(StringBuilder.class.getMethod("setLength", int.class));
+        StringBuilder sb = new StringBuilder("abcd");
+        assertNull(invoker.invoke(sb, new Object[] {2}));
+        assertEquals("ab", sb.toString());
+
+        invoker = FunctionInvoker.create(String.class.getMethod("format", String.class, Object[].class));
+        assertEquals("a-1", invoker.invoke(null, new Object[] {"%s-%s", new Object[] {"a", 1}}));
+
+        IMessage message = createMessage();
+        FunctionContext context = new FunctionContext(message);
+        for (Object[] function : FUNCTIONS) {
+            FunctionConfigure configure = getFunctionConfigure(message, context, function);
+            Object[] parameters = createParameters(configure, message, context, function);
+            Method method = configure.getMethod();
+            assertEquals(method.invoke(configure.getBean(), parameters), configure.getInvoker().invoke(configure.getBean(), parameters));
+        }
+    }
+
+    private IMessage createMessage() {
+        JSONObject msg = new JSONObject();
+        msg.put("name", "Chris");
+        msg.put("price", "12.3456");
+        msg.put("time", "2019-07-14 00:00:00");
+        JSONObject person = new JSONObject();
+        person.put("name", "chris");
+        msg.put("person", person.toJSONString());
+        return new Message(msg);
+    }
+
+    private FunctionConfigure getFunctionConfigure(IMessage message, FunctionContext context, Object[] function) {
+        Object[] parameters = new Object[function.length - 1];
+        System.arraycopy(function, 1, parameters, 0, parameters.length);
+        return ScriptComponent.getInstance().getFunctionService().getFunctionConfigure(message, context, (String)function[0], parameters);
+    }
+
+    private Object[] createParameters(FunctionConfigure configure, IMessage message, FunctionContext context, Object[] function) {
+        Object[] parameters = new Object[function.length + 1];
+        parameters[0] = message;
+        parameters[1] = context;
+        System.arraycopy(function, 1, parameters, 2, function.length - 1);
+        return configure.getRealParameters(parameters);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.optimization.compile;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import java.util.List;
+import org.apache.rocketmq.streams.common.context.Context;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.script.operator.impl.FunctionScript;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class ScriptBytecodeCompilerTest {
+
+    @Test
+    public void testCompile() {
+        String script = "a=lower(name);b=a;c='x';len=length(a);d=concat(a,'-',c);e=substr(name,2);if(len>3){f='long';}else{f='short';};";
+        FunctionScript functionScript = new FunctionScript(script);
+        functionScript.init();
+        assertNotNull(new ScriptBytecodeCompiler().compile(functionScript.getScriptExpressions()));
+        for (String name : new String[] {"Chris", "Bo"}) {
+            JSONObject msg = new JSONObject();
+            msg.put("name", name);
+            List<IMessage> expected = execute(script, msg, false);
+            List<IMessage> actual = execute(script, msg, true);
+            assertEquals(1, actual.size());
+            assertEquals(expected.get(0).getMessageBody(), actual.get(0).getMessageBody());
+        }
+    }
+
+    /**
+     * 切分后的消息由解释执行继续处理
+     */
+    @Test
+    public void testSplit() {
+        String script = "x=lower(type);splitArray('data');rm(data);y=concat(x,'-',name);";
+        JSONObject msg = new JSONObject();
+        msg.put("type", "LOGIN");
+        JSONArray jsonArray = new JSONArray();
+        for (int i = 0; i < 3; i++) {
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("name", "chris" + i);
+            jsonArray.add(jsonObject);
+        }
+        msg.put("data", jsonArray);
+        List<IMessage> expected = execute(script, msg, false);
+        List<IMessage> actual = execute(script, msg, true);
+        assertEquals(3, actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(expected.get(i).getMessageBody(), actual.get(i).getMessageBody());
+            assertEquals("login-chris" + i, actual.get(i).getMessageBody().getString("y"));
+        }
+    }
+
+    private List<IMessage> execute(String script, JSONObject msg, boolean compile) {
+        FunctionScript functionScript = new FunctionScript(script);
+        functionScript.init();
+        if (compile) {
+            functionScript.doProcessAfterRefreshConfigurable(null);
+        }
+        IMessage message = new Message((JSONObject) msg.clone());
+        return functionScript.doMessage(message, new Context(message));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.script.optimization.compile;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.List;
+import org.apache.rocketmq.streams.common.component.ComponentCreator;
+import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
+import org.apache.rocketmq.streams.common.context.Context;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.script.operator.expression.FoldedScriptExpression;
+import org.apache.rocketmq.streams.script.operator.impl.FunctionScript;
+import org.apache.rocketmq.streams.script.service.IScriptExpression;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScriptExpressionOptimizerTest {
+
+    @Test
+    public void testFold() {
+        String script = "a=lower('ABC');b=length('abcd');c=concat(name,a);d=lower(name);";
+        List<IScriptExpression> expressions = parse(script, true);
+        assertEquals(4, expressions.size());
+        assertTrue(expressions.get(0) instanceof FoldedScriptExpression);
+        assertTrue(expressions.get(1) instanceof FoldedScriptExpression);
+        assertFalse(expressions.get(2) instanceof FoldedScriptExpression);
+        assertFalse(expressions.get(3) instanceof FoldedScriptExpression);
+
+        JSONObject msg = new JSONObject();
+        msg.put("name", "Chris");
+        JSONObject result = execute(script, msg, true);
+        assertEquals(execute(script, msg, false), result);
+        assertEquals("abc", result.getString("a"));
+        assertEquals(4, result.getIntValue("b"));
+        assertEquals("Chrisabc", result.getString("c"));
+    }
+
+    @Test
+    public void testRemoveDeadTemp() {
+        //__t2在读取前被删除，__t3没有被retainField保留
+        String script = "__t1=lower(name);__t2=upper(name);__t3=trim(name);x=concat(__t1,'-');rm(__t1);rm(__t2);retainField(x,name);";
+        List<IScriptExpression> expressions = parse(script, true);
+        assertEquals(parse(script, false).size() - 2, expressions.size());
+        for (IScriptExpression expression : expressions) {
+            assertFalse(expression.getNewFieldNames().contains("__t2"));
+            assertFalse(expression.getNewFieldNames().contains("__t3"));
+        }
+        JSONObject msg = new JSONObject();
+        msg.put("name", "Chris");
+        assertEquals(execute(script, msg, false), execute(script, msg, true));
+
+        //中间有不确定读取哪些字段的表达式时保留
+        script = "__t1=lower(name);if(__t1=='chris'){b='1';};rm(__t1);";
+        assertEquals(parse(script, false).size(), parse(script, true).size());
+        assertEquals(execute(script, msg, false), execute(script, msg, true));
+    }
+
+    private List<IScriptExpression> parse(String script, boolean optimize) {
+        return createScript(script, optimize).getScriptExpressions();
+    }
+
+    private JSONObject execute(String script, JSONObject msg, boolean optimize) {
+        FunctionScript functionScript = createScript(script, optimize);
+        IMessage message = new Message((JSONObject) msg.clone());
+        List<IMessage> result = functionScript.doMessage(message, new Context(message));
+        return result.get(0).getMessageBody();
+    }
+
+    private FunctionScript createScript(String script, boolean optimize) {
+        ComponentCreator.getProperties().setProperty(ConfigureFileKey.SCRIPT_EXPRESSION_OPTIMIZATION_SWITCH, String.valueOf(optimize));
+        try {
+            FunctionScript functionScript = new FunctionScript(script);
+            functionScript.init();
+            return functionScript;
+        } finally {
+            ComponentCreator.getProperties().remove(ConfigureFileKey.SCRIPT_EXPRESSION_OPTIMIZATION_SWITCH);
+        }
+    }
+}
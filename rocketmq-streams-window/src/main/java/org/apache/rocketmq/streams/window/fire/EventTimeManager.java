@@ -31,6 +31,9 @@ public class EventTimeManager {
 
     private Map<String, Pair<Long, Long>> eventTimeIncreasementMap = new ConcurrentHashMap<>();
 
+    //分片的最大时间变大时通知，触发器据此推进时间轮
+    protected IEventTimeListener eventTimeListener;
+
     public void updateEventTime(IMessage message, AbstractWindow window) {
         String queueId = message.getHeader().getQueueId();
         SplitEventTimeManager splitEventTimeManager = eventTimeManagerMap.get(queueId);
@@ -43,7 +46,11 @@ public class EventTimeManager {
                 }
             }
         }
-        splitEventTimeManager.updateEventTime(message, window);
+        boolean increased = splitEventTimeManager.updateEventTime(message, window);
+        IEventTimeListener listener = this.eventTimeListener;
+        if (increased && listener != null) {
+            listener.onEventTimeIncreased(queueId);
+        }
     }
 
     public Long getMaxEventTime(String queueId) {
@@ -72,6 +79,10 @@ public class EventTimeManager {
         return null;
     }
 
+    public void setEventTimeListener(IEventTimeListener eventTimeListener) {
+        this.eventTimeListener = eventTimeListener;
+    }
+
     public void setSource(ISource source) {
         if (this.source != null) {
             return;
@@ -63,21 +63,29 @@ public class SplitEventTimeManager {
         }
     }
 
-    public void updateEventTime(IMessage message, AbstractWindow window) {
+    /**
+     * @param message
+     * @param window
+     * @return 原始分片的最大时间是否变大，变大时水位可能前进
+     */
+    public boolean updateEventTime(IMessage message, AbstractWindow window) {
         String oriQueueId = message.getMessageBody().getString(WindowCache.ORIGIN_QUEUE_ID);
         if (StringUtil.isEmpty(oriQueueId)) {
-            return;
+            return false;
         }
         Long occurTime = WindowInstance.getOccurTime(window, message);
         Long oldTime = messageSplitId2MaxTime.get(oriQueueId);
         if (oldTime == null) {
             queueIdCount.incrementAndGet();
             messageSplitId2MaxTime.put(oriQueueId, occurTime);
+            return true;
         } else {
             if (occurTime > oldTime) {
                 messageSplitId2MaxTime.put(oriQueueId, occurTime);
+                return true;
             }
         }
+        return false;
     }
 
     public Long getMaxEventTime() {
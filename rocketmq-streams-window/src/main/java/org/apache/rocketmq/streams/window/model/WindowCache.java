@@ -40,7 +40,7 @@ import org.apache.rocketmq.streams.common.component.ComponentCreator;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.context.Message;
 import org.apache.rocketmq.streams.common.topology.model.IWindow;
-import org.apache.rocketmq.streams.common.utils.CompressUtil;
+import org.apache.rocketmq.streams.common.topology.shuffle.codec.ShuffleCodecFactory;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.window.debug.DebugWriter;
 import org.apache.rocketmq.streams.window.shuffle.ShuffleChannel;
@@ -96,10 +96,7 @@ public abstract class WindowCache extends AbstractSink implements IWindow.IWindo
                             allMsgs.addAll(jsonArray);
                         }
                     }
-                    JSONObject zipJsonObject = new JSONObject();
-                    zipJsonObject.put(COMPRESSION_MSG_DATA, CompressUtil.gZip(jsonObject.toJSONString()));
-                    zipJsonObject.put(IS_COMPRESSION_MSG, true);
-                    shuffleChannel.getProducer().batchAdd(new Message(zipJsonObject), split);
+                    shuffleChannel.getProducer().batchAdd(new Message(ShuffleCodecFactory.encode(jsonObject, shuffleChannel.getWindow().getShuffleCodec())), split);
                     shuffleChannel.getProducer().flush(split.getQueueId());
                     return true;
                 }
@@ -59,6 +59,14 @@ public class WindowInstance extends Entity implements Serializable {
      */
     protected String fireTime;
 
+    /**
+     * 时间的毫秒值，窗口内部的比较和计算都用毫秒值，字符串只用于id、输出和存储（保持已存储的窗口实例格式不变）
+     * 不存储，第一次使用时从字符串转换
+     */
+    protected transient long startTimeMillis = WindowTimeFormat.UNKNOWN;
+    protected transient long endTimeMillis = WindowTimeFormat.UNKNOWN;
+    protected transient long fireTimeMillis = WindowTimeFormat.UNKNOWN;
+
     /**
      * 使用configName
      */
@@ -103,6 +111,9 @@ public class WindowInstance extends Entity implements Serializable {
         windowInstance.setLastMaxUpdateTime(this.lastMaxUpdateTime);
         windowInstance.setEndTime(this.endTime);
         windowInstance.setStartTime(this.startTime);
+        windowInstance.startTimeMillis = this.startTimeMillis;
+        windowInstance.endTimeMillis = this.endTimeMillis;
+        windowInstance.fireTimeMillis = this.fireTimeMillis;
         windowInstance.setSplitId(this.splitId);
         windowInstance.setWindowInstanceSplitName(this.windowInstanceSplitName);
         windowInstance.setGmtModified(new Date());
@@ -248,9 +259,9 @@ public class WindowInstance extends Entity implements Serializable {
                 }
             }
 
-            String startTime = DateUtil.format(begin);
-            String endTime = DateUtil.format(end);
-            String fireTime = DateUtil.format(fire);
+            String startTime = WindowTimeFormat.format(begin.getTime());
+            String endTime = WindowTimeFormat.format(end.getTime());
+            String fireTime = WindowTimeFormat.format(fire.getTime());
 
             //todo 这里不是都创建出来WindowInstance了吗
             String windowInstanceTriggerId = window.createWindowInstance(startTime, endTime, fireTime, queueId).createWindowInstanceTriggerId();
@@ -310,15 +321,14 @@ public class WindowInstance extends Entity implements Serializable {
             return null;
         }
         List<WindowInstance> windowInstances = new ArrayList<>();
-        Date startDate = DateUtil.parse(windowInstance.getStartTime());
-        Date fireTime = DateUtil.parse(windowInstance.getFireTime());
-        Date emitFireTime = DateUtil.addDate(TimeUnit.SECONDS, startDate, window.getEmitBeforeValue().intValue());
-        while (emitFireTime.getTime() < fireTime.getTime()) {
+        long fireTime = windowInstance.getFireTimeMillis();
+        long emitFireTime = windowInstance.getStartTimeMillis() + window.getEmitBeforeValue() * 1000;
+        while (emitFireTime < fireTime) {
             WindowInstance emitWindowInstance = windowInstance.copy();
-            emitWindowInstance.setFireTime(DateUtil.format(emitFireTime));
+            emitWindowInstance.setFireTimeMillis(emitFireTime);
             emitWindowInstance.setCanClearResource(false);
             windowInstances.add(emitWindowInstance);
-            emitFireTime = DateUtil.addDate(TimeUnit.SECONDS, emitFireTime, window.getEmitBeforeValue().intValue());
+            emitFireTime = emitFireTime + window.getEmitBeforeValue() * 1000;
         }
         return windowInstances;
     }
@@ -332,15 +342,14 @@ public class WindowInstance extends Entity implements Serializable {
             return null;
         }
         List<WindowInstance> windowInstances = new ArrayList<>();
-        Date endDate = DateUtil.parse(windowInstance.getEndTime());
-        Date fireTime = DateUtil.parse(windowInstance.getFireTime());
-        Date emitFireTime = DateUtil.addDate(TimeUnit.SECONDS, endDate, window.getWaterMarkMinute() * window.getTimeUnitAdjust());
-        while (emitFireTime.getTime() < fireTime.getTime()) {
+        long fireTime = windowInstance.getFireTimeMillis();
+        long emitFireTime = windowInstance.getEndTimeMillis() + (long) window.getWaterMarkMinute() * window.getTimeUnitAdjust() * 1000;
+        while (emitFireTime < fireTime) {
             WindowInstance firstWindowInstance = windowInstance.copy();
-            firstWindowInstance.setFireTime(DateUtil.format(emitFireTime));
+            firstWindowInstance.setFireTimeMillis(emitFireTime);
             firstWindowInstance.setCanClearResource(false);
             windowInstances.add(firstWindowInstance);
-            emitFireTime = DateUtil.addDate(TimeUnit.SECONDS, emitFireTime, window.getEmitAfterValue().intValue());
+            emitFireTime = emitFireTime + window.getEmitAfterValue() * 1000;
         }
         return windowInstances;
     }
@@ -351,6 +360,19 @@ public class WindowInstance extends Entity implements Serializable {
 
     public void setStartTime(String startTime) {
         this.startTime = startTime;
+        this.startTimeMillis = WindowTimeFormat.UNKNOWN;
+    }
+
+    public long getStartTimeMillis() {
+        if (startTimeMillis == WindowTimeFormat.UNKNOWN) {
+            startTimeMillis = WindowTimeFormat.parse(startTime);
+        }
+        return startTimeMillis;
+    }
+
+    public void setStartTimeMillis(long startTimeMillis) {
+        this.startTime = WindowTimeFormat.format(startTimeMillis);
+        this.startTimeMillis = startTimeMillis;
     }
 
     public String getEndTime() {
@@ -359,6 +381,19 @@ public class WindowInstance extends Entity implements Serializable {
 
     public void setEndTime(String endTime) {
         this.endTime = endTime;
+        this.endTimeMillis = WindowTimeFormat.UNKNOWN;
+    }
+
+    public long getEndTimeMillis() {
+        if (endTimeMillis == WindowTimeFormat.UNKNOWN) {
+            endTimeMillis = WindowTimeFormat.parse(endTime);
+        }
+        return endTimeMillis;
+    }
+
+    public void setEndTimeMillis(long endTimeMillis) {
+        this.endTime = WindowTimeFormat.format(endTimeMillis);
+        this.endTimeMillis = endTimeMillis;
     }
 
     public String getFireTime() {
@@ -367,6 +402,19 @@ public class WindowInstance extends Entity implements Serializable {
 
     public void setFireTime(String fireTime) {
         this.fireTime = fireTime;
+        this.fireTimeMillis = WindowTimeFormat.UNKNOWN;
+    }
+
+    public long getFireTimeMillis() {
+        if (fireTimeMillis == WindowTimeFormat.UNKNOWN) {
+            fireTimeMillis = WindowTimeFormat.parse(fireTime);
+        }
+        return fireTimeMillis;
+    }
+
+    public void setFireTimeMillis(long fireTimeMillis) {
+        this.fireTime = WindowTimeFormat.format(fireTimeMillis);
+        this.fireTimeMillis = fireTimeMillis;
     }
 
     public String getWindowName() {
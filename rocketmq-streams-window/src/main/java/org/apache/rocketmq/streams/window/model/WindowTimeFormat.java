@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.model;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import org.apache.rocketmq.streams.common.utils.DateUtil;
+
+/**
+ * 窗口时间在毫秒和字符串（yyyy-MM-dd HH:mm:ss）之间转换，窗口内部用毫秒计算，字符串只用在输出、存储和窗口实例id上
+ * 同一个窗口的时间会被反复转换，每个线程按值缓存最近转换的结果
+ */
+public final class WindowTimeFormat {
+
+    /**
+     * 毫秒值还没有从字符串转换过来
+     */
+    public static final long UNKNOWN = 0L;
+
+    private static final int CACHE_SIZE = 64;
+    private static final int CACHE_SHIFT = 32 - Integer.numberOfTrailingZeros(CACHE_SIZE);
+    private static final String DATE_PATTERN = "yyyy-MM-dd";
+
+    private static final ThreadLocal<Cache> CACHE = new ThreadLocal<Cache>() {
+        @Override
+        protected Cache initialValue() {
+            return new Cache();
+        }
+    };
+
+    private WindowTimeFormat() {
+    }
+
+    public static String format(long millis) {
+        Cache cache = CACHE.get();
+        int index = index(Long.hashCode(millis));
+        String value = cache.formatValues[index];
+        if (value != null && cache.formatKeys[index] == millis) {
+            return value;
+        }
+        value = cache.dateTimeFormat.format(new Date(millis));
+        cache.formatKeys[index] = millis;
+        cache.formatValues[index] = value;
+        return value;
+    }
+
+    /**
+     * 支持yyyy-MM-dd HH:mm:ss和yyyy-MM-dd（会话窗口实例的开始时间）
+     *
+     * @param time
+     * @return time为空时返回UNKNOWN
+     */
+    public static long parse(String time) {
+        if (time == null || time.length() == 0) {
+            return UNKNOWN;
+        }
+        Cache cache = CACHE.get();
+        int index = index(time.hashCode());
+        if (time.equals(cache.parseKeys[index])) {
+            return cache.parseValues[index];
+        }
+        long millis;
+        try {
+            millis = cache.dateTimeFormat.parse(time).getTime();
+        } catch (ParseException e) {
+            try {
+                millis = cache.dateFormat.parse(time).getTime();
+            } catch (ParseException e1) {
+                throw new RuntimeException("can not parse window time " + time, e1);
+            }
+        }
+        cache.parseKeys[index] = time;
+        cache.parseValues[index] = millis;
+        return millis;
+    }
+
+    private static int index(int hash) {
+        //窗口时间大多是整秒，低位相同，先打散再取高位
+        return (hash * 0x9E3779B9) >>> CACHE_SHIFT;
+    }
+
+    private static class Cache {
+        private final SimpleDateFormat dateTimeFormat = new SimpleDateFormat(DateUtil.DEFAULT_FORMAT);
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
+        private final long[] formatKeys = new long[CACHE_SIZE];
+        private final String[] formatValues = new String[CACHE_SIZE];
+        private final String[] parseKeys = new String[CACHE_SIZE];
+        private final long[] parseValues = new long[CACHE_SIZE];
+    }
+}
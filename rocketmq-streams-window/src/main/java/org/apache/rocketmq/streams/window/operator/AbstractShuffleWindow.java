@@ -19,13 +19,17 @@ package org.apache.rocketmq.streams.window.operator;
 import org.apache.rocketmq.streams.common.channel.source.ISource;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.utils.DateUtil;
 import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
+import org.apache.rocketmq.streams.window.model.WindowTimeFormat;
 import org.apache.rocketmq.streams.window.shuffle.ShuffleChannel;
+import org.apache.rocketmq.streams.window.storage.cache.WriteBackCacheStorage;
 import org.apache.rocketmq.streams.window.storage.rocketmq.DefaultStorage;
 import org.apache.rocketmq.streams.window.storage.rocksdb.RocksdbStorage;
 import org.apache.rocketmq.streams.window.trigger.WindowTrigger;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -33,6 +37,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 public abstract class AbstractShuffleWindow extends AbstractWindow {
     private static final String PREFIX = "windowStates";
+    private static final String PANE_INSTANCE_NAME_SUFFIX = "pane";
     protected transient ShuffleChannel shuffleChannel;
     protected transient AtomicBoolean hasCreated = new AtomicBoolean(false);
 
@@ -72,6 +77,17 @@ public abstract class AbstractShuffleWindow extends AbstractWindow {
         RocksdbStorage rocksdbStorage = new RocksdbStorage();
         this.storage = new DefaultStorage(stateTopic, groupId, namesrvAddr,
                                             size, isLocalStorageOnly, rocksdbStorage);
+        if (stateCacheSizePerQueue > 0) {
+            this.storage = new WriteBackCacheStorage(this.storage, stateCacheSizePerQueue);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (shuffleChannel != null) {
+            shuffleChannel.destroy();
+        }
     }
 
     @Override
@@ -89,6 +105,86 @@ public abstract class AbstractShuffleWindow extends AbstractWindow {
         return doFireWindowInstance(windowInstance);
     }
 
+    /**
+     * 是否按pane聚合，支持pane的子类覆盖
+     *
+     * @return
+     */
+    public boolean isPaneEnabled() {
+        return false;
+    }
+
+    /**
+     * pane的长度是窗口大小和滑动步长的最大公约数，窗口的边界都落在pane的边界上
+     *
+     * @return pane的毫秒数
+     */
+    public long getPaneIntervalMillis() {
+        int size = sizeInterval;
+        int slide = slideInterval == 0 ? sizeInterval : slideInterval;
+        while (slide != 0) {
+            int remainder = size % slide;
+            size = slide;
+            slide = remainder;
+        }
+        return (long) size * timeUnitAdjust * 1000;
+    }
+
+    /**
+     * 消息所属的pane，pane只保存状态，不注册触发
+     *
+     * @param message
+     * @param windowInstances 消息命中的窗口实例
+     * @param queueId
+     * @return
+     */
+    public WindowInstance createPaneInstance(IMessage message, List<WindowInstance> windowInstances, String queueId) {
+        long paneInterval = getPaneIntervalMillis();
+        long paneStart = DateUtil.getWindowStartWithOffset(WindowInstance.getOccurTime(this, message), 0, paneInterval);
+        //窗口按开始时间倒序，第一个是最晚触发的窗口
+        return createPaneInstance(paneStart, paneInterval, windowInstances.get(0).getFireTime(), queueId);
+    }
+
+    /**
+     * 窗口覆盖的所有pane，按开始时间升序
+     *
+     * @param windowInstance
+     * @return
+     */
+    public List<WindowInstance> createPaneInstances(WindowInstance windowInstance) {
+        return createPaneInstances(windowInstance, windowInstance.getStartTimeMillis(), windowInstance.getEndTimeMillis());
+    }
+
+    /**
+     * 窗口触发后，开始时间在[start, start + slide)中的pane不会再被其他窗口使用，可以清理
+     *
+     * @param windowInstance
+     * @return
+     */
+    public List<WindowInstance> createExpiredPaneInstances(WindowInstance windowInstance) {
+        long start = windowInstance.getStartTimeMillis();
+        long slide = (long) (slideInterval == 0 ? sizeInterval : slideInterval) * timeUnitAdjust * 1000;
+        return createPaneInstances(windowInstance, start, start + slide);
+    }
+
+    private List<WindowInstance> createPaneInstances(WindowInstance windowInstance, long start, long end) {
+        long paneInterval = getPaneIntervalMillis();
+        List<WindowInstance> paneInstances = new ArrayList<>();
+        for (long paneStart = start; paneStart < end; paneStart += paneInterval) {
+            paneInstances.add(createPaneInstance(paneStart, paneInterval, windowInstance.getFireTime(), windowInstance.getSplitId()));
+        }
+        return paneInstances;
+    }
+
+    private WindowInstance createPaneInstance(long paneStart, long paneInterval, String fireTime, String queueId) {
+        String startTime = WindowTimeFormat.format(paneStart);
+        String endTime = WindowTimeFormat.format(paneStart + paneInterval);
+        WindowInstance paneInstance = createWindowInstance(startTime, endTime, fireTime, queueId);
+        paneInstance.setWindowInstanceName(paneInstance.getWindowInstanceName() + "_" + PANE_INSTANCE_NAME_SUFFIX);
+        paneInstance.setWindowInstanceId(paneInstance.createWindowInstanceId());
+        return paneInstance;
+    }
+
     /**
      * 接收shuffle后的消息进行计算，子类实现具体计算逻辑
      *
@@ -143,6 +143,10 @@ public abstract class AbstractWindow extends BasedConfigurable implements IAfter
     protected int fireMode = 0;//0:普通触发,firetime后收到数据丢弃；1:多实例多次独立触发，在watermark时间内，同starttime，endtime创建多个实例，多次触发；2.单实例，多次独立触发，每次触发是最新值
 
     protected boolean isLocalStorageOnly = true;//是否只用本地存储，可以提高性能，但不保证可靠性
+    protected int stateCacheSizePerQueue = 0;//每个分片在内存中缓存的窗口计算结果个数，默认0不缓存
+    protected int shuffleWorkerCount = 1;//flush和checkpoint时按shuffle队列并行计算的线程数，一个队列固定在一个线程上，小于等于1时依次计算
+    protected String shuffleCodec;//shuffle消息的编码，为空时使用window.shuffle.codec配置，默认json_gzip，见ShuffleCodecFactory
+    protected boolean paneMode = false;//滑动窗口按gcd(size,slide)切分成pane，每条消息只聚合到一个pane，触发时合并窗口内pane的结果
     protected String reduceSerializeValue;//用户自定义的operator的序列化字节数组，做了base64解码
     protected transient IReducer reducer;
     protected transient Long maxPartitionNum = 100000000L;
@@ -515,18 +519,18 @@ public abstract class AbstractWindow extends BasedConfigurable implements IAfter
                     continue;
                 }
             }
-            Long fireTime = DateUtil.parseTime(windowValue.getFireTime()).getTime();
+            long fireTime = windowValue.getFireTimeMillis();
             long baseTime = 1577808000000L;//set base time from 2021-01-01 00:00:00
             int sameFireCount = 0;
             if (fireMode != 0) {
-                Long endTime = DateUtil.parseTime(windowValue.getEndTime()).getTime();
+                long endTime = windowValue.getEndTimeMillis();
                 sameFireCount = (int) ((fireTime - endTime) / 1000) / sizeInterval * timeUnitAdjust;
                 if (sameFireCount >= 1) {
                     sameFireCount = 1;
                 }
             }
             //can keep offset in order
-            Long offset = ((fireTime - baseTime) / 1000 * 10 + sameFireCount) * 100000000 + windowValue.getPartitionNum();
+            long offset = ((fireTime - baseTime) / 1000 * 10 + sameFireCount) * 100000000 + windowValue.getPartitionNum();
             message.put("start_time", windowValue.getStartTime());
             message.put("end_time", windowValue.getEndTime());
             message.put("fire_time", windowValue.getFireTime());
@@ -720,6 +724,38 @@ public abstract class AbstractWindow extends BasedConfigurable implements IAfter
         isLocalStorageOnly = localStorageOnly;
     }
 
+    public int getStateCacheSizePerQueue() {
+        return stateCacheSizePerQueue;
+    }
+
+    public void setStateCacheSizePerQueue(int stateCacheSizePerQueue) {
+        this.stateCacheSizePerQueue = stateCacheSizePerQueue;
+    }
+
+    public String getShuffleCodec() {
+        return shuffleCodec;
+    }
+
+    public void setShuffleCodec(String shuffleCodec) {
+        this.shuffleCodec = shuffleCodec;
+    }
+
+    public int getShuffleWorkerCount() {
+        return shuffleWorkerCount;
+    }
+
+    public void setShuffleWorkerCount(int shuffleWorkerCount) {
+        this.shuffleWorkerCount = shuffleWorkerCount;
+    }
+
+    public boolean isPaneMode() {
+        return paneMode;
+    }
+
+    public void setPaneMode(boolean paneMode) {
+        this.paneMode = paneMode;
+    }
+
     public int getFireMode() {
         return fireMode;
     }
@@ -826,8 +862,9 @@ public abstract class AbstractWindow extends BasedConfigurable implements IAfter
     }
 
     public void saveMsgContext(String queueId,WindowInstance windowInstance, List<IMessage> messages) {
-        if(this.mapFunction!=null&&this.contextMsgSink!=null){
-            if(messages!=null){
+        if(this.mapFunction!=null&&this.contextMsgSink!=null&&messages!=null){
+            //shuffle队列并行计算时，多个线程共用一个sink
+            synchronized (this.contextMsgSink){
                 for(IMessage message:messages){
                     JSONObject msg=message.getMessageBody();
                     try {
@@ -59,7 +59,6 @@ public class SessionOperator extends WindowOperator {
 
     public static final String SESSION_WINDOW_END_TIME = "9999-01-01";
 
-    private static final String SESSION_DATETIME_PATTERN = "yyyy-MM-dd HH:mm:ss";
 
     /**
      * 会话窗口的超时时间，时间单位时秒，默认10分钟
@@ -107,7 +106,7 @@ public class SessionOperator extends WindowOperator {
                 LOG.warn("message is discarded as out of date! fire time: " + fireDate.getTime() + " max event time: " + maxEventTime);
                 return new ArrayList<>();
             }
-            instance.setFireTime(DateUtil.format(fireDate, SESSION_DATETIME_PATTERN));
+            instance.setFireTimeMillis(fireDate.getTime());
             registerWindowInstance(instance);
         }
         return new ArrayList<WindowInstance>() {{
@@ -228,24 +227,23 @@ public class SessionOperator extends WindowOperator {
         //put keys to be deleted here and delete them at last
         List<String> deletePrefixKeyList = new ArrayList<>();
         //
+        Pair<Date, Date> startEndPair = getSessionTime(message);
+        long messageBegin = startEndPair.getLeft().getTime();
+        long messageEnd = startEndPair.getRight().getTime();
         for (WindowValue value : valueList) {
-            Date sessionBegin = DateUtil.parseTime(value.getStartTime());
-            Date sessionEnd = DateUtil.parseTime(value.getEndTime());
-            Pair<Date, Date> startEndPair = getSessionTime(message);
-            Date messageBegin = startEndPair.getLeft();
-            Date messageEnd = startEndPair.getRight();
-            if (messageBegin.compareTo(sessionBegin) >= 0 && messageBegin.compareTo(sessionEnd) < 0) {
+            long sessionBegin = value.getStartTimeMillis();
+            long sessionEnd = value.getEndTimeMillis();
+            if (messageBegin >= sessionBegin && messageBegin < sessionEnd) {
                 sessionEnd = messageEnd;
-                Date sessionFire = DateUtil.addDate(TimeUnit.SECONDS, sessionEnd, waterMarkMinute * timeUnitAdjust);
-                value.setEndTime(DateUtil.format(sessionEnd, SESSION_DATETIME_PATTERN));
+                long sessionFire = sessionEnd + (long) waterMarkMinute * timeUnitAdjust * 1000;
+                value.setEndTimeMillis(sessionEnd);
                 //clean order storage as sort field 'fireTime' changed
                 deleteMergeWindow(windowInstance.getWindowInstanceId(), value.getPartition(), value.getFireTime(), value.getPartitionNum(), value.getGroupBy());
                 //
-                value.setFireTime(DateUtil.format(sessionFire, SESSION_DATETIME_PATTERN));
+                value.setFireTimeMillis(sessionFire);
                 return value;
-            } else if (messageBegin.compareTo(sessionBegin) < 0 && messageEnd.compareTo(sessionBegin) > 0) {
-                sessionBegin = messageBegin;
-                value.setStartTime(DateUtil.format(sessionBegin, SESSION_DATETIME_PATTERN));
+            } else if (messageBegin < sessionBegin && messageEnd > sessionBegin) {
+                value.setStartTimeMillis(messageBegin);
                 return value;
             }
         }
@@ -262,7 +260,7 @@ public class SessionOperator extends WindowOperator {
         }
         Map<Integer, Integer> deleteValueMap = new HashMap<>(allValueList.size());
         Map<Integer, List<Integer>> mergeValueMap = new HashMap<>(allValueList.size());
-        Collections.sort(allValueList, Comparator.comparing(WindowValue::getStartTime));
+        Collections.sort(allValueList, Comparator.comparingLong(WindowValue::getStartTimeMillis));
         for (int outIndex = 0; outIndex < allValueList.size(); outIndex++) {
             if (deleteValueMap.containsKey(outIndex)) {
                 continue;
@@ -274,10 +272,14 @@ public class SessionOperator extends WindowOperator {
             WindowValue outValue = allValueList.get(outIndex);
             for (int inIndex = outIndex + 1; inIndex < allValueList.size(); inIndex++) {
                 WindowValue inValue = allValueList.get(inIndex);
-                if (inValue.getFireTime().compareTo(outValue.getEndTime()) <= 0) {
+                if (inValue.getFireTimeMillis() <= outValue.getEndTimeMillis()) {
                     deleteValueMap.put(inIndex, outIndex);
-                    outValue.setEndTime(outValue.getEndTime().compareTo(inValue.getEndTime()) <= 0 ? inValue.getEndTime() : outValue.getEndTime());
-                    outValue.setFireTime(outValue.getFireTime().compareTo(inValue.getFireTime()) <= 0 ? inValue.getFireTime() : outValue.getFireTime());
+                    if (outValue.getEndTimeMillis() <= inValue.getEndTimeMillis()) {
+                        outValue.setEndTimeMillis(inValue.getEndTimeMillis());
+                    }
+                    if (outValue.getFireTimeMillis() <= inValue.getFireTimeMillis()) {
+                        outValue.setFireTimeMillis(inValue.getFireTimeMillis());
+                    }
                     mergeValueMap.get(outIndex).add(inIndex);
                 } else {
                     break;
@@ -364,12 +366,10 @@ public class SessionOperator extends WindowOperator {
                                             String storeKey) {
         WindowValue value = new WindowValue();
         Pair<Date, Date> startEndPair = getSessionTime(message);
-        String startTime = DateUtil.format(startEndPair.getLeft(), SESSION_DATETIME_PATTERN);
-        String endTime = DateUtil.format(startEndPair.getRight(), SESSION_DATETIME_PATTERN);
-        String fireTime = DateUtil.format(DateUtil.addDate(TimeUnit.SECONDS, startEndPair.getRight(), waterMarkMinute * timeUnitAdjust), SESSION_DATETIME_PATTERN);
-        value.setStartTime(startTime);
-        value.setEndTime(endTime);
-        value.setFireTime(fireTime);
+        long endTime = startEndPair.getRight().getTime();
+        value.setStartTimeMillis(startEndPair.getLeft().getTime());
+        value.setEndTimeMillis(endTime);
+        value.setFireTimeMillis(endTime + (long) waterMarkMinute * timeUnitAdjust * 1000);
         value.setGroupBy(groupBy);
         value.setMsgKey(storeKey);
         //FIXME shuffleId vs queueId TODO delete assert
@@ -400,8 +400,8 @@ public class SessionOperator extends WindowOperator {
 
             baseValues.sort(Comparator.comparingLong(WindowBaseValue::getPartitionNum));
 
-            Long currentFireTime = DateUtil.parse(windowInstance.getFireTime(), SESSION_DATETIME_PATTERN).getTime();
-            Long nextFireTime = currentFireTime + 1000 * 60 * 1;
+            long currentFireTime = windowInstance.getFireTimeMillis();
+            long nextFireTime = currentFireTime + 1000 * 60 * 1;
             List<WindowValue> toFireValueList = new ArrayList<>();
 
 
@@ -415,7 +415,7 @@ public class SessionOperator extends WindowOperator {
                     TraceUtil.debug(String.valueOf(windowValue.getPartitionNum()), "shuffle message fire", windowValue.getStartTime(), windowValue.getEndTime(), windowValue.getComputedColumnResult());
                     toFireValueList.add(windowValue);
                 } else {
-                    Long itFireTime = DateUtil.parse(windowValue.getFireTime(), SESSION_DATETIME_PATTERN).getTime();
+                    long itFireTime = windowValue.getFireTimeMillis();
                     if (itFireTime > currentFireTime && itFireTime < nextFireTime) {
                         nextFireTime = itFireTime;
                         break;
@@ -435,16 +435,15 @@ public class SessionOperator extends WindowOperator {
         if (maxEventTime == null) {
             maxEventTime = System.currentTimeMillis();
         }
-        Long fireTime = DateUtil.parse(value.getFireTime(), SESSION_DATETIME_PATTERN).getTime();
-        if (fireTime < maxEventTime) {
+        if (value.getFireTimeMillis() < maxEventTime) {
             return true;
         }
         return false;
     }
 
 
-    private void doFire(String queueId, WindowInstance instance, List<WindowValue> valueList, Long currentFireTime,
-                        Long nextFireTime) {
+    private void doFire(String queueId, WindowInstance instance, List<WindowValue> valueList, long currentFireTime,
+                        long nextFireTime) {
 
         if (CollectionUtil.isEmpty(valueList)) {
             return;
@@ -453,11 +452,11 @@ public class SessionOperator extends WindowOperator {
         sendFireMessage(valueList, queueId);
         clearWindowValues(valueList, queueId, instance);
 
-        if (!nextFireTime.equals(currentFireTime)) {
+        if (nextFireTime != currentFireTime) {
             String instanceId = instance.getWindowInstanceId();
             WindowInstance existedWindowInstance = searchWindowInstance(instanceId);
             if (existedWindowInstance != null) {
-                existedWindowInstance.setFireTime(DateUtil.format(new Date(nextFireTime)));
+                existedWindowInstance.setFireTimeMillis(nextFireTime);
                 windowFireSource.registFireWindowInstanceIfNotExist(instance, this);
             } else {
                 LOG.error("window instance lost, queueId: " + queueId + " ,fire time" + instance.getFireTime());
@@ -508,9 +507,8 @@ public class SessionOperator extends WindowOperator {
             lastValueMap.put(storeKey, valueList);
         }
 
-        for (WindowValue windowValue : deleteValueList) {
-            storage.deleteWindowBaseValue(queueId, instance.getWindowInstanceId(), WindowType.SESSION_WINDOW, null, windowValue.getMsgKey());
-        }
+        List<String> deleteMsgKeys = deleteValueList.stream().map(WindowValue::getMsgKey).collect(Collectors.toList());
+        storage.deleteWindowBaseValue(queueId, instance.getWindowInstanceId(), WindowType.SESSION_WINDOW, null, deleteMsgKeys);
 
         store(lastValueMap, instance, queueId);
     }
@@ -33,10 +33,10 @@ import org.apache.rocketmq.streams.window.storage.WindowType;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.stream.Collectors;
 
 public class WindowOperator extends AbstractShuffleWindow {
     public WindowOperator() {
@@ -45,9 +45,24 @@ public class WindowOperator extends AbstractShuffleWindow {
 
     @Override
     public int doFireWindowInstance(WindowInstance instance) {
-        String windowInstanceId = instance.getWindowInstanceId();
         String queueId = instance.getSplitId();
 
+        List<WindowValue> windowValues;
+        if (isPaneEnabled()) {
+            windowValues = mergePaneValues(instance);
+        } else {
+            windowValues = queryWindowValues(queueId, instance.getWindowInstanceId());
+        }
+
+        int fireCount = sendBatch(windowValues, queueId, 0);
+
+        clearFire(instance);
+
+        return fireCount;
+    }
+
+
+    protected List<WindowValue> queryWindowValues(String queueId, String windowInstanceId) {
         RocksdbIterator<WindowBaseValue> rocksdbIterator = storage.getWindowBaseValue(queueId, windowInstanceId, WindowType.NORMAL_WINDOW, null);
 
         ArrayList<WindowValue> windowValues = new ArrayList<>();
@@ -58,14 +73,59 @@ public class WindowOperator extends AbstractShuffleWindow {
         }
 
         windowValues.sort(Comparator.comparingLong(WindowBaseValue::getPartitionNum));
+        return windowValues;
+    }
 
-        int fireCount = sendBatch(windowValues, queueId, 0);
-
-        clearFire(instance);
+    /**
+     * 合并窗口覆盖的所有pane中相同groupBy的结果，按groupBy第一次出现的顺序输出
+     *
+     * @param instance
+     * @return
+     */
+    protected List<WindowValue> mergePaneValues(WindowInstance instance) {
+        String queueId = instance.getSplitId();
+        Map<String, List<WindowValue>> groupBy2Values = new LinkedHashMap<>();
+        for (WindowInstance paneInstance : createPaneInstances(instance)) {
+            for (WindowValue paneValue : queryWindowValues(queueId, paneInstance.getWindowInstanceId())) {
+                groupBy2Values.computeIfAbsent(paneValue.getGroupBy(), k -> new ArrayList<>()).add(paneValue);
+            }
+        }
 
-        return fireCount;
+        List<WindowValue> windowValues = new ArrayList<>(groupBy2Values.size());
+        //partitionNum决定触发消息的offset，合并后重新编号，保证同一个窗口内不重复
+        long partitionNum = maxPartitionNum;
+        for (Entry<String, List<WindowValue>> entry : groupBy2Values.entrySet()) {
+            List<WindowValue> paneValues = entry.getValue();
+            WindowValue windowValue = WindowValue.mergeWindowValue(this, paneValues);
+            windowValue.setStartTime(instance.getStartTime());
+            windowValue.setEndTime(instance.getEndTime());
+            windowValue.setFireTime(instance.getFireTime());
+            windowValue.setWindowInstanceId(instance.getWindowInstanceId());
+            windowValue.setMsgKey(createStoreKey(queueId, entry.getKey(), instance));
+            windowValue.setPartition(paneValues.get(0).getPartition());
+            windowValue.setPartitionNum(partitionNum++);
+            for (Entry<String, String> project : columnProjectMap.entrySet()) {
+                if (WINDOW_START.equals(project.getValue())) {
+                    windowValue.getcomputedResult().put(project.getKey(), instance.getStartTime());
+                } else if (WINDOW_END.equals(project.getValue())) {
+                    windowValue.getcomputedResult().put(project.getKey(), instance.getEndTime());
+                }
+            }
+            windowValues.add(windowValue);
+        }
+        return windowValues;
     }
 
+    /**
+     * 只有滑动窗口，按普通触发模式，并且没有自定义reduce和动态窗口大小时，才能按pane聚合
+     *
+     * @return
+     */
+    @Override
+    public boolean isPaneEnabled() {
+        return paneMode && fireMode == 0 && slideInterval > 0 && slideInterval < sizeInterval && reduceSerializeValue == null
+            && StringUtil.isEmpty(sizeVariable) && StringUtil.isEmpty(slideVariable);
+    }
 
     private int sendBatch(List<WindowValue> windowValues, String queueId, int fireCount) {
         if (windowValues == null || windowValues.size() == 0) {
@@ -99,32 +159,24 @@ public class WindowOperator extends AbstractShuffleWindow {
         List<String> sortKeys = new ArrayList<>();
         Map<String, List<IMessage>> groupBy = groupByGroupName(messages, sortKeys);
 
-        RocksdbIterator<WindowBaseValue> windowBaseValue = storage.getWindowBaseValue(queueId, instance.getWindowInstanceId(), WindowType.NORMAL_WINDOW, null);
-
-        ArrayList<WindowBaseValue> windowValues = new ArrayList<>();
-        while (windowBaseValue.hasNext()) {
-            IteratorWrap<WindowBaseValue> next = windowBaseValue.next();
-            windowValues.add(next.getData());
+        //只点查本批次出现的groupBy，不扫描整个窗口实例
+        List<String> storeKeys = new ArrayList<>(sortKeys.size());
+        for (String groupByKey : sortKeys) {
+            storeKeys.add(createStoreKey(queueId, groupByKey, instance));
         }
-
-        Map<String, List<WindowValue>> temp = windowValues.stream().map((value) -> (WindowValue) value).collect(Collectors.groupingBy(WindowValue::getMsgKey));
-
-        Map<String, List<WindowValue>> groupByMsgKey = new HashMap<>(temp);
+        Map<String, WindowValue> storeValues = storage.multiGet(queueId, instance.getWindowInstanceId(), WindowType.NORMAL_WINDOW, null, storeKeys);
 
         List<WindowValue> allWindowValues = new ArrayList<>();
 
         //处理不同groupBy的message
-        for (String groupByKey : sortKeys) {
+        for (int i = 0; i < sortKeys.size(); i++) {
+            String groupByKey = sortKeys.get(i);
             List<IMessage> msgs = groupBy.get(groupByKey);
-            String storeKey = createStoreKey(queueId, groupByKey, instance);
 
             //msgKey 为唯一键
-            List<WindowValue> windowValueList = groupByMsgKey.get(storeKey);
-            WindowValue windowValue;
-            if (windowValueList == null || windowValueList.size() == 0) {
+            WindowValue windowValue = storeValues.get(storeKeys.get(i));
+            if (windowValue == null) {
                 windowValue = createWindowValue(queueId, groupByKey, instance);
-            } else {
-                windowValue = windowValueList.get(0);
             }
 
             allWindowValues.add(windowValue);
@@ -248,6 +300,14 @@ public class WindowOperator extends AbstractShuffleWindow {
 
             //清理WindowValue
             storage.deleteWindowBaseValue(windowInstance.getSplitId(), windowInstance.getWindowInstanceId(), WindowType.NORMAL_WINDOW, null);
+
+            if (isPaneEnabled()) {
+                //之前的窗口都已经触发，只有这个窗口用到的pane可以清理
+                for (WindowInstance paneInstance : createExpiredPaneInstances(windowInstance)) {
+                    storage.deleteMaxPartitionNum(paneInstance.getSplitId(), paneInstance.getWindowInstanceId());
+                    storage.deleteWindowBaseValue(paneInstance.getSplitId(), paneInstance.getWindowInstanceId(), WindowType.NORMAL_WINDOW, null);
+                }
+            }
         }
 
     }
@@ -23,7 +23,6 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.rocketmq.streams.common.component.ComponentCreator;
@@ -82,7 +81,8 @@ public class JoinWindow extends AbstractShuffleWindow {
             msg.setHeader(header);
             String routeLabel = header.getMsgRouteFromLable();
 
-            JoinState state = createJoinState(msg, instance, routeLabel);
+            String messageKey = generateKey(msg.getMessageBody(), routeLabel, leftJoinFieldNames, rightJoinFieldNames);
+            JoinState state = createJoinState(msg, instance, routeLabel, messageKey);
             List<WindowBaseValue> temp = new ArrayList<>();
             temp.add(state);
 
@@ -97,9 +97,9 @@ public class JoinWindow extends AbstractShuffleWindow {
 
             Iterator<WindowBaseValue> iterator;
             if (WindowJoinType.left.name().equalsIgnoreCase(routeLabel)) {
-                iterator = getMessageIterator(queueId, WindowJoinType.right);
+                iterator = getMessageIterator(queueId, WindowJoinType.right, messageKey);
             } else if (WindowJoinType.right.name().equalsIgnoreCase(routeLabel)) {
-                iterator = getMessageIterator(queueId, WindowJoinType.left);
+                iterator = getMessageIterator(queueId, WindowJoinType.left, messageKey);
             } else {
                 throw new RuntimeException("param routeLabel: [" + routeLabel + "] error.");
             }
@@ -125,7 +125,16 @@ public class JoinWindow extends AbstractShuffleWindow {
     }
 
 
-    private Iterator<WindowBaseValue> getMessageIterator(String queueId, WindowJoinType joinType) {
+    /**
+     * 查找另一侧流中join key相同的消息，没有等值条件时扫描另一侧的所有消息
+     *
+     * @param queueId
+     * @param joinType   另一侧流
+     * @param messageKey 当前消息的join key
+     * @return
+     */
+    private Iterator<WindowBaseValue> getMessageIterator(String queueId, WindowJoinType joinType, String messageKey) {
+        String msgKeyPrefix = isEquiJoin() ? createJoinKeyPrefix(messageKey) : null;
 
         List<WindowInstance> instances = new ArrayList<>();
         for (Map.Entry<String, WindowInstance> entry : this.windowInstanceMap.entrySet()) {
@@ -142,9 +151,13 @@ public class JoinWindow extends AbstractShuffleWindow {
                 if (iterator != null && iterator.hasNext()) {
                     return true;
                 }
-                if (windowInstanceIter.hasNext()) {
+                while (windowInstanceIter.hasNext()) {
                     WindowInstance instance = windowInstanceIter.next();
-                    iterator = storage.getWindowBaseValue(instance.getSplitId(), instance.getWindowInstanceId(), WindowType.JOIN_WINDOW, joinType);
+                    if (msgKeyPrefix == null) {
+                        iterator = storage.getWindowBaseValue(instance.getSplitId(), instance.getWindowInstanceId(), WindowType.JOIN_WINDOW, joinType);
+                    } else {
+                        iterator = storage.getWindowBaseValue(instance.getSplitId(), instance.getWindowInstanceId(), WindowType.JOIN_WINDOW, joinType, msgKeyPrefix);
+                    }
                     if (iterator != null && iterator.hasNext()) {
                         return true;
                     }
@@ -271,6 +284,25 @@ public class JoinWindow extends AbstractShuffleWindow {
         return storeKey;
     }
 
+    /**
+     * join key加上长度前缀，避免一个join key是另一个join key的前缀时查到多余的数据
+     *
+     * @param messageKey
+     * @return
+     */
+    protected static String createJoinKeyPrefix(String messageKey) {
+        return messageKey.length() + ":" + messageKey + ";";
+    }
+
+    /**
+     * on条件中有等值字段时，按join key查找另一侧的消息，否则扫描
+     *
+     * @return
+     */
+    protected boolean isEquiJoin() {
+        return leftJoinFieldNames != null && leftJoinFieldNames.size() > 0 && rightJoinFieldNames != null && rightJoinFieldNames.size() > 0;
+    }
+
 
     /**
      * 根据左右流标志对原始消息进行封装
@@ -278,9 +310,10 @@ public class JoinWindow extends AbstractShuffleWindow {
      * @param message    原始消息
      * @param instance
      * @param routeLabel 左右流标志
+     * @param messageKey join key值
      * @return
      */
-    private JoinState createJoinState(IMessage message, WindowInstance instance, String routeLabel) {
+    private JoinState createJoinState(IMessage message, WindowInstance instance, String routeLabel, String messageKey) {
         MessageHeader header = message.getHeader();
         String queueId = "_Dipper";
         String offset = System.nanoTime() + "";
@@ -292,9 +325,9 @@ public class JoinWindow extends AbstractShuffleWindow {
             offset = header.getOffset();
         }
 
-        String messageId = this.getNameSpace() + "_" + this.getConfigureName() + "_" + queueId + "_" + offset;
+        //存储中用messageId做唯一键，以join key开头，探测时按join key前缀查找
+        String messageId = createJoinKeyPrefix(messageKey) + this.getNameSpace() + "_" + this.getConfigureName() + "_" + queueId + "_" + offset;
 
-        String messageKey = generateKey(message.getMessageBody(), routeLabel, this.leftJoinFieldNames, this.rightJoinFieldNames);
         JSONObject messageBody = (JSONObject) message.getMessageBody().clone();
         messageBody.remove("WindowInstance");
         messageBody.remove("AbstractWindow");
@@ -369,12 +402,11 @@ public class JoinWindow extends AbstractShuffleWindow {
     public synchronized void clearFireWindowInstance(WindowInstance windowInstance) {
         List<WindowInstance> removeInstances = new ArrayList<>();
 
-        Date clearTime = DateUtil.addSecond(DateUtil.parse(windowInstance.getStartTime()), -sizeInterval * (retainWindowCount - 1) * 60);
+        long clearTime = windowInstance.getStartTimeMillis() - (long) sizeInterval * (retainWindowCount - 1) * 60 * 1000;
         Iterator<String> iterable = this.windowInstanceMap.keySet().iterator();
         while (iterable.hasNext()) {
             WindowInstance instance = this.windowInstanceMap.get(iterable.next());
-            Date startTime = DateUtil.parse(instance.getStartTime());
-            if (DateUtil.dateDiff(clearTime, startTime) >= 0) {
+            if (clearTime >= instance.getStartTimeMillis()) {
                 removeInstances.add(instance);
                 iterable.remove();
             }
@@ -401,7 +433,7 @@ public class JoinWindow extends AbstractShuffleWindow {
             IteratorWrap<JoinState> next = joinStates.next();
 
             JoinState joinState = next.getData();
-            Date start = addTime(instance.getStartTime(), TimeUnit.MINUTES, -retainWindowCount * sizeInterval);
+            long start = instance.getStartTimeMillis() - (long) retainWindowCount * sizeInterval * 60 * 1000;
 
             if (canDelete(instance, joinState, start)) {
                 storage.deleteWindowBaseValue(instance.getSplitId(), instance.getWindowInstanceId(), WindowType.JOIN_WINDOW, windowJoinType);
@@ -409,15 +441,10 @@ public class JoinWindow extends AbstractShuffleWindow {
         }
     }
 
-    private boolean canDelete(WindowInstance instance, JoinState joinState, Date start) {
+    private boolean canDelete(WindowInstance instance, JoinState joinState, long start) {
         return instance.getWindowNameSpace().equals(joinState.getWindowNameSpace())
                 && instance.getWindowName().equals(joinState.getWindowName())
-                && instance.getGmtCreate().getTime() < start.getTime();
-    }
-
-    private Date addTime(String time, TimeUnit unit, int value) {
-        Date date = DateUtil.parseTime(time);
-        return DateUtil.addDate(unit, date, value);
+                && instance.getGmtCreate().getTime() < start;
     }
 
     protected List<Map<String, Object>> matchRows(JSONObject msg, List<Map<String, Object>> rows) {
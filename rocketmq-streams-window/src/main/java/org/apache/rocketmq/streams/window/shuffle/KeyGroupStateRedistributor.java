@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.shuffle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.rocketmq.streams.common.topology.shuffle.KeyGroupRouter;
+import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+import org.apache.rocketmq.streams.window.state.WindowBaseValue;
+import org.apache.rocketmq.streams.window.state.impl.JoinLeftState;
+import org.apache.rocketmq.streams.window.state.impl.JoinState;
+import org.apache.rocketmq.streams.window.state.impl.WindowValue;
+import org.apache.rocketmq.streams.window.storage.IStorage;
+import org.apache.rocketmq.streams.window.storage.IteratorWrap;
+import org.apache.rocketmq.streams.window.storage.RocksdbIterator;
+import org.apache.rocketmq.streams.window.storage.WindowJoinType;
+import org.apache.rocketmq.streams.window.storage.WindowType;
+
+/**
+ * shuffle队列扩容后，按key group把一个窗口的状态从原队列迁移到新的owner队列
+ * 窗口实例id和msgKey都以shuffle队列id开头，迁移时替换成新队列id；窗口实例不迁移，收到消息时按相同的id重新创建
+ */
+public class KeyGroupStateRedistributor {
+    /**
+     * 在maxOffset中记录状态对应的队列数，不是真实的原始队列
+     */
+    public static final String QUEUE_COUNT_KEY = "_shuffle_queue_count";
+
+    private static final String NULL_SHUFFLE_KEY = "<null>";
+
+    private final IStorage storage;
+    private final String windowNameSpace;
+    private final String windowConfigureName;
+    private final WindowType windowType;
+    private final KeyGroupRouter keyGroupRouter;
+
+    public KeyGroupStateRedistributor(IStorage storage, String windowNameSpace, String windowConfigureName, WindowType windowType, KeyGroupRouter keyGroupRouter) {
+        this.storage = storage;
+        this.windowNameSpace = windowNameSpace;
+        this.windowConfigureName = windowConfigureName;
+        this.windowType = windowType;
+        this.keyGroupRouter = keyGroupRouter;
+    }
+
+    /**
+     * @return 分片状态对应的队列数，没有记录返回null
+     */
+    public Integer getQueueCount(String shuffleId) {
+        String value = storage.getMaxOffset(shuffleId, windowConfigureName, QUEUE_COUNT_KEY);
+        if (StringUtil.isEmpty(value)) {
+            return null;
+        }
+        return Integer.valueOf(value);
+    }
+
+    public void putQueueCount(String shuffleId, int queueCount) {
+        storage.putMaxOffset(shuffleId, windowConfigureName, QUEUE_COUNT_KEY, String.valueOf(queueCount));
+    }
+
+    /**
+     * 需要向index队列复制状态的原队列，包括index自己
+     *
+     * @param index         新队列的序号
+     * @param storedCount   状态中记录的队列数，没有记录时状态可能是升级前按hashCode取模写入的
+     * @param previousCount 迁移前的队列数
+     * @param queueCount    当前的队列数
+     * @return 原队列序号，升序
+     */
+    public Set<Integer> previousQueueIndexes(int index, Integer storedCount, int previousCount, int queueCount) {
+        if (storedCount != null) {
+            return keyGroupRouter.previousQueueIndexes(index, previousCount, queueCount);
+        }
+        //扩容新增的队列也没有记录，按取模路由找的原队列包含按key group路由的原队列，复制时只取路由到index的状态
+        return keyGroupRouter.legacyPreviousQueueIndexes(index, previousCount, queueCount);
+    }
+
+    /**
+     * 把sourceId中路由到targetIndex的状态复制到targetId，原分片的状态不变
+     *
+     * @param sourceId    原队列
+     * @param targetId    新队列
+     * @param targetIndex 新队列的序号
+     * @param queueCount  扩容后的队列数
+     * @return 复制的WindowBaseValue个数
+     */
+    public int copyTo(String sourceId, String targetId, int targetIndex, int queueCount) {
+        String sourcePrefix = MapKeyUtil.createKey(sourceId, windowNameSpace, windowConfigureName) + ";";
+        //目标窗口实例id -> 原窗口实例id
+        Map<String, String> instanceIds = new HashMap<>();
+        Map<String, List<WindowBaseValue>> leftValues = new HashMap<>();
+        Map<String, List<WindowBaseValue>> rightValues = new HashMap<>();
+        int count = 0;
+
+        RocksdbIterator<WindowBaseValue> iterator = storage.getWindowBaseValue(sourceId);
+        while (iterator.hasNext()) {
+            WindowBaseValue value = iterator.next().getData();
+            String sourceInstanceId = value.getWindowInstanceId();
+            if (sourceInstanceId == null || !sourceInstanceId.startsWith(sourcePrefix)) {
+                continue;
+            }
+            String shuffleKey = getShuffleKey(value);
+            if (shuffleKey == null || keyGroupRouter.route(shuffleKey, queueCount) != targetIndex) {
+                continue;
+            }
+            String targetInstanceId = targetId + sourceInstanceId.substring(sourceId.length());
+            value.setMsgKey(replaceMsgKeyPrefix(value.getMsgKey(), sourceId, sourceInstanceId, targetId, targetInstanceId));
+            value.setWindowInstanceId(targetInstanceId);
+            value.setPartition(targetId);
+
+            instanceIds.put(targetInstanceId, sourceInstanceId);
+            Map<String, List<WindowBaseValue>> values = value instanceof JoinLeftState ? leftValues : rightValues;
+            values.computeIfAbsent(targetInstanceId, k -> new ArrayList<>()).add(value);
+            count++;
+        }
+
+        put(targetId, WindowJoinType.left, leftValues);
+        put(targetId, WindowJoinType.right, rightValues);
+
+        for (Map.Entry<String, String> entry : instanceIds.entrySet()) {
+            Long sourceNum = storage.getMaxPartitionNum(sourceId, entry.getValue());
+            if (sourceNum == null) {
+                continue;
+            }
+            Long targetNum = storage.getMaxPartitionNum(targetId, entry.getKey());
+            if (targetNum == null || targetNum < sourceNum) {
+                storage.putMaxPartitionNum(targetId, entry.getKey(), sourceNum);
+            }
+        }
+
+        //迁移前原队列处理过的消息，重放时在新队列去重
+        Map<String, String> maxOffsets = storage.getMaxOffsets(sourceId, windowConfigureName);
+        for (Map.Entry<String, String> entry : maxOffsets.entrySet()) {
+            if (QUEUE_COUNT_KEY.equals(entry.getKey())) {
+                continue;
+            }
+            if (storage.getMaxOffset(targetId, windowConfigureName, entry.getKey()) == null) {
+                storage.putMaxOffset(targetId, windowConfigureName, entry.getKey(), entry.getValue());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 删除shuffleId中已经不属于它的状态，在新队列复制完成后执行
+     *
+     * @param shuffleId
+     * @param index      队列序号
+     * @param queueCount 扩容后的队列数
+     * @return 删除的WindowBaseValue个数
+     */
+    public int removeMovedOut(String shuffleId, int index, int queueCount) {
+        String prefix = MapKeyUtil.createKey(shuffleId, windowNameSpace, windowConfigureName) + ";";
+        Map<String, List<String>> leftKeys = new HashMap<>();
+        Map<String, List<String>> rightKeys = new HashMap<>();
+        int count = 0;
+
+        RocksdbIterator<WindowBaseValue> iterator = storage.getWindowBaseValue(shuffleId);
+        while (iterator.hasNext()) {
+            IteratorWrap<WindowBaseValue> wrap = iterator.next();
+            WindowBaseValue value = wrap.getData();
+            String instanceId = value.getWindowInstanceId();
+            if (instanceId == null || !instanceId.startsWith(prefix)) {
+                continue;
+            }
+            String shuffleKey = getShuffleKey(value);
+            if (shuffleKey == null || keyGroupRouter.route(shuffleKey, queueCount) == index) {
+                continue;
+            }
+            Map<String, List<String>> keys = value instanceof JoinLeftState ? leftKeys : rightKeys;
+            //join的存储key是messageId
+            String storeKey = value instanceof JoinState ? ((JoinState) value).getMessageId() : value.getMsgKey();
+            keys.computeIfAbsent(instanceId, k -> new ArrayList<>()).add(storeKey);
+            count++;
+        }
+
+        delete(shuffleId, WindowJoinType.left, leftKeys);
+        delete(shuffleId, WindowJoinType.right, rightKeys);
+        return count;
+    }
+
+    protected String getShuffleKey(WindowBaseValue value) {
+        String shuffleKey;
+        if (value instanceof WindowValue) {
+            shuffleKey = ((WindowValue) value).getGroupBy();
+        } else if (value instanceof JoinState) {
+            shuffleKey = ((JoinState) value).getMessageKey();
+        } else {
+            return null;
+        }
+        //和发送shuffle消息时的处理一致
+        return StringUtil.isEmpty(shuffleKey) ? NULL_SHUFFLE_KEY : shuffleKey;
+    }
+
+    private String replaceMsgKeyPrefix(String msgKey, String sourceId, String sourceInstanceId, String targetId, String targetInstanceId) {
+        if (msgKey == null) {
+            return null;
+        }
+        //WindowValue的msgKey以队列id和窗口实例id开头，join以窗口实例id开头
+        String prefix = MapKeyUtil.createKey(sourceId, sourceInstanceId);
+        if (msgKey.startsWith(prefix)) {
+            return MapKeyUtil.createKey(targetId, targetInstanceId) + msgKey.substring(prefix.length());
+        }
+        if (msgKey.startsWith(sourceInstanceId)) {
+            return targetInstanceId + msgKey.substring(sourceInstanceId.length());
+        }
+        return msgKey;
+    }
+
+    private void put(String shuffleId, WindowJoinType joinType, Map<String, List<WindowBaseValue>> values) {
+        for (Map.Entry<String, List<WindowBaseValue>> entry : values.entrySet()) {
+            storage.putWindowBaseValue(shuffleId, entry.getKey(), windowType, windowType == WindowType.JOIN_WINDOW ? joinType : null, entry.getValue());
+        }
+    }
+
+    private void delete(String shuffleId, WindowJoinType joinType, Map<String, List<String>> keys) {
+        for (Map.Entry<String, List<String>> entry : keys.entrySet()) {
+            storage.deleteWindowBaseValue(shuffleId, entry.getKey(), windowType, windowType == WindowType.JOIN_WINDOW ? joinType : null, entry.getValue());
+        }
+    }
+}
@@ -20,25 +20,46 @@ package org.apache.rocketmq.streams.window.shuffle;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.rocketmq.streams.common.channel.sink.AbstractSink;
+import org.apache.rocketmq.streams.common.channel.sinkcache.IMessageFlushCallBack;
+import org.apache.rocketmq.streams.common.channel.sinkcache.impl.MessageCache;
+import org.apache.rocketmq.streams.common.channel.sinkcache.impl.MultiSplitMessageCache;
 import org.apache.rocketmq.streams.common.context.IMessage;
-import org.apache.rocketmq.streams.common.context.MessageOffset;
 import org.apache.rocketmq.streams.window.debug.DebugWriter;
 import org.apache.rocketmq.streams.window.model.WindowCache;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.operator.AbstractShuffleWindow;
-import org.apache.rocketmq.streams.window.storage.IStorage;
 
 /**
  * save receiver messages into cachefilter when checkpoint/autoflush/flush， process cachefilter message
  */
 public class ShuffleCache extends AbstractSink {
     protected AbstractShuffleWindow window;
-    private HashMap<String, Boolean> hasLoad = new HashMap<>();
+    private Map<String, Boolean> hasLoad = new ConcurrentHashMap<>();
+
+    private static final long WORKER_TERMINATION_TIMEOUT_SECONDS = 30;
+
+    /**
+     * 按shuffle队列分片计算的线程，一个队列固定由一个线程处理，保证队列内的顺序。线程按需创建，没有队列使用时关闭
+     */
+    private transient ExecutorService[] workers;
+    /**
+     * 队列第一次出现时轮流分配线程，比按hash分配均匀
+     */
+    private final Map<String, Integer> queueId2Worker = new ConcurrentHashMap<>();
+    private final AtomicInteger nextWorker = new AtomicInteger(0);
 
     public ShuffleCache(AbstractShuffleWindow window) {
         this.window = window;
@@ -61,8 +82,26 @@ public class ShuffleCache extends AbstractSink {
         List<Pair<String, String>> keys = new ArrayList<>(instance2Messages.keySet());
         Collections.sort(keys);
 
+        Map<String/*queueId*/, List<Pair<String, String>>> queueId2Keys = new LinkedHashMap<>();
         for (Pair<String, String> queueIdAndInstanceKey : keys) {
-            String queueId = queueIdAndInstanceKey.getLeft();
+            queueId2Keys.computeIfAbsent(queueIdAndInstanceKey.getLeft(), k -> new ArrayList<>()).add(queueIdAndInstanceKey);
+        }
+
+        //每个分片单独刷新，一批消息通常只属于一个队列，多个队列的并行在ShuffleMessageCache中完成
+        for (Map.Entry<String, List<Pair<String, String>>> entry : queueId2Keys.entrySet()) {
+            calculate(entry.getKey(), entry.getValue(), instance2Messages, windowInstanceMap);
+        }
+        return true;
+    }
+
+    @Override
+    protected MultiSplitMessageCache createMessageCache() {
+        return new ShuffleMessageCache(this);
+    }
+
+    protected void calculate(String queueId, List<Pair<String, String>> queueKeys, Map<Pair<String, String>, List<IMessage>> instance2Messages,
+        Map<String, WindowInstance> windowInstanceMap) {
+        for (Pair<String, String> queueIdAndInstanceKey : queueKeys) {
             String windowInstanceId = queueIdAndInstanceKey.getRight();
 
             List<IMessage> messages = instance2Messages.get(queueIdAndInstanceKey);
@@ -77,9 +116,126 @@ public class ShuffleCache extends AbstractSink {
 
             //保存处理进度
             saveSplitProgress(queueId, messages);
-            window.saveMsgContext(queueId,windowInstance,messages);
+            window.saveMsgContext(queueId, windowInstance, messages);
+        }
+    }
+
+    /**
+     * 按shuffle队列分片的缓存，flush和checkpoint涉及多个队列时，每个队列的刷新交给所属的计算线程并行执行，全部完成后返回
+     * 同一个队列的刷新由分片缓存的锁保证串行，自动刷新仍在刷新线程中执行
+     */
+    protected class ShuffleMessageCache extends MultiSplitMessageCache {
+
+        public ShuffleMessageCache(IMessageFlushCallBack<IMessage> flushCallBack) {
+            super(flushCallBack);
+        }
+
+        @Override
+        public int flush() {
+            return flush(new HashSet<>(queueMessageCaches.keySet()));
+        }
+
+        @Override
+        public int flush(Set<String> splitIds) {
+            int workerCount = window.getShuffleWorkerCount();
+            if (workerCount <= 1 || splitIds == null || splitIds.size() <= 1) {
+                return super.flush(splitIds);
+            }
+            AtomicInteger size = new AtomicInteger(0);
+            List<Future<?>> futures = new ArrayList<>(splitIds.size());
+            for (String splitId : splitIds) {
+                MessageCache<IMessage> cache = splitId == null ? null : queueMessageCaches.get(splitId);
+                if (cache != null) {
+                    futures.add(submit(splitId, workerCount, () -> size.addAndGet(cache.flush())));
+                }
+            }
+            Throwable error = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (Throwable t) {
+                    if (error == null) {
+                        error = t;
+                    }
+                }
+            }
+            if (error != null) {
+                throw new RuntimeException("shuffle calculate error", error);
+            }
+            return size.get();
+        }
+    }
+
+    /**
+     * 和removeQueue，destroy互斥，不会提交到已经关闭的线程
+     */
+    synchronized Future<?> submit(String queueId, int workerCount, Runnable task) {
+        if (workers == null) {
+            workers = new ExecutorService[workerCount];
+        }
+        int index = queueId2Worker.computeIfAbsent(queueId, k -> Math.floorMod(nextWorker.getAndIncrement(), workers.length));
+        if (workers[index] == null) {
+            String threadName = "shuffle-worker-" + window.getConfigureName() + "-" + index;
+            workers[index] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return workers[index].submit(task);
+    }
+
+    /**
+     * 队列不再由本实例处理，没有其他队列使用的计算线程关闭
+     *
+     * @param queueId
+     */
+    public void removeQueue(String queueId) {
+        hasLoad.remove(queueId);
+        ExecutorService worker = null;
+        synchronized (this) {
+            Integer index = queueId2Worker.remove(queueId);
+            if (index == null || workers == null || queueId2Worker.containsValue(index)) {
+                return;
+            }
+            worker = workers[index];
+            workers[index] = null;
+        }
+        shutdown(worker);
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (messageCache != null) {
+            closeAutoFlush();
+        }
+        ExecutorService[] workers;
+        synchronized (this) {
+            workers = this.workers;
+            this.workers = null;
+            queueId2Worker.clear();
+        }
+        if (workers != null) {
+            for (ExecutorService worker : workers) {
+                shutdown(worker);
+            }
+        }
+    }
+
+    private void shutdown(ExecutorService worker) {
+        if (worker == null) {
+            return;
+        }
+        worker.shutdown();
+        try {
+            if (!worker.awaitTermination(WORKER_TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                worker.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            worker.shutdownNow();
+            Thread.currentThread().interrupt();
         }
-            return true;
     }
 
     private void stateMustLoad(String queueId) {
@@ -89,7 +245,7 @@ public class ShuffleCache extends AbstractSink {
         }
 
         //在计算之前需要异步加载状态完成
-        HashMap<String, Future<?>> loadResult = this.window.getShuffleChannel().getLoadResult();
+        Map<String, Future<?>> loadResult = this.window.getShuffleChannel().getLoadResult();
         Future<?> future = loadResult.get(queueId);
 
         if (future == null) {
@@ -103,8 +259,11 @@ public class ShuffleCache extends AbstractSink {
 
             System.out.println("message wait before state recover:[" + (after - before) + "] ms, queueId=" + queueId);
 
-            for (String loadQueueId : loadResult.keySet()) {
-                hasLoad.put(loadQueueId, true);
+            //不同批次的分片加载和迁移状态的future不同，只标记已经完成的
+            for (Map.Entry<String, Future<?>> entry : loadResult.entrySet()) {
+                if (entry.getValue().isDone()) {
+                    hasLoad.put(entry.getKey(), true);
+                }
             }
         } catch (Throwable t) {
             throw new RuntimeException("check remote with queueId:" + queueId + ",error", t);
@@ -121,7 +280,7 @@ public class ShuffleCache extends AbstractSink {
      * @param messages
      */
     protected void saveSplitProgress(String shuffleId, List<IMessage> messages) {
-        IStorage delegator = this.window.getStorage();
+        ShuffleMaxOffsets maxOffsets = this.window.getShuffleChannel().getMaxOffsets();
 
         Map<String, String> queueId2OrigOffset = new HashMap<>();
         Boolean isLong = false;
@@ -132,14 +291,9 @@ public class ShuffleCache extends AbstractSink {
             queueId2OrigOffset.put(oriQueueId, oriOffset);
         }
 
-        for (String oriQueueId : queueId2OrigOffset.keySet()) {
-            String currentOffset = queueId2OrigOffset.get(oriQueueId);
-
-            String remoteMaxOffset = delegator.getMaxOffset(shuffleId, window.getConfigureName(), oriQueueId);
-
-            if (remoteMaxOffset == null || MessageOffset.greateThan(currentOffset, remoteMaxOffset, isLong)) {
-                delegator.putMaxOffset(shuffleId, window.getConfigureName(), oriQueueId, currentOffset);
-            }
+        //只更新内存，checkpoint时写入storage
+        for (Map.Entry<String, String> entry : queueId2OrigOffset.entrySet()) {
+            maxOffsets.update(shuffleId, entry.getKey(), entry.getValue(), isLong);
         }
     }
 
@@ -163,12 +317,21 @@ public class ShuffleCache extends AbstractSink {
             message.getHeader().setOffset(oriOffset);
             message.getHeader().setOffsetIsLong(isLong);
             List<WindowInstance> windowInstances = (List<WindowInstance>) message.getMessageBody().get(WindowInstance.class.getSimpleName());
+            if (window.isPaneEnabled()) {
+                //pane模式下消息只聚合到所属的pane，不需要按窗口实例复制
+                WindowInstance paneInstance = window.createPaneInstance(message, windowInstances, queueId);
+                String paneInstanceId = paneInstance.getWindowInstanceId();
+                instance2Messages.computeIfAbsent(Pair.of(queueId, paneInstanceId), k -> new ArrayList<>()).add(message);
+                message.getMessageBody().put("HIT_WINDOW_INSTANCE_ID", paneInstanceId);
+                windowInstanceMap.putIfAbsent(paneInstanceId, paneInstance);
+                continue;
+            }
             for (WindowInstance windowInstance : windowInstances) {
                 String windowInstanceId = windowInstance.getWindowInstanceId();
                 Pair<String, String> queueIdAndInstanceKey = Pair.of(queueId, windowInstanceId);
                 List<IMessage> messages = instance2Messages.computeIfAbsent(queueIdAndInstanceKey, k -> new ArrayList<>());
-                //in case of changing message concurrently in hop window
-                IMessage cloneMessage = message.deepCopy();
+                //in case of changing message concurrently in hop window, each window instance writes to its own overlay
+                IMessage cloneMessage = message.copyOnWrite();
                 //bring window instance id into accumulator computation
                 cloneMessage.getMessageBody().put("HIT_WINDOW_INSTANCE_ID", windowInstance.getWindowInstanceId());
                 messages.add(cloneMessage);
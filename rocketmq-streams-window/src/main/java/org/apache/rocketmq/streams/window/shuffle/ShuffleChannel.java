@@ -38,11 +38,11 @@ import org.apache.rocketmq.streams.common.configure.ConfigureFileKey;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.context.Message;
-import org.apache.rocketmq.streams.common.context.MessageOffset;
 import org.apache.rocketmq.streams.common.interfaces.ISystemMessage;
 import org.apache.rocketmq.streams.common.topology.ChainPipeline;
 import org.apache.rocketmq.streams.common.topology.model.Pipeline;
-import org.apache.rocketmq.streams.common.utils.CompressUtil;
+import org.apache.rocketmq.streams.common.topology.shuffle.KeyGroupRouter;
+import org.apache.rocketmq.streams.common.topology.shuffle.codec.ShuffleCodecFactory;
 import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
 import org.apache.rocketmq.streams.common.utils.TraceUtil;
@@ -51,15 +51,24 @@ import org.apache.rocketmq.streams.window.model.WindowCache;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.operator.AbstractShuffleWindow;
 import org.apache.rocketmq.streams.window.operator.AbstractWindow;
+import org.apache.rocketmq.streams.window.operator.impl.SessionOperator;
+import org.apache.rocketmq.streams.window.operator.join.JoinWindow;
+import org.apache.rocketmq.streams.window.storage.IStorage;
+import org.apache.rocketmq.streams.window.storage.WindowType;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -94,7 +103,17 @@ public class ShuffleChannel extends AbstractSystemChannel {
 
     protected transient boolean isWindowTest = false;
 
-    private transient HashMap<String, Future<?>> loadResult = new HashMap<>();
+    private transient Map<String, Future<?>> loadResult = new ConcurrentHashMap<>();
+
+    protected transient KeyGroupRouter keyGroupRouter = KeyGroupRouter.create();
+    /**
+     * 每个分片，已经处理的原始队列的最大offset
+     */
+    protected transient ShuffleMaxOffsets maxOffsets;
+    /**
+     * 加载状态后按key group迁移扩容前的状态
+     */
+    private transient ExecutorService redistributeExecutor;
     /**
      * 每个分片，已经确定处理的最大offset
      */
@@ -105,6 +124,7 @@ public class ShuffleChannel extends AbstractSystemChannel {
         channelConfig.put(CHANNEL_PROPERTY_KEY_PREFIX, ConfigureFileKey.WINDOW_SHUFFLE_CHANNEL_PROPERTY_PREFIX);
         channelConfig.put(CHANNEL_TYPE, ConfigureFileKey.WINDOW_SHUFFLE_CHANNEL_TYPE);
 
+        this.maxOffsets = new ShuffleMaxOffsets(window);
         this.shuffleCache = new ShuffleCache(window);
         this.shuffleCache.init();
         this.shuffleCache.openAutoFlush();
@@ -154,9 +174,7 @@ public class ShuffleChannel extends AbstractSystemChannel {
 
         }
         if (oriMessage.getMessageBody().getBooleanValue(WindowCache.IS_COMPRESSION_MSG)) {
-            byte[] bytes = oriMessage.getMessageBody().getBytes(WindowCache.COMPRESSION_MSG_DATA);
-            String msgStr = CompressUtil.unGzip(bytes);
-            oriMessage.setMessageBody(JSONObject.parseObject(msgStr));
+            oriMessage.setMessageBody(ShuffleCodecFactory.decode(oriMessage.getMessageBody()));
         }
         /**
          * 过滤不是这个window的消息，一个shuffle通道，可能多个window共享，这里过滤掉非本window的消息
@@ -222,13 +240,133 @@ public class ShuffleChannel extends AbstractSystemChannel {
     public void addNewSplit(IMessage message, AbstractContext context, NewSplitMessage newSplitMessage) {
         Set<String> splitIds = newSplitMessage.getSplitIds();
 
-        Future<?> future = this.window.getStorage().load(splitIds);
+        for (String splitId : splitIds) {
+            this.maxOffsets.remove(splitId);
+        }
+        Set<String> ownedSplitIds = new HashSet<>(this.loadResult.keySet());
+        ownedSplitIds.addAll(splitIds);
+        Future<?> loadFuture = this.window.getStorage().load(splitIds);
+        Future<?> future = getRedistributeExecutor().submit(() -> {
+            loadFuture.get();
+            redistribute(splitIds, ownedSplitIds);
+            return null;
+        });
         for (String splitId : splitIds) {
              this.loadResult.put(splitId, future);
         }
         window.getFireReceiver().doMessage(message, context);
     }
 
+    /**
+     * 状态中记录的队列数（没有记录时用window.shuffle.previous.queue.count配置）小于当前队列数时，说明shuffle队列扩容了，
+     * 新队列从原队列复制属于自己的key group的状态，原队列删除迁出的状态。只支持扩容
+     * 没有记录队列数时，状态可能是升级前按hashCode取模写入的，队列数不是最大并行度的约数时也需要迁移
+     *
+     * @param splitIds      新加载的分片
+     * @param ownedSplitIds 本实例的所有分片，不属于本实例的原队列需要临时加载
+     */
+    protected void redistribute(Set<String> splitIds, Set<String> ownedSplitIds) throws Exception {
+        if (queueList == null || queueList.size() == 0) {
+            return;
+        }
+        IStorage storage = window.getStorage();
+        KeyGroupStateRedistributor redistributor = new KeyGroupStateRedistributor(storage, window.getNameSpace(), window.getConfigureName(),
+            getWindowType(), keyGroupRouter);
+        int queueCount = queueList.size();
+        String configuredValue = ComponentCreator.getProperties().getProperty(ConfigureFileKey.WINDOW_SHUFFLE_PREVIOUS_QUEUE_COUNT);
+        int configuredCount = StringUtil.isEmpty(configuredValue) ? 0 : Integer.parseInt(configuredValue.trim());
+
+        //先复制再删除，原队列也是本实例新加载的分片时，删除前其他新队列已经复制完
+        List<MutablePair<String, Integer>> movedOutSplits = new ArrayList<>();
+        for (String splitId : splitIds) {
+            int index = indexOf(splitId);
+            Integer storedCount = redistributor.getQueueCount(splitId);
+            if (index < 0 || (storedCount != null && storedCount == queueCount)) {
+                continue;
+            }
+            int previousCount = storedCount != null ? storedCount : (configuredCount > 0 ? configuredCount : queueCount);
+            //升级前的取模路由和key group路由相同，不需要迁移
+            boolean sameRoute = storedCount == null && previousCount == queueCount && keyGroupRouter.isLegacyCompatible(queueCount);
+            if (!sameRoute && previousCount <= queueCount) {
+                for (Integer sourceIndex : redistributor.previousQueueIndexes(index, storedCount, previousCount, queueCount)) {
+                    if (sourceIndex == index) {
+                        continue;
+                    }
+                    String sourceId = queueList.get(sourceIndex).getQueueId();
+                    boolean owned = ownedSplitIds.contains(sourceId);
+                    if (!owned) {
+                        storage.load(Collections.singleton(sourceId)).get();
+                    }
+                    int count = redistributor.copyTo(sourceId, splitId, index, queueCount);
+                    LOG.info("copy " + count + " window values from shuffle queue " + sourceId + " to " + splitId + ", window is " + window.getConfigureName());
+                    if (!owned) {
+                        storage.clearCache(sourceId);
+                    }
+                }
+                if (index < previousCount) {
+                    movedOutSplits.add(MutablePair.of(splitId, index));
+                }
+            }
+            redistributor.putQueueCount(splitId, queueCount);
+        }
+        for (MutablePair<String, Integer> split : movedOutSplits) {
+            int count = redistributor.removeMovedOut(split.getLeft(), split.getRight(), queueCount);
+            LOG.info("remove " + count + " moved out window values from shuffle queue " + split.getLeft() + ", window is " + window.getConfigureName());
+        }
+    }
+
+    protected WindowType getWindowType() {
+        if (window instanceof JoinWindow) {
+            return WindowType.JOIN_WINDOW;
+        }
+        if (window instanceof SessionOperator) {
+            return WindowType.SESSION_WINDOW;
+        }
+        return WindowType.NORMAL_WINDOW;
+    }
+
+    private int indexOf(String splitId) {
+        for (int i = 0; i < queueList.size(); i++) {
+            if (queueList.get(i).getQueueId().equals(splitId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private synchronized ExecutorService getRedistributeExecutor() {
+        if (redistributeExecutor == null) {
+            redistributeExecutor = Executors.newSingleThreadExecutor();
+        }
+        return redistributeExecutor;
+    }
+
+    /**
+     * 窗口销毁时关闭计算和迁移状态的线程
+     */
+    public void destroy() {
+        if (shuffleCache != null) {
+            shuffleCache.destroy();
+        }
+        ExecutorService executor;
+        synchronized (this) {
+            executor = redistributeExecutor;
+            redistributeExecutor = null;
+        }
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
 
     @Override
     public void removeSplit(IMessage message, AbstractContext context, RemoveSplitMessage removeSplitMessage) {
@@ -237,6 +375,9 @@ public class ShuffleChannel extends AbstractSystemChannel {
         if (queueIds != null) {
             for (String queueId : queueIds) {
                 window.clearCache(queueId);
+                this.loadResult.remove(queueId);
+                this.maxOffsets.remove(queueId);
+                this.shuffleCache.removeQueue(queueId);
             }
         }
         window.getFireReceiver().doMessage(message, context);
@@ -283,14 +424,10 @@ public class ShuffleChannel extends AbstractSystemChannel {
         String oriQueueId = message.getMessageBody().getString(WindowCache.ORIGIN_QUEUE_ID);
         String oriOffset = message.getMessageBody().getString(WindowCache.ORIGIN_OFFSET);
 
-        //由storage统一缓存，方便管理一致性
-        String maxOffset = this.window.getStorage().getMaxOffset(queueId, window.getConfigureName(), oriQueueId);
-
-        if (maxOffset != null) {
-            if (!MessageOffset.greateThan(oriOffset, maxOffset, isOrigOffsetLong)) {
-                System.out.println("the message offset is old, the message is discard ");
-                return true;
-            }
+        //内存中维护，checkpoint时写入storage
+        if (maxOffsets.isRepeat(queueId, oriQueueId, oriOffset, isOrigOffsetLong)) {
+            System.out.println("the message offset is old, the message is discard ");
+            return true;
         }
         return false;
     }
@@ -402,19 +539,12 @@ public class ShuffleChannel extends AbstractSystemChannel {
     }
 
     public int hash(Object key) {
-        int mValue = queueList.size();
-        int h = 0;
-        if (key != null) {
-            h = key.hashCode() ^ (h >>> 16);
-            if (h < 0) {
-                h = -h;
-            }
-        }
-        return h % mValue;
+        return keyGroupRouter.route(key, queueList.size());
     }
 
     public void flush(Set<String> checkpointQueueIds) {
         shuffleCache.flush(checkpointQueueIds);
+        maxOffsets.persist(checkpointQueueIds);
     }
 
     /**
@@ -477,6 +607,7 @@ public class ShuffleChannel extends AbstractSystemChannel {
             shuffleCache.flush(message.getHeader().getQueueId());
             List<String> queueIds = new ArrayList<>();
             queueIds.add(message.getHeader().getQueueId());
+            maxOffsets.persist(queueIds);
 
 
             window.getStorage().flush(queueIds);
@@ -488,7 +619,11 @@ public class ShuffleChannel extends AbstractSystemChannel {
 
     }
 
-    public HashMap<String, Future<?>> getLoadResult() {
+    public ShuffleMaxOffsets getMaxOffsets() {
+        return maxOffsets;
+    }
+
+    public Map<String, Future<?>> getLoadResult() {
         return loadResult;
     }
 }
\ No newline at end of file
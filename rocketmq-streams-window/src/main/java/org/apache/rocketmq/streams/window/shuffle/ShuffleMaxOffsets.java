@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.shuffle;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import org.apache.rocketmq.streams.common.context.MessageOffset;
+import org.apache.rocketmq.streams.common.utils.StringUtil;
+import org.apache.rocketmq.streams.window.operator.AbstractShuffleWindow;
+import org.apache.rocketmq.streams.window.storage.IStorage;
+
+/**
+ * 每个shuffle队列中，各原始队列已经处理的最大offset，用于过滤重复消息
+ * 在内存中维护，判断重复和保存进度时不读写存储；分片第一次使用时从存储加载，checkpoint时把变化的offset写回存储
+ */
+public class ShuffleMaxOffsets {
+    protected AbstractShuffleWindow window;
+
+    private final ConcurrentHashMap<String, QueueOffsets> queueOffsets = new ConcurrentHashMap<>();
+
+    public ShuffleMaxOffsets(AbstractShuffleWindow window) {
+        this.window = window;
+    }
+
+    /**
+     * @return oriOffset不大于已经处理的最大offset时返回true
+     */
+    public boolean isRepeat(String shuffleId, String oriQueueId, String oriOffset, boolean isLong) {
+        return getOrLoad(shuffleId).isRepeat(oriQueueId, oriOffset, isLong);
+    }
+
+    /**
+     * 更新处理进度，只保留最大的offset
+     */
+    public void update(String shuffleId, String oriQueueId, String oriOffset, boolean isLong) {
+        getOrLoad(shuffleId).update(oriQueueId, oriOffset, isLong);
+    }
+
+    /**
+     * 把变化的offset写入存储，在存储flush之前调用
+     *
+     * @param shuffleIds 为null时写入所有分片
+     */
+    public void persist(Collection<String> shuffleIds) {
+        Collection<String> ids = shuffleIds == null ? queueOffsets.keySet() : shuffleIds;
+        IStorage storage = window.getStorage();
+        for (String shuffleId : ids) {
+            QueueOffsets offsets = queueOffsets.get(shuffleId);
+            if (offsets == null) {
+                continue;
+            }
+            for (Map.Entry<String, String> entry : offsets.drainDirty().entrySet()) {
+                storage.putMaxOffset(shuffleId, window.getConfigureName(), entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 分片重新加载或者移除时，丢弃内存中的offset
+     *
+     * @param shuffleId
+     */
+    public void remove(String shuffleId) {
+        queueOffsets.remove(shuffleId);
+    }
+
+    private QueueOffsets getOrLoad(String shuffleId) {
+        QueueOffsets offsets = queueOffsets.get(shuffleId);
+        if (offsets != null) {
+            return offsets;
+        }
+        offsets = load(shuffleId);
+        QueueOffsets old = queueOffsets.putIfAbsent(shuffleId, offsets);
+        return old == null ? offsets : old;
+    }
+
+    private QueueOffsets load(String shuffleId) {
+        //等待分片状态加载（包括扩容迁移）完成
+        Future<?> future = window.getShuffleChannel().getLoadResult().get(shuffleId);
+        if (future != null) {
+            try {
+                future.get();
+            } catch (Throwable t) {
+                throw new RuntimeException("wait state load of queueId:" + shuffleId + " error", t);
+            }
+        }
+        Map<String, String> maxOffsets = window.getStorage().getMaxOffsets(shuffleId, window.getConfigureName());
+        QueueOffsets offsets = new QueueOffsets();
+        for (Map.Entry<String, String> entry : maxOffsets.entrySet()) {
+            if (KeyGroupStateRedistributor.QUEUE_COUNT_KEY.equals(entry.getKey())) {
+                continue;
+            }
+            offsets.offsets.put(entry.getKey(), new MaxOffset(entry.getValue()));
+        }
+        return offsets;
+    }
+
+    private static class QueueOffsets {
+        private final HashMap<String, MaxOffset> offsets = new HashMap<>();
+
+        private synchronized boolean isRepeat(String oriQueueId, String oriOffset, boolean isLong) {
+            MaxOffset maxOffset = offsets.get(oriQueueId);
+            return maxOffset != null && !maxOffset.isLess(oriOffset, isLong);
+        }
+
+        private synchronized void update(String oriQueueId, String oriOffset, boolean isLong) {
+            MaxOffset maxOffset = offsets.get(oriQueueId);
+            if (maxOffset == null) {
+                maxOffset = new MaxOffset(oriOffset);
+                maxOffset.dirty = true;
+                offsets.put(oriQueueId, maxOffset);
+            } else if (maxOffset.isLess(oriOffset, isLong)) {
+                maxOffset.set(oriOffset);
+            }
+        }
+
+        private synchronized Map<String, String> drainDirty() {
+            Map<String, String> dirtyOffsets = new HashMap<>();
+            for (Map.Entry<String, MaxOffset> entry : offsets.entrySet()) {
+                MaxOffset maxOffset = entry.getValue();
+                if (maxOffset.dirty) {
+                    dirtyOffsets.put(entry.getKey(), maxOffset.offset);
+                    maxOffset.dirty = false;
+                }
+            }
+            return dirtyOffsets;
+        }
+    }
+
+    /**
+     * offset字符串和long型的主offset，long型的offset只比较主offset，和MessageOffset.greateThan一致
+     */
+    private static class MaxOffset {
+        private static final long NOT_PARSED = Long.MIN_VALUE;
+
+        private String offset;
+        private long mainOffset = NOT_PARSED;
+        private boolean dirty;
+
+        private MaxOffset(String offset) {
+            this.offset = offset;
+        }
+
+        private void set(String offset) {
+            this.offset = offset;
+            this.mainOffset = NOT_PARSED;
+            this.dirty = true;
+        }
+
+        /**
+         * @return 当前的最大offset小于oriOffset
+         */
+        private boolean isLess(String oriOffset, boolean isLong) {
+            if (!isLong || StringUtil.isEmpty(offset)) {
+                return MessageOffset.greateThan(oriOffset, offset, isLong);
+            }
+            if (mainOffset == NOT_PARSED) {
+                mainOffset = parseMainOffset(offset);
+            }
+            return parseMainOffset(oriOffset) > mainOffset;
+        }
+
+        private static long parseMainOffset(String offset) {
+            int index = offset.indexOf('.');
+            return Long.parseLong(index == -1 ? offset : offset.substring(0, index));
+        }
+    }
+}
@@ -24,6 +24,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.rocketmq.streams.common.model.Entity;
 import org.apache.rocketmq.streams.common.utils.DateUtil;
 import org.apache.rocketmq.streams.common.utils.SerializeUtil;
+import org.apache.rocketmq.streams.window.model.WindowTimeFormat;
 
 public class WindowBaseValue extends Entity implements Serializable {
 
@@ -68,6 +69,13 @@ public class WindowBaseValue extends Entity implements Serializable {
      */
     protected String fireTime;
 
+    /**
+     * 时间的毫秒值，比较和计算用，不存储，第一次使用时从字符串转换
+     */
+    protected transient long startTimeMillis = WindowTimeFormat.UNKNOWN;
+    protected transient long endTimeMillis = WindowTimeFormat.UNKNOWN;
+    protected transient long fireTimeMillis = WindowTimeFormat.UNKNOWN;
+
     protected AtomicLong updateVersion = new AtomicLong(0);
 
     public WindowBaseValue() {
@@ -137,6 +145,19 @@ public class WindowBaseValue extends Entity implements Serializable {
 
     public void setStartTime(String startTime) {
         this.startTime = startTime;
+        this.startTimeMillis = WindowTimeFormat.UNKNOWN;
+    }
+
+    public long getStartTimeMillis() {
+        if (startTimeMillis == WindowTimeFormat.UNKNOWN) {
+            startTimeMillis = WindowTimeFormat.parse(startTime);
+        }
+        return startTimeMillis;
+    }
+
+    public void setStartTimeMillis(long startTimeMillis) {
+        this.startTime = WindowTimeFormat.format(startTimeMillis);
+        this.startTimeMillis = startTimeMillis;
     }
 
     public String getEndTime() {
@@ -145,6 +166,19 @@ public class WindowBaseValue extends Entity implements Serializable {
 
     public void setEndTime(String endTime) {
         this.endTime = endTime;
+        this.endTimeMillis = WindowTimeFormat.UNKNOWN;
+    }
+
+    public long getEndTimeMillis() {
+        if (endTimeMillis == WindowTimeFormat.UNKNOWN) {
+            endTimeMillis = WindowTimeFormat.parse(endTime);
+        }
+        return endTimeMillis;
+    }
+
+    public void setEndTimeMillis(long endTimeMillis) {
+        this.endTime = WindowTimeFormat.format(endTimeMillis);
+        this.endTimeMillis = endTimeMillis;
     }
 
     public String getFireTime() {
@@ -153,6 +187,19 @@ public class WindowBaseValue extends Entity implements Serializable {
 
     public void setFireTime(String fireTime) {
         this.fireTime = fireTime;
+        this.fireTimeMillis = WindowTimeFormat.UNKNOWN;
+    }
+
+    public long getFireTimeMillis() {
+        if (fireTimeMillis == WindowTimeFormat.UNKNOWN) {
+            fireTimeMillis = WindowTimeFormat.parse(fireTime);
+        }
+        return fireTimeMillis;
+    }
+
+    public void setFireTimeMillis(long fireTimeMillis) {
+        this.fireTime = WindowTimeFormat.format(fireTimeMillis);
+        this.fireTimeMillis = fireTimeMillis;
     }
 
     public long getUpdateVersion() {
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.state.impl;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.util.Collection;
+import org.apache.rocketmq.streams.script.function.aggregation.AverageAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.ConcatAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.ConcatDistinctAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.CountAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.CountDistinctAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.DistinctAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.DistinctAccumulator2;
+import org.apache.rocketmq.streams.script.function.aggregation.FirstValueAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.LastValueAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.MaxAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.MinAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.SumAccumulator;
+
+/**
+ * 内置累加器的紧凑二进制格式：type(byte) + 字段，不写类名；其他累加器（如udaf）用kryo写类名和对象
+ * type的取值只能追加，不能修改，否则已经持久化的状态无法读取
+ */
+public final class AccumulatorCodec {
+
+    private static final byte GENERIC = 0;
+    private static final byte NULL = 1;
+    private static final byte SUM = 2;
+    private static final byte COUNT = 3;
+    private static final byte AVERAGE = 4;
+    private static final byte MAX = 5;
+    private static final byte MIN = 6;
+    private static final byte DISTINCT = 7;
+    private static final byte CONCAT = 8;
+    private static final byte CONCAT_DISTINCT = 9;
+    private static final byte FIRST_VALUE = 10;
+    private static final byte LAST_VALUE = 11;
+    private static final byte COUNT_DISTINCT = 12;
+    private static final byte DISTINCT2 = 13;
+
+    private AccumulatorCodec() {
+    }
+
+    public static void write(Kryo kryo, Output output, Object accumulator) {
+        if (accumulator == null) {
+            output.writeByte(NULL);
+            return;
+        }
+        Class<?> clazz = accumulator.getClass();
+        if (clazz == SumAccumulator.SumAccum.class) {
+            output.writeByte(SUM);
+            kryo.writeClassAndObject(output, ((SumAccumulator.SumAccum) accumulator).sum);
+        } else if (clazz == CountAccumulator.CountAccum.class) {
+            output.writeByte(COUNT);
+            output.writeVarInt(((CountAccumulator.CountAccum) accumulator).count, true);
+        } else if (clazz == AverageAccumulator.AverageAccum.class) {
+            AverageAccumulator.AverageAccum accum = (AverageAccumulator.AverageAccum) accumulator;
+            output.writeByte(AVERAGE);
+            kryo.writeClassAndObject(output, accum.sum);
+            kryo.writeClassAndObject(output, accum.value);
+            output.writeVarInt(accum.count, true);
+        } else if (clazz == MaxAccumulator.MaxAccum.class) {
+            output.writeByte(MAX);
+            output.writeString(((MaxAccumulator.MaxAccum) accumulator).max);
+        } else if (clazz == MinAccumulator.MinAccum.class) {
+            output.writeByte(MIN);
+            output.writeString(((MinAccumulator.MinAccum) accumulator).min);
+        } else if (clazz == DistinctAccumulator.DistinctAccum.class) {
+            output.writeByte(DISTINCT);
+            writeObjects(kryo, output, ((DistinctAccumulator.DistinctAccum) accumulator).values);
+        } else if (clazz == ConcatAccumulator.ConcatAccum.class) {
+            ConcatAccumulator.ConcatAccum accum = (ConcatAccumulator.ConcatAccum) accumulator;
+            output.writeByte(CONCAT);
+            output.writeString(accum.separator);
+            writeStrings(output, accum.values);
+        } else if (clazz == ConcatDistinctAccumulator.ConcatDistinctAccum.class) {
+            ConcatDistinctAccumulator.ConcatDistinctAccum accum = (ConcatDistinctAccumulator.ConcatDistinctAccum) accumulator;
+            output.writeByte(CONCAT_DISTINCT);
+            output.writeString(accum.separator);
+            writeStrings(output, accum.values);
+        } else if (clazz == FirstValueAccumulator.FirstValue.class) {
+            output.writeByte(FIRST_VALUE);
+            kryo.writeClassAndObject(output, ((FirstValueAccumulator.FirstValue) accumulator).value);
+        } else if (clazz == LastValueAccumulator.LastValue.class) {
+            output.writeByte(LAST_VALUE);
+            kryo.writeClassAndObject(output, ((LastValueAccumulator.LastValue) accumulator).value);
+        } else if (clazz == CountDistinctAccumulator.CountDistinctAccum.class) {
+            byte[] bytes = ((CountDistinctAccumulator.CountDistinctAccum) accumulator).toBytes();
+            output.writeByte(COUNT_DISTINCT);
+            output.writeVarInt(bytes.length, true);
+            output.writeBytes(bytes);
+        } else if (clazz == DistinctAccumulator2.DistinctAccum2.class) {
+            DistinctAccumulator2.DistinctAccum2 accum = (DistinctAccumulator2.DistinctAccum2) accumulator;
+            output.writeByte(DISTINCT2);
+            output.writeString(accum.windowInstanceId);
+            output.writeString(accum.groupByMd5);
+        } else {
+            output.writeByte(GENERIC);
+            kryo.writeClassAndObject(output, accumulator);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Object read(Kryo kryo, Input input) {
+        byte type = input.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case SUM: {
+                SumAccumulator.SumAccum accum = new SumAccumulator.SumAccum();
+                accum.sum = (Number) kryo.readClassAndObject(input);
+                return accum;
+            }
+            case COUNT: {
+                CountAccumulator.CountAccum accum = new CountAccumulator.CountAccum();
+                accum.count = input.readVarInt(true);
+                return accum;
+            }
+            case AVERAGE: {
+                AverageAccumulator.AverageAccum accum = new AverageAccumulator.AverageAccum();
+                accum.sum = (Number) kryo.readClassAndObject(input);
+                accum.value = (Number) kryo.readClassAndObject(input);
+                accum.count = input.readVarInt(true);
+                return accum;
+            }
+            case MAX: {
+                MaxAccumulator.MaxAccum accum = new MaxAccumulator.MaxAccum();
+                accum.max = input.readString();
+                return accum;
+            }
+            case MIN: {
+                MinAccumulator.MinAccum accum = new MinAccumulator.MinAccum();
+                accum.min = input.readString();
+                return accum;
+            }
+            case DISTINCT: {
+                DistinctAccumulator.DistinctAccum accum = new DistinctAccumulator.DistinctAccum();
+                readObjects(kryo, input, accum.values);
+                return accum;
+            }
+            case CONCAT: {
+                ConcatAccumulator.ConcatAccum accum = new ConcatAccumulator.ConcatAccum();
+                accum.separator = input.readString();
+                readStrings(input, accum.values);
+                return accum;
+            }
+            case CONCAT_DISTINCT: {
+                ConcatDistinctAccumulator.ConcatDistinctAccum accum = new ConcatDistinctAccumulator.ConcatDistinctAccum();
+                accum.separator = input.readString();
+                readStrings(input, accum.values);
+                return accum;
+            }
+            case FIRST_VALUE: {
+                FirstValueAccumulator.FirstValue accum = new FirstValueAccumulator.FirstValue();
+                accum.value = kryo.readClassAndObject(input);
+                return accum;
+            }
+            case LAST_VALUE: {
+                LastValueAccumulator.LastValue accum = new LastValueAccumulator.LastValue();
+                accum.value = kryo.readClassAndObject(input);
+                return accum;
+            }
+            case COUNT_DISTINCT:
+                return CountDistinctAccumulator.CountDistinctAccum.fromBytes(input.readBytes(input.readVarInt(true)));
+            case DISTINCT2: {
+                DistinctAccumulator2.DistinctAccum2 accum = new DistinctAccumulator2.DistinctAccum2();
+                accum.windowInstanceId = input.readString();
+                accum.groupByMd5 = input.readString();
+                return accum;
+            }
+            case GENERIC:
+                return kryo.readClassAndObject(input);
+            default:
+                throw new RuntimeException("can not support accumulator type " + type);
+        }
+    }
+
+    private static void writeStrings(Output output, Collection<String> values) {
+        //synchronizedSet的迭代需要手动加锁
+        synchronized (values) {
+            output.writeVarInt(values.size(), true);
+            for (String value : values) {
+                output.writeString(value);
+            }
+        }
+    }
+
+    private static void readStrings(Input input, Collection<String> values) {
+        int size = input.readVarInt(true);
+        for (int i = 0; i < size; i++) {
+            values.add(input.readString());
+        }
+    }
+
+    private static void writeObjects(Kryo kryo, Output output, Collection<?> values) {
+        synchronized (values) {
+            output.writeVarInt(values.size(), true);
+            for (Object value : values) {
+                kryo.writeClassAndObject(output, value);
+            }
+        }
+    }
+
+    private static void readObjects(Kryo kryo, Input input, Collection values) {
+        int size = input.readVarInt(true);
+        for (int i = 0; i < size; i++) {
+            values.add(kryo.readClassAndObject(input));
+        }
+    }
+}
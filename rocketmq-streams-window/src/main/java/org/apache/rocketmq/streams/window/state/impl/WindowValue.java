@@ -18,9 +18,14 @@ package org.apache.rocketmq.streams.window.state.impl;
 
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -41,6 +46,7 @@ import org.apache.rocketmq.streams.common.interfaces.IStreamOperator;
 import org.apache.rocketmq.streams.common.utils.Base64Utils;
 import org.apache.rocketmq.streams.common.utils.DataTypeUtil;
 import org.apache.rocketmq.streams.common.utils.DateUtil;
+import org.apache.rocketmq.streams.common.utils.KryoUtil;
 import org.apache.rocketmq.streams.common.utils.ReflectUtil;
 import org.apache.rocketmq.streams.common.utils.SerializeUtil;
 import org.apache.rocketmq.streams.common.utils.StringUtil;
@@ -55,12 +61,17 @@ import org.apache.rocketmq.streams.window.operator.AbstractWindow;
 import org.apache.rocketmq.streams.window.state.WindowBaseValue;
 import org.nustaq.serialization.FSTConfiguration;
 
-public class WindowValue extends WindowBaseValue implements Serializable ,ISerialize{
+public class WindowValue extends WindowBaseValue implements Serializable, ISerialize, KryoSerializable {
 
     private static final long serialVersionUID = 1083444850264401338L;
 
     private static final Log LOG = LogFactory.getLog(WindowValue.class);
 
+    /**
+     * 二进制格式的版本，格式变化时递增，read时按版本解析
+     */
+    private static final byte BINARY_VERSION = 1;
+
     /**
      * 如果做分组，设置分组
      */
@@ -92,6 +103,9 @@ public class WindowValue extends WindowBaseValue implements Serializable ,ISeria
         this.startTime = theValue.getStartTime();
         this.endTime = theValue.getEndTime();
         this.fireTime = theValue.getFireTime();
+        this.startTimeMillis = theValue.startTimeMillis;
+        this.endTimeMillis = theValue.endTimeMillis;
+        this.fireTimeMillis = theValue.fireTimeMillis;
         this.groupBy = theValue.getGroupBy();
     }
 
@@ -452,25 +466,104 @@ public class WindowValue extends WindowBaseValue implements Serializable ,ISeria
 
     @Override
     public WindowValue clone() {
-        WindowValue clonedValue = new WindowValue();
-        clonedValue.setId(getId());
-        clonedValue.setGmtModified(gmtModified);
-        clonedValue.setGmtCreate(gmtCreate);
-        clonedValue.setEndTime(endTime);
-        clonedValue.setStartTime(startTime);
-        clonedValue.setFireTime(fireTime);
-        clonedValue.setMsgKey(msgKey);
-        clonedValue.setAggColumnMap(aggColumnResult);
-        clonedValue.setMaxOffset(getMaxOffset());
-        clonedValue.setWindowInstanceId(windowInstanceId);
-        clonedValue.setPartition(partition);
-        clonedValue.setPartitionNum(partitionNum);
-        clonedValue.setGroupBy(groupBy);
-        clonedValue.setAggColumnResult(getAggColumnResult());
-        clonedValue.setComputedColumnResult(getComputedColumnResult());
-        clonedValue.setUpdateVersion(getUpdateVersion());
-
-        return clonedValue;
+        return KryoUtil.readObjectFromByteArray(KryoUtil.writeObjectToByteArray(this), WindowValue.class);
+    }
+
+    /**
+     * 二进制序列化，内置累加器只写字段，不经过json
+     *
+     * @param kryo
+     * @param output
+     */
+    @Override
+    public void write(Kryo kryo, Output output) {
+        output.writeByte(BINARY_VERSION);
+        writeNullableLong(output, id);
+        writeNullableLong(output, gmtCreate == null ? null : gmtCreate.getTime());
+        writeNullableLong(output, gmtModified == null ? null : gmtModified.getTime());
+        output.writeString(msgKey);
+        output.writeString(windowInstanceId);
+        output.writeString(partition);
+        output.writeVarLong(partitionNum, false);
+        output.writeString(startTime);
+        output.writeString(endTime);
+        output.writeString(fireTime);
+        output.writeVarLong(updateVersion.get(), true);
+        output.writeString(groupBy);
+
+        output.writeVarInt(maxOffset.size(), true);
+        for (Entry<String, String> entry : maxOffset.entrySet()) {
+            output.writeString(entry.getKey());
+            output.writeString(entry.getValue());
+        }
+
+        output.writeVarInt(aggColumnResult.size(), true);
+        for (Entry<String, Object> entry : aggColumnResult.entrySet()) {
+            output.writeString(entry.getKey());
+            AccumulatorCodec.write(kryo, output, entry.getValue());
+        }
+
+        Map<String, Object> computedColumns = computedColumnResult;
+        output.writeBoolean(computedColumns instanceof JSONObject);
+        output.writeVarInt(computedColumns.size(), true);
+        for (Entry<String, Object> entry : computedColumns.entrySet()) {
+            output.writeString(entry.getKey());
+            kryo.writeClassAndObject(output, entry.getValue());
+        }
+    }
+
+    @Override
+    public void read(Kryo kryo, Input input) {
+        byte version = input.readByte();
+        if (version != BINARY_VERSION) {
+            throw new RuntimeException("can not support window value version " + version);
+        }
+        id = readNullableLong(input);
+        Long time = readNullableLong(input);
+        gmtCreate = time == null ? null : new Date(time);
+        time = readNullableLong(input);
+        gmtModified = time == null ? null : new Date(time);
+        msgKey = input.readString();
+        windowInstanceId = input.readString();
+        partition = input.readString();
+        partitionNum = input.readVarLong(false);
+        startTime = input.readString();
+        endTime = input.readString();
+        fireTime = input.readString();
+        updateVersion.set(input.readVarLong(true));
+        groupBy = input.readString();
+
+        int size = input.readVarInt(true);
+        for (int i = 0; i < size; i++) {
+            maxOffset.put(input.readString(), input.readString());
+        }
+
+        size = input.readVarInt(true);
+        for (int i = 0; i < size; i++) {
+            String functionName = input.readString();
+            Object accumulator = AccumulatorCodec.read(kryo, input);
+            if (accumulator != null) {
+                aggColumnResult.put(functionName, accumulator);
+            }
+        }
+
+        boolean isJsonObject = input.readBoolean();
+        size = input.readVarInt(true);
+        computedColumnResult = isJsonObject ? new JSONObject(size) : new HashMap<>(Math.max(16, size));
+        for (int i = 0; i < size; i++) {
+            computedColumnResult.put(input.readString(), kryo.readClassAndObject(input));
+        }
+    }
+
+    private static void writeNullableLong(Output output, Long value) {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeVarLong(value, false);
+        }
+    }
+
+    private static Long readNullableLong(Input input) {
+        return input.readBoolean() ? input.readVarLong(false) : null;
     }
 
     public Long getLastUpdateTime() {
@@ -16,11 +16,6 @@ package org.apache.rocketmq.streams.window.storage;
  * limitations under the License.
  */
 
-import org.apache.rocketmq.streams.window.model.WindowInstance;
-import org.apache.rocketmq.streams.window.state.WindowBaseValue;
-
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -44,45 +39,6 @@ public abstract class AbstractStorage implements IStorage {
     public void clearCache(String queueId) {
     }
 
-    protected String getCurrentTimestamp() {
-        long l = System.currentTimeMillis();
-
-        return String.valueOf(l);
-    }
-
-    protected String merge(String... args) {
-        if (args == null || args.length == 0) {
-            return null;
-        }
-
-        StringBuilder sb = new StringBuilder();
-        for (String arg : args) {
-            sb.append(arg);
-            sb.append(IStorage.SEPARATOR);
-        }
-
-        return sb.substring(0, sb.lastIndexOf(IStorage.SEPARATOR));
-    }
-
-    protected List<String> split(String str) {
-        String[] split = str.split(IStorage.SEPARATOR);
-        return new ArrayList<>(Arrays.asList(split));
-    }
-
-    protected long getTimestamp(Object target) {
-        if (target instanceof WindowInstance) {
-            return ((WindowInstance) target).getLastMaxUpdateTime();
-        } else if (target instanceof WindowBaseValue) {
-            return ((WindowBaseValue) target).getUpdateVersion();
-        } else if (target instanceof String) {
-            String time = ((String) target).split(IStorage.SEPARATOR)[0];
-            return Long.parseLong(time);
-        } else {
-            throw new RuntimeException();
-        }
-    }
-
-
     static class NullFuture implements Future<Object> {
         @Override
         public boolean cancel(boolean mayInterruptIfRunning) {
@@ -0,0 +1,129 @@
+package org.apache.rocketmq.streams.window.storage;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 记录上次flush之后，每个shuffle分片中被修改过的key（put或delete），flush时只需要同步这部分增量
+ */
+public class ChangeLog {
+
+    public enum Operation {
+        PUT,
+        DELETE,
+        /**
+         * 删除一个前缀下的所有key
+         */
+        DELETE_PREFIX
+    }
+
+    /**
+     * shuffleId -> (key -> 最后一次操作)，同一个key多次修改只保留最后一次
+     */
+    private final ConcurrentHashMap<String, Map<StateKey, Operation>> dirtyKeys = new ConcurrentHashMap<>();
+
+    public void recordPut(String shuffleId, StateKey key) {
+        record(shuffleId, key, Operation.PUT);
+    }
+
+    public void recordDelete(String shuffleId, StateKey key) {
+        record(shuffleId, key, Operation.DELETE);
+    }
+
+    /**
+     * 前缀删除会覆盖之前记录的这个前缀下的key，之后的修改排在它后面，回放时按顺序执行
+     *
+     * @param shuffleId
+     * @param keyPrefix
+     */
+    public void recordDeletePrefix(String shuffleId, StateKey keyPrefix) {
+        if (shuffleId == null || keyPrefix == null) {
+            return;
+        }
+        dirtyKeys.compute(shuffleId, (id, keys) -> {
+            if (keys == null) {
+                keys = new LinkedHashMap<>();
+            }
+            keys.keySet().removeIf(key -> key.startsWith(keyPrefix));
+            keys.put(keyPrefix, Operation.DELETE_PREFIX);
+            return keys;
+        });
+    }
+
+    private void record(String shuffleId, StateKey key, Operation operation) {
+        if (shuffleId == null || key == null) {
+            return;
+        }
+        //compute和drain中的remove对同一个shuffleId互斥，不会丢失drain过程中的修改
+        dirtyKeys.compute(shuffleId, (id, keys) -> {
+            if (keys == null) {
+                keys = new LinkedHashMap<>();
+            }
+            //先删除再插入，保证顺序在之前的前缀删除之后
+            keys.remove(key);
+            keys.put(key, operation);
+            return keys;
+        });
+    }
+
+    /**
+     * 取出并清空分片的增量
+     *
+     * @param shuffleId
+     * @return
+     */
+    public Map<StateKey, Operation> drain(String shuffleId) {
+        Map<StateKey, Operation> keys = dirtyKeys.remove(shuffleId);
+        if (keys == null) {
+            return Collections.emptyMap();
+        }
+        return keys;
+    }
+
+    /**
+     * 同步失败时把增量放回，drain之后产生的新修改优先
+     *
+     * @param shuffleId
+     * @param drained
+     */
+    public void rollback(String shuffleId, Map<StateKey, Operation> drained) {
+        if (drained == null || drained.isEmpty()) {
+            return;
+        }
+        dirtyKeys.compute(shuffleId, (id, keys) -> {
+            Map<StateKey, Operation> merged = new LinkedHashMap<>(drained);
+            if (keys != null) {
+                for (Map.Entry<StateKey, Operation> entry : keys.entrySet()) {
+                    if (entry.getValue() == Operation.DELETE_PREFIX) {
+                        merged.keySet().removeIf(key -> key.startsWith(entry.getKey()));
+                    }
+                    merged.remove(entry.getKey());
+                    merged.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return merged;
+        });
+    }
+
+    public void clear(String shuffleId) {
+        dirtyKeys.remove(shuffleId);
+    }
+}
@@ -17,18 +17,25 @@ package org.apache.rocketmq.streams.window.storage;
  */
 
 public enum DataType {
-    WINDOW_INSTANCE("windowInstance"),
-    WINDOW_BASE_VALUE("windowBaseValue"),
-    MAX_OFFSET("maxOffset"),
-    MAX_PARTITION_NUM("maxPartitionNum");
+    WINDOW_INSTANCE("windowInstance", (byte) 1),
+    WINDOW_BASE_VALUE("windowBaseValue", (byte) 2),
+    MAX_OFFSET("maxOffset", (byte) 3),
+    MAX_PARTITION_NUM("maxPartitionNum", (byte) 4);
 
     private final String value;
+    //二进制key的第一个字节
+    private final byte tag;
 
-    DataType(String value) {
+    DataType(String value, byte tag) {
         this.value = value;
+        this.tag = tag;
     }
 
     public String getValue() {
         return value;
     }
+
+    public byte getTag() {
+        return tag;
+    }
 }
@@ -20,6 +20,7 @@ import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.state.WindowBaseValue;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Future;
 
@@ -50,18 +51,43 @@ public interface IStorage {
 
     <T> RocksdbIterator<T> getWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType);
 
+    /**
+     * 只扫描存储key（join为messageId）以msgKeyPrefix开头的WindowBaseValue，join按等值key查找时使用
+     */
+    <T> RocksdbIterator<T> getWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKeyPrefix);
+
+    /**
+     * 按msgKey点查WindowBaseValue，不存在的msgKey不会出现在结果中
+     *
+     * @return msgKey -> WindowBaseValue
+     */
+    <T extends WindowBaseValue> Map<String, T> multiGet(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, List<String> msgKeys);
+
+
+    /**
+     * 分片下所有窗口实例的WindowBaseValue，shuffle队列扩容时按key group迁移状态使用
+     */
+    <T> RocksdbIterator<T> getWindowBaseValue(String shuffleId);
 
     //用windowInstanceId删除所有WindowBaseValue【包括WindowValue、JoinState】
     void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType);
 
     void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKey);
 
+    //批量删除多个msgKey对应的WindowBaseValue
+    void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, List<String> msgKeys);
+
     String getMaxOffset(String shuffleId, String windowConfigureName, String oriQueueId);
 
     void putMaxOffset(String shuffleId, String windowConfigureName, String oriQueueId, String offset);
 
     void deleteMaxOffset(String shuffleId, String windowConfigureName, String oriQueueId);
 
+    /**
+     * @return oriQueueId -> offset
+     */
+    Map<String, String> getMaxOffsets(String shuffleId, String windowConfigureName);
+
 
     void putMaxPartitionNum(String shuffleId, String windowInstanceId, long maxPartitionNum);
 
@@ -17,21 +17,21 @@ package org.apache.rocketmq.streams.window.storage;
  */
 
 public class IteratorWrap<T> {
-    private String key;
+    private byte[] key;
     private T data;
     private byte[] raw;
 
-    public IteratorWrap(String key, T data, byte[] raw) {
+    public IteratorWrap(byte[] key, T data, byte[] raw) {
         this.key = key;
         this.data = data;
         this.raw = raw;
     }
 
-    public String getKey() {
+    public byte[] getKey() {
         return key;
     }
 
-    public void setKey(String key) {
+    public void setKey(byte[] key) {
         this.key = key;
     }
 
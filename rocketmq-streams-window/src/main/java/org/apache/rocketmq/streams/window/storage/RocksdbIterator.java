@@ -21,43 +21,35 @@ import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksIterator;
 
-import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 
 public class RocksdbIterator<T> implements Iterator<IteratorWrap<T>> {
-    private String keyPrefix;
+    private byte[] keyPrefix;
     private ReadOptions readOptions = new ReadOptions();
     private RocksIterator rocksIterator;
 
 
 
-    public RocksdbIterator(String keyPrefix, RocksDB rocksDB) {
+    public RocksdbIterator(byte[] keyPrefix, RocksDB rocksDB) {
         this.keyPrefix = keyPrefix;
         this.rocksIterator = rocksDB.newIterator(readOptions);
-        this.rocksIterator.seek(keyPrefix.getBytes(StandardCharsets.UTF_8));
+        this.rocksIterator.seek(keyPrefix);
     }
 
     @Override
     public boolean hasNext() {
-        boolean hasNext = rocksIterator.isValid();
-        String key = new String(rocksIterator.key());
-
-        if (!key.startsWith(keyPrefix)) {
-            hasNext = false;
-        }
-        return hasNext;
+        return rocksIterator.isValid() && StateKey.startsWith(rocksIterator.key(), keyPrefix);
     }
 
     @Override
     public IteratorWrap<T> next() {
-        String key = new String(rocksIterator.key());
+        byte[] key = rocksIterator.key();
+        byte[] value = rocksIterator.value();
 
-        T data = SerializeUtil.deserialize(rocksIterator.value());
-        IteratorWrap<T> result = new IteratorWrap<>(key, data, rocksIterator.value());
+        T data = SerializeUtil.deserialize(value);
+        IteratorWrap<T> result = new IteratorWrap<>(key, data, value);
 
         rocksIterator.next();
         return result;
     }
 }
-
-
@@ -0,0 +1,523 @@
+package org.apache.rocketmq.streams.window.storage.cache;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.rocketmq.streams.window.model.WindowInstance;
+import org.apache.rocketmq.streams.window.state.WindowBaseValue;
+import org.apache.rocketmq.streams.window.state.impl.JoinState;
+import org.apache.rocketmq.streams.window.storage.AbstractStorage;
+import org.apache.rocketmq.streams.window.storage.IStorage;
+import org.apache.rocketmq.streams.window.storage.RocksdbIterator;
+import org.apache.rocketmq.streams.window.storage.WindowJoinType;
+import org.apache.rocketmq.streams.window.storage.WindowType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在IStorage前面按shuffle分片缓存WindowBaseValue对象，写入只修改内存，
+ * 在淘汰、flush或者扫描窗口实例（窗口触发）前才把脏数据批量写到下层存储，减少序列化和rocksdb读写
+ */
+public class WriteBackCacheStorage extends AbstractStorage {
+    private final IStorage storage;
+    /**
+     * 每个分片最多缓存的WindowBaseValue个数
+     */
+    private final int maxSizePerQueue;
+
+    private final ConcurrentHashMap<String, QueueCache> queueCaches = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+    private final AtomicLong evictionCount = new AtomicLong(0);
+    private final AtomicLong spillCount = new AtomicLong(0);
+
+    public WriteBackCacheStorage(IStorage storage, int maxSizePerQueue) {
+        if (maxSizePerQueue <= 0) {
+            throw new RuntimeException("maxSizePerQueue must be positive, but is " + maxSizePerQueue);
+        }
+        this.storage = storage;
+        this.maxSizePerQueue = maxSizePerQueue;
+    }
+
+    @Override
+    public Future<?> load(Set<String> shuffleIds) {
+        //重新加载的分片，以下层存储为准
+        if (shuffleIds != null) {
+            for (String shuffleId : shuffleIds) {
+                queueCaches.remove(shuffleId);
+            }
+        }
+        return storage.load(shuffleIds);
+    }
+
+    @Override
+    public void putWindowInstance(String shuffleId, String windowNamespace, String windowConfigureName, WindowInstance windowInstance) {
+        storage.putWindowInstance(shuffleId, windowNamespace, windowConfigureName, windowInstance);
+    }
+
+    @Override
+    public <T> RocksdbIterator<T> getWindowInstance(String shuffleId, String windowNamespace, String windowConfigureName) {
+        return storage.getWindowInstance(shuffleId, windowNamespace, windowConfigureName);
+    }
+
+    @Override
+    public void deleteWindowInstance(String shuffleId, String windowNamespace, String windowConfigureName, String windowInstanceId) {
+        storage.deleteWindowInstance(shuffleId, windowNamespace, windowConfigureName, windowInstanceId);
+    }
+
+    @Override
+    public void putWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, List<WindowBaseValue> windowBaseValue) {
+        if (windowBaseValue == null || windowBaseValue.size() == 0) {
+            return;
+        }
+        getOrCreate(shuffleId).put(windowInstanceId, windowType, joinType, windowBaseValue);
+    }
+
+    @Override
+    public void putWindowBaseValueIterator(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType,
+                                           RocksdbIterator<? extends WindowBaseValue> windowBaseValueIterator) {
+        //迭代器直接写入下层存储，缓存中这个窗口实例的数据失效
+        QueueCache queueCache = queueCaches.get(shuffleId);
+        if (queueCache != null) {
+            queueCache.spillAndInvalidate(windowInstanceId, windowType, joinType);
+        }
+        storage.putWindowBaseValueIterator(shuffleId, windowInstanceId, windowType, joinType, windowBaseValueIterator);
+    }
+
+    @Override
+    public <T> RocksdbIterator<T> getWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
+        //扫描下层存储前先把这个窗口实例的脏数据写下去
+        QueueCache queueCache = queueCaches.get(shuffleId);
+        if (queueCache != null) {
+            queueCache.spill(windowInstanceId, windowType, joinType);
+        }
+        return storage.getWindowBaseValue(shuffleId, windowInstanceId, windowType, joinType);
+    }
+
+    @Override
+    public <T> RocksdbIterator<T> getWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKeyPrefix) {
+        //只写下存储key以msgKeyPrefix开头的脏数据
+        QueueCache queueCache = queueCaches.get(shuffleId);
+        if (queueCache != null) {
+            queueCache.spill(windowInstanceId, windowType, joinType, msgKeyPrefix);
+        }
+        return storage.getWindowBaseValue(shuffleId, windowInstanceId, windowType, joinType, msgKeyPrefix);
+    }
+
+    @Override
+    public <T extends WindowBaseValue> Map<String, T> multiGet(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, List<String> msgKeys) {
+        if (msgKeys == null || msgKeys.size() == 0) {
+            return new HashMap<>();
+        }
+        return getOrCreate(shuffleId).multiGet(windowInstanceId, windowType, joinType, msgKeys);
+    }
+
+    @Override
+    public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
+        QueueCache queueCache = queueCaches.get(shuffleId);
+        if (queueCache != null) {
+            queueCache.invalidate(windowInstanceId, windowType, joinType);
+        }
+        storage.deleteWindowBaseValue(shuffleId, windowInstanceId, windowType, joinType);
+    }
+
+    @Override
+    public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKey) {
+        List<String> msgKeys = new ArrayList<>();
+        msgKeys.add(msgKey);
+        deleteWindowBaseValue(shuffleId, windowInstanceId, windowType, joinType, msgKeys);
+    }
+
+    @Override
+    public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, List<String> msgKeys) {
+        if (msgKeys == null || msgKeys.size() == 0) {
+            return;
+        }
+        QueueCache queueCache = queueCaches.get(shuffleId);
+        if (queueCache != null) {
+            queueCache.invalidate(windowInstanceId, windowType, joinType, msgKeys);
+        }
+        storage.deleteWindowBaseValue(shuffleId, windowInstanceId, windowType, joinType, msgKeys);
+    }
+
+    @Override
+    public String getMaxOffset(String shuffleId, String windowConfigureName, String oriQueueId) {
+        return storage.getMaxOffset(shuffleId, windowConfigureName, oriQueueId);
+    }
+
+    @Override
+    public void putMaxOffset(String shuffleId, String windowConfigureName, String oriQueueId, String offset) {
+        storage.putMaxOffset(shuffleId, windowConfigureName, oriQueueId, offset);
+    }
+
+    @Override
+    public void deleteMaxOffset(String shuffleId, String windowConfigureName, String oriQueueId) {
+        storage.deleteMaxOffset(shuffleId, windowConfigureName, oriQueueId);
+    }
+
+    @Override
+    public Map<String, String> getMaxOffsets(String shuffleId, String windowConfigureName) {
+        return storage.getMaxOffsets(shuffleId, windowConfigureName);
+    }
+
+    @Override
+    public <T> RocksdbIterator<T> getWindowBaseValue(String shuffleId) {
+        QueueCache queueCache = queueCaches.get(shuffleId);
+        if (queueCache != null) {
+            queueCache.spillAll();
+        }
+        return storage.getWindowBaseValue(shuffleId);
+    }
+
+    @Override
+    public void putMaxPartitionNum(String shuffleId, String windowInstanceId, long maxPartitionNum) {
+        storage.putMaxPartitionNum(shuffleId, windowInstanceId, maxPartitionNum);
+    }
+
+    @Override
+    public Long getMaxPartitionNum(String shuffleId, String windowInstanceId) {
+        return storage.getMaxPartitionNum(shuffleId, windowInstanceId);
+    }
+
+    @Override
+    public void deleteMaxPartitionNum(String shuffleId, String windowInstanceId) {
+        storage.deleteMaxPartitionNum(shuffleId, windowInstanceId);
+    }
+
+    @Override
+    public int flush(List<String> queueIds) {
+        if (queueIds != null) {
+            for (String queueId : queueIds) {
+                QueueCache queueCache = queueCaches.get(queueId);
+                if (queueCache != null) {
+                    queueCache.spillAll();
+                }
+            }
+        }
+        return storage.flush(queueIds);
+    }
+
+    @Override
+    public void clearCache(String queueId) {
+        queueCaches.remove(queueId);
+        storage.clearCache(queueId);
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public double getHitRate() {
+        long hit = hitCount.get();
+        long total = hit + missCount.get();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * 写到下层存储的脏数据个数，包括淘汰、flush和窗口触发
+     *
+     * @return
+     */
+    public long getSpillCount() {
+        return spillCount.get();
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (QueueCache queueCache : queueCaches.values()) {
+            size += queueCache.size();
+        }
+        return size;
+    }
+
+    private QueueCache getOrCreate(String shuffleId) {
+        return queueCaches.computeIfAbsent(shuffleId, QueueCache::new);
+    }
+
+    private static String getMsgKey(WindowType windowType, WindowBaseValue value) {
+        //join的值在存储中用messageId做唯一键
+        if (windowType == WindowType.JOIN_WINDOW) {
+            return ((JoinState) value).getMessageId();
+        }
+        return value.getMsgKey();
+    }
+
+    private static class CacheKey {
+        private final String windowInstanceId;
+        private final WindowType windowType;
+        private final WindowJoinType joinType;
+        private final String msgKey;
+
+        CacheKey(String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKey) {
+            this.windowInstanceId = windowInstanceId;
+            this.windowType = windowType;
+            this.joinType = joinType;
+            this.msgKey = msgKey;
+        }
+
+        boolean isSameInstance(String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
+            return this.windowType == windowType && this.joinType == joinType && Objects.equals(this.windowInstanceId, windowInstanceId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey cacheKey = (CacheKey) o;
+            return windowType == cacheKey.windowType && joinType == cacheKey.joinType
+                && Objects.equals(windowInstanceId, cacheKey.windowInstanceId) && Objects.equals(msgKey, cacheKey.msgKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(windowInstanceId, windowType, joinType, msgKey);
+        }
+    }
+
+    private static class CacheEntry {
+        private final WindowBaseValue value;
+        private boolean dirty;
+
+        CacheEntry(WindowBaseValue value, boolean dirty) {
+            this.value = value;
+            this.dirty = dirty;
+        }
+    }
+
+    /**
+     * 一个分片的LRU缓存，所有操作在分片内串行
+     * 脏数据另外按窗口实例和存储key索引，扫描窗口实例或按前缀查找前只写下匹配的脏数据，不用遍历整个缓存
+     */
+    private class QueueCache {
+        private final String shuffleId;
+
+        private final LinkedHashMap<CacheKey, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        /**
+         * 窗口实例（msgKey为null的CacheKey） -> 存储key -> 脏数据
+         */
+        private final Map<CacheKey, TreeMap<String, CacheEntry>> dirtyEntries = new HashMap<>();
+
+        QueueCache(String shuffleId) {
+            this.shuffleId = shuffleId;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized void put(String windowInstanceId, WindowType windowType, WindowJoinType joinType, List<WindowBaseValue> values) {
+            TreeMap<String, CacheEntry> instanceDirtyEntries = null;
+            for (WindowBaseValue value : values) {
+                CacheKey key = new CacheKey(windowInstanceId, windowType, joinType, getMsgKey(windowType, value));
+                CacheEntry entry = new CacheEntry(value, true);
+                entries.put(key, entry);
+                if (instanceDirtyEntries == null) {
+                    instanceDirtyEntries = dirtyEntries.computeIfAbsent(instanceKey(key), k -> new TreeMap<>());
+                }
+                instanceDirtyEntries.put(dirtyKey(key.msgKey), entry);
+            }
+            evict();
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized <T extends WindowBaseValue> Map<String, T> multiGet(String windowInstanceId, WindowType windowType, WindowJoinType joinType, List<String> msgKeys) {
+            Map<String, T> result = new HashMap<>();
+            List<String> missKeys = new ArrayList<>();
+            for (String msgKey : msgKeys) {
+                CacheEntry entry = entries.get(new CacheKey(windowInstanceId, windowType, joinType, msgKey));
+                if (entry == null) {
+                    missKeys.add(msgKey);
+                } else {
+                    result.put(msgKey, (T) entry.value);
+                }
+            }
+            hitCount.addAndGet(msgKeys.size() - missKeys.size());
+            if (missKeys.isEmpty()) {
+                return result;
+            }
+
+            missCount.addAndGet(missKeys.size());
+            Map<String, T> loaded = storage.multiGet(shuffleId, windowInstanceId, windowType, joinType, missKeys);
+            for (Map.Entry<String, T> entry : loaded.entrySet()) {
+                entries.put(new CacheKey(windowInstanceId, windowType, joinType, entry.getKey()), new CacheEntry(entry.getValue(), false));
+                result.put(entry.getKey(), entry.getValue());
+            }
+            evict();
+            return result;
+        }
+
+        /**
+         * 脏数据写入成功后才从索引中删除，写入失败时保留，下次刷新时重试
+         */
+        synchronized void spill(String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
+            CacheKey instanceKey = new CacheKey(windowInstanceId, windowType, joinType, null);
+            TreeMap<String, CacheEntry> instanceDirtyEntries = dirtyEntries.get(instanceKey);
+            if (instanceDirtyEntries != null) {
+                write(windowInstanceId, windowType, joinType, new ArrayList<>(instanceDirtyEntries.values()));
+                dirtyEntries.remove(instanceKey);
+            }
+        }
+
+        synchronized void spill(String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKeyPrefix) {
+            if (msgKeyPrefix == null) {
+                spill(windowInstanceId, windowType, joinType);
+                return;
+            }
+            CacheKey instanceKey = new CacheKey(windowInstanceId, windowType, joinType, null);
+            TreeMap<String, CacheEntry> instanceDirtyEntries = dirtyEntries.get(instanceKey);
+            if (instanceDirtyEntries == null) {
+                return;
+            }
+            SortedMap<String, CacheEntry> matched = instanceDirtyEntries.subMap(msgKeyPrefix, msgKeyPrefix + Character.MAX_VALUE);
+            if (matched.isEmpty()) {
+                return;
+            }
+            write(windowInstanceId, windowType, joinType, new ArrayList<>(matched.values()));
+            matched.clear();
+            if (instanceDirtyEntries.isEmpty()) {
+                dirtyEntries.remove(instanceKey);
+            }
+        }
+
+        synchronized void spillAndInvalidate(String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
+            spill(windowInstanceId, windowType, joinType);
+            invalidate(windowInstanceId, windowType, joinType);
+        }
+
+        synchronized void spillAll() {
+            Iterator<Map.Entry<CacheKey, TreeMap<String, CacheEntry>>> iterator = dirtyEntries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<CacheKey, TreeMap<String, CacheEntry>> entry = iterator.next();
+                CacheKey key = entry.getKey();
+                write(key.windowInstanceId, key.windowType, key.joinType, new ArrayList<>(entry.getValue().values()));
+                iterator.remove();
+            }
+        }
+
+        synchronized void invalidate(String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
+            dirtyEntries.remove(new CacheKey(windowInstanceId, windowType, joinType, null));
+            entries.keySet().removeIf(key -> key.isSameInstance(windowInstanceId, windowType, joinType));
+        }
+
+        synchronized void invalidate(String windowInstanceId, WindowType windowType, WindowJoinType joinType, List<String> msgKeys) {
+            CacheKey instanceKey = new CacheKey(windowInstanceId, windowType, joinType, null);
+            TreeMap<String, CacheEntry> instanceDirtyEntries = dirtyEntries.get(instanceKey);
+            for (String msgKey : msgKeys) {
+                entries.remove(new CacheKey(windowInstanceId, windowType, joinType, msgKey));
+                if (instanceDirtyEntries != null) {
+                    instanceDirtyEntries.remove(dirtyKey(msgKey));
+                }
+            }
+            if (instanceDirtyEntries != null && instanceDirtyEntries.isEmpty()) {
+                dirtyEntries.remove(instanceKey);
+            }
+        }
+
+        /**
+         * 超过容量时淘汰最久未访问的数据，脏数据按窗口实例分组后批量写入下层存储
+         * 写入成功后才从缓存中删除，写入失败时数据留在缓存中
+         */
+        private void evict() {
+            int evictSize = entries.size() - maxSizePerQueue;
+            if (evictSize <= 0) {
+                return;
+            }
+            List<CacheKey> evictKeys = new ArrayList<>(evictSize);
+            Map<CacheKey, List<CacheEntry>> spillEntries = new LinkedHashMap<>();
+            Iterator<Map.Entry<CacheKey, CacheEntry>> iterator = entries.entrySet().iterator();
+            while (evictKeys.size() < evictSize && iterator.hasNext()) {
+                Map.Entry<CacheKey, CacheEntry> entry = iterator.next();
+                evictKeys.add(entry.getKey());
+                if (entry.getValue().dirty) {
+                    spillEntries.computeIfAbsent(instanceKey(entry.getKey()), k -> new ArrayList<>()).add(entry.getValue());
+                }
+            }
+            write(spillEntries);
+
+            for (CacheKey key : evictKeys) {
+                entries.remove(key);
+                CacheKey instanceKey = instanceKey(key);
+                TreeMap<String, CacheEntry> instanceDirtyEntries = dirtyEntries.get(instanceKey);
+                if (instanceDirtyEntries != null) {
+                    instanceDirtyEntries.remove(dirtyKey(key.msgKey));
+                    if (instanceDirtyEntries.isEmpty()) {
+                        dirtyEntries.remove(instanceKey);
+                    }
+                }
+                evictionCount.incrementAndGet();
+            }
+        }
+
+        private CacheKey instanceKey(CacheKey key) {
+            return new CacheKey(key.windowInstanceId, key.windowType, key.joinType, null);
+        }
+
+        private String dirtyKey(String msgKey) {
+            return msgKey == null ? "" : msgKey;
+        }
+
+        private void write(Map<CacheKey, List<CacheEntry>> dirtyEntries) {
+            for (Map.Entry<CacheKey, List<CacheEntry>> entry : dirtyEntries.entrySet()) {
+                CacheKey key = entry.getKey();
+                write(key.windowInstanceId, key.windowType, key.joinType, entry.getValue());
+            }
+        }
+
+        /**
+         * 写入成功后才标记为非脏数据
+         */
+        private void write(String windowInstanceId, WindowType windowType, WindowJoinType joinType, List<CacheEntry> dirtyEntries) {
+            if (dirtyEntries.isEmpty()) {
+                return;
+            }
+            List<WindowBaseValue> values = new ArrayList<>(dirtyEntries.size());
+            for (CacheEntry cacheEntry : dirtyEntries) {
+                values.add(cacheEntry.value);
+            }
+            storage.putWindowBaseValue(shuffleId, windowInstanceId, windowType, joinType, values);
+            for (CacheEntry cacheEntry : dirtyEntries) {
+                cacheEntry.dirty = false;
+            }
+            spillCount.addAndGet(values.size());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.apache.rocketmq.streams.window.storage.rocketmq;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.rocketmq.streams.common.utils.CompressUtil;
+import org.apache.rocketmq.streams.window.storage.ChangeLog;
+import org.apache.rocketmq.streams.window.storage.rocksdb.LegacyKeyConverter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一条checkpoint消息中携带的一批状态变更，value为null表示删除（tombstone）
+ * 格式：version(byte) + count(int) + [keyLength(int) + key + valueLength(int, -1为删除, -2为前缀删除) + value]，整体gzip压缩
+ * version 1的key是旧版本"@"拼接的字符串，解码时转换成二进制key
+ */
+public class ChangeLogBatch {
+    private static final byte VERSION = 2;
+    private static final byte LEGACY_STRING_KEY_VERSION = 1;
+    private static final int DELETE_LENGTH = -1;
+    private static final int DELETE_PREFIX_LENGTH = -2;
+
+    private final List<byte[]> keys = new ArrayList<>();
+    private final List<byte[]> values = new ArrayList<>();
+    private final List<ChangeLog.Operation> operations = new ArrayList<>();
+    private int byteSize = 0;
+
+    public void put(byte[] key, byte[] value) {
+        add(key, value, value == null ? ChangeLog.Operation.DELETE : ChangeLog.Operation.PUT);
+    }
+
+    public void delete(byte[] key) {
+        add(key, null, ChangeLog.Operation.DELETE);
+    }
+
+    public void deletePrefix(byte[] keyPrefix) {
+        add(keyPrefix, null, ChangeLog.Operation.DELETE_PREFIX);
+    }
+
+    private void add(byte[] key, byte[] value, ChangeLog.Operation operation) {
+        keys.add(key);
+        values.add(value);
+        operations.add(operation);
+        byteSize += key.length + (value == null ? 0 : value.length) + 8;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    /**
+     * 未压缩前的大致字节数，用于控制单条消息大小
+     *
+     * @return
+     */
+    public int getByteSize() {
+        return byteSize;
+    }
+
+    public byte[] getKey(int index) {
+        return keys.get(index);
+    }
+
+    public ChangeLog.Operation getOperation(int index) {
+        return operations.get(index);
+    }
+
+    /**
+     * @param index
+     * @return null表示这个key已经被删除
+     */
+    public byte[] getValue(int index) {
+        return values.get(index);
+    }
+
+    public byte[] encode() {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream(byteSize + 5);
+             DataOutputStream out = new DataOutputStream(bos)) {
+            out.writeByte(VERSION);
+            out.writeInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] keyBytes = keys.get(i);
+                out.writeInt(keyBytes.length);
+                out.write(keyBytes);
+
+                byte[] value = values.get(i);
+                if (operations.get(i) == ChangeLog.Operation.DELETE_PREFIX) {
+                    out.writeInt(DELETE_PREFIX_LENGTH);
+                } else if (value == null) {
+                    out.writeInt(DELETE_LENGTH);
+                } else {
+                    out.writeInt(value.length);
+                    out.write(value);
+                }
+            }
+            out.flush();
+            return CompressUtil.gZip(bos.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException("encode change log error", e);
+        }
+    }
+
+    public static ChangeLogBatch decode(byte[] body) {
+        byte[] bytes = CompressUtil.unGZip(body);
+        if (bytes == null) {
+            throw new RuntimeException("decode change log error, can not unzip body");
+        }
+
+        ChangeLogBatch batch = new ChangeLogBatch();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            byte version = in.readByte();
+            if (version != VERSION && version != LEGACY_STRING_KEY_VERSION) {
+                throw new RuntimeException("can not support change log version " + version);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] keyBytes = new byte[in.readInt()];
+                in.readFully(keyBytes);
+
+                int valueLength = in.readInt();
+                byte[] value = null;
+                if (valueLength >= 0) {
+                    value = new byte[valueLength];
+                    in.readFully(value);
+                }
+
+                if (version == LEGACY_STRING_KEY_VERSION) {
+                    addLegacy(batch, new String(keyBytes, StandardCharsets.UTF_8), valueLength, value);
+                } else if (valueLength == DELETE_PREFIX_LENGTH) {
+                    batch.deletePrefix(keyBytes);
+                } else if (valueLength == DELETE_LENGTH) {
+                    batch.delete(keyBytes);
+                } else {
+                    batch.put(keyBytes, value);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("decode change log error", e);
+        }
+        return batch;
+    }
+
+    private static void addLegacy(ChangeLogBatch batch, String key, int valueLength, byte[] value) {
+        if (valueLength == DELETE_PREFIX_LENGTH) {
+            byte[] keyPrefix = LegacyKeyConverter.convertPrefix(key);
+            if (keyPrefix != null) {
+                batch.deletePrefix(keyPrefix);
+            }
+            return;
+        }
+        LegacyKeyConverter.KeyValue keyValue = LegacyKeyConverter.convert(key, value);
+        if (keyValue != null) {
+            batch.put(keyValue.getKey(), keyValue.getValue());
+        }
+    }
+}
@@ -17,36 +17,41 @@ package org.apache.rocketmq.streams.window.storage.rocketmq;
  */
 
 import org.apache.rocketmq.client.consumer.DefaultLitePullConsumer;
+import org.apache.rocketmq.client.consumer.store.OffsetStore;
 import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.message.MessageQueue;
 import org.apache.rocketmq.streams.common.utils.CreateTopicUtil;
-import org.apache.rocketmq.streams.common.utils.SerializeUtil;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.state.WindowBaseValue;
 import org.apache.rocketmq.streams.window.storage.AbstractStorage;
+import org.apache.rocketmq.streams.window.storage.ChangeLog;
 import org.apache.rocketmq.streams.window.storage.DataType;
 import org.apache.rocketmq.streams.window.storage.IteratorWrap;
 import org.apache.rocketmq.streams.window.storage.RocksdbIterator;
+import org.apache.rocketmq.streams.window.storage.StateKey;
 import org.apache.rocketmq.streams.window.storage.WindowJoinType;
 import org.apache.rocketmq.streams.window.storage.WindowType;
+import org.apache.rocketmq.streams.window.storage.rocksdb.LegacyKeyConverter;
 import org.apache.rocketmq.streams.window.storage.rocksdb.RocksdbStorage;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
-import static org.apache.rocketmq.streams.window.storage.DataType.WINDOW_INSTANCE;
-
 public class DefaultStorage extends AbstractStorage {
     private final boolean isLocalStorageOnly;
     private final RocksdbStorage rocksdbStorage;
@@ -63,6 +68,18 @@ public class DefaultStorage extends AbstractStorage {
     private Map<Integer, MessageQueue> queueId2MQ = new HashMap<>();
     private ExecutorService checkpointExecutor;
 
+    //checkpoint消息中携带的是ChangeLogBatch，没有这个属性的是旧版本一条消息一个key的格式
+    private static final String CHANGE_LOG_FLAG = "STREAMS_CHANGE_LOG";
+    //单条checkpoint消息压缩前的最大字节数
+    private static final int MAX_BATCH_BYTES = 1024 * 1024;
+
+    private final ChangeLog changeLog = new ChangeLog();
+    //每个分片flush多少次后做一次全量快照，两次快照之间只发送增量
+    private int snapshotInterval = 100;
+    //分片距离上次全量快照的flush次数，不存在表示还没有做过快照
+    private final Map<String, Integer> flushCountSinceSnapshot = new ConcurrentHashMap<>();
+    private final Map<String, Future<?>> loadFutures = new ConcurrentHashMap<>();
+
     public DefaultStorage(String topic, String groupId, String namesrv, int queueNum,
                           boolean isLocalStorageOnly, RocksdbStorage rocksdbStorage) {
         this.isLocalStorageOnly = isLocalStorageOnly;
@@ -73,6 +90,7 @@ public class DefaultStorage extends AbstractStorage {
 
 
         if (!isLocalStorageOnly) {
+            this.rocksdbStorage.setChangeLog(changeLog);
             this.checkpointExecutor = Executors.newSingleThreadExecutor();
 
             try {
@@ -108,88 +126,81 @@ public class DefaultStorage extends AbstractStorage {
             queues.add(messageQueue);
         }
 
-        this.checkpointConsumer.assign(queues);
-        //从上一offset提交位置，poll到最新数据位置
-        return this.checkpointExecutor.submit(() -> this.pollToLast(queues));
+        //从上一次快照的位置，poll到最新数据位置
+        Future<?> future = this.checkpointExecutor.submit(() -> this.pollToLast(queues));
+        for (String shuffleId : shuffleIds) {
+            this.loadFutures.put(shuffleId, future);
+            //新加载的分片，第一次flush时做全量快照
+            this.flushCountSinceSnapshot.remove(shuffleId);
+        }
+        return future;
     }
 
     private void pollToLast(Set<MessageQueue> messageQueue) {
         try {
-
             synchronized (this.checkpointConsumer) {
                 this.checkpointConsumer.assign(messageQueue);
+                this.checkpointConsumer.resume(messageQueue);
 
                 List<MessageExt> msgs = this.checkpointConsumer.poll(pollTimeoutMillis);
                 while (msgs.size() != 0) {
                     replayState(msgs);
                     msgs = this.checkpointConsumer.poll(pollTimeoutMillis);
                 }
-            }
 
-        } catch (Throwable ignored) {
+                //状态已经恢复，之后的checkpoint消息都是本实例写入的，不需要再拉取
+                this.checkpointConsumer.pause(messageQueue);
+            }
+        } catch (Throwable t) {
+            throw new RuntimeException("replay state from rocketmq error.", t);
         }
     }
 
+    /**
+     * 同一个分片内的消息按offset有序，按顺序回放，同一个key后写入的覆盖先写入的；key中包含分片信息，不会跨分片
+     *
+     * @param msgs
+     */
     private void replayState(List<MessageExt> msgs) {
         if (msgs == null || msgs.size() == 0) {
             return;
         }
 
-        //按照key进行分组；
-        Map<String, List<MessageExt>> collect = msgs.stream().parallel().collect(Collectors.groupingBy(MessageExt::getKeys));
-
-
-        //对每组key的所有msg的时间戳进行比较，过滤出最大时间戳的值,即为最后的状态
-        HashMap<String, MessageExt> lastStates = new HashMap<>();
-        collect.forEach((key, values) -> {
-
-            long maxBornTimestamp = 0;
-            MessageExt lastMsgExt = null;
-
-            for (MessageExt msgExt : values) {
-                long bornTimestamp = msgExt.getBornTimestamp();
-                if (bornTimestamp > maxBornTimestamp) {
-                    maxBornTimestamp = bornTimestamp;
-                    lastMsgExt = msgExt;
+        //value为null表示删除
+        LinkedHashMap<StateKey, byte[]> lastStates = new LinkedHashMap<>();
+        //前缀删除之前的同前缀修改已经从lastStates中去掉，所以先执行前缀删除，再执行lastStates
+        LinkedHashSet<StateKey> deletedPrefixes = new LinkedHashSet<>();
+        for (MessageExt msg : msgs) {
+            if (msg.getUserProperty(CHANGE_LOG_FLAG) != null) {
+                ChangeLogBatch batch = ChangeLogBatch.decode(msg.getBody());
+                for (int i = 0; i < batch.size(); i++) {
+                    StateKey key = new StateKey(batch.getKey(i));
+                    if (batch.getOperation(i) == ChangeLog.Operation.DELETE_PREFIX) {
+                        lastStates.keySet().removeIf(stateKey -> stateKey.startsWith(key));
+                        deletedPrefixes.add(key);
+                    } else {
+                        lastStates.put(key, batch.getValue(i));
+                    }
+                }
+            } else if (msg.getBody() != null) {
+                //兼容旧版本一条消息一个字符串key的全量同步
+                LegacyKeyConverter.KeyValue keyValue = LegacyKeyConverter.convert(msg.getKeys(), msg.getBody());
+                if (keyValue != null) {
+                    lastStates.put(new StateKey(keyValue.getKey()), keyValue.getValue());
                 }
-            }
-            lastStates.put(key, lastMsgExt);
-        });
-
-        this.convert(lastStates);
-    }
-
-    private void convert(HashMap<String, MessageExt> lastStates) {
-        for (String key : lastStates.keySet()) {
-            MessageExt newState = lastStates.get(key);
-
-            if (key.startsWith(WINDOW_INSTANCE.getValue()) || key.startsWith(DataType.WINDOW_BASE_VALUE.getValue())
-                    || key.startsWith(DataType.MAX_OFFSET.getValue()) || key.startsWith(DataType.MAX_PARTITION_NUM.getValue())) {
-                updateState(key, newState);
             }
         }
-    }
 
-
-    private synchronized void updateState(String key, MessageExt newState) {
-        byte[] body = newState.getBody();
-        Object newValue = SerializeUtil.deserialize(body);
-        if (body == null || newValue == null) {
-            return;
+        for (StateKey keyPrefix : deletedPrefixes) {
+            rocksdbStorage.deletePrefix(keyPrefix.getBytes());
         }
-
-        byte[] oldBytes = rocksdbStorage.get(key);
-        Object oldValue = SerializeUtil.deserialize(oldBytes);
-
-
-        long newTimestamp = getTimestamp(newValue);
-        long oldTimestamp = getTimestamp(oldValue);
-
-        if (newTimestamp > oldTimestamp) {
-            rocksdbStorage.put(key, body);
+        for (Map.Entry<StateKey, byte[]> entry : lastStates.entrySet()) {
+            if (entry.getValue() == null) {
+                rocksdbStorage.delete(entry.getKey().getBytes());
+            } else {
+                rocksdbStorage.put(entry.getKey().getBytes(), entry.getValue());
+            }
         }
-
-        //windowInstance为窗口元数据，不存在更新的情况
     }
 
 
@@ -228,6 +239,21 @@ public class DefaultStorage extends AbstractStorage {
         return rocksdbStorage.getWindowBaseValue(shuffleId, windowInstanceId, windowType, joinType);
     }
 
+    @Override
+    public <T> RocksdbIterator<T> getWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKeyPrefix) {
+        return rocksdbStorage.getWindowBaseValue(shuffleId, windowInstanceId, windowType, joinType, msgKeyPrefix);
+    }
+
+    @Override
+    public <T> RocksdbIterator<T> getWindowBaseValue(String shuffleId) {
+        return rocksdbStorage.getWindowBaseValue(shuffleId);
+    }
+
+    @Override
+    public <T extends WindowBaseValue> Map<String, T> multiGet(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, List<String> msgKeys) {
+        return rocksdbStorage.multiGet(shuffleId, windowInstanceId, windowType, joinType, msgKeys);
+    }
+
     //按照put key的前缀删除，没有唯一键，删除一批
     @Override
     public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
@@ -238,6 +264,11 @@ public class DefaultStorage extends AbstractStorage {
         rocksdbStorage.deleteWindowBaseValue(shuffleId, windowInstanceId, windowType, joinType, msgKey);
     }
 
+    @Override
+    public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, List<String> msgKeys) {
+        rocksdbStorage.deleteWindowBaseValue(shuffleId, windowInstanceId, windowType, joinType, msgKeys);
+    }
+
     @Override
     public String getMaxOffset(String shuffleId, String windowConfigureName, String oriQueueId) {
         return rocksdbStorage.getMaxOffset(shuffleId, windowConfigureName, oriQueueId);
@@ -253,6 +284,11 @@ public class DefaultStorage extends AbstractStorage {
         rocksdbStorage.deleteMaxOffset(shuffleId, windowConfigureName, oriQueueId);
     }
 
+    @Override
+    public Map<String, String> getMaxOffsets(String shuffleId, String windowConfigureName) {
+        return rocksdbStorage.getMaxOffsets(shuffleId, windowConfigureName);
+    }
+
     @Override
     public void putMaxPartitionNum(String shuffleId, String windowInstanceId, long maxPartitionNum) {
         rocksdbStorage.putMaxPartitionNum(shuffleId, windowInstanceId, maxPartitionNum);
@@ -268,6 +304,13 @@ public class DefaultStorage extends AbstractStorage {
         rocksdbStorage.deleteMaxPartitionNum(shuffleId, windowInstanceId);
     }
 
+    @Override
+    public void clearCache(String queueId) {
+        this.rocksdbStorage.clearCache(queueId);
+        this.flushCountSinceSnapshot.remove(queueId);
+        this.loadFutures.remove(queueId);
+    }
+
     //按照queueId提交offset，避免了不同streams实例，多次提交offset
     @Override
     public int flush(List<String> queueIdList) {
@@ -278,22 +321,12 @@ public class DefaultStorage extends AbstractStorage {
         int successNum = 0;
         try {
             for (String queueId : queueIdList) {
-                successNum += sendSync(queueId);
-            }
-
-            //todo 指定messageQueue提交offset
-            HashSet<MessageQueue> set = new HashSet<>();
-            //提交上次checkpoint/load时，poll消息的offset
-            for (String queueId : queueIdList) {
-                final MessageQueue queue = getMessageQueue(queueId);
-                set.add(queue);
+                if (needSnapshot(queueId)) {
+                    successNum += sendSnapshot(queueId);
+                } else {
+                    successNum += sendChangeLog(queueId);
+                }
             }
-
-            this.checkpointConsumer.commit(set, true);
-
-            //poll到最新的checkpoint，为下一次提交offset做准备；
-            this.checkpointExecutor.execute(() -> this.pollToLast(set));
-
         } catch (Throwable t) {
             throw new RuntimeException("send data to rocketmq synchronously，error.", t);
         }
@@ -301,47 +334,151 @@ public class DefaultStorage extends AbstractStorage {
         return successNum;
     }
 
-    private int sendSync(String shuffleId) {
+    private boolean needSnapshot(String shuffleId) {
+        Integer count = this.flushCountSinceSnapshot.get(shuffleId);
+        return count == null || count >= snapshotInterval;
+    }
+
+    /**
+     * 发送分片的全量状态，并把消费位点提交到快照的第一条消息，恢复时从快照开始回放后续增量
+     *
+     * @param shuffleId
+     * @return
+     */
+    private int sendSnapshot(String shuffleId) throws Exception {
+        waitLoaded(shuffleId);
+
+        //快照包含当前的全部状态，之前的增量可以丢弃
+        changeLog.drain(shuffleId);
+
+        MessageQueue queue = getMessageQueue(shuffleId);
+        Long snapshotOffset = null;
         int count = 0;
 
+        ChangeLogBatch batch = new ChangeLogBatch();
         for (DataType dataType : DataType.values()) {
-            count += send(shuffleId, dataType);
+            RocksdbIterator<Object> iterator = rocksdbStorage.getData(shuffleId, dataType);
+            while (iterator.hasNext()) {
+                IteratorWrap<Object> wrap = iterator.next();
+
+                byte[] raw = wrap.getRaw();
+                if (raw == null || raw.length == 0) {
+                    continue;
+                }
+                batch.put(wrap.getKey(), raw);
+                count++;
+
+                if (batch.getByteSize() >= MAX_BATCH_BYTES) {
+                    long offset = send(shuffleId, queue, batch);
+                    if (snapshotOffset == null) {
+                        snapshotOffset = offset;
+                    }
+                    batch = new ChangeLogBatch();
+                }
+            }
         }
 
+        //状态为空时也发送一条空快照，作为恢复的起点
+        if (!batch.isEmpty() || snapshotOffset == null) {
+            long offset = send(shuffleId, queue, batch);
+            if (snapshotOffset == null) {
+                snapshotOffset = offset;
+            }
+        }
+
+        commitOffset(queue, snapshotOffset);
+        this.flushCountSinceSnapshot.put(shuffleId, 0);
+
         return count;
     }
 
-    private int send(String shuffleId, DataType dataType) {
-        int count = 0;
+    /**
+     * 只发送上次flush之后变更过的key，删除的key发送tombstone
+     *
+     * @param shuffleId
+     * @return
+     */
+    private int sendChangeLog(String shuffleId) throws Exception {
+        Map<StateKey, ChangeLog.Operation> dirtyKeys = changeLog.drain(shuffleId);
+        if (dirtyKeys.isEmpty()) {
+            this.flushCountSinceSnapshot.merge(shuffleId, 1, Integer::sum);
+            return 0;
+        }
+
+        try {
+            MessageQueue queue = getMessageQueue(shuffleId);
+
+            ChangeLogBatch batch = new ChangeLogBatch();
+            for (Map.Entry<StateKey, ChangeLog.Operation> entry : dirtyKeys.entrySet()) {
+                byte[] key = entry.getKey().getBytes();
+                if (entry.getValue() == ChangeLog.Operation.DELETE_PREFIX) {
+                    batch.deletePrefix(key);
+                    continue;
+                }
 
-        RocksdbIterator<Object> iterator = rocksdbStorage.getData(shuffleId, dataType);
-        while (iterator.hasNext()) {
-            IteratorWrap<Object> wrap = iterator.next();
+                byte[] value = null;
+                if (entry.getValue() == ChangeLog.Operation.PUT) {
+                    value = rocksdbStorage.get(key);
+                }
+
+                if (value == null || value.length == 0) {
+                    batch.delete(key);
+                } else {
+                    batch.put(key, value);
+                }
+
+                if (batch.getByteSize() >= MAX_BATCH_BYTES) {
+                    send(shuffleId, queue, batch);
+                    batch = new ChangeLogBatch();
+                }
+            }
 
-            byte[] raw = wrap.getRaw();
-            if (raw != null && raw.length != 0) {
-                count += send0(shuffleId, wrap.getKey(), raw);
+            if (!batch.isEmpty()) {
+                send(shuffleId, queue, batch);
             }
+        } catch (Exception e) {
+            //发送失败的增量在下次flush时重新发送
+            changeLog.rollback(shuffleId, dirtyKeys);
+            throw e;
         }
 
-        return count;
+        this.flushCountSinceSnapshot.merge(shuffleId, 1, Integer::sum);
+        return dirtyKeys.size();
     }
 
+    private long send(String shuffleId, MessageQueue queue, ChangeLogBatch batch) throws Exception {
+        Message message = new Message(topic, "", shuffleId, batch.encode());
+        message.putUserProperty(CHANGE_LOG_FLAG, "true");
 
-    private int send0(String shuffleId, String key, byte[] body) {
-        MessageQueue queue = getMessageQueue(shuffleId);
-        try {
+        //选择MQ写入，后面commitOffset时对这个MQ进行
+        SendResult sendResult = producer.send(message, queue);
+        return sendResult.getQueueOffset();
+    }
 
-            Message message = new Message(topic, "", key, body);
-            //选择MQ写入，后面commitOffset时对这个MQ进行
-            producer.send(message, queue);
+    private void commitOffset(MessageQueue queue, long offset) {
+        synchronized (this.checkpointConsumer) {
+            OffsetStore offsetStore = this.checkpointConsumer.getOffsetStore();
+            offsetStore.updateOffset(queue, offset, false);
+            offsetStore.persist(queue);
+        }
+    }
 
-            return 1;
-        } catch (Throwable t) {
-            throw new RuntimeException("send data to rocketmq asynchronously，error.", t);
+    //全量快照前需要等待状态恢复完成，否则会把不完整的状态作为快照
+    private void waitLoaded(String shuffleId) throws Exception {
+        Future<?> future = this.loadFutures.get(shuffleId);
+        if (future != null) {
+            future.get();
         }
     }
 
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    public void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
     //状态topic的MQ数量与shuffle topic的MQ数量需要相同,broker;
     private MessageQueue getMessageQueue(String shuffleId) {
         //最后四位为queueId
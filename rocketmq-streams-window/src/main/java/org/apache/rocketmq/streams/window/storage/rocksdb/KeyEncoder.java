@@ -0,0 +1,224 @@
+package org.apache.rocketmq.streams.window.storage.rocksdb;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.rocketmq.streams.window.storage.DataType;
+import org.apache.rocketmq.streams.window.storage.WindowJoinType;
+import org.apache.rocketmq.streams.window.storage.WindowType;
+
+import java.util.Arrays;
+
+/**
+ * rocksdb中key的二进制编码：类型标记(1 byte) + 变长长度前缀的id + 最后一段不带长度的msgKey
+ * <p>
+ * windowBaseValue: tag + shuffleId + windowInstanceId + windowType(1 byte) + joinType(1 byte, 0表示无) + msgKey
+ * windowInstance:  tag + shuffleId + windowNamespace + windowConfigureName + windowInstanceId
+ * maxOffset:       tag + shuffleId + windowConfigureName + oriQueueId
+ * maxPartitionNum: tag + shuffleId + windowInstanceId
+ * <p>
+ * 中间的id都带长度前缀，所以任意前缀都不会匹配到其他id（例如w1和w10）
+ * 编码器复用线程内的缓冲区，只在最后toBytes时分配一次
+ */
+public final class KeyEncoder {
+    /**
+     * 存储格式版本号等元数据的key的标记，不会和DataType的标记冲突
+     */
+    public static final byte META_TAG = 0;
+
+    private static final ThreadLocal<KeyEncoder> LOCAL = ThreadLocal.withInitial(KeyEncoder::new);
+
+    private byte[] buffer = new byte[256];
+    private int position = 0;
+
+    private KeyEncoder() {
+    }
+
+    /**
+     * 获取当前线程的编码器，并开始一个新的key
+     *
+     * @param dataType
+     * @return
+     */
+    public static KeyEncoder begin(DataType dataType) {
+        KeyEncoder encoder = LOCAL.get();
+        encoder.position = 0;
+        encoder.writeByte(dataType.getTag());
+        return encoder;
+    }
+
+    /**
+     * 存储格式版本号等元数据的key
+     *
+     * @param name
+     * @return
+     */
+    public static byte[] metaKey(String name) {
+        KeyEncoder encoder = LOCAL.get();
+        encoder.position = 0;
+        return encoder.writeByte(META_TAG).writeTail(name).toBytes();
+    }
+
+    public static byte[] windowBaseValuePrefix(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
+        return begin(DataType.WINDOW_BASE_VALUE).windowType(shuffleId, windowInstanceId, windowType, joinType).toBytes();
+    }
+
+    public static byte[] windowBaseValueKey(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKey) {
+        return begin(DataType.WINDOW_BASE_VALUE).windowType(shuffleId, windowInstanceId, windowType, joinType).writeTail(msgKey).toBytes();
+    }
+
+    public static byte[] windowInstancePrefix(String shuffleId, String windowNamespace, String windowConfigureName) {
+        return begin(DataType.WINDOW_INSTANCE).writeString(shuffleId).writeString(windowNamespace).writeString(windowConfigureName).toBytes();
+    }
+
+    public static byte[] windowInstanceKey(String shuffleId, String windowNamespace, String windowConfigureName, String windowInstanceId) {
+        return begin(DataType.WINDOW_INSTANCE).writeString(shuffleId).writeString(windowNamespace).writeString(windowConfigureName)
+            .writeTail(windowInstanceId).toBytes();
+    }
+
+    public static byte[] maxOffsetKey(String shuffleId, String windowConfigureName, String oriQueueId) {
+        return begin(DataType.MAX_OFFSET).writeString(shuffleId).writeString(windowConfigureName).writeTail(oriQueueId).toBytes();
+    }
+
+    public static byte[] maxOffsetPrefix(String shuffleId, String windowConfigureName) {
+        return begin(DataType.MAX_OFFSET).writeString(shuffleId).writeString(windowConfigureName).toBytes();
+    }
+
+    public static byte[] maxPartitionNumKey(String shuffleId, String windowInstanceId) {
+        return begin(DataType.MAX_PARTITION_NUM).writeString(shuffleId).writeTail(windowInstanceId).toBytes();
+    }
+
+    /**
+     * 一个分片下某种类型的全部数据的前缀
+     *
+     * @param dataType
+     * @param shuffleId
+     * @return
+     */
+    public static byte[] shufflePrefix(DataType dataType, String shuffleId) {
+        return begin(dataType).writeString(shuffleId).toBytes();
+    }
+
+    private KeyEncoder windowType(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
+        writeString(shuffleId);
+        writeString(windowInstanceId);
+        writeByte(windowType.ordinal() + 1);
+        //只有join窗口区分左右流
+        writeByte(windowType == WindowType.JOIN_WINDOW ? joinType.ordinal() + 1 : 0);
+        return this;
+    }
+
+    public KeyEncoder writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * 写入变长长度前缀和utf-8内容，null和空字符串编码相同
+     *
+     * @param value
+     * @return
+     */
+    public KeyEncoder writeString(String value) {
+        int length = utf8Length(value);
+        writeVarInt(length);
+        writeUtf8(value, length);
+        return this;
+    }
+
+    /**
+     * 写入最后一段，不带长度前缀，之后不能再写入其他内容
+     *
+     * @param value
+     * @return
+     */
+    public KeyEncoder writeTail(String value) {
+        writeUtf8(value, utf8Length(value));
+        return this;
+    }
+
+    public byte[] toBytes() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeUtf8(String value, int length) {
+        if (value == null) {
+            return;
+        }
+        ensureCapacity(length);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                //和String.getBytes(UTF_8)一致，不成对的代理字符编码为'?'
+                buffer[position++] = (byte) '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private void ensureCapacity(int size) {
+        if (position + size > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + size));
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.apache.rocketmq.streams.window.storage.rocksdb;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.rocketmq.streams.window.storage.DataType;
+import org.apache.rocketmq.streams.window.storage.IStorage;
+import org.apache.rocketmq.streams.window.storage.StateKey;
+import org.apache.rocketmq.streams.window.storage.WindowJoinType;
+import org.apache.rocketmq.streams.window.storage.WindowType;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 把旧版本用"@"拼接的字符串key和"timestamp@value"格式的value转换成二进制格式，
+ * 用于升级本地已有的rocksdb目录和回放旧版本的checkpoint消息
+ */
+public class LegacyKeyConverter {
+    private static final Log LOG = LogFactory.getLog(LegacyKeyConverter.class);
+
+    /**
+     * 存储格式版本号，保存在META_TAG + "format"中，旧版本没有这个key
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    private static final byte[] FORMAT_KEY = KeyEncoder.metaKey("format");
+
+    private static final int MIGRATE_BATCH_SIZE = 1000;
+
+    public static class KeyValue {
+        private final byte[] key;
+        private final byte[] value;
+
+        public KeyValue(byte[] key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+
+        public byte[] getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * @param key   旧格式的key
+     * @param value 旧格式的value，删除时为null
+     * @return 不是窗口状态的key时返回null
+     */
+    public static KeyValue convert(String key, byte[] value) {
+        if (key == null) {
+            return null;
+        }
+        String[] parts = key.split(IStorage.SEPARATOR, -1);
+        try {
+            if (DataType.WINDOW_BASE_VALUE.getValue().equals(parts[0])) {
+                WindowType windowType = WindowType.valueOf(parts[3]);
+                WindowJoinType joinType = null;
+                int msgKeyIndex = 4;
+                if (windowType == WindowType.JOIN_WINDOW) {
+                    joinType = WindowJoinType.valueOf(parts[4]);
+                    msgKeyIndex = 5;
+                }
+                return new KeyValue(KeyEncoder.windowBaseValueKey(parts[1], parts[2], windowType, joinType, join(parts, msgKeyIndex)), value);
+            } else if (DataType.WINDOW_INSTANCE.getValue().equals(parts[0])) {
+                return new KeyValue(KeyEncoder.windowInstanceKey(parts[1], parts[2], parts[3], join(parts, 4)), value);
+            } else if (DataType.MAX_OFFSET.getValue().equals(parts[0])) {
+                byte[] newValue = value == null ? null : RocksdbStorage.encodeMaxOffset(parseLegacyValue(value));
+                return new KeyValue(KeyEncoder.maxOffsetKey(parts[1], parts[2], join(parts, 3)), newValue);
+            } else if (DataType.MAX_PARTITION_NUM.getValue().equals(parts[0])) {
+                byte[] newValue = value == null ? null : RocksdbStorage.encodeMaxPartitionNum(Long.parseLong(parseLegacyValue(value)));
+                return new KeyValue(KeyEncoder.maxPartitionNumKey(parts[1], join(parts, 2)), newValue);
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("can not convert legacy key " + key, e);
+        }
+        return null;
+    }
+
+    /**
+     * 转换windowBaseValue@shuffleId@windowInstanceId@windowType[@joinType]@格式的前缀
+     *
+     * @param keyPrefix
+     * @return 无法转换时返回null
+     */
+    public static byte[] convertPrefix(String keyPrefix) {
+        if (keyPrefix == null || !keyPrefix.endsWith(IStorage.SEPARATOR)) {
+            return null;
+        }
+        String[] parts = keyPrefix.substring(0, keyPrefix.length() - 1).split(IStorage.SEPARATOR, -1);
+        try {
+            if (DataType.WINDOW_BASE_VALUE.getValue().equals(parts[0])) {
+                WindowType windowType = WindowType.valueOf(parts[3]);
+                WindowJoinType joinType = windowType == WindowType.JOIN_WINDOW ? WindowJoinType.valueOf(parts[4]) : null;
+                return KeyEncoder.windowBaseValuePrefix(parts[1], parts[2], windowType, joinType);
+            }
+            if (parts.length == 2) {
+                for (DataType dataType : DataType.values()) {
+                    if (dataType.getValue().equals(parts[0])) {
+                        return KeyEncoder.shufflePrefix(dataType, parts[1]);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("can not convert legacy key prefix " + keyPrefix, e);
+        }
+        return null;
+    }
+
+    /**
+     * 本地rocksdb目录是旧格式时，把窗口状态的key改写成二进制格式，完成后写入格式版本号
+     * rocksdb是进程内共享的，只扫描旧版窗口key的前缀，其他组件写入的key保持不动
+     *
+     * @param rocksDB
+     * @param writeOptions
+     */
+    public static void migrate(RocksDB rocksDB, WriteOptions writeOptions) {
+        try {
+            byte[] format = rocksDB.get(FORMAT_KEY);
+            if (format != null && format.length > 0 && format[0] >= FORMAT_VERSION) {
+                return;
+            }
+
+            int count = 0;
+            for (DataType dataType : DataType.values()) {
+                count += migrate(rocksDB, writeOptions, (dataType.getValue() + IStorage.SEPARATOR).getBytes(StandardCharsets.UTF_8));
+            }
+
+            rocksDB.put(writeOptions, FORMAT_KEY, new byte[] {(byte) FORMAT_VERSION});
+            if (count > 0) {
+                LOG.info("migrate " + count + " legacy keys of rocksdb to format " + FORMAT_VERSION);
+            }
+        } catch (RocksDBException e) {
+            throw new RuntimeException("migrate legacy rocksdb keys error", e);
+        }
+    }
+
+    /**
+     * 转换一个前缀下的旧格式key，只有转换成功的key才删除
+     *
+     * @return 转换的key数量
+     */
+    private static int migrate(RocksDB rocksDB, WriteOptions writeOptions, byte[] legacyPrefix) throws RocksDBException {
+        int count = 0;
+        try (RocksIterator iterator = rocksDB.newIterator()) {
+            WriteBatch writeBatch = new WriteBatch();
+            try {
+                for (iterator.seek(legacyPrefix); iterator.isValid(); iterator.next()) {
+                    byte[] key = iterator.key();
+                    if (!StateKey.startsWith(key, legacyPrefix)) {
+                        break;
+                    }
+                    KeyValue keyValue = convert(new String(key, StandardCharsets.UTF_8), iterator.value());
+                    if (keyValue == null) {
+                        continue;
+                    }
+                    writeBatch.put(keyValue.getKey(), keyValue.getValue());
+                    writeBatch.delete(key);
+                    count++;
+
+                    if (writeBatch.count() >= MIGRATE_BATCH_SIZE) {
+                        rocksDB.write(writeOptions, writeBatch);
+                        writeBatch.close();
+                        writeBatch = new WriteBatch();
+                    }
+                }
+                if (writeBatch.count() > 0) {
+                    rocksDB.write(writeOptions, writeBatch);
+                }
+            } finally {
+                writeBatch.close();
+            }
+        }
+        return count;
+    }
+
+    private static String parseLegacyValue(byte[] value) {
+        String temp = new String(value, StandardCharsets.UTF_8);
+        int index = temp.indexOf(IStorage.SEPARATOR);
+        return index < 0 ? temp : temp.substring(index + 1);
+    }
+
+    //最后一段可能包含分隔符
+    private static String join(String[] parts, int from) {
+        StringBuilder sb = new StringBuilder(parts[from]);
+        for (int i = from + 1; i < parts.length; i++) {
+            sb.append(IStorage.SEPARATOR).append(parts[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -22,27 +22,47 @@ import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.state.WindowBaseValue;
 import org.apache.rocketmq.streams.window.state.impl.JoinState;
 import org.apache.rocketmq.streams.window.storage.AbstractStorage;
+import org.apache.rocketmq.streams.window.storage.ChangeLog;
 import org.apache.rocketmq.streams.window.storage.DataType;
 import org.apache.rocketmq.streams.window.storage.IteratorWrap;
 import org.apache.rocketmq.streams.window.storage.RocksdbIterator;
+import org.apache.rocketmq.streams.window.storage.StateKey;
 import org.apache.rocketmq.streams.window.storage.WindowJoinType;
 import org.apache.rocketmq.streams.window.storage.WindowType;
 import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
 import org.rocksdb.WriteOptions;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class RocksdbStorage extends AbstractStorage {
+    //同一个进程中的rocksdb是单例，只需要升级一次
+    private static final AtomicBoolean MIGRATED = new AtomicBoolean(false);
+
     private RocksDB rocksDB;
     private WriteOptions writeOptions;
+    /**
+     * 需要远程checkpoint时才记录增量，只用本地存储时为null
+     */
+    private volatile ChangeLog changeLog;
 
     public RocksdbStorage() {
         rocksDB = new RocksDBOperator().getInstance();
         writeOptions = new WriteOptions();
         writeOptions.setSync(false);
         writeOptions.setDisableWAL(true);
+
+        if (MIGRATED.compareAndSet(false, true)) {
+            LegacyKeyConverter.migrate(rocksDB, writeOptions);
+        }
     }
 
 
@@ -55,13 +75,12 @@ public class RocksdbStorage extends AbstractStorage {
         //唯一键
         String windowInstanceId = windowInstance.getWindowInstanceId();
 
-        String key = super.merge(DataType.WINDOW_INSTANCE.getValue(), shuffleId, windowNamespace, windowConfigureName, windowInstanceId);
-
-        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] keyBytes = KeyEncoder.windowInstanceKey(shuffleId, windowNamespace, windowConfigureName, windowInstanceId);
         byte[] valueBytes = SerializeUtil.serialize(windowInstance);
 
         try {
             rocksDB.put(writeOptions, keyBytes, valueBytes);
+            recordPut(shuffleId, keyBytes);
         } catch (Exception e) {
             throw new RuntimeException("putWindowInstance to rocksdb error", e);
         }
@@ -69,7 +88,7 @@ public class RocksdbStorage extends AbstractStorage {
 
     @Override
     public <T> RocksdbIterator<T> getWindowInstance(String shuffleId, String windowNamespace, String windowConfigureName) {
-        String keyPrefix = super.merge(DataType.WINDOW_INSTANCE.getValue(), shuffleId, windowNamespace, windowConfigureName);
+        byte[] keyPrefix = KeyEncoder.windowInstancePrefix(shuffleId, windowNamespace, windowConfigureName);
 
         return new RocksdbIterator<>(keyPrefix, rocksDB);
     }
@@ -80,11 +99,11 @@ public class RocksdbStorage extends AbstractStorage {
             return;
         }
 
-        String key = super.merge(DataType.WINDOW_INSTANCE.getValue(), shuffleId, windowNamespace, windowConfigureName, windowInstanceId);
+        byte[] keyBytes = KeyEncoder.windowInstanceKey(shuffleId, windowNamespace, windowConfigureName, windowInstanceId);
 
         try {
-            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
-            rocksDB.delete(writeOptions, bytes);
+            rocksDB.delete(writeOptions, keyBytes);
+            recordDelete(shuffleId, keyBytes);
         } catch (Exception e) {
             throw new RuntimeException("deleteWindowInstance from rocksdb error", e);
         }
@@ -96,9 +115,15 @@ public class RocksdbStorage extends AbstractStorage {
             return;
         }
 
-
-        for (WindowBaseValue baseValue : windowBaseValue) {
-            doPut(baseValue, shuffleId, windowInstanceId, windowType, joinType);
+        //一次JNI调用写入整批数据
+        try (WriteBatch writeBatch = new WriteBatch()) {
+            List<byte[]> keys = new ArrayList<>(windowBaseValue.size());
+            for (WindowBaseValue baseValue : windowBaseValue) {
+                keys.add(doPut(writeBatch, baseValue, shuffleId, windowInstanceId, windowType, joinType));
+            }
+            write(writeBatch, shuffleId, keys);
+        } catch (Throwable t) {
+            throw new RuntimeException("put data to rocksdb error", t);
         }
     }
 
@@ -109,131 +134,168 @@ public class RocksdbStorage extends AbstractStorage {
             return;
         }
 
-        while (windowBaseValueIterator.hasNext()) {
-            IteratorWrap<? extends WindowBaseValue> next = windowBaseValueIterator.next();
-            WindowBaseValue data = next.getData();
+        try (WriteBatch writeBatch = new WriteBatch()) {
+            List<byte[]> keys = new ArrayList<>();
+            while (windowBaseValueIterator.hasNext()) {
+                IteratorWrap<? extends WindowBaseValue> next = windowBaseValueIterator.next();
+                WindowBaseValue data = next.getData();
 
-            doPut(data, shuffleId, windowInstanceId, windowType, joinType);
+                keys.add(doPut(writeBatch, data, shuffleId, windowInstanceId, windowType, joinType));
+            }
+            write(writeBatch, shuffleId, keys);
+        } catch (Throwable t) {
+            throw new RuntimeException("put data to rocksdb error", t);
         }
     }
 
 
-    private void doPut(WindowBaseValue baseValue, String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
-        String key = createKey(shuffleId, windowInstanceId, windowType, joinType, baseValue);
-
+    private byte[] doPut(WriteBatch writeBatch, WindowBaseValue baseValue, String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType) throws RocksDBException {
+        byte[] keyBytes = createKey(shuffleId, windowInstanceId, windowType, joinType, baseValue);
+        byte[] valueBytes = SerializeUtil.serialize(baseValue);
+        writeBatch.put(keyBytes, valueBytes);
 
-        try {
-            byte[] valueBytes;
+        return keyBytes;
+    }
 
-            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-            valueBytes = SerializeUtil.serialize(baseValue);
-            rocksDB.put(writeOptions, keyBytes, valueBytes);
-        } catch (Throwable t) {
-            throw new RuntimeException("put data to rocksdb error", t);
+    private void write(WriteBatch writeBatch, String shuffleId, List<byte[]> keys) throws RocksDBException {
+        if (writeBatch.count() == 0) {
+            return;
+        }
+        rocksDB.write(writeOptions, writeBatch);
+        for (byte[] key : keys) {
+            recordPut(shuffleId, key);
         }
-
     }
 
 
     @Override
     public <T> RocksdbIterator<T> getWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
 
-        String keyPrefix = createKey(shuffleId, windowInstanceId, windowType, joinType, null);
+        byte[] keyPrefix = KeyEncoder.windowBaseValuePrefix(shuffleId, windowInstanceId, windowType, joinType);
 
         return new RocksdbIterator<>(keyPrefix, rocksDB);
     }
 
     @Override
-    public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
-        try {
-            String keyPrefix = createKey(shuffleId, windowInstanceId, windowType, joinType, null);
+    public <T> RocksdbIterator<T> getWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKeyPrefix) {
+        //msgKey写在key的最后且没有长度前缀，msgKey的前缀也是key的前缀
+        byte[] keyPrefix = KeyEncoder.windowBaseValueKey(shuffleId, windowInstanceId, windowType, joinType, msgKeyPrefix);
+
+        return new RocksdbIterator<>(keyPrefix, rocksDB);
+    }
+
+    @Override
+    public <T> RocksdbIterator<T> getWindowBaseValue(String shuffleId) {
+        return getData(shuffleId, DataType.WINDOW_BASE_VALUE);
+    }
 
-            //查询msgKey
-            RocksdbIterator<WindowBaseValue> rocksdbIterator = new RocksdbIterator<>(keyPrefix, rocksDB);
+    @Override
+    public <T extends WindowBaseValue> Map<String, T> multiGet(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, List<String> msgKeys) {
+        Map<String, T> result = new HashMap<>();
+        if (msgKeys == null || msgKeys.size() == 0) {
+            return result;
+        }
 
-            ArrayList<String> msgKeys = new ArrayList<>();
-            while (rocksdbIterator.hasNext()) {
-                IteratorWrap<WindowBaseValue> baseValue = rocksdbIterator.next();
-                WindowBaseValue data = baseValue.getData();
-                if (data == null) {
+        List<byte[]> keys = new ArrayList<>(msgKeys.size());
+        for (String msgKey : msgKeys) {
+            keys.add(KeyEncoder.windowBaseValueKey(shuffleId, windowInstanceId, windowType, joinType, msgKey));
+        }
+
+        try {
+            List<byte[]> values = rocksDB.multiGetAsList(keys);
+            for (int i = 0; i < msgKeys.size(); i++) {
+                byte[] value = values.get(i);
+                if (value == null) {
                     continue;
                 }
-
-                msgKeys.add(data.getMsgKey());
+                T data = SerializeUtil.deserialize(value);
+                result.put(msgKeys.get(i), data);
             }
+        } catch (Exception e) {
+            throw new RuntimeException("multiGet from rocksdb error", e);
+        }
+        return result;
+    }
 
-            //组合成真正的key后，在挨个删除
-            for (String msgKey : msgKeys) {
-                String key = super.merge(keyPrefix, msgKey);
-                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
-                rocksDB.delete(writeOptions, bytes);
-            }
+    @Override
+    public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType) {
+        //key = keyPrefix + msgKey，按前缀批量删除，不需要反序列化value
+        byte[] keyPrefix = KeyEncoder.windowBaseValuePrefix(shuffleId, windowInstanceId, windowType, joinType);
 
+        try {
+            deleteKeysByPrefix(keyPrefix);
+            recordDeletePrefix(shuffleId, keyPrefix);
         } catch (Exception e) {
             throw new RuntimeException("deleteWindowBaseValue from rocksdb error", e);
         }
     }
 
-    public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKey) {
-        String key;
-        if (joinType != null) {
-            key = super.merge(shuffleId, windowInstanceId, windowType.name(), joinType.name(), msgKey);
-        } else {
-            key = super.merge(shuffleId, windowInstanceId, windowType.name(), msgKey);
+    @Override
+    public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, List<String> msgKeys) {
+        if (msgKeys == null || msgKeys.size() == 0) {
+            return;
+        }
+
+        try (WriteBatch writeBatch = new WriteBatch()) {
+            List<byte[]> keys = new ArrayList<>(msgKeys.size());
+            for (String msgKey : msgKeys) {
+                byte[] key = KeyEncoder.windowBaseValueKey(shuffleId, windowInstanceId, windowType, joinType, msgKey);
+                writeBatch.delete(key);
+                keys.add(key);
+            }
+            rocksDB.write(writeOptions, writeBatch);
+
+            for (byte[] key : keys) {
+                recordDelete(shuffleId, key);
+            }
+        } catch (Throwable t) {
+            throw new RuntimeException("deleteWindowBaseValue from rocksdb error", t);
         }
+    }
+
+    public void deleteWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, String msgKey) {
+        //和createKey保持一致，否则删除不到put的数据
+        byte[] keyBytes = KeyEncoder.windowBaseValueKey(shuffleId, windowInstanceId, windowType, joinType, msgKey);
 
         try {
-            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
             rocksDB.delete(writeOptions, keyBytes);
+            recordDelete(shuffleId, keyBytes);
         } catch (Throwable t) {
             throw new RuntimeException("deleteWindowBaseValue from rocksdb error", t);
         }
     }
 
-    private String createKey(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, WindowBaseValue baseValue) {
-        String result;
+    private byte[] createKey(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType, WindowBaseValue baseValue) {
+        String msgKey;
         switch (windowType) {
             case SESSION_WINDOW:
             case NORMAL_WINDOW: {
-                result = super.merge(DataType.WINDOW_BASE_VALUE.getValue(), shuffleId, windowInstanceId, windowType.name());
-                if (baseValue != null) {
-                    result = super.merge(result, baseValue.getMsgKey());
-                }
-
+                msgKey = baseValue.getMsgKey();
                 break;
             }
             case JOIN_WINDOW: {
-                result = super.merge(DataType.WINDOW_BASE_VALUE.getValue(), shuffleId, windowInstanceId, windowType.name(), joinType.name());
-
-                if (baseValue != null) {
-                    JoinState joinState = (JoinState) baseValue;
-                    result = super.merge(result, joinState.getMessageId());
-                }
-
+                JoinState joinState = (JoinState) baseValue;
+                msgKey = joinState.getMessageId();
                 break;
             }
             default:
                 throw new RuntimeException("windowType " + windowType + "illegal.");
         }
 
-        return result;
+        return KeyEncoder.windowBaseValueKey(shuffleId, windowInstanceId, windowType, joinType, msgKey);
     }
 
     @Override
     public String getMaxOffset(String shuffleId, String windowConfigureName, String oriQueueId) {
-        String key = super.merge(DataType.MAX_OFFSET.getValue(), shuffleId, windowConfigureName, oriQueueId);
+        byte[] keyBytes = KeyEncoder.maxOffsetKey(shuffleId, windowConfigureName, oriQueueId);
 
         try {
-            byte[] bytes = rocksDB.get(key.getBytes(StandardCharsets.UTF_8));
+            byte[] bytes = rocksDB.get(keyBytes);
             if (bytes == null) {
                 return null;
             }
 
-            String temp = new String(bytes, StandardCharsets.UTF_8);
-
-            List<String> split = super.split(temp);
-
-            return split.get(1);
+            return decodeMaxOffset(bytes);
         } catch (Exception e) {
             throw new RuntimeException("getMaxOffset from rocksdb error", e);
         }
@@ -241,14 +303,11 @@ public class RocksdbStorage extends AbstractStorage {
 
     @Override
     public void putMaxOffset(String shuffleId, String windowConfigureName, String oriQueueId, String offset) {
-        String key = super.merge(DataType.MAX_OFFSET.getValue(), shuffleId, windowConfigureName, oriQueueId);
+        byte[] keyBytes = KeyEncoder.maxOffsetKey(shuffleId, windowConfigureName, oriQueueId);
 
         try {
-            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-
-            String mergeOffset = super.merge(getCurrentTimestamp(), offset);
-            byte[] offsetBytes = mergeOffset.getBytes(StandardCharsets.UTF_8);
-            rocksDB.put(writeOptions, keyBytes, offsetBytes);
+            rocksDB.put(writeOptions, keyBytes, encodeMaxOffset(offset));
+            recordPut(shuffleId, keyBytes);
         } catch (Exception e) {
             throw new RuntimeException("put data to rocksdb error", e);
         }
@@ -256,27 +315,44 @@ public class RocksdbStorage extends AbstractStorage {
 
     @Override
     public void deleteMaxOffset(String shuffleId, String windowConfigureName, String oriQueueId) {
-        String key = super.merge(DataType.MAX_OFFSET.getValue(), shuffleId, windowConfigureName, oriQueueId);
+        byte[] keyBytes = KeyEncoder.maxOffsetKey(shuffleId, windowConfigureName, oriQueueId);
 
         try {
-            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
             rocksDB.delete(writeOptions, keyBytes);
+            recordDelete(shuffleId, keyBytes);
         } catch (Exception e) {
             throw new RuntimeException("deleteMaxOffset from rocksdb error", e);
         }
     }
 
+    @Override
+    public Map<String, String> getMaxOffsets(String shuffleId, String windowConfigureName) {
+        byte[] prefix = KeyEncoder.maxOffsetPrefix(shuffleId, windowConfigureName);
+
+        Map<String, String> result = new HashMap<>();
+        try (RocksIterator iterator = rocksDB.newIterator()) {
+            for (iterator.seek(prefix); iterator.isValid(); iterator.next()) {
+                byte[] key = iterator.key();
+                if (!StateKey.startsWith(key, prefix)) {
+                    break;
+                }
+                //oriQueueId是key的最后一段
+                String oriQueueId = new String(key, prefix.length, key.length - prefix.length, StandardCharsets.UTF_8);
+                result.put(oriQueueId, decodeMaxOffset(iterator.value()));
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("getMaxOffsets from rocksdb error", e);
+        }
+        return result;
+    }
+
     @Override
     public void putMaxPartitionNum(String shuffleId, String windowInstanceId, long maxPartitionNum) {
-        String key = super.merge(DataType.MAX_PARTITION_NUM.getValue(), shuffleId, windowInstanceId);
+        byte[] keyBytes = KeyEncoder.maxPartitionNumKey(shuffleId, windowInstanceId);
 
         try {
-            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-
-            String mergeMaxPartitionNum = super.merge(getCurrentTimestamp(), String.valueOf(maxPartitionNum));
-
-            byte[] bytes = mergeMaxPartitionNum.getBytes(StandardCharsets.UTF_8);
-            rocksDB.put(writeOptions, keyBytes, bytes);
+            rocksDB.put(writeOptions, keyBytes, encodeMaxPartitionNum(maxPartitionNum));
+            recordPut(shuffleId, keyBytes);
         } catch (Exception e) {
             throw new RuntimeException("put data to rocksdb error", e);
         }
@@ -284,19 +360,15 @@ public class RocksdbStorage extends AbstractStorage {
 
     @Override
     public Long getMaxPartitionNum(String shuffleId, String windowInstanceId) {
-        String key = super.merge(DataType.MAX_PARTITION_NUM.getValue(), shuffleId, windowInstanceId);
+        byte[] keyBytes = KeyEncoder.maxPartitionNumKey(shuffleId, windowInstanceId);
 
         try {
-            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
             byte[] bytes = rocksDB.get(keyBytes);
             if (bytes == null || bytes.length == 0) {
                 return null;
             }
 
-            String temp = new String(bytes, StandardCharsets.UTF_8);
-            List<String> list = super.split(temp);
-
-            return Long.parseLong(list.get(1));
+            return decodeMaxPartitionNum(bytes);
         } catch (Exception e) {
             throw new RuntimeException("get data from rocksdb error", e);
         }
@@ -304,85 +376,167 @@ public class RocksdbStorage extends AbstractStorage {
 
     @Override
     public void deleteMaxPartitionNum(String shuffleId, String windowInstanceId) {
-        String key = super.merge(DataType.MAX_PARTITION_NUM.getValue(), shuffleId, windowInstanceId);
+        byte[] keyBytes = KeyEncoder.maxPartitionNumKey(shuffleId, windowInstanceId);
 
         try {
-            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
             rocksDB.delete(writeOptions, keyBytes);
+            recordDelete(shuffleId, keyBytes);
         } catch (Exception e) {
             throw new RuntimeException("deleteMaxPartitionNum from rocksdb error", e);
         }
     }
 
-    public void delete(String key) {
+    /**
+     * maxOffset的value：写入时间(8 byte) + offset
+     *
+     * @param offset
+     * @return
+     */
+    static byte[] encodeMaxOffset(String offset) {
+        byte[] offsetBytes = offset.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(8 + offsetBytes.length).putLong(System.currentTimeMillis()).put(offsetBytes).array();
+    }
+
+    static String decodeMaxOffset(byte[] value) {
+        return new String(value, 8, value.length - 8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * maxPartitionNum的value：写入时间(8 byte) + maxPartitionNum(8 byte)
+     *
+     * @param maxPartitionNum
+     * @return
+     */
+    static byte[] encodeMaxPartitionNum(long maxPartitionNum) {
+        return ByteBuffer.allocate(16).putLong(System.currentTimeMillis()).putLong(maxPartitionNum).array();
+    }
+
+    static long decodeMaxPartitionNum(byte[] value) {
+        return ByteBuffer.wrap(value, 8, 8).getLong();
+    }
+
+    public void delete(byte[] key) {
         if (key == null) {
             return;
         }
 
         try {
-            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
-            rocksDB.delete(writeOptions, bytes);
+            rocksDB.delete(writeOptions, key);
         } catch (Exception e) {
-            throw new RuntimeException();
+            throw new RuntimeException("delete data from rocksdb error", e);
         }
     }
 
-    public byte[] get(String key) {
+    public byte[] get(byte[] key) {
         if (key == null) {
             return null;
         }
 
         try {
-            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
-            return rocksDB.get(bytes);
+            return rocksDB.get(key);
         } catch (Exception e) {
-            throw new RuntimeException();
+            throw new RuntimeException("get data from rocksdb error", e);
         }
     }
 
-    public void put(String key, byte[] value) {
+    public void put(byte[] key, byte[] value) {
         if (key == null) {
             return;
         }
 
-        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
         try {
-            rocksDB.put(writeOptions, keyBytes, value);
+            rocksDB.put(writeOptions, key, value);
         } catch (Exception e) {
-            throw new RuntimeException();
+            throw new RuntimeException("put data to rocksdb error", e);
         }
     }
 
 
     @Override
     public void clearCache(String queueId) {
-        String keyPrefix;
+        //分片已经迁移走，本地删除不是状态变更，不需要同步
+        if (changeLog != null) {
+            changeLog.clear(queueId);
+        }
         //删除windowInstance缓存
         for (DataType type : DataType.values()) {
-            keyPrefix = super.merge(type.getValue(), queueId);
-            deleteByKeyPrefix(keyPrefix);
+            deletePrefix(KeyEncoder.shufflePrefix(type, queueId));
         }
     }
 
-    private void deleteByKeyPrefix(String keyPrefix) {
-        RocksdbIterator<Object> data = new RocksdbIterator<>(keyPrefix, rocksDB);
+    /**
+     * 回放checkpoint中的前缀删除
+     *
+     * @param keyPrefix
+     */
+    public void deletePrefix(byte[] keyPrefix) {
+        if (keyPrefix == null) {
+            return;
+        }
+
+        try {
+            deleteKeysByPrefix(keyPrefix);
+        } catch (Throwable t) {
+            throw new RuntimeException("delete data by prefix from rocksdb error", t);
+        }
+    }
 
-        while (data.hasNext()) {
-            IteratorWrap<Object> iteratorWrap = data.next();
-            String key = iteratorWrap.getKey();
-            try {
-                rocksDB.delete(writeOptions, key.getBytes(StandardCharsets.UTF_8));
-            } catch (Throwable t) {
-                throw new RuntimeException();
+    /**
+     * 删除keyPrefix开头的所有key，只扫描key不反序列化value，用一个WriteBatch提交
+     * 底层是TtlDB，它的Write会丢弃DeleteRange，所以不能用deleteRange
+     *
+     * @param prefix
+     */
+    private void deleteKeysByPrefix(byte[] prefix) throws RocksDBException {
+        try (RocksIterator iterator = rocksDB.newIterator();
+             WriteBatch writeBatch = new WriteBatch()) {
+            for (iterator.seek(prefix); iterator.isValid(); iterator.next()) {
+                byte[] key = iterator.key();
+                if (!StateKey.startsWith(key, prefix)) {
+                    break;
+                }
+                writeBatch.delete(key);
+            }
+            if (writeBatch.count() > 0) {
+                rocksDB.write(writeOptions, writeBatch);
             }
         }
     }
 
     public <T> RocksdbIterator<T> getData(String queueId, DataType type) {
-        String keyPrefix = super.merge(type.getValue(), queueId);
+        byte[] keyPrefix = KeyEncoder.shufflePrefix(type, queueId);
 
         return new RocksdbIterator<>(keyPrefix, rocksDB);
     }
 
+    private void recordPut(String shuffleId, byte[] key) {
+        ChangeLog log = this.changeLog;
+        if (log != null) {
+            log.recordPut(shuffleId, new StateKey(key));
+        }
+    }
+
+    private void recordDelete(String shuffleId, byte[] key) {
+        ChangeLog log = this.changeLog;
+        if (log != null) {
+            log.recordDelete(shuffleId, new StateKey(key));
+        }
+    }
+
+    private void recordDeletePrefix(String shuffleId, byte[] keyPrefix) {
+        ChangeLog log = this.changeLog;
+        if (log != null) {
+            log.recordDeletePrefix(shuffleId, new StateKey(keyPrefix));
+        }
+    }
+
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    public void setChangeLog(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
 
 }
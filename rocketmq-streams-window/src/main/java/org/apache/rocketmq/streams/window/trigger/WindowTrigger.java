@@ -19,9 +19,8 @@ package org.apache.rocketmq.streams.window.trigger;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -36,30 +35,41 @@ import org.apache.rocketmq.streams.common.component.ComponentCreator;
 import org.apache.rocketmq.streams.common.context.AbstractContext;
 import org.apache.rocketmq.streams.common.context.IMessage;
 import org.apache.rocketmq.streams.common.interfaces.IStreamOperator;
-import org.apache.rocketmq.streams.common.utils.DateUtil;
+import org.apache.rocketmq.streams.common.schedule.TimingWheel;
 import org.apache.rocketmq.streams.window.debug.DebugWriter;
+import org.apache.rocketmq.streams.window.fire.IEventTimeListener;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.operator.AbstractWindow;
 import org.apache.rocketmq.streams.window.operator.impl.SessionOperator;
 
-public class WindowTrigger extends AbstractSupportShuffleSource implements IStreamOperator {
+public class WindowTrigger extends AbstractSupportShuffleSource implements IStreamOperator, IEventTimeListener {
     protected static final Log LOG = LogFactory.getLog(WindowTrigger.class);
-    private AbstractWindow window;
-    //这个时间是在于数据很离散，无法触发窗口的时候做的补位
-    protected transient Long eventTimeLastUpdateTime;
-    protected transient ScheduledExecutorService fireCheckScheduler;//检查窗口实例是否可以触发
-    protected transient ConcurrentHashMap<String, WindowInstance> windowInstances = new ConcurrentHashMap();//保存所有注册的窗口实例，多个相同实例注册，只保留一个
-    //所有注册的窗口实例，按触发顺序排序，如果触发时间相同，按开始时间排序
-    protected transient PriorityQueue<WindowInstance> orderWindowInstancs = new PriorityQueue(new Comparator<WindowInstance>() {
+    //最大event time超过触发时间这么久才触发
+    protected static final long FIRE_DELAY_MS = 3000;
+    protected static final long TIMING_WHEEL_TICK_MS = 1000;
+    protected static final int TIMING_WHEEL_SIZE = 64;
+    //按触发时间排序，如果触发时间相同，按开始时间倒序
+    protected static final Comparator<WindowInstance> FIRE_ORDER = new Comparator<WindowInstance>() {
         @Override
         public int compare(WindowInstance o1, WindowInstance o2) {
-            int value = o1.getFireTime().compareTo(o2.getFireTime());
+            int value = Long.compare(o1.getFireTimeMillis(), o2.getFireTimeMillis());
             if (value != 0) {
                 return value;
             }
-            return o2.getStartTime().compareTo(o1.getStartTime());
+            return Long.compare(o2.getStartTimeMillis(), o1.getStartTimeMillis());
         }
-    });
+    };
+    private AbstractWindow window;
+    //这个时间是在于数据很离散，无法触发窗口的时候做的补位
+    protected transient Long eventTimeLastUpdateTime;
+    protected transient ScheduledExecutorService fireCheckScheduler;//检查窗口实例是否可以触发
+    protected transient ConcurrentHashMap<String, WindowInstance> windowInstances = new ConcurrentHashMap();//保存所有注册的窗口实例，多个相同实例注册，只保留一个
+    //所有注册的窗口实例，每个分片一个时间轮，按触发时间+FIRE_DELAY_MS组织，由分片的最大event time推进
+    protected transient ConcurrentHashMap<String, TimingWheel<WindowInstance>> fireTimingWheels = new ConcurrentHashMap<>();
+    //窗口实例在时间轮中的句柄，用于取消
+    protected transient ConcurrentHashMap<String, TimingWheel.Timeout<WindowInstance>> fireTimeouts = new ConcurrentHashMap<>();
+    //event time前进，等待检查的分片
+    protected transient Set<String> eventTimeIncreasedSplits = ConcurrentHashMap.newKeySet();
 
     //所有可以触发的窗口实例，放到缓存中，有缓存线程调度执行触发逻辑，同一个分片的窗口实例按顺序串行触发，各个分片可以并行
     protected transient MessageCache<WindowInstance> fireInstanceCache = new WindowInstanceCache();
@@ -72,7 +82,8 @@ public class WindowTrigger extends AbstractSupportShuffleSource implements IStre
 
     @Override
     protected boolean initConfigurable() {
-        fireCheckScheduler = new ScheduledThreadPoolExecutor(2);
+        //单线程，同一个分片的检查串行执行
+        fireCheckScheduler = new ScheduledThreadPoolExecutor(1);
         setReceiver(window.getFireReceiver());
         fireInstanceCache.openAutoFlush();
         return super.initConfigurable();
@@ -80,39 +91,123 @@ public class WindowTrigger extends AbstractSupportShuffleSource implements IStre
 
     @Override
     protected boolean startSource() {
-        //检查window instance，如果已经到了触发时间，且符合触发条件，直接触发，如果到了触发时间，还未符合触发条件。则放入触发列表。下次调度时间是下一个最近触发的时间
-
+        //event time前进时马上检查对应分片，定时检查所有分片是补位：数据很离散时event time随系统时间增长，以及没有时间字段的窗口用系统时间
+        if (window.getEventTimeManager() != null) {
+            window.getEventTimeManager().setEventTimeListener(this);
+        }
         fireCheckScheduler.scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
-                try {
-                    if (orderWindowInstancs.size() == 0) {
-                        return;
+                for (String splitId : fireTimingWheels.keySet()) {
+                    checkFire(splitId);
+                }
+            }
+        }, 10, 1, TimeUnit.SECONDS);
+
+        return false;
+    }
 
+    @Override
+    public void onEventTimeIncreased(String queueId) {
+        if (eventTimeIncreasedSplits.add(queueId)) {
+            fireCheckScheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    eventTimeIncreasedSplits.remove(queueId);
+                    checkFire(queueId);
+                }
+            });
+        }
+    }
+
+    /**
+     * 用分片当前的水位推进时间轮，到期的窗口实例按触发顺序检查，遇到不能触发的实例，它和后面的实例放回时间轮等下次检查
+     *
+     * @param splitId
+     */
+    protected void checkFire(String splitId) {
+        try {
+            TimingWheel<WindowInstance> timingWheel = fireTimingWheels.get(splitId);
+            if (timingWheel == null) {
+                return;
+            }
+            List<WindowInstance> windowInstanceList = new ArrayList<>();
+            synchronized (timingWheel) {
+                if (timingWheel.isEmpty()) {
+                    return;
+                }
+                if (isFireByTestGap()) {
+                    timingWheel.removeAll(windowInstanceList);
+                } else {
+                    Long watermark = getWatermark(splitId);
+                    if (watermark == null) {
+                        return;
                     }
-                    WindowInstance windowInstance = orderWindowInstancs.peek();
-                    while (windowInstance != null) {
-                        boolean isStartNow = false;
-                        if (SessionOperator.SESSION_WINDOW_BEGIN_TIME.equalsIgnoreCase(windowInstance.getStartTime())) {
-                            isStartNow = true;
-                        }
-                        boolean success = executeFireTask(windowInstance, isStartNow);
-                        if (success) {
-                            windowInstances.remove(windowInstance.createWindowInstanceTriggerId());
-                            orderWindowInstancs.remove(windowInstance);
-                            windowInstance = orderWindowInstancs.peek();
-                        } else {
-                            break;
+                    timingWheel.advance(watermark, windowInstanceList);
+                }
+            }
+            if (windowInstanceList.size() == 0) {
+                return;
+            }
+            Collections.sort(windowInstanceList, FIRE_ORDER);
+            for (int i = 0; i < windowInstanceList.size(); i++) {
+                WindowInstance windowInstance = windowInstanceList.get(i);
+                String windowInstanceTriggerId = windowInstance.createWindowInstanceTriggerId();
+                boolean isStartNow = SessionOperator.SESSION_WINDOW_BEGIN_TIME.equalsIgnoreCase(windowInstance.getStartTime());
+                boolean success = executeFireTask(windowInstance, isStartNow);
+                if (success) {
+                    windowInstances.remove(windowInstanceTriggerId);
+                    fireTimeouts.remove(windowInstanceTriggerId);
+                } else {
+                    synchronized (timingWheel) {
+                        for (int j = i; j < windowInstanceList.size(); j++) {
+                            WindowInstance instance = windowInstanceList.get(j);
+                            fireTimeouts.put(instance.createWindowInstanceTriggerId(), timingWheel.add(getFireExpireTime(instance), instance));
                         }
-
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    break;
                 }
             }
-        }, 10, 1, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-        return false;
+    /**
+     * 时间轮按这个水位推进，和canFire的判断条件一致
+     *
+     * @param splitId
+     * @return null表示还不能确定水位
+     */
+    protected Long getWatermark(String splitId) {
+        Long maxEventTime = this.window.getMaxEventTime(splitId);
+        if (window.getTimeFieldName() == null) {
+            maxEventTime = System.currentTimeMillis();
+        }
+        if (ComponentCreator.getPropertyBooleanValue("window.fire.isTest")) {
+            long testTime = System.currentTimeMillis() + FIRE_DELAY_MS - 1;
+            if (maxEventTime == null || maxEventTime < testTime) {
+                maxEventTime = testTime;
+            }
+        }
+        return maxEventTime;
+    }
+
+    /**
+     * 测试模式下，超过最大间隔没有数据，所有窗口都可以触发
+     *
+     * @return
+     */
+    protected boolean isFireByTestGap() {
+        Long eventTimeLastUpdateTime = this.eventTimeLastUpdateTime;
+        if (eventTimeLastUpdateTime == null || window.getMsgMaxGapSecond() == null || !ComponentCreator.getPropertyBooleanValue("window.fire.isTest")) {
+            return false;
+        }
+        return System.currentTimeMillis() - eventTimeLastUpdateTime > window.getMsgMaxGapSecond() * 1000;
+    }
+
+    protected long getFireExpireTime(WindowInstance windowInstance) {
+        return windowInstance.getFireTimeMillis() + FIRE_DELAY_MS;
     }
 
     /**
@@ -149,11 +244,23 @@ public class WindowTrigger extends AbstractSupportShuffleSource implements IStre
         if (this.firingWindowInstances.containsKey(triggerId)) {
             return;
         }
-        synchronized (this) {
+        long expireTime = getFireExpireTime(windowInstance);
+        TimingWheel<WindowInstance> timingWheel = fireTimingWheels.get(windowInstance.getSplitId());
+        if (timingWheel == null) {
+            timingWheel = new TimingWheel<>(TIMING_WHEEL_TICK_MS, TIMING_WHEEL_SIZE, expireTime - TIMING_WHEEL_TICK_MS);
+            TimingWheel<WindowInstance> old = fireTimingWheels.putIfAbsent(windowInstance.getSplitId(), timingWheel);
+            if (old != null) {
+                timingWheel = old;
+            }
+        }
+        synchronized (timingWheel) {
             if (this.firingWindowInstances.containsKey(triggerId)) {
                 return;
             }
-            this.orderWindowInstancs.offer(windowInstance);
+            TimingWheel.Timeout<WindowInstance> old = fireTimeouts.put(triggerId, timingWheel.add(expireTime, windowInstance));
+            if (old != null) {
+                old.cancel();
+            }
         }
 
     }
@@ -226,10 +333,10 @@ public class WindowTrigger extends AbstractSupportShuffleSource implements IStre
             LOG.warn(windowInstanceTriggerId + " can't find window!");
             return new FireResult();
         }
-        Date fireTime = DateUtil.parseTime(windowInstance.getFireTime());
+        long fireTime = windowInstance.getFireTimeMillis();
         Boolean isTest = ComponentCreator.getPropertyBooleanValue("window.fire.isTest");
         if (isTest) {
-            if (System.currentTimeMillis() - fireTime.getTime() > 0) {
+            if (System.currentTimeMillis() - fireTime > 0) {
                 System.out.println(windowInstance.getWindowName() + " is fired by test timeout");
                 return new FireResult(true, 3);
             }
@@ -241,7 +348,7 @@ public class WindowTrigger extends AbstractSupportShuffleSource implements IStre
         if (window.getTimeFieldName() == null) {
             maxEventTime = System.currentTimeMillis();
         }
-        if (maxEventTime != null && maxEventTime - fireTime.getTime() >= 3000) {
+        if (maxEventTime != null && maxEventTime - fireTime >= FIRE_DELAY_MS) {
             return new FireResult(true, 0);
         }
         Long eventTimeLastUpdateTime = this.eventTimeLastUpdateTime;
@@ -276,21 +383,32 @@ public class WindowTrigger extends AbstractSupportShuffleSource implements IStre
 
         }
         windowInstances = newWindowInstanceMap;
-        Collections.sort(windowInstanceList, new Comparator<WindowInstance>() {
-            @Override
-            public int compare(WindowInstance o1, WindowInstance o2) {
-                int value = o1.getFireTime().compareTo(o2.getFireTime());
-                if (value != 0) {
-                    return value;
+        TimingWheel<WindowInstance> timingWheel = fireTimingWheels.get(queueId);
+        if (timingWheel != null) {
+            synchronized (timingWheel) {
+                for (WindowInstance windowInstance : windowInstanceList) {
+                    cancel(windowInstance.createWindowInstanceTriggerId());
                 }
-                return o2.getStartTime().compareTo(o1.getStartTime());
             }
-        });
+        }
+        Collections.sort(windowInstanceList, FIRE_ORDER);
         for (WindowInstance windowInstance : windowInstanceList) {
             fireWindowInstance(windowInstance);
         }
     }
 
+    /**
+     * 从时间轮中取消窗口实例，O(1)，调用方对时间轮加锁
+     *
+     * @param windowInstanceTriggerId
+     */
+    protected void cancel(String windowInstanceTriggerId) {
+        TimingWheel.Timeout<WindowInstance> timeout = fireTimeouts.remove(windowInstanceTriggerId);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
     protected class WindowInstanceCache extends AbstractMultiSplitMessageCache<WindowInstance> {
 
         public WindowInstanceCache() {
@@ -298,16 +416,7 @@ public class WindowTrigger extends AbstractSupportShuffleSource implements IStre
                 @Override
                 public boolean flushMessage(List<WindowInstance> windowInstances) {
 
-                    Collections.sort(windowInstances, new Comparator<WindowInstance>() {
-                        @Override
-                        public int compare(WindowInstance o1, WindowInstance o2) {
-                            int value = o1.getFireTime().compareTo(o2.getFireTime());
-                            if (value != 0) {
-                                return value;
-                            }
-                            return o2.getStartTime().compareTo(o1.getStartTime());
-                        }
-                    });
+                    Collections.sort(windowInstances, FIRE_ORDER);
 
                     for (WindowInstance windowInstance : windowInstances) {
                         fireWindowInstance(windowInstance);
@@ -24,9 +24,11 @@ import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.streams.common.context.Message;
 import org.apache.rocketmq.streams.common.utils.CollectionUtil;
 import org.apache.rocketmq.streams.common.utils.DateUtil;
+import org.apache.rocketmq.streams.common.utils.SerializeUtil;
 import org.apache.rocketmq.streams.window.model.FireMode;
 import org.apache.rocketmq.streams.window.model.WindowInstance;
 import org.apache.rocketmq.streams.window.operator.AbstractWindow;
+import org.apache.rocketmq.streams.window.operator.impl.SessionOperator;
 import org.apache.rocketmq.streams.window.operator.impl.WindowOperator;
 import org.junit.Assert;
 import org.junit.Test;
@@ -115,6 +117,43 @@ public class WindowInstanceTest {
         assertTrue(windowInstance.getFireTime().compareTo(DateUtil.getCurrentTimeString()) > 0);
     }
 
+    @Test
+    public void testPaneInstances() {
+        WindowOperator window = new WindowOperator();
+        window.setTimeFieldName("time");
+        window.setSizeInterval(60);
+        window.setSlideInterval(40);
+        window.setNameSpace("namespace_test");
+        window.setConfigureName("window_name");
+        assertTrue(!window.isPaneEnabled());
+        window.setPaneMode(true);
+        assertTrue(window.isPaneEnabled());
+        Assert.assertEquals(20 * 60 * 1000L, window.getPaneIntervalMillis());
+
+        JSONObject msg = new JSONObject();
+        msg.put("time", "2021-08-27 18:47:00");
+        WindowInstance windowInstance = window.createWindowInstance("2021-08-27 18:00:00", "2021-08-27 19:00:00", "2021-08-27 19:00:00", "000");
+        List<WindowInstance> windowInstances = new ArrayList<>();
+        windowInstances.add(windowInstance);
+        WindowInstance paneInstance = window.createPaneInstance(new Message(msg), windowInstances, "000");
+        Assert.assertEquals("2021-08-27 18:40:00", paneInstance.getStartTime());
+        Assert.assertEquals("2021-08-27 19:00:00", paneInstance.getEndTime());
+        Assert.assertNotEquals(windowInstance.getWindowInstanceId(), paneInstance.getWindowInstanceId());
+
+        List<WindowInstance> paneInstances = window.createPaneInstances(windowInstance);
+        Assert.assertEquals(3, paneInstances.size());
+        Assert.assertEquals("2021-08-27 18:00:00", paneInstances.get(0).getStartTime());
+        Assert.assertEquals(paneInstance.getWindowInstanceId(), paneInstances.get(2).getWindowInstanceId());
+
+        //窗口[18:00,19:00)触发后，只有[18:00,18:40)的pane不会被后面的窗口[18:40,19:40)使用
+        List<WindowInstance> expiredPaneInstances = window.createExpiredPaneInstances(windowInstance);
+        Assert.assertEquals(2, expiredPaneInstances.size());
+        Assert.assertEquals("2021-08-27 18:20:00", expiredPaneInstances.get(1).getStartTime());
+
+        window.setSlideInterval(60);
+        assertTrue(!window.isPaneEnabled());
+    }
+
     public List<WindowInstance> hit(String shardId, AbstractWindow window, Long occurTime, Long sysTime,
         int timeUnitAdjust) {
         List<WindowInstance> instanceList = new ArrayList<>();
@@ -174,6 +213,25 @@ public class WindowInstanceTest {
         return instanceList;
     }
 
+    @Test
+    public void testTimeMillisOfStoredInstance() {
+        WindowInstance windowInstance = new WindowInstance();
+        windowInstance.setStartTimeMillis(DateUtil.parse("2021-08-27 18:00:00").getTime());
+        windowInstance.setEndTime("2021-08-27 18:05:00");
+        windowInstance.setFireTime(SessionOperator.SESSION_WINDOW_BEGIN_TIME);
+        Assert.assertEquals("2021-08-27 18:00:00", windowInstance.getStartTime());
+
+        //存储中的窗口实例只有字符串时间，毫秒值按需转换
+        WindowInstance stored = SerializeUtil.deserialize(SerializeUtil.serialize(windowInstance));
+        Assert.assertEquals("2021-08-27 18:00:00", stored.getStartTime());
+        Assert.assertEquals(DateUtil.parse("2021-08-27 18:00:00").getTime(), stored.getStartTimeMillis());
+        Assert.assertEquals(DateUtil.parse("2021-08-27 18:05:00").getTime(), stored.getEndTimeMillis());
+        Assert.assertEquals(DateUtil.parse(SessionOperator.SESSION_WINDOW_BEGIN_TIME, "yyyy-MM-dd").getTime(), stored.getFireTimeMillis());
+
+        stored.setFireTimeMillis(stored.getEndTimeMillis() + 60000);
+        Assert.assertEquals("2021-08-27 18:06:00", stored.getFireTime());
+    }
+
     @Test
     @Deprecated
     public void testHitWindowInstance() {
@@ -16,16 +16,28 @@
  */
 package org.apache.rocketmq.streams.window;
 
+import com.alibaba.fastjson.JSONObject;
 import java.util.HashMap;
 import java.util.Map;
+import org.apache.rocketmq.streams.common.datatype.DataType;
+import org.apache.rocketmq.streams.common.datatype.JavaBeanDataType;
+import org.apache.rocketmq.streams.common.datatype.StringDataType;
+import org.apache.rocketmq.streams.common.utils.DataTypeUtil;
 import org.apache.rocketmq.streams.common.utils.ReflectUtil;
 import org.apache.rocketmq.streams.common.utils.SerializeUtil;
+import org.apache.rocketmq.streams.script.function.aggregation.AverageAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.ConcatDistinctAccumulator;
 import org.apache.rocketmq.streams.script.function.aggregation.CountAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.CountDistinctAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.DistinctAccumulator;
+import org.apache.rocketmq.streams.script.function.aggregation.MaxAccumulator;
 import org.apache.rocketmq.streams.script.function.aggregation.SumAccumulator;
 import org.apache.rocketmq.streams.window.state.impl.WindowValue;
 import org.junit.Test;
 
 import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 
 public class WindowValueTest {
     /**
@@ -68,4 +80,122 @@ public class WindowValueTest {
         WindowValue windowValue = new WindowValue();
         ReflectUtil.setBeanFieldValue(windowValue, "aggColumnResult", value);
     }
+
+    @Test
+    public void testBinaryRoundTrip() {
+        WindowValue windowValue = createWindowValue();
+        byte[] bytes = SerializeUtil.serialize(windowValue);
+        assertValueEquals(windowValue, SerializeUtil.deserialize(bytes));
+
+        WindowValue clonedValue = windowValue.clone();
+        assertValueEquals(windowValue, clonedValue);
+        assertNotSame(windowValue.getAggColumnResultByKey("count"), clonedValue.getAggColumnResultByKey("count"));
+        ((CountAccumulator.CountAccum) clonedValue.getAggColumnResultByKey("count")).count++;
+        assertEquals(3, ((CountAccumulator.CountAccum) windowValue.getAggColumnResultByKey("count")).count);
+    }
+
+    /**
+     * 旧版本按javaBean格式持久化的状态，升级后仍然可以读取
+     */
+    @Test
+    public void testReadLegacyFormat() {
+        WindowValue windowValue = createWindowValue();
+        WindowValue legacyValue = SerializeUtil.deserialize(serializeByLegacy(windowValue));
+        assertValueEquals(windowValue, legacyValue);
+    }
+
+    @Test
+    public void testBinarySmallerThanLegacy() {
+        WindowValue windowValue = createWindowValue();
+        assertTrue(SerializeUtil.serialize(windowValue).length < serializeByLegacy(windowValue).length);
+    }
+
+    private WindowValue createWindowValue() {
+        WindowValue windowValue = new WindowValue();
+        windowValue.setId(1111111L);
+        windowValue.setGroupBy("fdsdf");
+        windowValue.setMsgKey("queue_01;window_01;fdsdf");
+        windowValue.setWindowInstanceId("window_instance_01");
+        windowValue.setPartition("fdsfdsdf");
+        windowValue.setPartitionNum(434433443);
+        windowValue.setStartTime("2021-09-15 15:30:00");
+        windowValue.setEndTime("2021-09-15 15:31:00");
+        windowValue.setFireTime("2021-09-15 15:31:00");
+        windowValue.setUpdateVersion(5);
+        windowValue.setMaxOffset("{\"queue_01\":\"00000000000000000102\"}");
+
+        CountAccumulator.CountAccum countAccum = new CountAccumulator.CountAccum();
+        countAccum.count = 3;
+        windowValue.putAggColumnResult("count", countAccum);
+        SumAccumulator.SumAccum sumAccum = new SumAccumulator.SumAccum();
+        sumAccum.sum = 10.5;
+        windowValue.putAggColumnResult("sum", sumAccum);
+        AverageAccumulator.AverageAccum averageAccum = new AverageAccumulator.AverageAccum();
+        averageAccum.sum = 10.5;
+        averageAccum.value = 3.5;
+        averageAccum.count = 3;
+        windowValue.putAggColumnResult("avg", averageAccum);
+        MaxAccumulator.MaxAccum maxAccum = new MaxAccumulator.MaxAccum();
+        maxAccum.max = "2021-09-15 15:30:56";
+        windowValue.putAggColumnResult("max", maxAccum);
+        DistinctAccumulator.DistinctAccum distinctAccum = new DistinctAccumulator.DistinctAccum();
+        distinctAccum.values.add("ping");
+        distinctAccum.values.add("python.exe");
+        windowValue.putAggColumnResult("distinct", distinctAccum);
+        ConcatDistinctAccumulator.ConcatDistinctAccum concatAccum = new ConcatDistinctAccumulator.ConcatDistinctAccum();
+        concatAccum.values.add("ping -n 1 -w 2000 10.42.0.16");
+        windowValue.putAggColumnResult("concat", concatAccum);
+        CountDistinctAccumulator countDistinctAccumulator = new CountDistinctAccumulator();
+        CountDistinctAccumulator.CountDistinctAccum countDistinctAccum = countDistinctAccumulator.createAccumulator();
+        countDistinctAccumulator.accumulate(countDistinctAccum, "a");
+        countDistinctAccumulator.accumulate(countDistinctAccum, "b");
+        windowValue.putAggColumnResult("count_distinct", countDistinctAccum);
+
+        Map<String, Object> computedColumns = new HashMap<>();
+        computedColumns.put("host", "10.42.0.16");
+        computedColumns.put("port", 8080);
+        windowValue.putComputedColumnResult(computedColumns);
+        return windowValue;
+    }
+
+    private void assertValueEquals(WindowValue expected, WindowValue actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getMsgKey(), actual.getMsgKey());
+        assertEquals(expected.getWindowInstanceId(), actual.getWindowInstanceId());
+        assertEquals(expected.getPartition(), actual.getPartition());
+        assertEquals(expected.getPartitionNum(), actual.getPartitionNum());
+        assertEquals(expected.getStartTime(), actual.getStartTime());
+        assertEquals(expected.getEndTime(), actual.getEndTime());
+        assertEquals(expected.getFireTime(), actual.getFireTime());
+        assertEquals(expected.getUpdateVersion(), actual.getUpdateVersion());
+        assertEquals(expected.getGroupBy(), actual.getGroupBy());
+        assertEquals(JSONObject.parseObject(expected.getMaxOffset()), JSONObject.parseObject(actual.getMaxOffset()));
+        assertEquals(expected.getComputedColumnResultByKey("host"), actual.getComputedColumnResultByKey("host"));
+        assertEquals(expected.getComputedColumnResultByKey("port"), actual.getComputedColumnResultByKey("port"));
+
+        assertEquals(3, ((CountAccumulator.CountAccum) actual.getAggColumnResultByKey("count")).count);
+        assertEquals(10.5, ((SumAccumulator.SumAccum) actual.getAggColumnResultByKey("sum")).sum.doubleValue(), 0);
+        AverageAccumulator.AverageAccum averageAccum = (AverageAccumulator.AverageAccum) actual.getAggColumnResultByKey("avg");
+        assertEquals(3.5, averageAccum.value.doubleValue(), 0);
+        assertEquals(3, averageAccum.count);
+        assertEquals("2021-09-15 15:30:56", ((MaxAccumulator.MaxAccum) actual.getAggColumnResultByKey("max")).max);
+        assertEquals(2, ((DistinctAccumulator.DistinctAccum) actual.getAggColumnResultByKey("distinct")).values.size());
+        assertTrue(((ConcatDistinctAccumulator.ConcatDistinctAccum) actual.getAggColumnResultByKey("concat")).values.contains("ping -n 1 -w 2000 10.42.0.16"));
+        CountDistinctAccumulator.CountDistinctAccum countDistinctAccum = (CountDistinctAccumulator.CountDistinctAccum) actual.getAggColumnResultByKey("count_distinct");
+        assertEquals(2L, new CountDistinctAccumulator().getValue(countDistinctAccum).longValue());
+    }
+
+    /**
+     * 升级前SerializeUtil.serialize的格式：datatype名字 + javaBean格式的字节
+     */
+    private byte[] serializeByLegacy(WindowValue windowValue) {
+        DataType dataType = DataTypeUtil.getDataType(JavaBeanDataType.getTypeName()).create();
+        dataType.setDataClazz(WindowValue.class);
+        byte[] dataTypeNameBytes = new StringDataType().toBytes(JavaBeanDataType.getTypeName(), false);
+        byte[] values = dataType.toBytes(windowValue, false);
+        byte[] result = new byte[dataTypeNameBytes.length + values.length];
+        System.arraycopy(dataTypeNameBytes, 0, result, 0, dataTypeNameBytes.length);
+        System.arraycopy(values, 0, result, dataTypeNameBytes.length, values.length);
+        return result;
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.shuffle;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.streams.common.topology.shuffle.KeyGroupRouter;
+import org.apache.rocketmq.streams.common.utils.MapKeyUtil;
+import org.apache.rocketmq.streams.window.state.WindowBaseValue;
+import org.apache.rocketmq.streams.window.state.impl.WindowValue;
+import org.apache.rocketmq.streams.window.storage.RocksdbIterator;
+import org.apache.rocketmq.streams.window.storage.WindowType;
+import org.apache.rocketmq.streams.window.storage.rocksdb.RocksdbStorage;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KeyGroupStateRedistributorTest {
+    private static final int KEY_COUNT = 1000;
+
+    private final RocksdbStorage storage = new RocksdbStorage();
+    private final KeyGroupRouter router = new KeyGroupRouter(16);
+
+    @Test
+    public void testScaleOut() {
+        String source = "redistribute_queue_1";
+        String target = "redistribute_queue_5";
+        String sourceInstanceId = createInstanceId(source);
+        String targetInstanceId = createInstanceId(target);
+        List<WindowBaseValue> values = new ArrayList<>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            String groupBy = "key_" + i;
+            if (router.route(groupBy, 4) != 1) {
+                continue;
+            }
+            WindowValue value = new WindowValue();
+            value.setWindowInstanceId(sourceInstanceId);
+            value.setGroupBy(groupBy);
+            value.setMsgKey(MapKeyUtil.createKey(source, sourceInstanceId, groupBy));
+            value.setPartition(source);
+            values.add(value);
+        }
+        storage.putWindowBaseValue(source, sourceInstanceId, WindowType.NORMAL_WINDOW, null, values);
+        storage.putMaxPartitionNum(source, sourceInstanceId, 100);
+        storage.putMaxOffset(source, "window", "origin_0", "10");
+
+        KeyGroupStateRedistributor redistributor = new KeyGroupStateRedistributor(storage, "namespace", "window", WindowType.NORMAL_WINDOW, router);
+        //4个队列扩容到8个，队列1的key group一半迁移到队列5
+        int copied = redistributor.copyTo(source, target, 5, 8);
+        int removed = redistributor.removeMovedOut(source, 1, 8);
+        assertEquals(copied, removed);
+        assertTrue(copied > 0 && copied < values.size());
+
+        List<WindowValue> sourceValues = list(storage.getWindowBaseValue(source, sourceInstanceId, WindowType.NORMAL_WINDOW, null));
+        List<WindowValue> targetValues = list(storage.getWindowBaseValue(target, targetInstanceId, WindowType.NORMAL_WINDOW, null));
+        assertEquals(values.size(), sourceValues.size() + targetValues.size());
+        for (WindowValue value : sourceValues) {
+            assertEquals(1, router.route(value.getGroupBy(), 8));
+        }
+        for (WindowValue value : targetValues) {
+            assertEquals(5, router.route(value.getGroupBy(), 8));
+            assertEquals(targetInstanceId, value.getWindowInstanceId());
+            assertEquals(MapKeyUtil.createKey(target, targetInstanceId, value.getGroupBy()), value.getMsgKey());
+            assertEquals(target, value.getPartition());
+        }
+        assertEquals(Long.valueOf(100), storage.getMaxPartitionNum(target, targetInstanceId));
+        assertEquals("10", storage.getMaxOffset(target, "window", "origin_0"));
+
+        redistributor.putQueueCount(target, 8);
+        assertEquals(Integer.valueOf(8), redistributor.getQueueCount(target));
+
+        storage.clearCache(source);
+        storage.clearCache(target);
+    }
+
+    @Test
+    public void testUpgradeFromModuloHash() {
+        //6不是最大并行度1024的约数，升级前按hashCode取模写入的状态需要迁移到key group路由的队列
+        int queueCount = 6;
+        KeyGroupRouter router = new KeyGroupRouter(KeyGroupRouter.DEFAULT_MAX_PARALLELISM);
+        List<List<WindowBaseValue>> values = new ArrayList<>();
+        for (int i = 0; i < queueCount; i++) {
+            values.add(new ArrayList<>());
+        }
+        for (int i = 0; i < KEY_COUNT; i++) {
+            String groupBy = "key_" + i;
+            int index = router.legacyRoute(groupBy, queueCount);
+            String queueId = queueId(index);
+            String instanceId = createInstanceId(queueId);
+            WindowValue value = new WindowValue();
+            value.setWindowInstanceId(instanceId);
+            value.setGroupBy(groupBy);
+            value.setMsgKey(MapKeyUtil.createKey(queueId, instanceId, groupBy));
+            value.setPartition(queueId);
+            values.get(index).add(value);
+        }
+        for (int i = 0; i < queueCount; i++) {
+            storage.putWindowBaseValue(queueId(i), createInstanceId(queueId(i)), WindowType.NORMAL_WINDOW, null, values.get(i));
+        }
+
+        KeyGroupStateRedistributor redistributor = new KeyGroupStateRedistributor(storage, "namespace", "window", WindowType.NORMAL_WINDOW, router);
+        assertEquals(null, redistributor.getQueueCount(queueId(0)));
+        int copied = 0;
+        for (int i = 0; i < queueCount; i++) {
+            for (Integer sourceIndex : redistributor.previousQueueIndexes(i, null, queueCount, queueCount)) {
+                if (sourceIndex != i) {
+                    copied += redistributor.copyTo(queueId(sourceIndex), queueId(i), i, queueCount);
+                }
+            }
+        }
+        int removed = 0;
+        for (int i = 0; i < queueCount; i++) {
+            removed += redistributor.removeMovedOut(queueId(i), i, queueCount);
+        }
+        assertTrue(copied > 0);
+        assertEquals(copied, removed);
+
+        int count = 0;
+        for (int i = 0; i < queueCount; i++) {
+            String queueId = queueId(i);
+            for (WindowValue value : list(storage.<WindowValue>getWindowBaseValue(queueId, createInstanceId(queueId), WindowType.NORMAL_WINDOW, null))) {
+                assertEquals(i, router.route(value.getGroupBy(), queueCount));
+                assertEquals(MapKeyUtil.createKey(queueId, createInstanceId(queueId), value.getGroupBy()), value.getMsgKey());
+                count++;
+            }
+            storage.clearCache(queueId);
+        }
+        assertEquals(KEY_COUNT, count);
+    }
+
+    private String queueId(int index) {
+        return "upgrade_queue_" + index;
+    }
+
+    private String createInstanceId(String shuffleId) {
+        return MapKeyUtil.createKey(shuffleId, "namespace", "window", "2022-01-01 00:00:00", "2022-01-01 00:01:00");
+    }
+
+    private List<WindowValue> list(RocksdbIterator<WindowValue> iterator) {
+        List<WindowValue> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            result.add(iterator.next().getData());
+        }
+        return result;
+    }
+}
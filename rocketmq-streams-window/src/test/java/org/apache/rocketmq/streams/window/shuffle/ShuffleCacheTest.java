@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.shuffle;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.rocketmq.streams.common.context.IMessage;
+import org.apache.rocketmq.streams.common.context.Message;
+import org.apache.rocketmq.streams.window.operator.impl.WindowOperator;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ShuffleCacheTest {
+
+    @Test
+    public void testWorkerLifecycle() throws Exception {
+        ShuffleCache shuffleCache = new ShuffleCache(new WindowOperator());
+        Thread worker1 = workerThread(shuffleCache, "queue_1");
+        Thread worker2 = workerThread(shuffleCache, "queue_2");
+        Thread worker3 = workerThread(shuffleCache, "queue_3");
+        assertNotSame(worker1, worker2);
+        //队列轮流分配到线程，queue_3和queue_1共用线程
+        assertSame(worker1, worker3);
+
+        //还有queue_3使用，线程不关闭
+        shuffleCache.removeQueue("queue_1");
+        assertTrue(worker1.isAlive());
+        assertSame(worker1, workerThread(shuffleCache, "queue_3"));
+
+        shuffleCache.removeQueue("queue_2");
+        worker2.join(10000);
+        assertFalse(worker2.isAlive());
+
+        shuffleCache.destroy();
+        worker1.join(10000);
+        assertFalse(worker1.isAlive());
+    }
+
+    @Test
+    public void testParallelFlush() {
+        WindowOperator window = new WindowOperator();
+        window.setShuffleWorkerCount(2);
+        //两个队列都进入计算后才能继续，串行计算时先进入的队列会等待超时
+        CountDownLatch bothCalculating = new CountDownLatch(2);
+        Map<String, Boolean> queueId2Parallel = new ConcurrentHashMap<>();
+        ShuffleCache shuffleCache = new ShuffleCache(window) {
+            @Override
+            protected boolean batchInsert(List<IMessage> messageList) {
+                String queueId = messageList.get(0).getHeader().getQueueId();
+                bothCalculating.countDown();
+                try {
+                    queueId2Parallel.put(queueId, bothCalculating.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return true;
+            }
+        };
+        shuffleCache.init();
+        shuffleCache.closeAutoFlush();
+        Set<String> queueIds = new HashSet<>();
+        for (String queueId : new String[] {"queue_1", "queue_2"}) {
+            queueIds.add(queueId);
+            IMessage message = new Message(new JSONObject());
+            message.getHeader().setQueueId(queueId);
+            shuffleCache.batchAdd(message);
+        }
+
+        shuffleCache.flush(queueIds);
+        assertEquals(2, queueId2Parallel.size());
+        assertTrue(queueId2Parallel.get("queue_1"));
+        assertTrue(queueId2Parallel.get("queue_2"));
+        shuffleCache.destroy();
+    }
+
+    private Thread workerThread(ShuffleCache shuffleCache, String queueId) throws Exception {
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        shuffleCache.submit(queueId, 2, () -> thread.set(Thread.currentThread())).get();
+        return thread.get();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import org.apache.rocketmq.streams.window.storage.rocketmq.ChangeLogBatch;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeLogTest {
+
+    @Test
+    public void testDrainKeepLastOperation() {
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.recordPut("shuffle_001", key("k1"));
+        changeLog.recordPut("shuffle_001", key("k2"));
+        changeLog.recordDelete("shuffle_001", key("k1"));
+        changeLog.recordPut("shuffle_002", key("k3"));
+
+        Map<StateKey, ChangeLog.Operation> drained = changeLog.drain("shuffle_001");
+        assertEquals(2, drained.size());
+        assertEquals(ChangeLog.Operation.DELETE, drained.get(key("k1")));
+        assertEquals(ChangeLog.Operation.PUT, drained.get(key("k2")));
+        assertTrue(changeLog.drain("shuffle_001").isEmpty());
+        assertEquals(1, changeLog.drain("shuffle_002").size());
+    }
+
+    @Test
+    public void testRollbackNotOverrideNewerOperation() {
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.recordPut("shuffle_001", key("k1"));
+        changeLog.recordPut("shuffle_001", key("k2"));
+        Map<StateKey, ChangeLog.Operation> drained = changeLog.drain("shuffle_001");
+
+        changeLog.recordDelete("shuffle_001", key("k1"));
+        changeLog.rollback("shuffle_001", drained);
+
+        Map<StateKey, ChangeLog.Operation> result = changeLog.drain("shuffle_001");
+        assertEquals(ChangeLog.Operation.DELETE, result.get(key("k1")));
+        assertEquals(ChangeLog.Operation.PUT, result.get(key("k2")));
+    }
+
+    @Test
+    public void testBatchEncodeAndDecode() {
+        ChangeLogBatch batch = new ChangeLogBatch();
+        batch.put(bytes("windowBaseValue@shuffle_001@k1"), "v1".getBytes(StandardCharsets.UTF_8));
+        batch.delete(bytes("windowBaseValue@shuffle_001@k2"));
+        batch.put(bytes("maxOffset@shuffle_001@q1"), new byte[0]);
+
+        ChangeLogBatch decoded = ChangeLogBatch.decode(batch.encode());
+        assertEquals(3, decoded.size());
+        assertArrayEquals(bytes("windowBaseValue@shuffle_001@k1"), decoded.getKey(0));
+        assertArrayEquals("v1".getBytes(StandardCharsets.UTF_8), decoded.getValue(0));
+        assertNull(decoded.getValue(1));
+        assertEquals(0, decoded.getValue(2).length);
+    }
+
+    @Test
+    public void testDeletePrefixOverrideEarlierKeys() {
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.recordPut("shuffle_001", key("windowBaseValue@shuffle_001@w1@k1"));
+        changeLog.recordPut("shuffle_001", key("windowBaseValue@shuffle_001@w2@k1"));
+        changeLog.recordDeletePrefix("shuffle_001", key("windowBaseValue@shuffle_001@w1@"));
+        changeLog.recordPut("shuffle_001", key("windowBaseValue@shuffle_001@w1@k2"));
+
+        Map<StateKey, ChangeLog.Operation> drained = changeLog.drain("shuffle_001");
+        assertEquals(Arrays.asList(key("windowBaseValue@shuffle_001@w2@k1"), key("windowBaseValue@shuffle_001@w1@"), key("windowBaseValue@shuffle_001@w1@k2")),
+            new ArrayList<>(drained.keySet()));
+        assertEquals(ChangeLog.Operation.DELETE_PREFIX, drained.get(key("windowBaseValue@shuffle_001@w1@")));
+
+        ChangeLogBatch batch = new ChangeLogBatch();
+        batch.deletePrefix(bytes("windowBaseValue@shuffle_001@w1@"));
+        ChangeLogBatch decoded = ChangeLogBatch.decode(batch.encode());
+        assertEquals(ChangeLog.Operation.DELETE_PREFIX, decoded.getOperation(0));
+        assertNull(decoded.getValue(0));
+    }
+
+    private static StateKey key(String key) {
+        return new StateKey(bytes(key));
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.streams.window.state.WindowBaseValue;
+import org.apache.rocketmq.streams.window.state.impl.JoinLeftState;
+import org.apache.rocketmq.streams.window.state.impl.WindowValue;
+import org.apache.rocketmq.streams.window.storage.rocksdb.RocksdbStorage;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RocksdbStorageTest {
+    private final RocksdbStorage storage = new RocksdbStorage();
+
+    @Test
+    public void testDeleteByPrefixNotTouchSiblingInstance() {
+        String shuffleId = "shuffle_test_prefix";
+        storage.putWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, createValues("w1", 10));
+        storage.putWindowBaseValue(shuffleId, "w10", WindowType.NORMAL_WINDOW, null, createValues("w10", 10));
+
+        storage.deleteWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null);
+
+        assertFalse(storage.getWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null).hasNext());
+        assertEquals(10, count(storage.getWindowBaseValue(shuffleId, "w10", WindowType.NORMAL_WINDOW, null)));
+
+        List<String> msgKeys = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            msgKeys.add("key_" + i);
+        }
+        storage.deleteWindowBaseValue(shuffleId, "w10", WindowType.NORMAL_WINDOW, null, msgKeys);
+        assertEquals(5, count(storage.getWindowBaseValue(shuffleId, "w10", WindowType.NORMAL_WINDOW, null)));
+
+        storage.clearCache(shuffleId);
+        assertFalse(storage.getWindowBaseValue(shuffleId, "w10", WindowType.NORMAL_WINDOW, null).hasNext());
+    }
+
+    @Test
+    public void testMultiGet() {
+        String shuffleId = "shuffle_test_multi_get";
+        storage.putWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, createValues("w1", 10));
+
+        Map<String, WindowValue> result = storage.multiGet(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, Arrays.asList("key_1", "key_9", "key_not_exist"));
+        assertEquals(2, result.size());
+        assertEquals("key_1", result.get("key_1").getMsgKey());
+        assertEquals("key_9", result.get("key_9").getMsgKey());
+        assertTrue(storage.multiGet(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, new ArrayList<>()).isEmpty());
+
+        storage.clearCache(shuffleId);
+    }
+
+    @Test
+    public void testGetByMsgKeyPrefix() {
+        String shuffleId = "shuffle_test_msg_key_prefix";
+        List<WindowBaseValue> states = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            JoinLeftState state = new JoinLeftState();
+            state.setWindowInstanceId("w1");
+            state.setMessageId("key_" + i);
+            states.add(state);
+        }
+        storage.putWindowBaseValue(shuffleId, "w1", WindowType.JOIN_WINDOW, WindowJoinType.left, states);
+
+        //key_1, key_10 ~ key_19
+        assertEquals(11, count(storage.getWindowBaseValue(shuffleId, "w1", WindowType.JOIN_WINDOW, WindowJoinType.left, "key_1")));
+        assertEquals(1, count(storage.getWindowBaseValue(shuffleId, "w1", WindowType.JOIN_WINDOW, WindowJoinType.left, "key_15")));
+        assertFalse(storage.getWindowBaseValue(shuffleId, "w1", WindowType.JOIN_WINDOW, WindowJoinType.right, "key_1").hasNext());
+
+        storage.clearCache(shuffleId);
+    }
+
+    private List<WindowBaseValue> createValues(String windowInstanceId, int count) {
+        List<WindowBaseValue> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            WindowValue value = new WindowValue();
+            value.setWindowInstanceId(windowInstanceId);
+            value.setMsgKey("key_" + i);
+            value.setStartTime("2022-01-01 00:00:00");
+            value.setEndTime("2022-01-01 00:01:00");
+            values.add(value);
+        }
+        return values;
+    }
+
+    private int count(RocksdbIterator<?> iterator) {
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.storage.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.rocketmq.streams.window.state.WindowBaseValue;
+import org.apache.rocketmq.streams.window.state.impl.WindowValue;
+import org.apache.rocketmq.streams.window.storage.RocksdbIterator;
+import org.apache.rocketmq.streams.window.storage.WindowJoinType;
+import org.apache.rocketmq.streams.window.storage.WindowType;
+import org.apache.rocketmq.streams.window.storage.rocksdb.RocksdbStorage;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteBackCacheStorageTest {
+    private final RocksdbStorage rocksdbStorage = new RocksdbStorage();
+
+    @Test
+    public void testWriteBackOnFlush() {
+        String shuffleId = "shuffle_cache_flush";
+        WriteBackCacheStorage storage = new WriteBackCacheStorage(rocksdbStorage, 100);
+        storage.putWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, createValues(3));
+
+        //只写了缓存
+        assertTrue(rocksdbStorage.multiGet(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, Arrays.asList("key_0")).isEmpty());
+
+        Map<String, WindowValue> result = storage.multiGet(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, Arrays.asList("key_0", "key_1", "key_3"));
+        assertEquals(2, result.size());
+        assertEquals(2, storage.getHitCount());
+        assertEquals(1, storage.getMissCount());
+
+        storage.flush(Collections.singletonList(shuffleId));
+        assertEquals(3, rocksdbStorage.multiGet(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, Arrays.asList("key_0", "key_1", "key_2")).size());
+        assertEquals(3, storage.getSpillCount());
+
+        //再次flush没有脏数据
+        storage.flush(Collections.singletonList(shuffleId));
+        assertEquals(3, storage.getSpillCount());
+
+        storage.clearCache(shuffleId);
+        assertEquals(0, storage.getSize());
+    }
+
+    @Test
+    public void testSpillOnEvictionAndScan() {
+        String shuffleId = "shuffle_cache_evict";
+        WriteBackCacheStorage storage = new WriteBackCacheStorage(rocksdbStorage, 2);
+        List<WindowBaseValue> values = createValues(3);
+        storage.putWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, values);
+
+        assertEquals(1, storage.getEvictionCount());
+        assertEquals(2, storage.getSize());
+        assertEquals(1, rocksdbStorage.multiGet(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, Arrays.asList("key_0", "key_1", "key_2")).size());
+
+        //命中时返回缓存中的对象
+        Map<String, WindowValue> result = storage.multiGet(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, Arrays.asList("key_2"));
+        assertSame(values.get(2), result.get("key_2"));
+
+        //扫描窗口实例（窗口触发）前写回脏数据
+        RocksdbIterator<WindowValue> iterator = storage.getWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null);
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(3, count);
+
+        storage.deleteWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null);
+        assertEquals(0, storage.getSize());
+        assertFalse(rocksdbStorage.getWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null).hasNext());
+    }
+
+    @Test
+    public void testKeepDirtyOnWriteError() {
+        String shuffleId = "shuffle_cache_error";
+        AtomicBoolean failWrite = new AtomicBoolean(true);
+        RocksdbStorage failStorage = new RocksdbStorage() {
+            @Override
+            public void putWindowBaseValue(String shuffleId, String windowInstanceId, WindowType windowType, WindowJoinType joinType,
+                List<WindowBaseValue> windowBaseValue) {
+                if (failWrite.get()) {
+                    throw new RuntimeException("mock write error");
+                }
+                super.putWindowBaseValue(shuffleId, windowInstanceId, windowType, joinType, windowBaseValue);
+            }
+        };
+        WriteBackCacheStorage storage = new WriteBackCacheStorage(failStorage, 100);
+        storage.putWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, createValues(3));
+        try {
+            storage.flush(Collections.singletonList(shuffleId));
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals(0, storage.getSpillCount());
+        }
+
+        //写入失败的脏数据还在，恢复后重新写入
+        failWrite.set(false);
+        storage.flush(Collections.singletonList(shuffleId));
+        assertEquals(3, storage.getSpillCount());
+        assertEquals(3, rocksdbStorage.multiGet(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, Arrays.asList("key_0", "key_1", "key_2")).size());
+    }
+
+    @Test
+    public void testSpillByPrefix() {
+        String shuffleId = "shuffle_cache_prefix";
+        WriteBackCacheStorage storage = new WriteBackCacheStorage(rocksdbStorage, 100);
+        List<WindowBaseValue> values = createValues(3);
+        for (int i = 0; i < 2; i++) {
+            WindowValue value = new WindowValue();
+            value.setWindowInstanceId("w1");
+            value.setMsgKey("other_" + i);
+            values.add(value);
+        }
+        storage.putWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, values);
+        storage.putWindowBaseValue(shuffleId, "w2", WindowType.NORMAL_WINDOW, null, createValues(2));
+
+        //按前缀查找只写下这个窗口实例中前缀匹配的脏数据
+        RocksdbIterator<WindowValue> iterator = storage.getWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, "key_");
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(3, count);
+        assertEquals(3, storage.getSpillCount());
+        assertTrue(rocksdbStorage.multiGet(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, Arrays.asList("other_0", "other_1")).isEmpty());
+        assertTrue(rocksdbStorage.multiGet(shuffleId, "w2", WindowType.NORMAL_WINDOW, null, Arrays.asList("key_0", "key_1")).isEmpty());
+
+        //再次查找没有脏数据，flush只写剩下的脏数据
+        storage.getWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, "key_");
+        assertEquals(3, storage.getSpillCount());
+        storage.flush(Collections.singletonList(shuffleId));
+        assertEquals(7, storage.getSpillCount());
+        assertEquals(2, rocksdbStorage.multiGet(shuffleId, "w1", WindowType.NORMAL_WINDOW, null, Arrays.asList("other_0", "other_1")).size());
+
+        storage.deleteWindowBaseValue(shuffleId, "w1", WindowType.NORMAL_WINDOW, null);
+        storage.deleteWindowBaseValue(shuffleId, "w2", WindowType.NORMAL_WINDOW, null);
+        storage.clearCache(shuffleId);
+    }
+
+    private List<WindowBaseValue> createValues(int count) {
+        List<WindowBaseValue> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            WindowValue value = new WindowValue();
+            value.setWindowInstanceId("w1");
+            value.setMsgKey("key_" + i);
+            values.add(value);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.streams.window.storage.rocksdb;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.apache.rocketmq.streams.window.storage.StateKey;
+import org.apache.rocketmq.streams.window.storage.WindowJoinType;
+import org.apache.rocketmq.streams.window.storage.WindowType;
+import org.junit.Test;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.WriteOptions;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KeyEncoderTest {
+
+    @Test
+    public void testPrefixNotMatchSiblingId() {
+        byte[] key = KeyEncoder.windowBaseValueKey("shuffle_001", "w10", WindowType.NORMAL_WINDOW, null, "k1");
+        assertTrue(StateKey.startsWith(key, KeyEncoder.windowBaseValuePrefix("shuffle_001", "w10", WindowType.NORMAL_WINDOW, null)));
+        assertFalse(StateKey.startsWith(key, KeyEncoder.windowBaseValuePrefix("shuffle_001", "w1", WindowType.NORMAL_WINDOW, null)));
+        assertFalse(StateKey.startsWith(key, KeyEncoder.windowBaseValuePrefix("shuffle_001", "w10", WindowType.SESSION_WINDOW, null)));
+
+        byte[] joinKey = KeyEncoder.windowBaseValueKey("shuffle_001", "w1", WindowType.JOIN_WINDOW, WindowJoinType.left, "m1");
+        assertFalse(StateKey.startsWith(joinKey, KeyEncoder.windowBaseValuePrefix("shuffle_001", "w1", WindowType.JOIN_WINDOW, WindowJoinType.right)));
+    }
+
+    @Test
+    public void testUtf8SameAsString() {
+        String msgKey = "中文;key😀@";
+        byte[] key = KeyEncoder.windowBaseValueKey("s", "w", WindowType.NORMAL_WINDOW, null, msgKey);
+        byte[] prefix = KeyEncoder.windowBaseValuePrefix("s", "w", WindowType.NORMAL_WINDOW, null);
+
+        byte[] expected = msgKey.getBytes(StandardCharsets.UTF_8);
+        assertEquals(prefix.length + expected.length, key.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], key[prefix.length + i]);
+        }
+    }
+
+    @Test
+    public void testConvertLegacyKey() {
+        LegacyKeyConverter.KeyValue keyValue = LegacyKeyConverter.convert("windowBaseValue@shuffle_001@w1@JOIN_WINDOW@right@m@1", new byte[] {1});
+        assertArrayEquals(KeyEncoder.windowBaseValueKey("shuffle_001", "w1", WindowType.JOIN_WINDOW, WindowJoinType.right, "m@1"), keyValue.getKey());
+
+        keyValue = LegacyKeyConverter.convert("maxOffset@shuffle_001@window@q1", "1650000000000@100".getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals(KeyEncoder.maxOffsetKey("shuffle_001", "window", "q1"), keyValue.getKey());
+        assertEquals("100", RocksdbStorage.decodeMaxOffset(keyValue.getValue()));
+
+        keyValue = LegacyKeyConverter.convert("maxPartitionNum@shuffle_001@w1", "1650000000000@7".getBytes(StandardCharsets.UTF_8));
+        assertEquals(7L, RocksdbStorage.decodeMaxPartitionNum(keyValue.getValue()));
+
+        assertArrayEquals(KeyEncoder.windowBaseValuePrefix("shuffle_001", "w1", WindowType.NORMAL_WINDOW, null),
+            LegacyKeyConverter.convertPrefix("windowBaseValue@shuffle_001@w1@NORMAL_WINDOW@"));
+        assertNull(LegacyKeyConverter.convert("other@key", null));
+    }
+
+    @Test
+    public void testMigrateLegacyDirectory() throws Exception {
+        File dir = Files.createTempDirectory("rocksdb_migrate").toFile();
+        try (Options options = new Options().setCreateIfMissing(true);
+             RocksDB rocksDB = RocksDB.open(options, dir.getAbsolutePath());
+             WriteOptions writeOptions = new WriteOptions()) {
+            rocksDB.put("windowBaseValue@shuffle_001@w1@NORMAL_WINDOW@k1".getBytes(StandardCharsets.UTF_8), new byte[] {1, 2});
+            rocksDB.put("maxPartitionNum@shuffle_001@w1".getBytes(StandardCharsets.UTF_8), "1650000000000@3".getBytes(StandardCharsets.UTF_8));
+            //其他组件写入的key和无法转换的key不能被删除
+            rocksDB.put("state;namespace;k1".getBytes(StandardCharsets.UTF_8), new byte[] {3});
+            rocksDB.put("windowInstance@bad".getBytes(StandardCharsets.UTF_8), new byte[] {4});
+
+            LegacyKeyConverter.migrate(rocksDB, writeOptions);
+
+            assertNull(rocksDB.get("windowBaseValue@shuffle_001@w1@NORMAL_WINDOW@k1".getBytes(StandardCharsets.UTF_8)));
+            assertArrayEquals(new byte[] {1, 2}, rocksDB.get(KeyEncoder.windowBaseValueKey("shuffle_001", "w1", WindowType.NORMAL_WINDOW, null, "k1")));
+            assertEquals(3L, RocksdbStorage.decodeMaxPartitionNum(rocksDB.get(KeyEncoder.maxPartitionNumKey("shuffle_001", "w1"))));
+            assertArrayEquals(new byte[] {3}, rocksDB.get("state;namespace;k1".getBytes(StandardCharsets.UTF_8)));
+            assertArrayEquals(new byte[] {4}, rocksDB.get("windowInstance@bad".getBytes(StandardCharsets.UTF_8)));
+            assertNotNull(rocksDB.get(KeyEncoder.metaKey("format")));
+        }
+    }
+}